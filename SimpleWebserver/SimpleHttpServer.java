@@ -1,19 +1,111 @@
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
 
 import java.io.*;
 import java.net.InetSocketAddress;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
 
 public class SimpleHttpServer {
+
+    /** How files above the streaming threshold are written to the client. */
+    enum StreamMode {
+        /** Read the whole file into a heap array per request (the development behaviour). */
+        OFF,
+        /**
+         * {@link FileChannel#transferTo} into the response body. The body is a stream, not
+         * a socket channel, so this is not zero-copy: the JDK copies through a small
+         * reused buffer. What it saves is the per-request array the size of the file.
+         */
+        TRANSFER,
+        /**
+         * Map the file once in chunks and write the mapped buffers. The mapping is reused
+         * by every request for that file until its size or modification time changes.
+         */
+        MMAP
+    }
+
+    static class Options {
+        int port = 8080;
+        Path root = Paths.get(".");
+        boolean production;
+        int threads;
+        /** Files above this size are streamed from disk instead of being cached in memory. */
+        long streamThreshold = 256 * 1024;
+        StreamMode streamMode = StreamMode.TRANSFER;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if (arg.equals("--prod")) {
+                    options.production = true;
+                } else if (arg.startsWith("--port=")) {
+                    options.port = Integer.parseInt(arg.substring("--port=".length()));
+                } else if (arg.startsWith("--root=")) {
+                    options.root = Paths.get(arg.substring("--root=".length()));
+                } else if (arg.startsWith("--threads=")) {
+                    options.threads = Integer.parseInt(arg.substring("--threads=".length()));
+                } else if (arg.startsWith("--stream-threshold=")) {
+                    options.streamThreshold = Long.parseLong(arg.substring("--stream-threshold=".length()));
+                } else if (arg.startsWith("--stream=")) {
+                    options.streamMode = StreamMode.valueOf(arg.substring("--stream=".length()).toUpperCase(Locale.ROOT));
+                }
+            }
+            return options;
+        }
+    }
+
     public static void main(String[] args) throws IOException {
-        HttpServer server = HttpServer.create(new InetSocketAddress(8080), 0);
-        server.createContext("/", new MyHandler());
-        server.setExecutor(null);
+        Options options = Options.parse(args);
+        start(options);
+        System.out.println("Server running at http://localhost:" + options.port + "/recaptcha.html"
+                + (options.production ? " (production mode)" : ""));
+    }
+
+    /**
+     * Starts the server. Development mode reads files from disk on every request on a
+     * single thread. Production mode serves small files from a preloaded, watched
+     * in-memory cache and streams larger ones from disk, on virtual threads or on a
+     * fixed pool of {@code threads} if that is positive.
+     */
+    static HttpServer start(Options options) throws IOException {
+        // Headers and body are separate writes; without TCP_NODELAY small responses stall
+        // on Nagle plus delayed ACK (~40 ms each). Only effective before the first server starts.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(options.port), options.production ? 1024 : 0);
+        if (options.production) {
+            StaticCache cache = new StaticCache(options.root.toAbsolutePath().normalize(), options.streamThreshold);
+            cache.preload();
+            cache.watch();
+            server.createContext("/", new CachedHandler(cache, options.streamMode));
+            ExecutorService executor = options.threads > 0
+                    ? Executors.newFixedThreadPool(options.threads)
+                    : Executors.newVirtualThreadPerTaskExecutor();
+            server.setExecutor(executor);
+        } else {
+            server.createContext("/", new MyHandler());
+            server.setExecutor(null);
+        }
         server.start();
-        System.out.println("Server running at http://localhost:8080/recaptcha.html");
+        return server;
     }
 
     static class MyHandler implements HttpHandler {
@@ -40,4 +132,458 @@ public class SimpleHttpServer {
             os.close();
         }
     }
+
+    /**
+     * Production handler: answers from {@link StaticCache} with Content-Type, ETag based
+     * 304s, gzip when the client accepts it and single-range requests. Files too large
+     * for the cache are streamed from disk according to the {@link StreamMode}, so heap
+     * use does not grow with file size. Every response has a fixed length, so the
+     * connection stays open for the next request.
+     */
+    static class CachedHandler implements HttpHandler {
+        private static final long MMAP_CHUNK = 4 * 1024 * 1024;
+
+        private final StaticCache cache;
+        private final StreamMode streamMode;
+        // One mapping per streamed file; a mapping is only released by GC, so never make one per request
+        private final ConcurrentHashMap<Path, Mapping> mappings = new ConcurrentHashMap<>();
+
+        /** A streamed file mapped in {@link #MMAP_CHUNK} pieces, valid while size and mtime match. */
+        private record Mapping(long size, long modified, MappedByteBuffer[] chunks) {
+        }
+
+        CachedHandler(StaticCache cache, StreamMode streamMode) {
+            this.cache = cache;
+            this.streamMode = streamMode;
+        }
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try (exchange) {
+                String method = exchange.getRequestMethod();
+                boolean head = method.equals("HEAD");
+                if (!head && !method.equals("GET")) {
+                    exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                    sendText(exchange, 405, "405 Method Not Allowed");
+                    return;
+                }
+
+                String uriPath = exchange.getRequestURI().getPath();
+                if (uriPath.equals("/")) {
+                    uriPath = "/recaptcha.html";
+                }
+                Path file = cache.resolve(uriPath);
+                if (file == null || !Files.isRegularFile(file)) {
+                    sendText(exchange, 404, "404 Not Found");
+                    return;
+                }
+
+                Headers headers = exchange.getResponseHeaders();
+                headers.set("Accept-Ranges", "bytes");
+                StaticCache.Entry entry = cache.get(file);
+                if (entry == null) {
+                    streamFile(exchange, file, head);
+                    return;
+                }
+
+                // Ranges are served from the identity bytes, so only a full body may be gzipped
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                boolean gzip = entry.gzipped != null && acceptEncoding != null && acceptEncoding.contains("gzip")
+                        && exchange.getRequestHeaders().getFirst("Range") == null;
+                // The gzip body is a different representation and needs its own strong tag
+                String etag = gzip ? entry.gzipEtag : entry.etag;
+                headers.set("Content-Type", entry.contentType);
+                headers.set("ETag", etag);
+                headers.set("Cache-Control", "no-cache");
+                headers.set("Vary", "Accept-Encoding");
+                if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+
+                long[] range = parseRange(exchange, entry.bytes.length);
+                if (range == null) {
+                    sendUnsatisfiable(exchange, entry.bytes.length);
+                    return;
+                }
+                if (range.length == 2) {
+                    sendPartial(exchange, head, entry.bytes.length, range);
+                    if (!head) {
+                        exchange.getResponseBody().write(entry.bytes, (int) range[0], (int) (range[1] - range[0] + 1));
+                    }
+                    return;
+                }
+
+                byte[] body = entry.bytes;
+                if (gzip) {
+                    headers.set("Content-Encoding", "gzip");
+                    body = entry.gzipped;
+                }
+                sendBody(exchange, 200, head, body);
+            }
+        }
+
+        private void streamFile(HttpExchange exchange, Path file, boolean head) throws IOException {
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", StaticCache.contentType(file));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                long modified = Files.getLastModifiedTime(file).toMillis();
+                String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"";
+                headers.set("ETag", etag);
+                headers.set("Cache-Control", "no-cache");
+                if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+
+                long[] range = parseRange(exchange, size);
+                if (range == null) {
+                    sendUnsatisfiable(exchange, size);
+                    return;
+                }
+                long start = 0;
+                long length = size;
+                if (range.length == 2) {
+                    sendPartial(exchange, head, size, range);
+                    start = range[0];
+                    length = range[1] - range[0] + 1;
+                } else if (head) {
+                    headers.set("Content-Length", String.valueOf(size));
+                    exchange.sendResponseHeaders(200, -1);
+                } else if (streamMode == StreamMode.OFF) {
+                    sendBody(exchange, 200, false, Files.readAllBytes(file));
+                    return;
+                } else {
+                    exchange.sendResponseHeaders(200, size);
+                }
+                if (!head) {
+                    writeRegion(file, channel, size, modified, start, length, exchange.getResponseBody());
+                }
+            }
+        }
+
+        private void writeRegion(Path file, FileChannel channel, long size, long modified, long position, long count,
+                                 OutputStream body) throws IOException {
+            WritableByteChannel target = Channels.newChannel(body);
+            long end = position + count;
+            if (streamMode == StreamMode.MMAP) {
+                MappedByteBuffer[] chunks = mapping(file, channel, size, modified).chunks();
+                while (position < end) {
+                    int index = (int) (position / MMAP_CHUNK);
+                    int offset = (int) (position % MMAP_CHUNK);
+                    ByteBuffer region = chunks[index].duplicate();
+                    region.position(offset).limit((int) Math.min(region.capacity(), offset + end - position));
+                    position += region.remaining();
+                    while (region.hasRemaining()) {
+                        target.write(region);
+                    }
+                }
+            } else if (streamMode == StreamMode.TRANSFER) {
+                while (position < end) {
+                    long sent = channel.transferTo(position, end - position, target);
+                    if (sent <= 0) {
+                        throw new EOFException("File shrank while it was being sent");
+                    }
+                    position += sent;
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, 64 * 1024));
+                while (position < end) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        throw new EOFException("File shrank while it was being sent");
+                    }
+                    buffer.flip();
+                    target.write(buffer);
+                    position += read;
+                }
+            }
+        }
+
+        private Mapping mapping(Path file, FileChannel channel, long size, long modified) throws IOException {
+            Mapping current = mappings.get(file);
+            if (current != null && current.size() == size && current.modified() == modified) {
+                return current;
+            }
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + MMAP_CHUNK - 1) / MMAP_CHUNK)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = i * MMAP_CHUNK;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MMAP_CHUNK, size - start));
+            }
+            // Two requests racing here map twice; the loser's mapping is dropped at once
+            Mapping fresh = new Mapping(size, modified, chunks);
+            mappings.put(file, fresh);
+            return fresh;
+        }
+
+        /**
+         * @return an empty array for a full response, {start, end} (inclusive) for a
+         *         single satisfiable range, or null if the range cannot be satisfied.
+         *         Multi-range and malformed headers fall back to a full response.
+         */
+        static long[] parseRange(HttpExchange exchange, long size) {
+            String header = exchange.getRequestHeaders().getFirst("Range");
+            if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+                return new long[0];
+            }
+            String spec = header.substring("bytes=".length()).trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return new long[0];
+            }
+            try {
+                long start;
+                long end;
+                if (dash == 0) {
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix == 0) {
+                        return null;
+                    }
+                    start = Math.max(0, size - suffix);
+                    end = size - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    end = dash == spec.length() - 1 ? size - 1 : Math.min(size - 1, Long.parseLong(spec.substring(dash + 1)));
+                }
+                if (start >= size || start > end) {
+                    return null;
+                }
+                return new long[] {start, end};
+            } catch (NumberFormatException e) {
+                return new long[0];
+            }
+        }
+
+        private static void sendPartial(HttpExchange exchange, boolean head, long size, long[] range) throws IOException {
+            long length = range[1] - range[0] + 1;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+            if (head) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+                exchange.sendResponseHeaders(206, -1);
+            } else {
+                exchange.sendResponseHeaders(206, length);
+            }
+        }
+
+        private static void sendUnsatisfiable(HttpExchange exchange, long size) throws IOException {
+            exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+            exchange.sendResponseHeaders(416, -1);
+        }
+
+        private static boolean matches(String ifNoneMatch, String etag) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static void sendBody(HttpExchange exchange, int status, boolean head, byte[] body) throws IOException {
+            if (head) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+                exchange.sendResponseHeaders(status, -1);
+            } else {
+                exchange.sendResponseHeaders(status, body.length);
+                exchange.getResponseBody().write(body);
+            }
+        }
+
+        private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+            byte[] body = text.getBytes();
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    /**
+     * File bytes held in memory with a precomputed gzip variant and ETag. Entries are
+     * dropped when a {@link WatchService} reports the file changed and reloaded on the
+     * next request. A load only stores its entry if the file's size and modification time
+     * are unchanged at that moment, so bytes read before a change cannot outlive the
+     * watcher's removal.
+     */
+    static class StaticCache {
+
+        static final class Entry {
+            final byte[] bytes;
+            final byte[] gzipped;
+            final String etag;
+            final String gzipEtag;
+            final String contentType;
+
+            Entry(byte[] bytes, byte[] gzipped, String etag, String contentType) {
+                this.bytes = bytes;
+                this.gzipped = gzipped;
+                this.etag = etag;
+                this.gzipEtag = etag.substring(0, etag.length() - 1) + "-gz\"";
+                this.contentType = contentType;
+            }
+        }
+
+        private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+                Map.entry("html", "text/html; charset=utf-8"),
+                Map.entry("htm", "text/html; charset=utf-8"),
+                Map.entry("css", "text/css; charset=utf-8"),
+                Map.entry("js", "text/javascript; charset=utf-8"),
+                Map.entry("json", "application/json"),
+                Map.entry("txt", "text/plain; charset=utf-8"),
+                Map.entry("svg", "image/svg+xml"),
+                Map.entry("png", "image/png"),
+                Map.entry("jpg", "image/jpeg"),
+                Map.entry("jpeg", "image/jpeg"),
+                Map.entry("gif", "image/gif"),
+                Map.entry("ico", "image/x-icon"),
+                Map.entry("woff2", "font/woff2"));
+
+        private final Path root;
+        private final long maxFileBytes;
+        private final ConcurrentHashMap<Path, Entry> entries = new ConcurrentHashMap<>();
+
+        StaticCache(Path root, long maxFileBytes) {
+            this.root = root;
+            this.maxFileBytes = maxFileBytes;
+        }
+
+        /** Maps a request path onto a file under the root, or null if it escapes the root. */
+        Path resolve(String uriPath) {
+            Path file = root.resolve(uriPath.substring(1)).normalize();
+            return file.startsWith(root) ? file : null;
+        }
+
+        /** Returns the cached entry, loading it on a miss; null if the file is too large to cache. */
+        Entry get(Path file) throws IOException {
+            Entry entry = entries.get(file);
+            if (entry != null) {
+                return entry;
+            }
+            BasicFileAttributes before = Files.readAttributes(file, BasicFileAttributes.class);
+            Entry loaded = load(file, before.size());
+            if (loaded == null) {
+                return null;
+            }
+            // Checked under the map's lock for this key: a change after the check is
+            // removed by the watcher after this put, one before it is seen here
+            entries.compute(file, (k, current) -> current != null ? current
+                    : unchanged(file, before) ? loaded : null);
+            return loaded;
+        }
+
+        private static boolean unchanged(Path file, BasicFileAttributes before) {
+            try {
+                BasicFileAttributes now = Files.readAttributes(file, BasicFileAttributes.class);
+                return now.size() == before.size() && now.lastModifiedTime().equals(before.lastModifiedTime());
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void preload() throws IOException {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    get(file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        void watch() throws IOException {
+            WatchService watcher = root.getFileSystem().newWatchService();
+            register(watcher, root);
+            Thread thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        WatchKey key = watcher.take();
+                        Path dir = (Path) key.watchable();
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                                entries.clear();
+                            } else {
+                                Path changed = dir.resolve((Path) event.context()).normalize();
+                                entries.remove(changed);
+                                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                                        && Files.isDirectory(changed, LinkOption.NOFOLLOW_LINKS)) {
+                                    registerQuietly(watcher, changed);
+                                }
+                            }
+                        }
+                        key.reset();
+                    }
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    // server is shutting down
+                }
+            }, "static-cache-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private static void register(WatchService watcher, Path start) throws IOException {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        // A directory created after watch() started; whatever was cached from it before
+        // the registration may have changed unseen
+        private void registerQuietly(WatchService watcher, Path dir) {
+            try {
+                register(watcher, dir);
+                entries.keySet().removeIf(path -> path.startsWith(dir));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private Entry load(Path file, long size) throws IOException {
+            if (size > maxFileBytes) {
+                return null;
+            }
+            byte[] bytes = Files.readAllBytes(file);
+            String contentType = contentType(file);
+            byte[] gzipped = null;
+            if (isCompressible(contentType)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                    gzip.write(bytes);
+                }
+                if (out.size() < bytes.length) {
+                    gzipped = out.toByteArray();
+                }
+            }
+            return new Entry(bytes, gzipped, etag(bytes), contentType);
+        }
+
+        static String contentType(Path file) {
+            String name = file.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            String type = dot < 0 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+            return type != null ? type : "application/octet-stream";
+        }
+
+        private static boolean isCompressible(String contentType) {
+            return contentType.startsWith("text/") || contentType.startsWith("application/json")
+                    || contentType.startsWith("image/svg");
+        }
+
+        static String etag(byte[] bytes) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+                return "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"";
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
 }
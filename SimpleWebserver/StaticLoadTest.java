@@ -0,0 +1,182 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test for {@link SimpleHttpServer} production mode. Starts the server in-process
+ * on a temporary directory holding one small page and one large asset, then hammers the
+ * large asset from keep-alive clients in each {@link SimpleHttpServer.StreamMode} and
+ * reports throughput, GC activity and peak heap use.
+ *
+ * The clients are plain sockets reading into a reused buffer, so nearly all allocation
+ * and GC activity measured comes from the server. Run with a modest heap (e.g.
+ * {@code -Xmx256m}) to see the difference clearly.
+ *
+ * Usage: {@code java StaticLoadTest [clients=16] [seconds=10] [sizeMB=32]}
+ */
+public class StaticLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int clients = intArg(args, "clients", 16);
+        int seconds = intArg(args, "seconds", 10);
+        int sizeMB = intArg(args, "sizeMB", 32);
+
+        Path root = Files.createTempDirectory("static-load");
+        Files.writeString(root.resolve("recaptcha.html"), "<html><body>captcha</body></html>");
+        byte[] asset = new byte[sizeMB * 1024 * 1024];
+        new Random(42).nextBytes(asset);
+        Files.write(root.resolve("bundle.bin"), asset);
+        asset = null;
+
+        System.out.printf("%-9s %10s %10s %8s %10s %12s%n", "mode", "req/s", "MB/s", "GCs", "GC ms", "peak heap MB");
+        int port = 18080;
+        for (SimpleHttpServer.StreamMode mode : SimpleHttpServer.StreamMode.values()) {
+            SimpleHttpServer.Options options = new SimpleHttpServer.Options();
+            options.port = port++;
+            options.root = root;
+            options.production = true;
+            options.streamMode = mode;
+            HttpServer server = SimpleHttpServer.start(options);
+            try {
+                run(mode, options.port, clients, 2, false);
+                run(mode, options.port, clients, seconds, true);
+            } finally {
+                server.stop(0);
+            }
+        }
+    }
+
+    private static void run(SimpleHttpServer.StreamMode mode, int port, int clients, int seconds, boolean report)
+            throws Exception {
+        LongAdder requests = new LongAdder();
+        LongAdder bytes = new LongAdder();
+        AtomicLong failures = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(clients);
+
+        System.gc();
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTime();
+        resetPeakHeap();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < clients; i++) {
+            Thread.ofPlatform().daemon().start(() -> {
+                byte[] buffer = new byte[64 * 1024];
+                try (Socket socket = new Socket("localhost", port)) {
+                    InputStream in = new BufferedInputStream(socket.getInputStream());
+                    OutputStream out = socket.getOutputStream();
+                    byte[] request = ("GET /bundle.bin HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+                    while (System.nanoTime() < deadline) {
+                        out.write(request);
+                        out.flush();
+                        long length = readHeaders(in);
+                        long remaining = length;
+                        while (remaining > 0) {
+                            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                            if (n < 0) {
+                                throw new EOFException();
+                            }
+                            remaining -= n;
+                        }
+                        requests.increment();
+                        bytes.add(length);
+                    }
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        if (report) {
+            System.out.printf("%-9s %10.1f %10.1f %8d %10d %12.1f%s%n", mode,
+                    requests.sum() / elapsed, bytes.sum() / 1048576.0 / elapsed,
+                    gcCount() - gcCountBefore, gcTime() - gcTimeBefore,
+                    peakHeapBytes() / 1048576.0,
+                    failures.get() > 0 ? "  (" + failures.get() + " client failures)" : "");
+        }
+    }
+
+    // Reads a response head and returns its Content-Length
+    private static long readHeaders(InputStream in) throws IOException {
+        long length = -1;
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            int c = in.read();
+            if (c < 0) {
+                throw new EOFException();
+            }
+            if (c == '\n') {
+                if (line.length() == 0) {
+                    return length;
+                }
+                String header = line.toString();
+                if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    length = Long.parseLong(header.substring(15).trim());
+                }
+                line.setLength(0);
+            } else if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeapBytes() {
+        long total = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                total += pool.getPeakUsage().getUsed();
+            }
+        }
+        return total;
+    }
+
+    private static int intArg(String[] args, String name, int defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) {
+                return Integer.parseInt(arg.substring(name.length() + 1));
+            }
+        }
+        return defaultValue;
+    }
+}
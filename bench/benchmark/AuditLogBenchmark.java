@@ -0,0 +1,152 @@
+package benchmark;
+
+import audit.AuditEvent;
+import audit.AuditLog;
+import audit.AuditSink;
+import audit.MappedFileAuditSink;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of {@link AuditLog}: producer threads record events as fast as they can
+ * while the drainer writes them, and the clock stops when every event is stored (or
+ * counted as dropped). Each producer times one call in 64, which gives the latency
+ * columns. Run for each backpressure policy against a sink that discards batches, then
+ * against memory-mapped files with and without a flush per batch, blocking so the
+ * number is what the files sustain. Spilled events only count once replayed, and
+ * replay parses text, so SPILL runs that overflow are bound by the replay rate.
+ *
+ * A single-threaded run through {@link Bench#run} first shows the allocation per
+ * {@link AuditLog#record} call. The harness' own sample array costs some bytes per op at
+ * these rates, so compare it with the empty baseline run: the difference should be 0.
+ *
+ * Usage: {@code AuditLogBenchmark [events=2000000] [producers=1,4,8] [capacity=65536] [dir=build/bench/audit] [json=FILE]}
+ */
+public class AuditLogBenchmark {
+
+    private static final int SAMPLE_EVERY = 64;
+
+    /** Counts and forgets; measures the ring and drainer alone. */
+    static final class NullSink implements AuditSink {
+        @Override
+        public void write(AuditEvent[] events, int count) {
+            Bench.sink = events[count - 1];
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long warmup = Bench.longArg(args, "warmupMs", 1_000);
+        long measure = Bench.longArg(args, "measureMs", 3_000);
+        int events = (int) Bench.longArg(args, "events", 2_000_000);
+        int capacity = (int) Bench.longArg(args, "capacity", 65_536);
+        int[] producers = Arrays.stream(Bench.stringArg(args, "producers", "1,4,8").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        Path dir = Paths.get(Bench.stringArg(args, "dir", "build/bench/audit"));
+        deleteTree(dir);
+
+        List<Bench.Result> results = new ArrayList<>();
+        results.add(Bench.run("baseline (empty op)", warmup, measure, () -> null));
+        try (AuditLog log = new AuditLog(new NullSink(), capacity, 512, AuditLog.Backpressure.BLOCK,
+                dir.resolve("single.spill"), 5_000)) {
+            results.add(Bench.run("record, 1 thread, null sink", warmup, measure, () -> {
+                log.record(AuditEvent.Type.LOGIN, "alice", "10.0.0.7", "SUCCESS");
+                return null;
+            }));
+        }
+
+        for (AuditLog.Backpressure policy : AuditLog.Backpressure.values()) {
+            for (int threads : producers) {
+                results.add(run("null sink, " + policy + ", " + threads + " producers", new NullSink(), capacity,
+                        policy, dir.resolve(policy + "-" + threads + ".spill"), threads, events));
+            }
+        }
+        for (boolean force : new boolean[] {false, true}) {
+            int threads = producers[producers.length - 1];
+            Path files = dir.resolve("files-force-" + force);
+            results.add(run("mapped files force=" + force + ", BLOCK, " + threads + " producers",
+                    new MappedFileAuditSink(files, 64 << 20, force), capacity, AuditLog.Backpressure.BLOCK,
+                    files.resolve("spill.log"), threads, events));
+            System.out.printf("mapped files force=%s: %d MB written%n", force, treeSize(files) >> 20);
+        }
+        Bench.report("audit-log", args, results);
+    }
+
+    static Bench.Result run(String name, AuditSink sink, int capacity, AuditLog.Backpressure policy, Path spill,
+                            int threads, int events) throws Exception {
+        int perThread = events / threads;
+        long total = (long) perThread * threads;
+        long[][] samples = new long[threads][perThread / SAMPLE_EVERY + 1];
+        AuditLog.Stats stats;
+        long elapsed;
+        try (AuditLog log = new AuditLog(sink, capacity, 512, policy, spill, 30_000)) {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long[] mine = samples[t];
+                String client = "10.0.0." + t;
+                workers.add(Thread.ofPlatform().start(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        if (i % SAMPLE_EVERY == 0) {
+                            long t0 = System.nanoTime();
+                            log.record(AuditEvent.Type.LOGIN, "alice", client, "SUCCESS");
+                            mine[i / SAMPLE_EVERY] = System.nanoTime() - t0;
+                        } else {
+                            log.record(AuditEvent.Type.LOGIN, "alice", client, "SUCCESS");
+                        }
+                    }
+                }));
+            }
+            long t0 = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            // Spilled events count once the drainer has replayed them
+            do {
+                Thread.onSpinWait();
+                stats = log.getStats();
+            } while (stats.written() + stats.dropped() < total);
+            elapsed = System.nanoTime() - t0;
+        }
+        System.out.printf("%-50s %s%n", name, stats);
+
+        long[] sorted = Arrays.stream(samples).flatMapToLong(Arrays::stream).filter(v -> v > 0).sorted().toArray();
+        return new Bench.Result(name, total, total / (elapsed / 1e9),
+                Bench.percentile(sorted, 0.50) / 1e3, Bench.percentile(sorted, 0.99) / 1e3,
+                sorted[sorted.length - 1] / 1e3, 0);
+    }
+
+    private static long treeSize(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+}
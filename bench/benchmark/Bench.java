@@ -0,0 +1,145 @@
+package benchmark;
+
+import auth.Json;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A small benchmark harness: warms an operation up, then runs it for a fixed time on the
+ * calling thread and reports throughput, latency percentiles and bytes allocated per op.
+ *
+ * Every benchmark accepts {@code warmupMs=}, {@code measureMs=} and {@code json=FILE};
+ * with {@code json} the results are also written as a JSON document that can be diffed
+ * between releases.
+ */
+public final class Bench {
+
+    /** One operation under test. */
+    public interface Op {
+        Object run() throws Exception;
+    }
+
+    public record Result(String name, long ops, double opsPerSecond, double p50Micros, double p99Micros,
+                         double maxMicros, double bytesPerOp) {
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %10.1f ops/s  p50 %10.1f us  p99 %10.1f us  max %10.1f us  %12.0f B/op",
+                    name, opsPerSecond, p50Micros, p99Micros, maxMicros, bytesPerOp);
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Results are written here so the JIT cannot discard the work
+    public static volatile Object sink;
+
+    static {
+        // Stub and static servers in the same JVM must not stall on Nagle plus delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private Bench() {
+    }
+
+    public static Result run(String name, long warmupMillis, long measureMillis, Op op) throws Exception {
+        long warmupEnd = System.nanoTime() + warmupMillis * 1_000_000;
+        while (System.nanoTime() < warmupEnd) {
+            sink = op.run();
+        }
+
+        long[] samples = new long[1 << 16];
+        int count = 0;
+        long threadId = Thread.currentThread().threadId();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long end = start + measureMillis * 1_000_000;
+        long now = start;
+        while (now < end) {
+            long t0 = System.nanoTime();
+            sink = op.run();
+            now = System.nanoTime();
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = now - t0;
+        }
+        long allocated = THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        double seconds = (now - start) / 1e9;
+
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return new Result(name, count, count / seconds,
+                percentile(sorted, 0.50) / 1e3, percentile(sorted, 0.99) / 1e3, sorted[count - 1] / 1e3,
+                (double) allocated / count);
+    }
+
+    static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Prints the results and, if {@code json=FILE} was given, writes them there.
+     */
+    public static void report(String suite, String[] args, List<Result> results) throws IOException {
+        results.forEach(System.out::println);
+        String file = stringArg(args, "json", null);
+        if (file != null) {
+            Path path = Paths.get(file);
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            Files.writeString(path, toJson(suite, results));
+            System.out.println("Results written to " + path.toAbsolutePath());
+        }
+    }
+
+    static String toJson(String suite, List<Result> results) {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"suite\": ").append(Json.quote(suite)).append(",\n");
+        sb.append("  \"timestamp\": ").append(Json.quote(Instant.now().toString())).append(",\n");
+        sb.append("  \"java\": ").append(Json.quote(System.getProperty("java.vm.name") + " "
+                + System.getProperty("java.version"))).append(",\n");
+        sb.append("  \"cpus\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        sb.append("  \"results\": [");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append(String.format(Locale.ROOT,
+                    "    {\"name\": %s, \"ops\": %d, \"opsPerSecond\": %.3f, \"p50Micros\": %.3f, "
+                            + "\"p99Micros\": %.3f, \"maxMicros\": %.3f, \"bytesPerOp\": %.1f}",
+                    Json.quote(r.name()), r.ops(), r.opsPerSecond(), r.p50Micros(), r.p99Micros(),
+                    r.maxMicros(), r.bytesPerOp()));
+        }
+        return sb.append(results.isEmpty() ? "]\n}\n" : "\n  ]\n}\n").toString();
+    }
+
+    public static String stringArg(String[] args, String name, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) {
+                return arg.substring(name.length() + 1);
+            }
+        }
+        return defaultValue;
+    }
+
+    public static long longArg(String[] args, String name, long defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) {
+                return Long.parseLong(arg.substring(name.length() + 1));
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,39 @@
+package benchmark;
+
+import database.DBConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs every hot-path benchmark (password hashing, login lookup, captcha, static server)
+ * and writes one JSON report, {@code build/bench/results.json} unless {@code json=} says
+ * otherwise. Compare two reports to spot regressions between releases.
+ *
+ * Usage: {@code BenchmarkSuite [warmupMs=1000] [measureMs=3000] [users=10000] [json=FILE]}
+ */
+public class BenchmarkSuite {
+
+    public static void main(String[] args) throws Exception {
+        long warmup = Bench.longArg(args, "warmupMs", 1_000);
+        long measure = Bench.longArg(args, "measureMs", 3_000);
+        List<Bench.Result> results = new ArrayList<>();
+        try {
+            results.addAll(PasswordBenchmark.run(warmup, measure));
+            results.addAll(LoginLookupBenchmark.run(warmup, measure, (int) Bench.longArg(args, "users", 10_000)));
+            results.addAll(CaptchaBenchmark.run(warmup, measure));
+            results.addAll(StaticServerBenchmark.run(warmup, measure));
+        } finally {
+            DBConnection.shutdown();
+        }
+
+        String[] withDefaultJson = Bench.stringArg(args, "json", null) != null ? args : append(args, "json=build/bench/results.json");
+        Bench.report("hot-path", withDefaultJson, results);
+    }
+
+    private static String[] append(String[] args, String extra) {
+        String[] copy = Arrays.copyOf(args, args.length + 1);
+        copy[args.length] = extra;
+        return copy;
+    }
+}
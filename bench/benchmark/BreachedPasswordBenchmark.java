@@ -0,0 +1,121 @@
+package benchmark;
+
+import auth.BreachedPasswordBuilder;
+import auth.BreachedPasswords;
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Builds a {@link BreachedPasswords} index from a synthetic dump of {@code entries}
+ * passwords, in runs a quarter of that size so the external merge is exercised, then
+ * times lookups of passwords that are in it and of ones that are not. The single-thread
+ * runs show the allocation per lookup, which should be 0 apart from the harness' own
+ * sample array. The lookup rate is then measured from 1 to {@code maxThreads} threads;
+ * with the index in the page cache it should grow with the thread count up to the
+ * number of cores.
+ *
+ * Usage: {@code BreachedPasswordBenchmark [entries=4000000] [warmupMs=1000] [measureMs=3000] [seconds=2] [maxThreads=16] [dir=build/bench/breached] [json=FILE]}
+ */
+public class BreachedPasswordBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int entries = (int) Bench.longArg(args, "entries", 4_000_000);
+        long warmup = Bench.longArg(args, "warmupMs", 1_000);
+        long measure = Bench.longArg(args, "measureMs", 3_000);
+        long seconds = Bench.longArg(args, "seconds", 2);
+        int maxThreads = (int) Bench.longArg(args, "maxThreads", 16);
+        Path dir = Paths.get(Bench.stringArg(args, "dir", "build/bench/breached"));
+        Files.createDirectories(dir);
+        Path dump = dir.resolve("dump.txt");
+        Path index = dir.resolve("breached.idx");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(dump, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < entries; i++) {
+                writer.write(password(i));
+                writer.newLine();
+            }
+        }
+        long start = System.nanoTime();
+        BreachedPasswordBuilder.build(dump, index, true, Math.max(1, entries / 4), dir);
+        System.out.printf("built %d entries in %.1f s, %.1f bytes per entry%n", entries,
+                (System.nanoTime() - start) / 1e9, (double) Files.size(index) / entries);
+        Files.delete(dump);
+
+        String[] hits = new String[1 << 16];
+        String[] misses = new String[hits.length];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = password(random.nextInt(entries));
+            misses[i] = "not-breached-" + random.nextInt();
+        }
+
+        List<Bench.Result> results = new ArrayList<>();
+        try (BreachedPasswords breached = BreachedPasswords.open(index)) {
+            for (int i = 0; i < hits.length; i++) {
+                if (!breached.contains(hits[i])) {
+                    throw new IllegalStateException(hits[i] + " is missing from the index");
+                }
+            }
+            int[] next = new int[1];
+            results.add(Bench.run("contains (hit)", warmup, measure,
+                    () -> breached.contains(hits[next[0]++ & (hits.length - 1)])));
+            results.add(Bench.run("contains (miss)", warmup, measure,
+                    () -> breached.contains(misses[next[0]++ & (misses.length - 1)])));
+
+            System.out.printf("%8s %16s %20s%n", "threads", "lookups/s", "ns/lookup/thread");
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                double rate = scale(breached, hits, misses, threads, seconds);
+                System.out.printf("%8d %,16.0f %20.1f%n", threads, rate, threads * 1e9 / rate);
+            }
+        }
+        Bench.report("breached-passwords", args, results);
+    }
+
+    private static String password(int i) {
+        return "password" + i;
+    }
+
+    private static double scale(BreachedPasswords breached, String[] hits, String[] misses, int threads, long seconds)
+            throws InterruptedException {
+        LongAdder lookups = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long[] deadline = new long[1];
+        for (int t = 0; t < threads; t++) {
+            Thread.ofPlatform().daemon().start(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long local = 0;
+                boolean found = false;
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline[0]) {
+                        for (int i = 0; i < 256; i++) {
+                            int k = random.nextInt(hits.length);
+                            found ^= breached.contains((k & 1) == 0 ? hits[k] : misses[k]);
+                        }
+                        local += 256;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    lookups.add(local);
+                    Bench.sink = found;
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + seconds * 1_000_000_000L;
+        start.countDown();
+        done.await();
+        return lookups.sum() / ((System.nanoTime() - begin) / 1e9);
+    }
+}
@@ -0,0 +1,65 @@
+package benchmark;
+
+import auth.CaptchaVerifier;
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link CaptchaVerifier} against a local stub of the siteverify endpoint, so the number
+ * measures the client (HTTP/2 setup, request, JSON parse, cache) rather than Google.
+ * Fresh tokens go over the wire; a repeated token is answered from the cache.
+ *
+ * Usage: {@code CaptchaBenchmark [warmupMs=1000] [measureMs=3000] [json=FILE]}
+ */
+public class CaptchaBenchmark {
+
+    private static final byte[] SUCCESS = "{\"success\": true, \"hostname\": \"localhost\"}".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        Bench.report("captcha", args, run(Bench.longArg(args, "warmupMs", 1_000), Bench.longArg(args, "measureMs", 3_000)));
+    }
+
+    static List<Bench.Result> run(long warmup, long measure) throws Exception {
+        HttpServer stub = HttpServer.create(new InetSocketAddress("localhost", 0), 128);
+        stub.createContext("/siteverify", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, SUCCESS.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(SUCCESS);
+            }
+        });
+        stub.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        stub.start();
+        try {
+            URI uri = URI.create("http://localhost:" + stub.getAddress().getPort() + "/siteverify");
+            CaptchaVerifier verifier = new CaptchaVerifier(uri, "bench-secret", Duration.ofSeconds(5), Duration.ofMinutes(10));
+            AtomicLong tokens = new AtomicLong();
+            verifier.verify("cached-token").join();
+
+            List<Bench.Result> results = new ArrayList<>();
+            results.add(Bench.run("captcha verify, stub round trip", warmup, measure,
+                    () -> expectTrue(verifier.verify("token-" + tokens.incrementAndGet()).join())));
+            results.add(Bench.run("captcha verify, cached token", warmup, measure,
+                    () -> expectTrue(verifier.verify("cached-token").join())));
+            return results;
+        } finally {
+            stub.stop(0);
+        }
+    }
+
+    private static Boolean expectTrue(Boolean verified) {
+        if (!verified) {
+            throw new IllegalStateException("Stub verification failed");
+        }
+        return verified;
+    }
+}
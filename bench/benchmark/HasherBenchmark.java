@@ -0,0 +1,41 @@
+package benchmark;
+
+import database.Argon2idHasher;
+import database.BCryptHasher;
+import database.PasswordHasher;
+import database.Pbkdf2Hasher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares verify cost of the password engines at several settings.
+ *
+ * Usage: {@code HasherBenchmark [warmupMs=2000] [measureMs=5000] [json=FILE]}
+ */
+public class HasherBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Bench.report("hashers", args, run(Bench.longArg(args, "warmupMs", 2_000), Bench.longArg(args, "measureMs", 5_000)));
+    }
+
+    static List<Bench.Result> run(long warmup, long measure) throws Exception {
+        List<Object[]> engines = List.of(
+                new Object[] {"bcrypt cost=10", new BCryptHasher(10)},
+                new Object[] {"bcrypt cost=12", new BCryptHasher(12)},
+                new Object[] {"pbkdf2-sha256 i=310000", new Pbkdf2Hasher(310_000)},
+                new Object[] {"pbkdf2-sha256 i=600000", new Pbkdf2Hasher(600_000)},
+                new Object[] {"argon2id m=19456 t=2 p=1", new Argon2idHasher(19_456, 2, 1)},
+                new Object[] {"argon2id m=47104 t=1 p=1", new Argon2idHasher(47_104, 1, 1)},
+                new Object[] {"argon2id m=65536 t=3 p=4", new Argon2idHasher(65_536, 3, 4)});
+
+        List<Bench.Result> results = new ArrayList<>();
+        for (Object[] engine : engines) {
+            String name = (String) engine[0];
+            PasswordHasher hasher = (PasswordHasher) engine[1];
+            String stored = hasher.hash("correct horse battery staple");
+            results.add(Bench.run("verify " + name, warmup, measure,
+                    () -> hasher.verify("correct horse battery staple", stored)));
+        }
+        return results;
+    }
+}
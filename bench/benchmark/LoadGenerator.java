@@ -0,0 +1,407 @@
+package benchmark;
+
+import auth.AuthExecutors;
+import auth.AuthMetrics;
+import auth.AuthResult;
+import auth.AuthService;
+import auth.CaptchaVerifier;
+import auth.LatencyHistogram;
+import com.sun.net.httpserver.HttpServer;
+import database.DBConnection;
+import database.JdbcUserStore;
+import database.PasswordUtils;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives login, signup and password reset the way many users at once would, without the
+ * UI: {@link AuthService} over the {@code USERS} table through {@link DBConnection}, with
+ * {@link CaptchaVerifier} asking a local siteverify stub (or no captcha with
+ * {@code captcha=off}). The table is an in-memory H2 database unless {@code db.url} is set,
+ * and is filled with {@code seedUsers} accounts first.
+ *
+ * <p>Each operation is picked from {@code mix}, e.g. {@code login=80,signup=15,reset=5}.
+ * Two ways to drive them:
+ * <ul>
+ * <li>open loop, {@code rate=N}: operations start at N per second on a schedule (evenly
+ *     spaced, or with {@code arrivals=poisson} exponential gaps), each on a new virtual
+ *     thread, however slow the earlier ones are. Latency is measured from the scheduled
+ *     start, so time an operation spent waiting behind a stalled generator still counts
+ *     (no coordinated omission); the service time from the actual start is reported
+ *     alongside. Above {@code maxInFlight} operations in flight new ones are dropped and
+ *     counted instead;</li>
+ * <li>closed loop, {@code rate=0}: {@code users} virtual threads each run operations back
+ *     to back, pausing {@code thinkMs} in between. Simpler, but a slow server slows the
+ *     users down with it, so its percentiles flatter the server.</li>
+ * </ul>
+ *
+ * After {@code warmupMs} the counters are cleared and the run lasts {@code durationMs}.
+ * Prints throughput, p50/p99/p99.9 and max per operation and per {@link AuthMetrics}
+ * phase (hash, verify, db_query, captcha...), plus the outcomes, and writes the same
+ * table to {@code csv}.
+ *
+ * Usage: {@code LoadGenerator [rate=200] [arrivals=uniform|poisson] [users=1000] [thinkMs=0]
+ * [mix=login=80,signup=15,reset=5] [durationMs=10000] [warmupMs=2000] [seedUsers=1000]
+ * [cost=4] [captcha=stub|off] [maxInFlight=10000] [csv=build/bench/load.csv]}
+ */
+public class LoadGenerator {
+
+    private static final String PASSWORD = "Load-test-password-1";
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    enum Op {
+        LOGIN, SIGNUP, RESET;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    /** What one operation type recorded. */
+    static final class Stats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram service = new LatencyHistogram();
+        final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+        final LongAdder errors = new LongAdder();
+
+        void reset() {
+            latency.reset();
+            service.reset();
+            outcomes.clear();
+            errors.reset();
+        }
+    }
+
+    private final AuthService service;
+    private final Op[] mix;
+    private final int seedUsers;
+    private final Map<Op, Stats> stats = new EnumMap<>(Op.class);
+    private final AtomicLong names = new AtomicLong();
+    private final AtomicLong tokens = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean running;
+
+    LoadGenerator(AuthService service, Op[] mix, int seedUsers) {
+        this.service = service;
+        this.mix = mix;
+        this.seedUsers = seedUsers;
+        for (Op op : Op.values()) {
+            stats.put(op, new Stats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long rate = Bench.longArg(args, "rate", 200);
+        boolean poisson = "poisson".equals(Bench.stringArg(args, "arrivals", "uniform"));
+        int users = (int) Bench.longArg(args, "users", 1_000);
+        long think = Bench.longArg(args, "thinkMs", 0);
+        long warmup = Bench.longArg(args, "warmupMs", 2_000);
+        long duration = Bench.longArg(args, "durationMs", 10_000);
+        int seedUsers = (int) Bench.longArg(args, "seedUsers", 1_000);
+        int maxInFlight = (int) Bench.longArg(args, "maxInFlight", 10_000);
+        boolean captcha = !"off".equals(Bench.stringArg(args, "captcha", "stub"));
+        Path csv = Paths.get(Bench.stringArg(args, "csv", "build/bench/load.csv"));
+        Op[] mix = parseMix(Bench.stringArg(args, "mix", "login=80,signup=15,reset=5"));
+
+        if (System.getProperty("db.url") == null) {
+            System.setProperty("db.url", "jdbc:h2:mem:load;DB_CLOSE_DELAY=-1");
+            System.setProperty("db.user", "sa");
+            System.setProperty("db.password", "");
+        }
+        System.setProperty("auth.usernameIndex.enabled", "false");
+        int originalCost = PasswordUtils.getCost();
+        PasswordUtils.setCost((int) Bench.longArg(args, "cost", 4));
+        HttpServer stub = captcha ? startSiteverifyStub() : null;
+        try {
+            seed(seedUsers);
+            CaptchaVerifier verifier = stub == null ? null : new CaptchaVerifier(
+                    URI.create("http://localhost:" + stub.getAddress().getPort() + "/siteverify"), "load-secret",
+                    Duration.ofSeconds(5), Duration.ofMinutes(2));
+            try (JdbcUserStore store = new JdbcUserStore()) {
+                AuthService service = AuthService.builder().captcha(verifier, captcha).store(store).build();
+                LoadGenerator generator = new LoadGenerator(service, mix, seedUsers);
+                String mode = rate > 0
+                        ? "open loop, " + rate + " ops/s " + (poisson ? "poisson" : "uniform") + " arrivals"
+                        : "closed loop, " + users + " users, " + think + " ms think time";
+                System.out.println("Load: " + mode + ", mix " + Bench.stringArg(args, "mix", "login=80,signup=15,reset=5")
+                        + ", cost " + PasswordUtils.getCost() + ", captcha " + (captcha ? "stub" : "off")
+                        + ", " + Runtime.getRuntime().availableProcessors() + " cpus");
+
+                long[] phases = {warmup, duration};
+                for (int i = 0; i < phases.length; i++) {
+                    long millis = phases[i];
+                    generator.clear();
+                    long start = System.nanoTime();
+                    if (rate > 0) {
+                        generator.openLoop(rate, poisson, millis, maxInFlight);
+                    } else {
+                        generator.closedLoop(users, think, millis);
+                    }
+                    generator.awaitQuiet();
+                    if (i == phases.length - 1) {
+                        generator.report((System.nanoTime() - start) / 1e9, rate > 0, csv);
+                    }
+                }
+            }
+        } finally {
+            if (stub != null) {
+                stub.stop(0);
+            }
+            PasswordUtils.setCost(originalCost);
+            AuthExecutors.shutdown();
+            DBConnection.shutdown();
+        }
+    }
+
+    static Op[] parseMix(String spec) {
+        List<Op> ops = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String[] kv = part.split("=");
+            Op op = Op.valueOf(kv[0].trim().toUpperCase(Locale.ROOT));
+            int weight = Integer.parseInt(kv[1].trim());
+            for (int i = 0; i < weight; i++) {
+                ops.add(op);
+            }
+        }
+        if (ops.isEmpty()) {
+            throw new IllegalArgumentException("Empty mix: " + spec);
+        }
+        return ops.toArray(new Op[0]);
+    }
+
+    /**
+     * Starts operations on schedule until {@code millis} have passed. Sleeping and
+     * spawning are not free, so a start may run late; it is still timed from its slot.
+     */
+    void openLoop(long rate, boolean poisson, long millis, int maxInFlight) {
+        running = true;
+        long start = System.nanoTime();
+        long end = start + millis * 1_000_000;
+        double interval = 1e9 / rate;
+        double next = start;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (next < end) {
+            long intended = (long) next;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            Op op = mix[random.nextInt(mix.length)];
+            if (inFlight.get() >= maxInFlight) {
+                dropped.increment();
+            } else {
+                inFlight.incrementAndGet();
+                Thread.ofVirtual().start(() -> {
+                    try {
+                        execute(op, intended);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                });
+            }
+            next += poisson ? -Math.log(1 - random.nextDouble()) * interval : interval;
+        }
+        running = false;
+    }
+
+    /**
+     * Runs {@code users} virtual users back to back until {@code millis} have passed.
+     */
+    void closedLoop(int users, long thinkMillis, long millis) throws InterruptedException {
+        running = true;
+        long end = System.nanoTime() + millis * 1_000_000;
+        List<Thread> threads = new ArrayList<>(users);
+        for (int u = 0; u < users; u++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < end) {
+                    execute(mix[random.nextInt(mix.length)], System.nanoTime());
+                    if (thinkMillis > 0) {
+                        LockSupport.parkNanos(thinkMillis * 1_000_000);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        running = false;
+    }
+
+    private void execute(Op op, long intended) {
+        Stats s = stats.get(op);
+        long started = System.nanoTime();
+        String outcome;
+        try {
+            AuthResult result = call(op).join();
+            outcome = result.status().name();
+        } catch (RuntimeException e) {
+            Throwable cause = AuthExecutors.unwrap(e);
+            outcome = cause instanceof RejectedExecutionException ? "REJECTED" : cause.getClass().getSimpleName();
+            s.errors.increment();
+        }
+        long finished = System.nanoTime();
+        s.latency.record(finished - intended);
+        s.service.record(finished - started);
+        s.outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+    }
+
+    private CompletableFuture<AuthResult> call(Op op) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String client = "load-" + random.nextInt(1_000);
+        return switch (op) {
+            case LOGIN -> service.login(seeded(random), PASSWORD, token(), client);
+            case SIGNUP -> service.signup("new" + names.incrementAndGet() + "-" + random.nextInt(1 << 30), PASSWORD,
+                    token(), client);
+            // The same password again, so the logins that follow still succeed
+            case RESET -> service.resetPassword(seeded(random), PASSWORD, client);
+        };
+    }
+
+    private String seeded(ThreadLocalRandom random) {
+        return "user" + random.nextInt(seedUsers);
+    }
+
+    // Fresh per call, so every captcha check goes to the stub rather than the cache
+    private String token() {
+        return "load-token-" + tokens.incrementAndGet();
+    }
+
+    private void clear() {
+        stats.values().forEach(Stats::reset);
+        dropped.reset();
+        AuthMetrics.reset();
+    }
+
+    // Lets the operations started near the end finish, so they are counted
+    private void awaitQuiet() throws InterruptedException {
+        long deadline = System.nanoTime() + 60_000_000_000L;
+        while ((running || inFlight.get() > 0) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void report(double seconds, boolean openLoop, Path csv) throws Exception {
+        List<String[]> rows = new ArrayList<>();
+        for (Op op : Op.values()) {
+            Stats s = stats.get(op);
+            if (s.latency.snapshot().count() == 0) {
+                continue;
+            }
+            rows.add(row(op.label, s.latency.snapshot(), seconds, s.errors.sum()));
+            if (openLoop) {
+                rows.add(row(op.label + " (service)", s.service.snapshot(), seconds, s.errors.sum()));
+            }
+        }
+        for (AuthMetrics.Phase phase : AuthMetrics.Phase.values()) {
+            LatencyHistogram.Snapshot snapshot = AuthMetrics.snapshot(phase);
+            if (snapshot.count() > 0) {
+                rows.add(row("phase " + phase.name().toLowerCase(Locale.ROOT), snapshot, seconds,
+                        AuthMetrics.view(phase).getErrors()));
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%-22s %9s %10s %10s %10s %10s %10s %8s%n",
+                "operation", "count", "ops/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        for (String[] r : rows) {
+            System.out.printf(Locale.ROOT, "%-22s %9s %10s %10s %10s %10s %10s %8s%n", (Object[]) r);
+        }
+        for (Op op : Op.values()) {
+            Map<String, Long> outcomes = new TreeMap<>();
+            stats.get(op).outcomes.forEach((k, v) -> outcomes.put(k, v.sum()));
+            if (!outcomes.isEmpty()) {
+                System.out.println(op.label + " outcomes: " + outcomes);
+            }
+        }
+        if (openLoop) {
+            System.out.println("Dropped at maxInFlight: " + dropped.sum());
+        }
+
+        StringBuilder sb = new StringBuilder("operation,count,ops_per_second,p50_ms,p99_ms,p999_ms,max_ms,errors\n");
+        for (String[] r : rows) {
+            sb.append(String.join(",", r)).append('\n');
+        }
+        if (csv.getParent() != null) {
+            Files.createDirectories(csv.getParent());
+        }
+        Files.writeString(csv, sb);
+        System.out.println("Results written to " + csv.toAbsolutePath());
+    }
+
+    private static String[] row(String name, LatencyHistogram.Snapshot s, double seconds, long errors) {
+        String[] r = new String[8];
+        r[0] = name;
+        r[1] = Long.toString(s.count());
+        r[2] = String.format(Locale.ROOT, "%.1f", s.count() / seconds);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            r[3 + i] = millis(s.valueAt(QUANTILES[i]));
+        }
+        r[6] = millis(s.max());
+        r[7] = Long.toString(errors);
+        return r;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static void seed(int count) throws SQLException {
+        String hash = PasswordUtils.hashPassword(PASSWORD);
+        try (Connection conn = DBConnection.getConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP TABLE IF EXISTS USERS");
+                stmt.execute("CREATE TABLE USERS (USERNAME VARCHAR2(100) PRIMARY KEY, PASSWORD VARCHAR2(255) NOT NULL)");
+            }
+            try (PreparedStatement insert = conn.prepareStatement("INSERT INTO USERS (USERNAME, PASSWORD) VALUES (?, ?)")) {
+                for (int i = 0; i < count; i++) {
+                    insert.setString(1, "user" + i);
+                    insert.setString(2, hash);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+    }
+
+    // Answers like Google for any token; the client never reuses one
+    private static HttpServer startSiteverifyStub() throws Exception {
+        byte[] success = "{\"success\": true, \"hostname\": \"localhost\"}".getBytes(StandardCharsets.UTF_8);
+        HttpServer stub = HttpServer.create(new InetSocketAddress("localhost", 0), 1_024);
+        stub.createContext("/siteverify", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, success.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(success);
+            }
+        });
+        stub.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        stub.start();
+        return stub;
+    }
+}
@@ -0,0 +1,119 @@
+package benchmark;
+
+import auth.AuthResult;
+import auth.AuthService;
+import database.DBConnection;
+import database.PasswordUtils;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The database side of login against an embedded in-memory database: the pooled
+ * {@code SELECT PASSWORD FROM USERS WHERE USERNAME = ?} lookup on its own, and the
+ * whole {@link AuthService#login} path with a cheap hash so the lookup dominates.
+ *
+ * Uses {@code db.url} if set, otherwise {@code jdbc:h2:mem:bench}. The driver jar is
+ * not shipped; put it on the classpath, e.g.
+ * {@code ant bench -Dbench.class=benchmark.LoginLookupBenchmark -Dbench.classpath=h2.jar}.
+ * The username index is switched off so every lookup reaches the database.
+ *
+ * Usage: {@code LoginLookupBenchmark [warmupMs=1000] [measureMs=3000] [users=10000] [json=FILE]}
+ */
+public class LoginLookupBenchmark {
+
+    private static final String DEFAULT_URL = "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1";
+
+    public static void main(String[] args) throws Exception {
+        try {
+            Bench.report("login-lookup", args, run(Bench.longArg(args, "warmupMs", 1_000),
+                    Bench.longArg(args, "measureMs", 3_000), (int) Bench.longArg(args, "users", 10_000)));
+        } finally {
+            DBConnection.shutdown();
+        }
+    }
+
+    static List<Bench.Result> run(long warmup, long measure, int users) throws Exception {
+        if (System.getProperty("db.url") == null) {
+            System.setProperty("db.url", DEFAULT_URL);
+            System.setProperty("db.user", "sa");
+            System.setProperty("db.password", "");
+        }
+        System.setProperty("auth.usernameIndex.enabled", "false");
+        try {
+            DriverManager.getDriver(System.getProperty("db.url"));
+        } catch (SQLException e) {
+            System.out.println("Skipping login lookup benchmark: no JDBC driver for " + System.getProperty("db.url")
+                    + " (add one with -Dbench.classpath=...)");
+            return List.of();
+        }
+
+        int originalCost = PasswordUtils.getCost();
+        PasswordUtils.setCost(4);
+        try {
+            populate(users);
+            AuthService service = AuthService.builder().build();
+            List<Bench.Result> results = new ArrayList<>();
+            results.add(Bench.run("lookup by username (" + users + " users)", warmup, measure,
+                    () -> lookup("user" + ThreadLocalRandom.current().nextInt(users))));
+            results.add(Bench.run("AuthService.login success, cost=4", warmup, measure, () -> {
+                AuthResult result = service.login("user" + ThreadLocalRandom.current().nextInt(users), "secret", null).join();
+                return check(result, AuthResult.Status.SUCCESS);
+            }));
+            results.add(Bench.run("AuthService.login unknown user", warmup, measure, () -> {
+                AuthResult result = service.login("ghost" + ThreadLocalRandom.current().nextInt(users), "secret", null).join();
+                return check(result, AuthResult.Status.USER_NOT_FOUND);
+            }));
+            return results;
+        } finally {
+            PasswordUtils.setCost(originalCost);
+        }
+    }
+
+    static void populate(int users) throws SQLException {
+        String hash = PasswordUtils.hashPassword("secret");
+        try (Connection conn = DBConnection.getConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP TABLE IF EXISTS USERS");
+                stmt.execute("CREATE TABLE USERS (USERNAME VARCHAR2(100) PRIMARY KEY, PASSWORD VARCHAR2(255) NOT NULL)");
+            }
+            conn.setAutoCommit(false);
+            try (PreparedStatement insert = conn.prepareStatement("INSERT INTO USERS (USERNAME, PASSWORD) VALUES (?, ?)")) {
+                for (int i = 0; i < users; i++) {
+                    insert.setString(1, "user" + i);
+                    insert.setString(2, hash);
+                    insert.addBatch();
+                    if (i % 1_000 == 999) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            conn.commit();
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static String lookup(String username) throws SQLException {
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT PASSWORD FROM USERS WHERE USERNAME = ?")) {
+            stmt.setString(1, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private static AuthResult check(AuthResult result, AuthResult.Status expected) {
+        if (result.status() != expected) {
+            throw new IllegalStateException("Expected " + expected + " but got " + result);
+        }
+        return result;
+    }
+}
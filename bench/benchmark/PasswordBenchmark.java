@@ -0,0 +1,38 @@
+package benchmark;
+
+import database.PasswordUtils;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link PasswordUtils#hashPassword} and {@link PasswordUtils#checkPassword} with the
+ * configured engine at several BCrypt costs, i.e. the CPU half of signup and login.
+ *
+ * Usage: {@code PasswordBenchmark [warmupMs=1000] [measureMs=3000] [json=FILE]}
+ */
+public class PasswordBenchmark {
+
+    private static final int[] COSTS = {8, 10, 12};
+
+    public static void main(String[] args) throws Exception {
+        Bench.report("password", args, run(Bench.longArg(args, "warmupMs", 1_000), Bench.longArg(args, "measureMs", 3_000)));
+    }
+
+    static List<Bench.Result> run(long warmup, long measure) throws Exception {
+        int originalCost = PasswordUtils.getCost();
+        List<Bench.Result> results = new ArrayList<>();
+        try {
+            for (int cost : COSTS) {
+                PasswordUtils.setCost(cost);
+                String stored = PasswordUtils.hashPassword("correct horse battery staple");
+                results.add(Bench.run("PasswordUtils.hashPassword cost=" + cost, warmup, measure,
+                        () -> PasswordUtils.hashPassword("correct horse battery staple")));
+                results.add(Bench.run("PasswordUtils.checkPassword cost=" + cost, warmup, measure,
+                        () -> PasswordUtils.checkPassword("correct horse battery staple", stored)));
+            }
+        } finally {
+            PasswordUtils.setCost(originalCost);
+        }
+        return results;
+    }
+}
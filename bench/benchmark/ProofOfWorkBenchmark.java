@@ -0,0 +1,99 @@
+package benchmark;
+
+import auth.ProofOfWork;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ProofOfWork}: what a challenge costs the server (issue, verify) against what it
+ * costs the client (solve, at several difficulties and thread counts). Before measuring
+ * it checks that tampered, replayed, expired and re-bound answers are refused and that
+ * the difficulty rises with failed logins and with the issue rate; throws on the first
+ * broken expectation.
+ *
+ * Usage: {@code ProofOfWorkBenchmark [bits=12,16,20] [threads=N] [warmupMs=500] [measureMs=3000] [json=FILE]}
+ */
+public class ProofOfWorkBenchmark {
+
+    private static final byte[] KEY = "bench-key-bench-key-bench-key-32".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        long warmup = Bench.longArg(args, "warmupMs", 500);
+        long measure = Bench.longArg(args, "measureMs", 3_000);
+        int threads = (int) Bench.longArg(args, "threads", Runtime.getRuntime().availableProcessors());
+
+        checkRefusals();
+        checkDifficulty();
+
+        List<Bench.Result> results = new ArrayList<>();
+        ProofOfWork server = fixed(16, 60_000);
+        results.add(Bench.run("pow issue", warmup, measure, () -> server.issue("client")));
+        String answer = ProofOfWork.solve(server.issue("client").challenge(), threads);
+        check(server.verify(answer, "client").join(), "fresh answer refused");
+        // A replay goes through every check (MAC, hash) before the spent lookup refuses it
+        results.add(Bench.run("pow verify, full check", warmup, measure, () -> server.verify(answer, "client").join()));
+
+        for (String b : Bench.stringArg(args, "bits", "12,16,20").split(",")) {
+            int bits = Integer.parseInt(b.trim());
+            ProofOfWork pow = fixed(bits, 60_000);
+            for (int n : threads > 1 ? new int[] {1, threads} : new int[] {1}) {
+                results.add(Bench.run("pow solve, " + bits + " bits, " + n + " thread(s)", warmup, measure, () -> {
+                    String solved = ProofOfWork.solve(pow.issue("client").challenge(), n);
+                    check(pow.verify(solved, "client").join(), "solved answer refused");
+                    return solved;
+                }));
+            }
+        }
+        Bench.report("proof-of-work", args, results);
+    }
+
+    private static void checkRefusals() throws Exception {
+        ProofOfWork pow = fixed(10, 500);
+        String answer = ProofOfWork.solve(pow.issue("alice").challenge(), 1);
+        check(!pow.verify(answer, "mallory").join(), "answer accepted from another client");
+        check(!pow.verify(answer.replace(".10.", ".2."), "alice").join(), "lowered difficulty accepted");
+        // At 24 bits a guessed counter passes once in 16 million tries
+        ProofOfWork hard = fixed(24, 500);
+        check(!hard.verify(hard.issue("alice").challenge() + ":0", "alice").join(), "unsolved challenge accepted");
+        check(!pow.verify("garbage", "alice").join() && !pow.verify(null, "alice").join(), "garbage accepted");
+        check(pow.verify(answer, "alice").join(), "valid answer refused");
+        check(!pow.verify(answer, "alice").join(), "replayed answer accepted");
+
+        String late = ProofOfWork.solve(pow.issue("alice").challenge(), 1);
+        Thread.sleep(600);
+        check(!pow.verify(late, "alice").join(), "expired answer accepted");
+        System.out.println("Refusals: other client, lowered bits, unsolved, garbage, replay and expiry all refused");
+    }
+
+    private static void checkDifficulty() {
+        ProofOfWork pow = new ProofOfWork(KEY, 10, 16, 60_000, 50, 2, 60_000, 1_000);
+        int base = pow.issue("bob").bits();
+        for (int i = 0; i < 5; i++) {
+            pow.failed("bob");
+        }
+        int afterFailures = pow.issue("bob").bits();
+        int otherClient = pow.issue("carol").bits();
+        check(afterFailures == base + 3, "5 failures with 2 free gave " + afterFailures + " bits, base " + base);
+        check(otherClient < afterFailures, "another client paid for bob's failures");
+
+        int loaded = 0;
+        for (int i = 0; i < 1_000; i++) {
+            loaded = pow.issue("dave").bits();
+        }
+        check(loaded > base, "difficulty did not rise under a burst of issues: " + loaded);
+        check(loaded <= 16, "difficulty above maxBits: " + loaded);
+        System.out.println("Difficulty: base " + base + " bits, " + afterFailures + " after 5 failures, "
+                + loaded + " after a burst of 1000 issues (loadPerSecond 50, maxBits 16)");
+    }
+
+    private static ProofOfWork fixed(int bits, long ttlMillis) {
+        return new ProofOfWork(KEY, bits, bits, ttlMillis, Integer.MAX_VALUE, Integer.MAX_VALUE, 60_000, 1_000);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
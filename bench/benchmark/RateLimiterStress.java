@@ -0,0 +1,115 @@
+package benchmark;
+
+import auth.LoginThrottle;
+import auth.RateLimiter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency stress test for {@link LoginThrottle}: throughput of {@code admit} at rising
+ * thread counts, for one hot username (a credential-stuffing burst on a single account)
+ * and for usernames spread over more keys than the LRU holds (constant eviction). A
+ * token bucket map behind one global lock runs the same load for comparison; it should
+ * flatten or fall as threads are added while the striped, CAS-based limiter keeps scaling.
+ *
+ * Usage: {@code RateLimiterStress [seconds=2] [maxThreads=64] [keys=1000000]}
+ */
+public class RateLimiterStress {
+
+    interface Limiter {
+        boolean admit(String username, String client);
+    }
+
+    public static void main(String[] args) throws Exception {
+        long seconds = Bench.longArg(args, "seconds", 2);
+        int maxThreads = (int) Bench.longArg(args, "maxThreads", 64);
+        int keys = (int) Bench.longArg(args, "keys", 1_000_000);
+
+        String[] names = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            names[i] = "user" + i;
+        }
+
+        System.out.printf("%-24s %8s %16s %20s%n", "scenario", "threads", "attempts/s", "ns/attempt/thread");
+        for (String scenario : new String[] {"hot-key", "spread"}) {
+            for (String impl : new String[] {"striped-cas", "global-lock"}) {
+                for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                    Limiter limiter = impl.equals("striped-cas") ? stripedCas() : new GlobalLock();
+                    boolean hot = scenario.equals("hot-key");
+                    double rate = run(limiter, threads, seconds, hot ? new String[] {"victim"} : names);
+                    System.out.printf("%-24s %8d %,16.0f %20.1f%n", scenario + " " + impl, threads, rate, threads * 1e9 / rate);
+                }
+            }
+        }
+    }
+
+    private static Limiter stripedCas() {
+        LoginThrottle throttle = new LoginThrottle(new RateLimiter(10, 5, 100_000), new RateLimiter(60, 20, 100_000),
+                100_000, 5, 30_000, 3_600_000);
+        return (username, client) -> throttle.admit(username, client) == null;
+    }
+
+    private static double run(Limiter limiter, int threads, long seconds, String[] names) throws InterruptedException {
+        LongAdder attempts = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long[] deadline = new long[1];
+        for (int t = 0; t < threads; t++) {
+            String client = "10.0.0." + t;
+            Thread.ofPlatform().daemon().start(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long local = 0;
+                boolean admitted = false;
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline[0]) {
+                        for (int i = 0; i < 256; i++) {
+                            admitted ^= limiter.admit(names[random.nextInt(names.length)], client);
+                        }
+                        local += 256;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    attempts.add(local);
+                    Bench.sink = admitted;
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + seconds * 1_000_000_000L;
+        start.countDown();
+        done.await();
+        return attempts.sum() / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    /** The obvious implementation: one map of token buckets behind one lock. */
+    private static final class GlobalLock implements Limiter {
+        private final Map<String, double[]> users = new HashMap<>();
+        private final Map<String, double[]> clients = new HashMap<>();
+
+        @Override
+        public synchronized boolean admit(String username, String client) {
+            if (users.size() > 100_000) {
+                users.clear();
+            }
+            return take(users, username, 10, 5) && take(clients, client, 60, 20);
+        }
+
+        private static boolean take(Map<String, double[]> buckets, String key, double perMinute, int burst) {
+            long now = System.nanoTime();
+            double[] bucket = buckets.computeIfAbsent(key, k -> new double[] {burst, now});
+            bucket[0] = Math.min(burst, bucket[0] + (now - bucket[1]) / 60e9 * perMinute);
+            bucket[1] = now;
+            if (bucket[0] < 1) {
+                return false;
+            }
+            bucket[0]--;
+            return true;
+        }
+    }
+}
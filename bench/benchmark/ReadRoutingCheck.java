@@ -0,0 +1,185 @@
+package benchmark;
+
+import auth.AuthExecutors;
+import auth.AuthResult;
+import auth.AuthService;
+import database.DBConnection;
+import database.JdbcUserStore;
+import database.PasswordUtils;
+import database.ReadRouter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks {@link ReadRouter} against three in-memory H2 databases, one primary and two
+ * replicas. Nothing copies rows between them, so a replica behaves like one whose
+ * replication has stalled, which makes every routing decision visible:
+ *
+ * <ol>
+ * <li>logins of seeded users are served by the replicas: taking turns, or all by the
+ *     fastest under {@code least-latency};</li>
+ * <li>a user who has just signed up, or reset their password, can log in at once, because
+ *     their reads go to the primary;</li>
+ * <li>once the read-your-writes window has passed the same login goes back to a replica,
+ *     which has not seen the user;</li>
+ * <li>with one replica shut down reads go to the other, and with both down to the primary.</li>
+ * </ol>
+ *
+ * Prints the replica statistics after each step and throws on the first broken
+ * expectation. Needs the H2 jar.
+ *
+ * Usage: {@code ReadRoutingCheck [users=1000] [logins=2000] [selection=round-robin] [windowMs=500]}
+ */
+public class ReadRoutingCheck {
+
+    private static final String PRIMARY = "jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1";
+    private static final String[] REPLICAS = {"r1", "r2"};
+
+    public static void main(String[] args) throws Exception {
+        int users = (int) Bench.longArg(args, "users", 1_000);
+        int logins = (int) Bench.longArg(args, "logins", 2_000);
+        long window = Bench.longArg(args, "windowMs", 500);
+        System.setProperty("db.url", PRIMARY);
+        System.setProperty("db.user", "sa");
+        System.setProperty("db.password", "");
+        System.setProperty("db.replicas", String.join(",", REPLICAS));
+        for (String replica : REPLICAS) {
+            // IFEXISTS, so a replica that was shut down stays down instead of coming back empty
+            System.setProperty("db.replica." + replica + ".url", replicaUrl(replica) + ";IFEXISTS=TRUE");
+        }
+        System.setProperty("db.replica.selection", Bench.stringArg(args, "selection", "round-robin"));
+        System.setProperty("db.replica.healthCheckMs", "100");
+        System.setProperty("db.replica.readYourWritesMs", Long.toString(window));
+        System.setProperty("auth.usernameIndex.enabled", "false");
+        int originalCost = PasswordUtils.getCost();
+        PasswordUtils.setCost(4);
+        List<Connection> keepOpen = new ArrayList<>();
+        try {
+            String hash = PasswordUtils.hashPassword("secret");
+            seed(DriverManager.getConnection(PRIMARY, "sa", ""), users, hash, keepOpen);
+            for (String replica : REPLICAS) {
+                seed(DriverManager.getConnection(replicaUrl(replica), "sa", ""), users, hash, keepOpen);
+            }
+            ReadRouter router = ReadRouter.shared();
+            AuthService service = AuthService.builder()
+                    .store(new JdbcUserStore(DBConnection::getConnection, router))
+                    .build();
+
+            for (int i = 0; i < logins; i++) {
+                expect(service.login("user" + (i % users), "secret", null).join(), AuthResult.Status.SUCCESS);
+            }
+            long replicaReads = replicaReads(router);
+            System.out.println("1. logins: " + router.getStats());
+            check(replicaReads == logins, replicaReads + " of " + logins + " logins read from a replica");
+            if (System.getProperty("db.replica.selection").equals("round-robin")) {
+                for (ReadRouter.ReplicaStats r : router.getStats()) {
+                    check(r.reads() > 0, r.name() + " served no reads");
+                }
+            }
+
+            expect(service.signup("fresh", "new-secret", null).join(), AuthResult.Status.CREATED);
+            expect(service.login("fresh", "new-secret", null).join(), AuthResult.Status.SUCCESS);
+            expect(service.resetPassword("user0", "changed").join(), AuthResult.Status.SUCCESS);
+            expect(service.login("user0", "changed", null).join(), AuthResult.Status.SUCCESS);
+            System.out.println("2. read-your-writes: " + router.getPrimaryReads() + " reads sent to the primary");
+            check(router.getPrimaryReads() >= 2, "writers' reads did not go to the primary");
+
+            Thread.sleep(window + 100);
+            expect(service.login("fresh", "new-secret", null).join(), AuthResult.Status.USER_NOT_FOUND);
+            expect(service.login("user0", "secret", null).join(), AuthResult.Status.SUCCESS);
+            System.out.println("3. after the window: served by the stale replicas again");
+
+            shutdown(keepOpen.get(2));
+            awaitHealth(router, "r2", false);
+            long before = readsOf(router, "r1");
+            for (int i = 0; i < 100; i++) {
+                expect(service.login("user" + (1 + i % (users - 1)), "secret", null).join(), AuthResult.Status.SUCCESS);
+            }
+            System.out.println("4. r2 down: " + router.getStats());
+            check(readsOf(router, "r1") - before == 100, "reads did not move to r1");
+
+            shutdown(keepOpen.get(1));
+            awaitHealth(router, "r1", false);
+            long fallbacks = router.getFallbacks();
+            expect(service.login("fresh", "new-secret", null).join(), AuthResult.Status.SUCCESS);
+            System.out.println("5. both down: " + (router.getFallbacks() - fallbacks) + " read sent to the primary");
+            check(router.getFallbacks() > fallbacks, "read did not fall back to the primary");
+            System.out.println("All routing checks passed");
+        } finally {
+            PasswordUtils.setCost(originalCost);
+            AuthExecutors.shutdown();
+            DBConnection.shutdown();
+            for (Connection conn : keepOpen) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    // already shut down
+                }
+            }
+        }
+    }
+
+    private static String replicaUrl(String name) {
+        return "jdbc:h2:mem:replica_" + name + ";DB_CLOSE_DELAY=-1";
+    }
+
+    private static void seed(Connection conn, int users, String hash, List<Connection> keepOpen) throws SQLException {
+        keepOpen.add(conn);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE USERS (USERNAME VARCHAR2(100) PRIMARY KEY, PASSWORD VARCHAR2(255) NOT NULL)");
+        }
+        try (PreparedStatement insert = conn.prepareStatement("INSERT INTO USERS (USERNAME, PASSWORD) VALUES (?, ?)")) {
+            for (int i = 0; i < users; i++) {
+                insert.setString(1, "user" + i);
+                insert.setString(2, hash);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private static void shutdown(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SHUTDOWN");
+        }
+    }
+
+    private static void awaitHealth(ReadRouter router, String name, boolean healthy) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (System.currentTimeMillis() < deadline) {
+            for (ReadRouter.ReplicaStats r : router.getStats()) {
+                if (r.name().equals(name) && r.healthy() == healthy) {
+                    return;
+                }
+            }
+            Thread.sleep(20);
+        }
+        throw new IllegalStateException(name + " did not become " + (healthy ? "healthy" : "unhealthy"));
+    }
+
+    private static long replicaReads(ReadRouter router) {
+        return router.getStats().stream().mapToLong(ReadRouter.ReplicaStats::reads).sum();
+    }
+
+    private static long readsOf(ReadRouter router, String name) {
+        return router.getStats().stream().filter(r -> r.name().equals(name))
+                .mapToLong(ReadRouter.ReplicaStats::reads).sum();
+    }
+
+    private static void expect(AuthResult result, AuthResult.Status status) {
+        if (result.status() != status) {
+            throw new IllegalStateException("Expected " + status + " but got " + result);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package benchmark;
+
+import auth.AuthExecutors;
+import auth.AuthResult;
+import auth.AuthService;
+import auth.CaptchaVerifier;
+import auth.RecentCredentials;
+import com.sun.net.httpserver.HttpServer;
+import database.JdbcUserStore;
+import database.PasswordUtils;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import resilience.Bulkhead;
+import resilience.CircuitBreaker;
+import resilience.Dependency;
+import resilience.DependencyUnavailableException;
+
+/**
+ * Checks the circuit breakers, bulkheads, hedging and degraded mode against dependencies
+ * that misbehave on purpose, printing how long callers waited at each step.
+ *
+ * <p>Database (an in-memory H2 {@code USERS} table behind a connector that can be made
+ * to stall for {@code stallMs} and then fail):
+ * <ol>
+ * <li>healthy: logins succeed and are remembered by {@link RecentCredentials};</li>
+ * <li>stalled: the first logins wait out the stall, then the circuit opens and the rest
+ *     are answered {@code UNAVAILABLE} within milliseconds;</li>
+ * <li>degraded: a user who logged in before still gets in, with the right password only;</li>
+ * <li>healed: after the open period the probes succeed and the circuit closes.</li>
+ * </ol>
+ *
+ * <p>siteverify (a local stub):
+ * <ol>
+ * <li>a request that hangs is hedged, so the token verifies in about the hedge delay;</li>
+ * <li>with the bulkhead full, a further token is refused at once;</li>
+ * <li>while the stub answers 500 the circuit opens and verification fails fast;</li>
+ * <li>once it answers again, verification recovers.</li>
+ * </ol>
+ *
+ * Throws on the first broken expectation. Needs the H2 jar.
+ *
+ * Usage: {@code ResilienceCheck [stallMs=300] [openMs=500]}
+ */
+public class ResilienceCheck {
+
+    private static final String URL = "jdbc:h2:mem:resilience;DB_CLOSE_DELAY=-1";
+
+    public static void main(String[] args) throws Exception {
+        long stall = Bench.longArg(args, "stallMs", 300);
+        long open = Bench.longArg(args, "openMs", 500);
+        int originalCost = PasswordUtils.getCost();
+        PasswordUtils.setCost(4);
+        try {
+            checkDatabase(stall, open);
+            checkSiteverify(open);
+            System.out.println("All resilience checks passed");
+        } finally {
+            PasswordUtils.setCost(originalCost);
+            AuthExecutors.shutdown();
+        }
+    }
+
+    private static volatile boolean stalled;
+
+    private static void checkDatabase(long stall, long open) throws Exception {
+        Connection keepOpen = DriverManager.getConnection(URL, "sa", "");
+        try (Statement stmt = keepOpen.createStatement()) {
+            stmt.execute("CREATE TABLE USERS (USERNAME VARCHAR2(100) PRIMARY KEY, PASSWORD VARCHAR2(255) NOT NULL)");
+        }
+        try (PreparedStatement insert = keepOpen.prepareStatement("INSERT INTO USERS (USERNAME, PASSWORD) VALUES (?, ?)")) {
+            String hash = PasswordUtils.hashPassword("secret");
+            for (int i = 0; i < 10; i++) {
+                insert.setString(1, "user" + i);
+                insert.setString(2, hash);
+                insert.executeUpdate();
+            }
+        }
+        CircuitBreaker breaker = new CircuitBreaker("database", 10, 5, 0.5, open, 2);
+        Dependency database = new Dependency("database", breaker, new Bulkhead("database", 4, 0), 2, 10, 50);
+        JdbcUserStore store = new JdbcUserStore(() -> {
+            if (stalled) {
+                sleep(stall);
+                throw new SQLTransientConnectionException("database stalled");
+            }
+            return DriverManager.getConnection(URL, "sa", "");
+        }, null, database);
+        RecentCredentials recent = new RecentCredentials(1_000, 60_000);
+        AuthService service = AuthService.builder().store(store).recent(recent).build();
+
+        for (int i = 0; i < 5; i++) {
+            expect(service.login("user" + i, "secret", null).join(), AuthResult.Status.SUCCESS);
+        }
+        System.out.println("1. healthy: " + breaker.getState());
+
+        stalled = true;
+        List<Long> waited = new ArrayList<>();
+        List<Long> refused = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            long start = System.nanoTime();
+            AuthResult result = loginOrNull(service, "user9", "secret");
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            check(result == null || result.status() == AuthResult.Status.UNAVAILABLE,
+                    "unexpected result while stalled: " + result);
+            // The login that opens the circuit may still have waited for one stall
+            (millis >= stall ? waited : refused).add(millis);
+        }
+        System.out.println("2. stalled: " + waited.size() + " logins waited " + waited + " ms, then " + refused.size()
+                + " were refused, slowest in " + refused.stream().mapToLong(Long::longValue).max().orElse(-1) + " ms");
+        check(breaker.getState() == CircuitBreaker.State.OPEN, "circuit did not open");
+        check(waited.size() <= 3, waited.size() + " logins waited on the stalled database");
+        check(refused.stream().allMatch(ms -> ms < 50), "refused logins were not fast: " + refused);
+
+        long start = System.nanoTime();
+        AuthResult degraded = service.login("user0", "secret", null).join();
+        long degradedMillis = (System.nanoTime() - start) / 1_000_000;
+        expect(degraded, AuthResult.Status.SUCCESS);
+        expect(service.login("user0", "wrong", null).join(), AuthResult.Status.INVALID_CREDENTIALS);
+        expect(service.login("user9", "secret", null).join(), AuthResult.Status.UNAVAILABLE);
+        System.out.println("3. degraded: remembered user logged in in " + degradedMillis + " ms (\""
+                + degraded.message() + "\"), " + recent.getServed() + " served from the cache");
+        check(degradedMillis < stall, "degraded login waited on the database");
+
+        stalled = false;
+        Thread.sleep(open + 50);
+        expect(service.login("user9", "secret", null).join(), AuthResult.Status.SUCCESS);
+        expect(service.login("user8", "secret", null).join(), AuthResult.Status.SUCCESS);
+        System.out.println("4. healed: " + breaker.getState() + ", opened " + breaker.getOpened() + " time(s), "
+                + breaker.getRejected() + " calls refused");
+        check(breaker.getState() == CircuitBreaker.State.CLOSED, "circuit did not close after the probes");
+        keepOpen.close();
+    }
+
+    private static AuthResult loginOrNull(AuthService service, String username, String password) {
+        try {
+            return service.login(username, password, null).join();
+        } catch (CompletionException e) {
+            check(AuthExecutors.unwrap(e) instanceof SQLException, "unexpected failure " + e.getCause());
+            return null;
+        }
+    }
+
+    private static volatile String mode = "ok";
+
+    private static void checkSiteverify(long open) throws Exception {
+        Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+        Map<String, Boolean> used = new ConcurrentHashMap<>();
+        HttpServer stub = HttpServer.create(new InetSocketAddress("localhost", 0), 128);
+        stub.createContext("/siteverify", exchange -> {
+            String token = tokenOf(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            int n = requests.computeIfAbsent(token, t -> new AtomicInteger()).incrementAndGet();
+            int code = 200;
+            switch (mode) {
+                case "hang-first" -> {
+                    if (n == 1) {
+                        sleep(2_000);
+                    }
+                }
+                case "hang" -> sleep(1_000);
+                case "error" -> code = 500;
+                default -> {
+                }
+            }
+            // Like Google: a token passes once
+            boolean success = code == 200 && used.putIfAbsent(token, true) == null;
+            byte[] body = ("{\"success\": " + success + "}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(code, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        stub.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        stub.start();
+        try {
+            URI uri = URI.create("http://localhost:" + stub.getAddress().getPort() + "/siteverify");
+            CircuitBreaker breaker = new CircuitBreaker("siteverify", 10, 4, 0.5, open, 1);
+            Dependency siteverify = new Dependency("siteverify", breaker, new Bulkhead("siteverify", 2, 0), 2, 10, 50);
+            CaptchaVerifier verifier = new CaptchaVerifier(uri, "check-secret", Duration.ofSeconds(1),
+                    Duration.ofSeconds(5), Duration.ofMinutes(1), siteverify, 100);
+
+            mode = "hang-first";
+            long start = System.nanoTime();
+            check(verifier.verify("hedged").join(), "hedged token did not verify");
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("1. hedged: verified in " + millis + " ms with the first request hanging");
+            check(millis < 1_000, "hedge did not answer before the hanging request");
+            Thread.sleep(2_100);
+
+            mode = "hang";
+            CompletableFuture<Boolean> first = verifier.verify("held-1");
+            CompletableFuture<Boolean> second = verifier.verify("held-2");
+            start = System.nanoTime();
+            DependencyUnavailableException refused = refusal(verifier.verify("refused"));
+            millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("2. bulkhead full: third token refused in " + millis + " ms: " + refused.getMessage());
+            check(millis < 50, "bulkhead refusal was not fast");
+            check(first.join() && second.join(), "held tokens did not verify");
+
+            mode = "error";
+            int failed = 0;
+            while (breaker.getState() != CircuitBreaker.State.OPEN && failed < 10) {
+                check(!verifier.verify("error-" + failed).join(), "token passed while siteverify failed");
+                failed++;
+            }
+            start = System.nanoTime();
+            refused = refusal(verifier.verify("while-open"));
+            millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("3. failing: circuit open after " + failed + " tokens, next refused in " + millis + " ms");
+            check(breaker.getState() == CircuitBreaker.State.OPEN, "circuit did not open");
+            check(millis < 50, "open circuit refusal was not fast");
+
+            mode = "ok";
+            Thread.sleep(open + 50);
+            check(verifier.verify("recovered").join(), "token did not verify after recovery");
+            System.out.println("4. recovered: " + breaker.getState());
+            check(breaker.getState() == CircuitBreaker.State.CLOSED, "circuit did not close");
+        } finally {
+            stub.stop(0);
+        }
+    }
+
+    private static DependencyUnavailableException refusal(CompletableFuture<Boolean> future) {
+        try {
+            throw new IllegalStateException("expected a refusal but got " + future.join());
+        } catch (CompletionException e) {
+            DependencyUnavailableException refused = DependencyUnavailableException.find(e);
+            check(refused != null, "expected a refusal but got " + e.getCause());
+            return refused;
+        }
+    }
+
+    private static String tokenOf(String form) {
+        for (String pair : form.split("&")) {
+            if (pair.startsWith("response=")) {
+                return URLDecoder.decode(pair.substring("response=".length()), StandardCharsets.UTF_8);
+            }
+        }
+        return "";
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void expect(AuthResult result, AuthResult.Status status) {
+        if (result.status() != status) {
+            throw new IllegalStateException("Expected " + status + " but got " + result);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
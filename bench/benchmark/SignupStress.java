@@ -0,0 +1,201 @@
+package benchmark;
+
+import auth.AuthExecutors;
+import auth.AuthResult;
+import auth.AuthService;
+import database.DBConnection;
+import database.JdbcUserStore;
+import database.LogUserStore;
+import database.PasswordUtils;
+import database.UserStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency stress test for signup: every thread tries to sign up every name, in its
+ * own random order, so each name is contested by all threads at once. Afterwards each
+ * name must have been created exactly once, be stored once, and verify with the password
+ * of the one signup that won; no placeholder may be left behind.
+ *
+ * Two kinds of name are seeded first: some hold the placeholder of a signup that died
+ * long ago, which must be taken over, and some hold one that is still live, which must
+ * be reported taken every time.
+ *
+ * Runs against {@link LogUserStore} under {@code dir} and, when a driver is present,
+ * against the {@code USERS} table at {@code db.url} (an in-memory H2 database if unset).
+ * Exits with an exception on the first broken invariant.
+ *
+ * Usage: {@code SignupStress [threads=32] [names=200] [dir=build/bench/signup]}
+ */
+public class SignupStress {
+
+    private static final int SEEDED = 10;
+
+    public static void main(String[] args) throws Exception {
+        int threads = (int) Bench.longArg(args, "threads", 32);
+        int names = (int) Bench.longArg(args, "names", 200);
+        Path dir = Paths.get(Bench.stringArg(args, "dir", "build/bench/signup"));
+        System.setProperty("auth.usernameIndex.enabled", "false");
+        int originalCost = PasswordUtils.getCost();
+        PasswordUtils.setCost(4);
+        try {
+            Files.createDirectories(dir);
+            Path file = dir.resolve("users.log");
+            Files.deleteIfExists(file);
+            try (LogUserStore store = LogUserStore.open(file, LogUserStore.Fsync.NEVER, 0, Double.MAX_VALUE, Long.MAX_VALUE)) {
+                run("log", store, threads, names);
+            }
+            try (LogUserStore reopened = LogUserStore.open(file, LogUserStore.Fsync.NEVER, 0, Double.MAX_VALUE, Long.MAX_VALUE)) {
+                int[] count = new int[1];
+                reopened.forEachUsername(name -> count[0]++);
+                check(count[0] == names + 2 * SEEDED, "log: " + count[0] + " users after reopening, expected " + (names + 2 * SEEDED));
+                System.out.println("log: reopened with " + reopened.getStats());
+            }
+            if (jdbcAvailable()) {
+                createTable();
+                try (JdbcUserStore store = new JdbcUserStore()) {
+                    run("jdbc", store, threads, names);
+                }
+                checkNoDuplicateRows();
+            }
+        } finally {
+            PasswordUtils.setCost(originalCost);
+            AuthExecutors.shutdown();
+            DBConnection.shutdown();
+        }
+    }
+
+    private static void run(String engine, UserStore store, int threads, int names) throws Exception {
+        String stale = UserStore.RESERVATION_PREFIX + Long.toString(1, 36) + ".stale";
+        String live = UserStore.RESERVATION_PREFIX + Long.toString(Long.MAX_VALUE / 2, 36) + ".live";
+        for (int i = 0; i < SEEDED; i++) {
+            store.insert("stale" + i, stale);
+            store.insert("held" + i, live);
+        }
+        List<String> all = new ArrayList<>();
+        for (int i = 0; i < names; i++) {
+            all.add("user" + i);
+        }
+        for (int i = 0; i < SEEDED; i++) {
+            all.add("stale" + i);
+            all.add("held" + i);
+        }
+
+        AuthService service = AuthService.builder().store(store).build();
+        Map<String, String> winners = new ConcurrentHashMap<>();
+        Map<AuthResult.Status, LongAdder> outcomes = new ConcurrentHashMap<>();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger duplicates = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            String password = "secret-" + t;
+            List<String> order = new ArrayList<>(all);
+            Collections.shuffle(order);
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (String name : order) {
+                        AuthResult result;
+                        try {
+                            result = service.signup(name, password, null).join();
+                        } catch (RuntimeException e) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                        outcomes.computeIfAbsent(result.status(), k -> new LongAdder()).increment();
+                        if (result.status() == AuthResult.Status.CREATED && winners.putIfAbsent(name, password) != null) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "signup-stress-" + t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        Map<AuthResult.Status, Long> summary = new HashMap<>();
+        outcomes.forEach((status, count) -> summary.put(status, count.sum()));
+        System.out.printf("%s: %d threads x %d names in %.2f s (%,.0f signups/s) %s errors=%d%n", engine, threads,
+                all.size(), seconds, threads * all.size() / seconds, summary, errors.get());
+
+        check(duplicates.get() == 0, engine + ": " + duplicates.get() + " names were created more than once");
+        // Rejected or failed signups give their name back, so every free name must still have a winner
+        check(winners.size() == names + SEEDED, engine + ": " + winners.size() + " names created, expected "
+                + (names + SEEDED));
+        for (String name : all) {
+            UserStore.Credentials stored = store.findCredentials(name, false);
+            check(stored != null, engine + ": " + name + " is missing");
+            if (name.startsWith("held")) {
+                check(stored.hash().equals(live), engine + ": live reservation of " + name + " was taken over");
+                continue;
+            }
+            check(!UserStore.isReservation(stored.hash()), engine + ": " + name + " was left reserved");
+            check(PasswordUtils.checkPassword(winners.get(name), stored.hash()),
+                    engine + ": " + name + " does not verify with the winning password");
+        }
+        System.out.println(engine + ": no duplicates, no lost or stranded names");
+    }
+
+    private static boolean jdbcAvailable() {
+        if (System.getProperty("db.url") == null) {
+            System.setProperty("db.url", "jdbc:h2:mem:signup;DB_CLOSE_DELAY=-1");
+            System.setProperty("db.user", "sa");
+            System.setProperty("db.password", "");
+        }
+        try {
+            DriverManager.getDriver(System.getProperty("db.url"));
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Skipping JDBC store: no driver for " + System.getProperty("db.url"));
+            return false;
+        }
+    }
+
+    private static void createTable() throws SQLException {
+        try (Connection conn = DBConnection.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS USERS");
+            stmt.execute("CREATE TABLE USERS (USERNAME VARCHAR2(100) PRIMARY KEY, PASSWORD VARCHAR2(255) NOT NULL)");
+        }
+    }
+
+    private static void checkNoDuplicateRows() throws SQLException {
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "SELECT USERNAME, COUNT(*) FROM USERS GROUP BY USERNAME HAVING COUNT(*) > 1");
+             ResultSet rs = stmt.executeQuery()) {
+            check(!rs.next(), "jdbc: duplicate rows for the same username");
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures cold start of the packaged app with and without the class data sharing
+ * archive written by {@code ant cds}. Each run is a fresh JVM started with
+ * {@code --exit-when-interactive}; it reports the time from JVM start until the login
+ * screen is first laid out, and the benchmark adds the wall time until the process
+ * exits. One extra run with class loading logged counts how many classes came from the
+ * archive, to show that it was actually used.
+ *
+ * Runs alternate between the two modes so that disk caches warm up for both alike. The
+ * captcha page is not needed, but a display is.
+ *
+ * Usage: {@code StartupBenchmark [dir=dist] [runs=10] [json=FILE]}
+ */
+public class StartupBenchmark {
+
+    private static final Pattern INTERACTIVE = Pattern.compile("Interactive after (\\d+) ms");
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Paths.get(Bench.stringArg(args, "dir", "dist")).toAbsolutePath();
+        int runs = (int) Bench.longArg(args, "runs", 10);
+        Path jar = dir.resolve("LoginSignupApp.jar");
+        Path archive = dir.resolve("LoginSignupApp.jsa");
+        if (!Files.isRegularFile(jar)) {
+            throw new IllegalArgumentException(jar + " not found; run ant jar first");
+        }
+        boolean withArchive = Files.isRegularFile(archive);
+        if (!withArchive) {
+            System.out.println(archive + " not found; run ant cds to compare with an archive");
+        }
+
+        long[][] interactive = new long[2][runs];
+        long[][] wall = new long[2][runs];
+        for (int i = 0; i < runs; i++) {
+            for (int mode = 0; mode < (withArchive ? 2 : 1); mode++) {
+                long start = System.nanoTime();
+                List<String> output = launch(command(jar, mode == 1 ? archive : null, "--exit-when-interactive"));
+                wall[mode][i] = (System.nanoTime() - start) / 1_000_000;
+                interactive[mode][i] = interactiveMillis(output);
+            }
+        }
+
+        List<Bench.Result> results = new ArrayList<>();
+        results.add(result("startup to first frame, no archive", interactive[0]));
+        results.add(result("startup to exit, no archive", wall[0]));
+        if (withArchive) {
+            results.add(result("startup to first frame, AppCDS", interactive[1]));
+            results.add(result("startup to exit, AppCDS", wall[1]));
+            List<String> command = command(jar, archive, "--exit-when-interactive");
+            command.add(1, "-Xlog:class+load=info");
+            long total = 0;
+            long shared = 0;
+            for (String line : launch(command)) {
+                if (line.contains("[class,load]")) {
+                    total++;
+                    if (line.contains("shared objects file")) {
+                        shared++;
+                    }
+                }
+            }
+            System.out.printf("%d of %d classes loaded from the archive%n", shared, total);
+        }
+        Bench.report("startup", args, results);
+    }
+
+    static List<String> command(Path jar, Path archive, String flag) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (archive != null) {
+            command.add("-XX:SharedArchiveFile=" + archive);
+            command.add("-Xshare:auto");
+        }
+        command.add("-cp");
+        command.add(jar.toString());
+        command.add("loginsignupapp.LoginSignupApp");
+        command.add(flag);
+        return command;
+    }
+
+    private static List<String> launch(List<String> command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line; (line = in.readLine()) != null; ) {
+                lines.add(line);
+            }
+        }
+        if (process.waitFor() != 0) {
+            lines.forEach(System.err::println);
+            throw new IllegalStateException("App exited with " + process.exitValue());
+        }
+        return lines;
+    }
+
+    private static long interactiveMillis(List<String> output) {
+        for (String line : output) {
+            Matcher m = INTERACTIVE.matcher(line);
+            if (m.find()) {
+                return Long.parseLong(m.group(1));
+            }
+        }
+        output.forEach(System.err::println);
+        throw new IllegalStateException("The app did not report reaching the login screen");
+    }
+
+    // Reuses the harness' result shape: latencies in microseconds, throughput in starts per second
+    private static Bench.Result result(String name, long[] millis) {
+        long[] sorted = millis.clone();
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(sorted).average().orElse(0);
+        return new Bench.Result(name, sorted.length, mean > 0 ? 1_000 / mean : 0,
+                Bench.percentile(sorted, 0.50) * 1e3, Bench.percentile(sorted, 0.99) * 1e3,
+                sorted[sorted.length - 1] * 1e3, 0);
+    }
+}
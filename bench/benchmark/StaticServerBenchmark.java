@@ -0,0 +1,94 @@
+package benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Request handling in {@code SimpleHttpServer}, development and production mode, for the
+ * captcha page and a cached conditional request. The server lives in the default
+ * package, which named packages cannot import, so it is started by reflection; the
+ * {@code bench} target compiles {@code SimpleWebserver/} into the benchmark classes.
+ *
+ * Usage: {@code StaticServerBenchmark [warmupMs=1000] [measureMs=3000] [json=FILE]}
+ */
+public class StaticServerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Bench.report("static-server", args, run(Bench.longArg(args, "warmupMs", 1_000), Bench.longArg(args, "measureMs", 3_000)));
+    }
+
+    static List<Bench.Result> run(long warmup, long measure) throws Exception {
+        Class<?> serverClass;
+        try {
+            serverClass = Class.forName("SimpleHttpServer");
+        } catch (ClassNotFoundException e) {
+            System.out.println("Skipping static server benchmark: SimpleHttpServer is not on the classpath");
+            return List.of();
+        }
+
+        // Development mode resolves paths against the working directory
+        Path root = Files.createTempDirectory(Paths.get("."), "bench-web");
+        Files.copy(Paths.get("SimpleWebserver", "recaptcha.html"), root.resolve("recaptcha.html"));
+        String page = "/" + root.getFileName() + "/recaptcha.html";
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        List<Bench.Result> results = new ArrayList<>();
+        try {
+            HttpServer dev = start(serverClass, "--port=0", "--root=" + root);
+            try {
+                URI uri = URI.create("http://localhost:" + dev.getAddress().getPort() + page);
+                results.add(Bench.run("SimpleHttpServer dev GET recaptcha.html", warmup, measure, () -> get(client, uri, null)));
+            } finally {
+                dev.stop(0);
+            }
+
+            HttpServer prod = start(serverClass, "--prod", "--port=0", "--root=" + root);
+            try {
+                URI uri = URI.create("http://localhost:" + prod.getAddress().getPort() + "/recaptcha.html");
+                String etag = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.discarding())
+                        .headers().firstValue("ETag").orElseThrow();
+                results.add(Bench.run("SimpleHttpServer prod GET recaptcha.html", warmup, measure, () -> get(client, uri, null)));
+                results.add(Bench.run("SimpleHttpServer prod GET If-None-Match", warmup, measure, () -> get(client, uri, etag)));
+            } finally {
+                prod.stop(0);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+        return results;
+    }
+
+    private static HttpServer start(Class<?> serverClass, String... args) throws Exception {
+        Class<?> optionsClass = Class.forName("SimpleHttpServer$Options");
+        Method parse = optionsClass.getDeclaredMethod("parse", String[].class);
+        parse.setAccessible(true);
+        Object options = parse.invoke(null, (Object) args);
+        Method start = serverClass.getDeclaredMethod("start", optionsClass);
+        start.setAccessible(true);
+        return (HttpServer) start.invoke(null, options);
+    }
+
+    private static Integer get(HttpClient client, URI uri, String etag) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri);
+        if (etag != null) {
+            request.header("If-None-Match", etag);
+        }
+        int status = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray()).statusCode();
+        if (status != (etag == null ? 200 : 304)) {
+            throw new IllegalStateException("Unexpected status " + status + " for " + uri);
+        }
+        return status;
+    }
+}
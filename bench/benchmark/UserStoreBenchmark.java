@@ -0,0 +1,109 @@
+package benchmark;
+
+import database.DBConnection;
+import database.JdbcUserStore;
+import database.LogUserStore;
+import database.PasswordUtils;
+import database.UserStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares the two {@link UserStore} engines on the calls a login and a password reset
+ * make: {@link LogUserStore} under each fsync policy against {@link JdbcUserStore}.
+ * Also prints how long the log takes to reopen (rebuilding its index) and to compact.
+ *
+ * The JDBC side uses {@code db.url} if set, otherwise an in-memory H2 database, and is
+ * skipped without a driver; point it at Oracle to see the network hop. The log lives
+ * under {@code dir}, which should be on the disk a kiosk would use: fsync on tmpfs is
+ * free and proves nothing.
+ *
+ * Usage: {@code UserStoreBenchmark [warmupMs=1000] [measureMs=3000] [users=100000] [dir=build/bench/userstore] [json=FILE]}
+ */
+public class UserStoreBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long warmup = Bench.longArg(args, "warmupMs", 1_000);
+        long measure = Bench.longArg(args, "measureMs", 3_000);
+        int users = (int) Bench.longArg(args, "users", 100_000);
+        Path dir = Paths.get(Bench.stringArg(args, "dir", "build/bench/userstore"));
+        List<Bench.Result> results = new ArrayList<>();
+        int originalCost = PasswordUtils.getCost();
+        PasswordUtils.setCost(4);
+        try {
+            String hash = PasswordUtils.hashPassword("secret");
+            results.addAll(runLog(warmup, measure, users, dir, hash));
+            results.addAll(runJdbc(warmup, measure, users, hash));
+        } finally {
+            PasswordUtils.setCost(originalCost);
+            DBConnection.shutdown();
+        }
+        Bench.report("user-store", args, results);
+    }
+
+    static List<Bench.Result> runLog(long warmup, long measure, int users, Path dir, String hash) throws Exception {
+        Files.createDirectories(dir);
+        Path file = dir.resolve("users.log");
+        Files.deleteIfExists(file);
+        long start = System.nanoTime();
+        try (LogUserStore seed = LogUserStore.open(file, LogUserStore.Fsync.NEVER, 0, Double.MAX_VALUE, Long.MAX_VALUE)) {
+            for (int i = 0; i < users; i++) {
+                seed.insert("user" + i, hash);
+            }
+        }
+        System.out.printf("log: wrote %d users in %.1f ms%n", users, (System.nanoTime() - start) / 1e6);
+
+        List<Bench.Result> results = new ArrayList<>();
+        for (LogUserStore.Fsync fsync : LogUserStore.Fsync.values()) {
+            start = System.nanoTime();
+            try (LogUserStore store = LogUserStore.open(file, fsync, 1_000, Double.MAX_VALUE, Long.MAX_VALUE)) {
+                System.out.printf("log: reopened %s in %.1f ms%n", store.getStats(), (System.nanoTime() - start) / 1e6);
+                if (fsync == LogUserStore.Fsync.ALWAYS) {
+                    results.add(Bench.run("log findCredentials (" + users + " users)", warmup, measure,
+                            () -> store.findCredentials(randomUser(users), true)));
+                }
+                results.add(Bench.run("log updatePassword fsync=" + fsync, warmup, measure,
+                        () -> store.updatePassword(randomUser(users), hash)));
+                if (fsync == LogUserStore.Fsync.NEVER) {
+                    start = System.nanoTime();
+                    store.compact();
+                    System.out.printf("log: compacted to %s in %.1f ms%n", store.getStats(), (System.nanoTime() - start) / 1e6);
+                }
+            }
+        }
+        return results;
+    }
+
+    static List<Bench.Result> runJdbc(long warmup, long measure, int users, String hash) throws Exception {
+        if (System.getProperty("db.url") == null) {
+            System.setProperty("db.url", "jdbc:h2:mem:userstore;DB_CLOSE_DELAY=-1");
+            System.setProperty("db.user", "sa");
+            System.setProperty("db.password", "");
+        }
+        try {
+            DriverManager.getDriver(System.getProperty("db.url"));
+        } catch (SQLException e) {
+            System.out.println("Skipping JDBC store: no driver for " + System.getProperty("db.url"));
+            return List.of();
+        }
+        LoginLookupBenchmark.populate(users);
+        List<Bench.Result> results = new ArrayList<>();
+        try (JdbcUserStore store = new JdbcUserStore()) {
+            results.add(Bench.run("jdbc findCredentials (" + users + " users)", warmup, measure,
+                    () -> store.findCredentials(randomUser(users), false)));
+            results.add(Bench.run("jdbc updatePassword", warmup, measure,
+                    () -> store.updatePassword(randomUser(users), hash)));
+        }
+        return results;
+    }
+
+    private static String randomUser(int users) {
+        return "user" + ThreadLocalRandom.current().nextInt(users);
+    }
+}
@@ -0,0 +1,48 @@
+package database;
+
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * Checks {@link Argon2idHasher} against the Argon2id test vector of RFC 9106 section 5.3,
+ * which uses a secret and associated data and so goes through the package-private
+ * {@link Argon2idHasher#argon2id} directly; this class sits in {@code database} for that
+ * reason. Then checks that a hash made through the public API verifies, and that a wrong
+ * password and a tampered hash do not. Throws on the first broken expectation.
+ *
+ * Usage: {@code ant bench -Dbench.class=database.Argon2idVectorCheck}
+ */
+public class Argon2idVectorCheck {
+
+    private static final String RFC_9106_TAG = "0d640df58d78766c08c037a34a8b53c9d01ef0452d75b65eb52520e96b01e659";
+
+    public static void main(String[] args) {
+        byte[] tag = Argon2idHasher.argon2id(filled(32, 0x01), filled(16, 0x02), filled(8, 0x03), filled(12, 0x04),
+                32, 3, 4, 32);
+        check(HexFormat.of().formatHex(tag).equals(RFC_9106_TAG),
+                "RFC 9106 vector: expected " + RFC_9106_TAG + " but got " + HexFormat.of().formatHex(tag));
+        System.out.println("RFC 9106 Argon2id vector matches");
+
+        Argon2idHasher hasher = new Argon2idHasher(64, 2, 2);
+        String hash = hasher.hash("correct horse");
+        check(hasher.verify("correct horse", hash), "own hash did not verify: " + hash);
+        check(!hasher.verify("correct horsf", hash), "wrong password verified");
+        char[] tampered = hash.toCharArray();
+        int inHash = tampered.length - 10;
+        tampered[inHash] = tampered[inHash] == 'A' ? 'B' : 'A';
+        check(!hasher.verify("correct horse", new String(tampered)), "tampered hash verified");
+        System.out.println("Round trip, wrong password and tampered hash behave");
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
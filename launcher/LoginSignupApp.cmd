@@ -0,0 +1,23 @@
+@echo off
+rem Starts the app from the directory holding LoginSignupApp.jar (dist\ after a build).
+rem
+rem If LoginSignupApp.jsa sits next to the jar (see "ant cds"), classes are mapped from that
+rem class data sharing archive instead of being loaded and verified one by one. An archive
+rem written by another JDK or for another jar is ignored. "--train" runs the training launch
+rem and writes a new archive on exit.
+rem
+rem JAVA_HOME selects the JDK, JAVAFX_LIB the lib directory of a JavaFX SDK when the JDK does
+rem not include JavaFX, and JAVA_OPTS adds JVM options (e.g. -Dapp.config=...).
+setlocal
+set "DIR=%~dp0"
+set "JAVA=java"
+if defined JAVA_HOME set "JAVA=%JAVA_HOME%\bin\java"
+set "ARCHIVE=%DIR%LoginSignupApp.jsa"
+
+set "CDS="
+if exist "%ARCHIVE%" set CDS=-XX:SharedArchiveFile="%ARCHIVE%" -Xshare:auto
+echo %* | findstr /c:"--train" >nul && set CDS=-XX:ArchiveClassesAtExit="%ARCHIVE%"
+set "FX="
+if defined JAVAFX_LIB set FX=--module-path "%JAVAFX_LIB%" --add-modules javafx.controls,javafx.fxml,javafx.web
+
+"%JAVA%" %CDS% %FX% %JAVA_OPTS% -cp "%DIR%LoginSignupApp.jar" loginsignupapp.LoginSignupApp %*
@@ -0,0 +1,25 @@
+#!/bin/sh
+# Starts the app from the directory holding LoginSignupApp.jar (dist/ after a build).
+#
+# If LoginSignupApp.jsa sits next to the jar (see "ant cds"), classes are mapped from that
+# class data sharing archive instead of being loaded and verified one by one. An archive
+# written by another JDK or for another jar is ignored. "--train" runs the training launch
+# and writes a new archive on exit.
+#
+# JAVA_HOME selects the JDK, JAVAFX_LIB the lib directory of a JavaFX SDK when the JDK does
+# not include JavaFX, and JAVA_OPTS adds JVM options (e.g. -Dapp.config=...).
+DIR=$(cd "$(dirname "$0")" && pwd)
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+ARCHIVE=$DIR/LoginSignupApp.jsa
+
+CDS=
+case " $* " in
+    *" --train "*) CDS="-XX:ArchiveClassesAtExit=$ARCHIVE" ;;
+    *) [ -f "$ARCHIVE" ] && CDS="-XX:SharedArchiveFile=$ARCHIVE -Xshare:auto" ;;
+esac
+FX=
+if [ -n "$JAVAFX_LIB" ]; then
+    FX="--module-path $JAVAFX_LIB --add-modules javafx.controls,javafx.fxml,javafx.web"
+fi
+
+exec "$JAVA" $CDS $FX $JAVA_OPTS -cp "$DIR/LoginSignupApp.jar" loginsignupapp.LoginSignupApp "$@"
@@ -0,0 +1,75 @@
+package audit;
+
+/**
+ * One audit record: who did what, from where, with which outcome. Instances are
+ * preallocated in the {@link AuditLog} ring and reused, so a sink must copy anything it
+ * keeps after {@link AuditSink#write(AuditEvent[], int)} returns.
+ */
+public final class AuditEvent {
+
+    public enum Type {
+        LOGIN,
+        SIGNUP,
+        RESET,
+        /** A login resumed from a session token. */
+        SESSION
+    }
+
+    private long timeMillis;
+    private Type type;
+    private String username;
+    private String client;
+    private String outcome;
+
+    public AuditEvent() {
+    }
+
+    public AuditEvent(long timeMillis, Type type, String username, String client, String outcome) {
+        set(timeMillis, type, username, client, outcome);
+    }
+
+    void set(long timeMillis, Type type, String username, String client, String outcome) {
+        this.timeMillis = timeMillis;
+        this.type = type;
+        this.username = username;
+        this.client = client;
+        this.outcome = outcome;
+    }
+
+    void copyFrom(AuditEvent other) {
+        set(other.timeMillis, other.type, other.username, other.client, other.outcome);
+    }
+
+    // Lets the strings of a drained slot be collected
+    void clear() {
+        set(0, null, null, null, null);
+    }
+
+    public long timeMillis() {
+        return timeMillis;
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    /** The name the caller gave, or null if unknown (e.g. an invalid session token). */
+    public String username() {
+        return username;
+    }
+
+    /** Remote address, or {@code local} for the desktop app. */
+    public String client() {
+        return client;
+    }
+
+    /** An {@code AuthResult.Status} name, or {@code ERROR}/{@code CANCELLED}. */
+    public String outcome() {
+        return outcome;
+    }
+
+    @Override
+    public String toString() {
+        return AuditLines.format(this);
+    }
+}
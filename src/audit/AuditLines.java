@@ -0,0 +1,135 @@
+package audit;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * The text form of an event in audit files: one UTF-8 line of tab-separated fields,
+ * {@code 2025-01-31T08:15:02.123Z LOGIN alice 10.0.0.7 SUCCESS}. A missing field is
+ * written as {@code -}; tabs and line breaks inside a field become spaces and each field
+ * is cut to {@value #MAX_FIELD_CHARS} characters, so a line always fits in
+ * {@value #MAX_LINE_BYTES} bytes. {@link #encode} writes straight into a buffer without
+ * allocating.
+ */
+final class AuditLines {
+
+    static final int MAX_FIELD_CHARS = 256;
+    static final int MAX_LINE_BYTES = 4_096;
+
+    private AuditLines() {
+    }
+
+    static void encode(AuditEvent event, ByteBuffer out) {
+        writeTimestamp(event.timeMillis(), out);
+        out.put((byte) '\t');
+        writeField(event.type() == null ? null : event.type().name(), out);
+        out.put((byte) '\t');
+        writeField(event.username(), out);
+        out.put((byte) '\t');
+        writeField(event.client(), out);
+        out.put((byte) '\t');
+        writeField(event.outcome(), out);
+        out.put((byte) '\n');
+    }
+
+    static String format(AuditEvent event) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_LINE_BYTES);
+        encode(event, buffer);
+        return new String(buffer.array(), 0, buffer.position() - 1, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a line written by {@link #encode} (without its line break) into {@code into}.
+     * @return false if the line is not a well-formed event
+     */
+    static boolean parse(String line, AuditEvent into) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 5) {
+            return false;
+        }
+        try {
+            into.set(Instant.parse(fields[0]).toEpochMilli(), AuditEvent.Type.valueOf(fields[1]),
+                    field(fields[2]), field(fields[3]), field(fields[4]));
+            return true;
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static String field(String text) {
+        return "-".equals(text) ? null : text;
+    }
+
+    private static void writeField(String value, ByteBuffer out) {
+        if (value == null || value.isEmpty()) {
+            out.put((byte) '-');
+            return;
+        }
+        int length = Math.min(value.length(), MAX_FIELD_CHARS);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '\t' || c == '\n' || c == '\r') {
+                out.put((byte) ' ');
+            } else if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | c >> 6));
+                out.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xF0 | cp >> 18));
+                out.put((byte) (0x80 | cp >> 12 & 0x3F));
+                out.put((byte) (0x80 | cp >> 6 & 0x3F));
+                out.put((byte) (0x80 | cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | c >> 12));
+                out.put((byte) (0x80 | c >> 6 & 0x3F));
+                out.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    // ISO-8601 in UTC, from the civil-from-days algorithm, so no date objects are made
+    private static void writeTimestamp(long millis, ByteBuffer out) {
+        long epochDay = Math.floorDiv(millis, 86_400_000L);
+        long msOfDay = Math.floorMod(millis, 86_400_000L);
+        long z = epochDay + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long dayOfEra = z - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        writeDigits(year, 4, out);
+        out.put((byte) '-');
+        writeDigits(month, 2, out);
+        out.put((byte) '-');
+        writeDigits(day, 2, out);
+        out.put((byte) 'T');
+        writeDigits(msOfDay / 3_600_000, 2, out);
+        out.put((byte) ':');
+        writeDigits(msOfDay / 60_000 % 60, 2, out);
+        out.put((byte) ':');
+        writeDigits(msOfDay / 1_000 % 60, 2, out);
+        out.put((byte) '.');
+        writeDigits(msOfDay % 1_000, 3, out);
+        out.put((byte) 'Z');
+    }
+
+    private static void writeDigits(long value, int width, ByteBuffer out) {
+        long divisor = 1;
+        for (int i = 1; i < width; i++) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+}
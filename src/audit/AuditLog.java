@@ -0,0 +1,308 @@
+package audit;
+
+import database.AppConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-behind audit trail of every login, signup, password reset and session resume.
+ *
+ * {@link #record} puts the event into a preallocated lock-free ring ({@link AuditRing})
+ * and returns; it takes well under a microsecond and allocates nothing, so auditing adds
+ * no database round trip to an authentication. One drainer thread takes events off the
+ * ring in batches of up to {@code audit.batchSize} and hands each batch to the
+ * {@link AuditSink}: memory-mapped files under {@code audit.file.dir}
+ * ({@code audit.sink=file}, the default) or the {@code AUTH_AUDIT} table
+ * ({@code audit.sink=jdbc}). A failing batch is retried with backoff until it is stored.
+ *
+ * When producers outrun the sink and the ring ({@code audit.capacity}) fills, the
+ * {@code audit.backpressure} policy decides: {@code spill} (default) appends the event
+ * to {@code audit.spill.path}, to be replayed into the sink once it catches up;
+ * {@code block} makes the caller wait for room; {@code drop} discards and counts it.
+ *
+ * {@link #close()} writes out everything queued. If the sink still fails after
+ * {@code audit.shutdownTimeoutMs}, the rest is spilled and replayed on the next start,
+ * so no recorded event is lost short of a crash. Delivery is at least once: a batch that
+ * fails part way is written again.
+ */
+public final class AuditLog implements AutoCloseable {
+
+    public enum Backpressure {
+        BLOCK,
+        DROP,
+        SPILL
+    }
+
+    /** Event counts since start; {@code pending} is the ring's current fill. */
+    public record Stats(long recorded, long written, long dropped, long spilled, int pending, long sinkFailures) {
+    }
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static volatile AuditLog shared;
+
+    private final AuditRing ring;
+    private final AuditSink sink;
+    private final Backpressure backpressure;
+    private final SpillFile spill;
+    private final int batchSize;
+    private final long wakeMask;
+    private final long shutdownTimeoutNanos;
+    private final Thread drainer;
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong sinkFailures = new AtomicLong();
+    // record() calls that may still put an event into the ring; close() waits for them
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile boolean closing;
+    private volatile long closeDeadline;
+
+    /**
+     * @param capacity ring size, a power of two
+     * @param spillPath overflow file, used for {@link Backpressure#SPILL} and at shutdown
+     */
+    public AuditLog(AuditSink sink, int capacity, int batchSize, Backpressure backpressure, Path spillPath,
+                    long shutdownTimeoutMillis) throws IOException {
+        this.ring = new AuditRing(capacity);
+        this.wakeMask = Math.max(1, capacity / 4) - 1;
+        this.sink = sink;
+        this.backpressure = backpressure;
+        this.spill = new SpillFile(spillPath);
+        this.batchSize = batchSize;
+        this.shutdownTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMillis);
+        this.drainer = new Thread(this::drain, "audit-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * @return false when {@code audit.enabled=false}
+     */
+    public static boolean isEnabled() {
+        return AppConfig.getBoolean("audit.enabled", true);
+    }
+
+    /**
+     * @throws UncheckedIOException if the audit directory or spill file cannot be opened
+     */
+    public static AuditLog shared() {
+        AuditLog log = shared;
+        if (log == null) {
+            synchronized (AuditLog.class) {
+                log = shared;
+                if (log == null) {
+                    try {
+                        shared = log = fromConfig();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Could not open the audit log", e);
+                    }
+                }
+            }
+        }
+        return log;
+    }
+
+    /**
+     * @return the shared log if it has been created, without creating it
+     */
+    public static AuditLog peek() {
+        return shared;
+    }
+
+    public static AuditLog fromConfig() throws IOException {
+        String sinkName = AppConfig.get("audit.sink", "file").toLowerCase(Locale.ROOT);
+        AuditSink sink = switch (sinkName) {
+            case "file" -> new MappedFileAuditSink(Paths.get(AppConfig.get("audit.file.dir", "audit")),
+                    AppConfig.getInt("audit.file.segmentBytes", 64 << 20),
+                    AppConfig.getBoolean("audit.file.force", true));
+            case "jdbc" -> new JdbcAuditSink();
+            default -> throw new IllegalArgumentException("Unknown audit.sink '" + sinkName + "'; use file or jdbc");
+        };
+        return new AuditLog(sink,
+                AppConfig.getInt("audit.capacity", 65_536),
+                AppConfig.getInt("audit.batchSize", 512),
+                Backpressure.valueOf(AppConfig.get("audit.backpressure", "spill").toUpperCase(Locale.ROOT)),
+                Paths.get(AppConfig.get("audit.spill.path", "audit/spill.log")),
+                AppConfig.getLong("audit.shutdownTimeoutMs", 5_000));
+    }
+
+    /**
+     * Queues one event. Allocation-free unless the ring is full and the policy spills.
+     * @param outcome an {@code AuthResult.Status} name, or {@code ERROR}/{@code CANCELLED}
+     */
+    public void record(AuditEvent.Type type, String username, String client, String outcome) {
+        long now = System.currentTimeMillis();
+        recorded.increment();
+        // Counted before closing is read, so close() either sees this call or it sees closing
+        inFlight.incrementAndGet();
+        try {
+            while (!closing) {
+                long pos = ring.offer(now, type, username, client, outcome);
+                if (pos >= 0) {
+                    // Wake an idle drainer every quarter ring, before a burst can fill it
+                    if ((pos & wakeMask) == 0) {
+                        LockSupport.unpark(drainer);
+                    }
+                    return;
+                }
+                if (backpressure == Backpressure.DROP) {
+                    dropped.increment();
+                    return;
+                }
+                if (backpressure == Backpressure.SPILL) {
+                    spill(now, type, username, client, outcome);
+                    return;
+                }
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        // Too late for the ring: the drainer may already have stopped
+        spill(now, type, username, client, outcome);
+    }
+
+    private void spill(long timeMillis, AuditEvent.Type type, String username, String client, String outcome) {
+        try {
+            spill.append(timeMillis, type, username, client, outcome);
+            spilled.increment();
+        } catch (IOException e) {
+            dropped.increment();
+            e.printStackTrace();
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(recorded.sum(), written.get(), dropped.sum(), spilled.sum(), ring.size(), sinkFailures.get());
+    }
+
+    private void drain() {
+        AuditEvent[] batch = newBatch();
+        AuditEvent[] replayBatch = newBatch();
+        while (true) {
+            if (drainRing(batch) > 0) {
+                continue;
+            }
+            if (closing) {
+                return;
+            }
+            if (spill.hasPending()) {
+                try {
+                    // The ring goes first between replayed batches, or it would overflow again
+                    spill.replay(replayBatch, (events, count) -> {
+                        store(events, count);
+                        drainRing(batch);
+                    });
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private int drainRing(AuditEvent[] batch) {
+        int total = 0;
+        for (int count; (count = ring.drainTo(batch, batchSize)) > 0; ) {
+            store(batch, count);
+            total += count;
+        }
+        return total;
+    }
+
+    private AuditEvent[] newBatch() {
+        AuditEvent[] batch = new AuditEvent[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            batch[i] = new AuditEvent();
+        }
+        return batch;
+    }
+
+    // Returns once the batch is in the sink, or in the spill file if shutdown ran out of time
+    private void store(AuditEvent[] events, int count) {
+        long backoff = TimeUnit.MILLISECONDS.toNanos(100);
+        boolean reported = false;
+        while (true) {
+            try {
+                sink.write(events, count);
+                written.addAndGet(count);
+                return;
+            } catch (IOException | SQLException e) {
+                sinkFailures.incrementAndGet();
+                if (!reported) {
+                    e.printStackTrace();
+                    reported = true;
+                }
+            }
+            if (closing && System.nanoTime() - closeDeadline > 0) {
+                for (int i = 0; i < count; i++) {
+                    AuditEvent event = events[i];
+                    spill(event.timeMillis(), event.type(), event.username(), event.client(), event.outcome());
+                }
+                return;
+            }
+            LockSupport.parkNanos(backoff);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+        }
+    }
+
+    /**
+     * Stops taking events into the ring, writes out what is queued and closes the sink.
+     * Events recorded from now on go to the spill file.
+     */
+    @Override
+    public void close() {
+        if (closing) {
+            return;
+        }
+        closeDeadline = System.nanoTime() + shutdownTimeoutNanos;
+        closing = true;
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // A producer that read closing just before it was set may not have published yet
+        while (inFlight.get() > 0) {
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+        drainRing(newBatch());
+        try {
+            sink.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            spill.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Flushes and closes the shared log, if one was created.
+     */
+    public static synchronized void shutdown() {
+        if (shared != null) {
+            shared.close();
+            shared = null;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer, single-consumer queue of preallocated {@link AuditEvent}s.
+ *
+ * Each slot has a sequence number (Vyukov's bounded queue). A producer claims the slot
+ * at {@code tail} when its sequence equals {@code tail}, by moving {@code tail} on with
+ * one CAS, fills the slot in place and publishes it by setting the sequence to
+ * {@code tail + 1}. The consumer takes the slot at {@code head} once its sequence says
+ * it is published, and hands it back by setting the sequence to
+ * {@code head + capacity}. Neither side locks or allocates; a full ring is reported to
+ * the producer, which applies the backpressure policy.
+ */
+final class AuditRing {
+
+    private final AuditEvent[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Written by the consumer only; atomic so size() can read it from other threads
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity a power of two
+     */
+    AuditRing(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+        }
+        slots = new AuditEvent[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new AuditEvent();
+            sequences.set(i, i);
+        }
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return the event's position in the stream, or -1 if the ring is full
+     */
+    long offer(long timeMillis, AuditEvent.Type type, String username, String client, String outcome) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[index].set(timeMillis, type, username, client, outcome);
+                    sequences.lazySet(index, pos + 1);
+                    return pos;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // The consumer has not freed this slot since the last lap
+                return -1;
+            } else {
+                // Another producer took the slot; catch up
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Copies up to {@code max} published events into {@code batch}. Consumer thread only.
+     * @return the number of events copied
+     */
+    int drainTo(AuditEvent[] batch, int max) {
+        long pos = head.get();
+        int count = 0;
+        while (count < max) {
+            int index = (int) pos & mask;
+            if (sequences.get(index) != pos + 1) {
+                break;
+            }
+            AuditEvent slot = slots[index];
+            batch[count++].copyFrom(slot);
+            slot.clear();
+            sequences.lazySet(index, pos + slots.length);
+            pos++;
+        }
+        head.lazySet(pos);
+        return count;
+    }
+
+    /** Claimed but not yet drained; may include events still being written. */
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+}
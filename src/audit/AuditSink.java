@@ -0,0 +1,21 @@
+package audit;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Where the {@link AuditLog} drainer writes events, one batch at a time, always from the
+ * same thread.
+ */
+public interface AuditSink extends AutoCloseable {
+
+    /**
+     * Writes {@code events[0..count)}; they are stored when this returns. On an exception
+     * nothing is assumed written and the same batch is offered again, so a sink may see
+     * an event twice but never loses one.
+     */
+    void write(AuditEvent[] events, int count) throws IOException, SQLException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,46 @@
+package audit;
+
+import database.DBConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Writes audit events to the {@code AUTH_AUDIT} table, one JDBC batch and one commit per
+ * drained batch, so a burst of logins costs one round trip rather than one per event.
+ */
+public class JdbcAuditSink implements AuditSink {
+
+    public static final String INSERT =
+            "INSERT INTO AUTH_AUDIT (EVENT_TIME, EVENT_TYPE, USERNAME, CLIENT, OUTCOME) VALUES (?, ?, ?, ?, ?)";
+
+    @Override
+    public void write(AuditEvent[] events, int count) throws SQLException {
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(INSERT)) {
+            conn.setAutoCommit(false);
+            try {
+                for (int i = 0; i < count; i++) {
+                    AuditEvent event = events[i];
+                    stmt.setTimestamp(1, new Timestamp(event.timeMillis()));
+                    stmt.setString(2, event.type().name());
+                    stmt.setString(3, event.username());
+                    stmt.setString(4, event.client());
+                    stmt.setString(5, event.outcome());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,108 @@
+package audit;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Writes audit events as {@link AuditLines} text to memory-mapped segment files in a
+ * directory, {@code audit-<UTC time>.log}. Each segment is mapped at its full size when
+ * created; events are encoded straight into the mapping, with no system call per write.
+ * When a segment cannot take another line, a new one is started.
+ *
+ * With {@code force} every batch is flushed to disk ({@code msync} of the bytes written
+ * since the last flush) before {@link #write} returns; without it the OS writes the
+ * pages back in its own time, which survives a crash of the app but not of the machine.
+ *
+ * A segment is cut to its written length when it is finished. Where the OS refuses to
+ * shrink a mapped file (Windows) the unused tail stays zero-filled, and readers should
+ * stop at the first NUL byte.
+ */
+public class MappedFileAuditSink implements AuditSink {
+
+    private static final DateTimeFormatter SEGMENT_NAME =
+            DateTimeFormatter.ofPattern("'audit-'yyyyMMdd'T'HHmmss.SSS'.log'").withZone(ZoneOffset.UTC);
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final boolean force;
+    private Path current;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private int forced;
+
+    /**
+     * @param segmentBytes size of each file; at least {@value AuditLines#MAX_LINE_BYTES}
+     */
+    public MappedFileAuditSink(Path dir, int segmentBytes, boolean force) throws IOException {
+        if (segmentBytes < AuditLines.MAX_LINE_BYTES) {
+            throw new IllegalArgumentException("Audit segments must hold at least one line");
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.force = force;
+        Files.createDirectories(dir);
+    }
+
+    @Override
+    public void write(AuditEvent[] events, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (map == null || map.remaining() < AuditLines.MAX_LINE_BYTES) {
+                rotate();
+            }
+            AuditLines.encode(events[i], map);
+        }
+        if (force && map != null && map.position() > forced) {
+            map.force(forced, map.position() - forced);
+            forced = map.position();
+        }
+    }
+
+    /** The segment being written, or null before the first event. */
+    public synchronized Path currentFile() {
+        return current;
+    }
+
+    private void rotate() throws IOException {
+        finish();
+        Path next = dir.resolve(SEGMENT_NAME.format(Instant.now()));
+        // Two segments started in the same millisecond
+        for (int n = 1; Files.exists(next); n++) {
+            next = dir.resolve(SEGMENT_NAME.format(Instant.now()).replace(".log", "-" + n + ".log"));
+        }
+        channel = FileChannel.open(next, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        forced = 0;
+        synchronized (this) {
+            current = next;
+        }
+    }
+
+    private void finish() throws IOException {
+        if (map == null) {
+            return;
+        }
+        int length = map.position();
+        map.force();
+        map = null;
+        try {
+            channel.truncate(length);
+        } catch (IOException e) {
+            // Still mapped (Windows): keep the zero-filled tail
+        }
+        channel.close();
+        channel = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+}
@@ -0,0 +1,149 @@
+package audit;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Overflow file for events that could not go through the ring: the ring was full under
+ * {@link AuditLog.Backpressure#SPILL}, or the sink was still failing at shutdown. Lines
+ * use the {@link AuditLines} format. Lines are buffered in 64 KiB and written when the
+ * buffer fills or a replay starts, so spilling under a burst costs no system call per
+ * event; the drainer replays as soon as it is idle, which bounds how long they stay
+ * buffered.
+ *
+ * The drainer replays the file into the sink when it has nothing else to do. Replay
+ * first renames the file to {@code <name>.replay}, so producers can keep spilling to a
+ * fresh file, and deletes it only once every event is written. A replay file left by a
+ * crash is picked up on the next start.
+ */
+final class SpillFile {
+
+    /** Receives replayed events in batches. */
+    interface BatchWriter {
+        void write(AuditEvent[] events, int count);
+    }
+
+    private final Path path;
+    private final Path replayPath;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 << 10);
+    private final AuditEvent scratch = new AuditEvent();
+    private FileChannel channel;
+    private volatile boolean pending;
+
+    SpillFile(Path path) throws IOException {
+        this.path = path;
+        this.replayPath = path.resolveSibling(path.getFileName() + ".replay");
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        pending = Files.exists(replayPath) || (Files.exists(path) && Files.size(path) > 0);
+    }
+
+    synchronized void append(long timeMillis, AuditEvent.Type type, String username, String client, String outcome)
+            throws IOException {
+        scratch.set(timeMillis, type, username, client, outcome);
+        append(scratch);
+    }
+
+    synchronized void append(AuditEvent event) throws IOException {
+        if (buffer.remaining() < AuditLines.MAX_LINE_BYTES) {
+            flush();
+        }
+        AuditLines.encode(event, buffer);
+        pending = true;
+    }
+
+    private void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    boolean hasPending() {
+        return pending;
+    }
+
+    /**
+     * Hands every spilled event to {@code writer}, which must not return until the batch
+     * is stored, then deletes them.
+     * @return the number of events replayed
+     */
+    long replay(AuditEvent[] batch, BatchWriter writer) throws IOException {
+        synchronized (this) {
+            if (!Files.exists(replayPath)) {
+                flush();
+                if (channel != null) {
+                    channel.force(false);
+                    channel.close();
+                    channel = null;
+                }
+                if (Files.exists(path)) {
+                    Files.move(path, replayPath, StandardCopyOption.ATOMIC_MOVE);
+                }
+                pending = false;
+            } else {
+                // An older replay file goes first; what was spilled since waits for the next pass
+                pending = buffer.position() > 0 || Files.exists(path);
+            }
+        }
+        if (!Files.exists(replayPath)) {
+            return 0;
+        }
+        try {
+            return replayFile(batch, writer);
+        } catch (IOException | RuntimeException e) {
+            // The replay file is still there: try again on the next pass
+            pending = true;
+            throw e;
+        }
+    }
+
+    private long replayFile(AuditEvent[] batch, BatchWriter writer) throws IOException {
+        long replayed = 0;
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(replayPath, StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (!AuditLines.parse(line, batch[count])) {
+                    System.err.println("Skipping malformed audit spill line: " + line);
+                    continue;
+                }
+                if (++count == batch.length) {
+                    writer.write(batch, count);
+                    replayed += count;
+                    count = 0;
+                }
+            }
+        }
+        if (count > 0) {
+            writer.write(batch, count);
+            replayed += count;
+        }
+        Files.delete(replayPath);
+        return replayed;
+    }
+
+    synchronized void close() throws IOException {
+        flush();
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+}
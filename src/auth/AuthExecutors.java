@@ -0,0 +1,109 @@
+package auth;
+
+import database.AppConfig;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker pools for authentication work, kept off the JavaFX Application Thread.
+ *
+ * The CPU lane runs password hashing and is sized to the core count; the I/O lane runs
+ * blocking JDBC calls and is sized to the connection pool. Both have bounded queues, so
+ * a burst of requests fails fast with {@link RejectedExecutionException} instead of
+ * piling up. Cancelling a future returned here interrupts its task if it is still
+ * running. Cancelling a future composed from it does not reach back on its own;
+ * {@link AuthService} checks a cancelled flag before each stage instead, so a cancelled
+ * call skips the stages it has not started while the running one finishes.
+ */
+public class AuthExecutors {
+
+    private static final ThreadPoolExecutor CPU = newLane("auth-cpu",
+            AppConfig.getInt("auth.cpuThreads", Runtime.getRuntime().availableProcessors()),
+            AppConfig.getInt("auth.cpuQueue", 64));
+
+    private static final ThreadPoolExecutor IO = newLane("auth-io",
+            AppConfig.getInt("auth.ioThreads", AppConfig.getInt("db.pool.maxSize", 10)),
+            AppConfig.getInt("auth.ioQueue", 256));
+
+    private static ThreadPoolExecutor newLane(String name, int threads, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), factory, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static ExecutorService cpu() {
+        return CPU;
+    }
+
+    public static ExecutorService io() {
+        return IO;
+    }
+
+    /** Runs CPU-bound work such as hashing or verifying a password. */
+    public static <T> CompletableFuture<T> supplyCpu(Callable<T> work) {
+        return submit(CPU, work);
+    }
+
+    /** Runs blocking work such as a JDBC call. */
+    public static <T> CompletableFuture<T> supplyIo(Callable<T> work) {
+        return submit(IO, work);
+    }
+
+    private static <T> CompletableFuture<T> submit(ExecutorService lane, Callable<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task;
+        try {
+            task = lane.submit(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    result.complete(work.call());
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Strips the {@link CompletionException} wrapper that dependent stages add.
+     */
+    public static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    public static void shutdown() {
+        CPU.shutdownNow();
+        IO.shutdownNow();
+    }
+}
@@ -0,0 +1,262 @@
+package auth;
+
+import audit.AuditLog;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import database.AppConfig;
+import database.DBConnection;
+import database.UserStores;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * JSON front end for {@link AuthService}, so any number of clients and load generators
+ * can share one backend. Each exchange runs on its own virtual thread; the hashing and
+ * JDBC work still goes through the bounded {@link AuthExecutors} lanes, so overload
+ * shows up as {@code 503} rather than an ever-growing queue. It listens on
+ * {@code auth.http.host}, loopback unless configured otherwise.
+ *
+ * <pre>
+ * POST /api/login   {"username": "...", "password": "...", "captchaToken": "..."}
+ * POST /api/signup  {"username": "...", "password": "...", "captchaToken": "..."}
+ * POST /api/reset   {"username": "...", "newPassword": "...", "token": "..."}
+ * POST /api/session {"token": "..."}
+ * POST /api/logout  {"token": "..."}
+ * GET  /api/challenge a {@link ProofOfWork} challenge for this client (auth.challenge=pow)
+ * GET  /metrics      Prometheus text from {@link AuthMetrics}
+ * </pre>
+ *
+ * Every response is {@code {"status": "...", "message": "..."}} where status is an
+ * {@link AuthResult.Status} name, or {@code UNAVAILABLE} / {@code TIMEOUT} when the
+ * request could not be completed; an unknown username is answered as
+ * {@code INVALID_CREDENTIALS}. A successful login or session resume adds
+ * {@code "token"}. A challenge adds {@code "challenge"}, {@code "bits"} and
+ * {@code "expiresInMs"}; the client sends {@code challenge:counter} from
+ * {@link ProofOfWork#solve(String, int)} as its captchaToken. A reset needs the session
+ * token of a login as that user; there is no unauthenticated reset over HTTP.
+ *
+ * Usage: {@code java auth.AuthHttpServer [--host=127.0.0.1] [--port=8081]}
+ */
+public class AuthHttpServer {
+
+    private static final int MAX_BODY_BYTES = 16 * 1024;
+
+    private final AuthService service;
+    private final long timeoutMillis;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public AuthHttpServer(AuthService service, long timeoutMillis) {
+        this.service = service;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = AppConfig.get("auth.http.host", "127.0.0.1");
+        int port = AppConfig.getInt("auth.http.port", 8081);
+        for (String arg : args) {
+            if (arg.startsWith("--host=")) {
+                host = arg.substring("--host=".length());
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            }
+        }
+        AuthMetrics.registerMBeans();
+        AuthHttpServer server = new AuthHttpServer(AuthService.shared(), AppConfig.getLong("auth.http.timeoutMs", 30_000));
+        server.start(host, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            AuthExecutors.shutdown();
+            AuditLog.shutdown();
+            DBConnection.shutdown();
+            UserStores.shutdown();
+        }));
+        System.out.println("Auth API listening on http://" + host + ":" + server.getPort() + "/api/");
+    }
+
+    /** Listens on {@code auth.http.host}, loopback by default. */
+    public void start(int port) throws IOException {
+        start(AppConfig.get("auth.http.host", "127.0.0.1"), port);
+    }
+
+    public synchronized void start(String host, int port) throws IOException {
+        // Small JSON replies would otherwise wait on Nagle plus delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(host, port), AppConfig.getInt("auth.http.backlog", 1_024));
+        server.createContext("/api/login", exchange -> handle(exchange,
+                body -> service.login(field(body, "username"), field(body, "password"), field(body, "captchaToken"),
+                        clientOf(exchange))));
+        server.createContext("/api/signup", exchange -> handle(exchange,
+                body -> service.signup(field(body, "username"), field(body, "password"), field(body, "captchaToken"),
+                        clientOf(exchange))));
+        server.createContext("/api/reset", exchange -> handle(exchange,
+                body -> service.changePassword(field(body, "token"), field(body, "username"), field(body, "newPassword"),
+                        clientOf(exchange))));
+        server.createContext("/api/session", exchange -> handle(exchange,
+                body -> service.resumeSession(field(body, "token"), clientOf(exchange))));
+        server.createContext("/api/logout", exchange -> handle(exchange,
+                body -> service.logout(field(body, "token"))));
+        server.createContext("/api/challenge", this::handleChallenge);
+        server.createContext("/metrics", AuthHttpServer::handleMetrics);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(1);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange, Function<Map<String, Object>, CompletableFuture<AuthResult>> call)
+            throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respond(exchange, 405, "INVALID_INPUT", "Use POST.");
+                return;
+            }
+            Map<String, Object> body;
+            try {
+                body = Json.parseObject(readBody(exchange.getRequestBody()));
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, "INVALID_INPUT", "Malformed JSON: " + e.getMessage());
+                return;
+            }
+
+            CompletableFuture<AuthResult> pending = call.apply(body);
+            AuthResult result;
+            try {
+                result = pending.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                pending.cancel(true);
+                respond(exchange, 504, "TIMEOUT", "Request timed out.");
+                return;
+            } catch (InterruptedException e) {
+                pending.cancel(true);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                Throwable cause = AuthExecutors.unwrap(e);
+                if (!(cause instanceof RejectedExecutionException)) {
+                    cause.printStackTrace();
+                }
+                respond(exchange, 503, "UNAVAILABLE", cause instanceof RejectedExecutionException
+                        ? "Server busy." : "Could not connect.");
+                return;
+            }
+            if (result.status() == AuthResult.Status.USER_NOT_FOUND) {
+                // Answered like a wrong password, so the API does not tell which usernames exist
+                result = AuthResult.of(AuthResult.Status.INVALID_CREDENTIALS);
+            }
+            respond(exchange, statusCode(result.status()), result.status().name(), result.message(), result.sessionToken());
+        }
+    }
+
+    private void handleChallenge(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                respond(exchange, 405, "INVALID_INPUT", "Use GET.");
+                return;
+            }
+            if (!(service.getChallengeProvider() instanceof ProofOfWork pow)) {
+                respond(exchange, 404, "INVALID_INPUT", "This server does not issue challenges.");
+                return;
+            }
+            ProofOfWork.Challenge challenge = pow.issue(clientOf(exchange));
+            send(exchange, 200, "{\"status\":\"SUCCESS\",\"challenge\":" + Json.quote(challenge.challenge())
+                    + ",\"bits\":" + challenge.bits()
+                    + ",\"expiresInMs\":" + Math.max(0, challenge.expiresAtMillis() - System.currentTimeMillis()) + "}");
+        }
+    }
+
+    private static void handleMetrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] text = AuthMetrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, text.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(text);
+            }
+        }
+    }
+
+    private static int statusCode(AuthResult.Status status) {
+        return switch (status) {
+            case SUCCESS -> 200;
+            case CREATED -> 201;
+            case INVALID_INPUT -> 400;
+            case INVALID_CREDENTIALS, USER_NOT_FOUND -> 401;
+            case CAPTCHA_REQUIRED -> 403;
+            case USERNAME_TAKEN -> 409;
+            case BREACHED_PASSWORD -> 422;
+            case LOCKED -> 423;
+            case RATE_LIMITED -> 429;
+            case UNAVAILABLE -> 503;
+            case FAILED -> 500;
+        };
+    }
+
+    private static String clientOf(HttpExchange exchange) {
+        return exchange.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    private static String field(Map<String, Object> body, String name) {
+        Object value = body.get(name);
+        return value instanceof String s ? s : null;
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+        if (bytes.length > MAX_BODY_BYTES) {
+            throw new IllegalArgumentException("body larger than " + MAX_BODY_BYTES + " bytes");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int code, String status, String message) throws IOException {
+        respond(exchange, code, status, message, null);
+    }
+
+    private static void respond(HttpExchange exchange, int code, String status, String message, String token)
+            throws IOException {
+        send(exchange, code, "{\"status\":" + Json.quote(status) + ",\"message\":" + Json.quote(message)
+                + (token == null ? "" : ",\"token\":" + Json.quote(token)) + "}");
+    }
+
+    private static void send(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] json = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, json.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(json);
+        }
+    }
+}
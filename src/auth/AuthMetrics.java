@@ -0,0 +1,436 @@
+package auth;
+
+import audit.AuditLog;
+import database.ConnectionPool;
+import database.DBConnection;
+import database.ReadRouter;
+import resilience.CircuitBreaker;
+import resilience.Dependency;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms and counters for every phase of login, signup and reset, so a slow
+ * login can be pinned on the pool, the query, the hash or the captcha call.
+ *
+ * Each phase keeps a {@link LatencyHistogram}, a count of calls that completed and of
+ * calls that threw, and a count per outcome (an {@link AuthResult.Status} name for the
+ * top-level operations, {@code PASSED}/{@code REJECTED} for the captcha). Every sample is
+ * also emitted as an {@link AuthPhaseEvent} for Flight Recorder. The numbers are read
+ * through JMX ({@code loginsignup:type=AuthMetrics,phase=...}, see
+ * {@link #registerMBeans()}) or as Prometheus text from {@link #toPrometheus()}, which
+ * {@link AuthHttpServer} serves on {@code /metrics}.
+ */
+public final class AuthMetrics {
+
+    public enum Phase {
+        /** Whole login, from request to result. */
+        LOGIN,
+        /** Whole signup. */
+        SIGNUP,
+        /** Whole password reset. */
+        RESET,
+        /** Resuming a session from its token. */
+        SESSION,
+        /** reCAPTCHA siteverify call or cache hit. */
+        CAPTCHA,
+        /** Borrowing a connection from the pool, including any physical connect (JDBC store only). */
+        DB_CONNECT,
+        /** One user store call: for the JDBC store, the borrow, the statement and reading its result. */
+        DB_QUERY,
+        /** Looking a new password up in the breached-password index. */
+        BREACH_CHECK,
+        /** Hashing a new password. */
+        HASH,
+        /** Verifying a password against its stored hash. */
+        VERIFY;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    /** Work whose duration is recorded; may throw a checked exception such as SQLException. */
+    public interface Timed<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /** JMX view of one phase. Latencies are in microseconds. */
+    public interface PhaseMXBean {
+        long getCount();
+        long getErrors();
+        double getMeanMicros();
+        double getP50Micros();
+        double getP90Micros();
+        double getP99Micros();
+        double getP999Micros();
+        double getMaxMicros();
+        Map<String, Long> getOutcomes();
+        void reset();
+    }
+
+    private static final class PhaseStats implements PhaseMXBean {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final LongAdder completed = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+        @Override
+        public long getCount() {
+            return completed.sum() + errors.sum();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return histogram.snapshot().mean() / 1e3;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return histogram.snapshot().valueAt(0.50) / 1e3;
+        }
+
+        @Override
+        public double getP90Micros() {
+            return histogram.snapshot().valueAt(0.90) / 1e3;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return histogram.snapshot().valueAt(0.99) / 1e3;
+        }
+
+        @Override
+        public double getP999Micros() {
+            return histogram.snapshot().valueAt(0.999) / 1e3;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return histogram.snapshot().max() / 1e3;
+        }
+
+        @Override
+        public Map<String, Long> getOutcomes() {
+            Map<String, Long> copy = new TreeMap<>();
+            outcomes.forEach((k, v) -> copy.put(k, v.sum()));
+            return copy;
+        }
+
+        @Override
+        public void reset() {
+            histogram.reset();
+            completed.reset();
+            errors.reset();
+            outcomes.clear();
+        }
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final Map<Phase, PhaseStats> STATS = new EnumMap<>(Phase.class);
+    private static boolean registered;
+
+    static {
+        for (Phase phase : Phase.values()) {
+            STATS.put(phase, new PhaseStats());
+        }
+    }
+
+    private AuthMetrics() {
+    }
+
+    /**
+     * Runs {@code work} and records its duration; a thrown exception counts as an error.
+     */
+    public static <T, E extends Exception> T time(Phase phase, Timed<T, E> work) throws E {
+        AuthPhaseEvent event = new AuthPhaseEvent();
+        event.begin();
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            T result = work.call();
+            error = false;
+            return result;
+        } finally {
+            record(phase, event, System.nanoTime() - start, error, null);
+        }
+    }
+
+    /**
+     * Records the time until {@code future} completes. {@link AuthResult}s are counted by
+     * status and booleans as {@code PASSED}/{@code REJECTED}; cancellation is counted as
+     * {@code CANCELLED}, any other exception as an error.
+     */
+    public static <T> CompletableFuture<T> track(Phase phase, CompletableFuture<T> future) {
+        AuthPhaseEvent event = new AuthPhaseEvent();
+        event.begin();
+        long start = System.nanoTime();
+        future.whenComplete((result, failure) -> {
+            long elapsed = System.nanoTime() - start;
+            if (failure == null) {
+                record(phase, event, elapsed, false, outcomeOf(result));
+            } else if (AuthExecutors.unwrap(failure) instanceof CancellationException) {
+                record(phase, event, elapsed, false, "CANCELLED");
+            } else {
+                record(phase, event, elapsed, true, "ERROR");
+            }
+        });
+        return future;
+    }
+
+    private static String outcomeOf(Object result) {
+        if (result instanceof AuthResult r) {
+            return r.status().name();
+        }
+        if (result instanceof Boolean b) {
+            return b ? "PASSED" : "REJECTED";
+        }
+        return null;
+    }
+
+    private static void record(Phase phase, AuthPhaseEvent event, long nanos, boolean error, String outcome) {
+        PhaseStats stats = STATS.get(phase);
+        stats.histogram.record(nanos);
+        (error ? stats.errors : stats.completed).increment();
+        if (outcome != null) {
+            stats.outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase.label;
+            event.outcome = outcome;
+            event.error = error;
+            event.commit();
+        }
+    }
+
+    public static LatencyHistogram.Snapshot snapshot(Phase phase) {
+        return STATS.get(phase).histogram.snapshot();
+    }
+
+    public static PhaseMXBean view(Phase phase) {
+        return STATS.get(phase);
+    }
+
+    public static void reset() {
+        STATS.values().forEach(PhaseStats::reset);
+    }
+
+    /**
+     * Registers one MXBean per phase with the platform MBean server. Safe to call twice.
+     */
+    public static synchronized void registerMBeans() {
+        if (registered) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Phase phase : Phase.values()) {
+                server.registerMBean(STATS.get(phase), new ObjectName("loginsignup:type=AuthMetrics,phase=" + phase.label));
+            }
+            registered = true;
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Renders every phase, and the audit log and connection pool if they have been
+     * created, in the Prometheus text exposition format. Latencies are in seconds.
+     */
+    public static String toPrometheus() {
+        StringBuilder sb = new StringBuilder(4_096);
+        sb.append("# HELP auth_phase_seconds Latency of each authentication phase.\n");
+        sb.append("# TYPE auth_phase_seconds summary\n");
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram.Snapshot s = snapshot(phase);
+            for (double q : QUANTILES) {
+                sb.append("auth_phase_seconds{phase=\"").append(phase.label).append("\",quantile=\"").append(q)
+                        .append("\"} ").append(seconds(s.valueAt(q))).append('\n');
+            }
+            sb.append("auth_phase_seconds_sum{phase=\"").append(phase.label).append("\"} ")
+                    .append(seconds((long) (s.mean() * s.count()))).append('\n');
+            sb.append("auth_phase_seconds_count{phase=\"").append(phase.label).append("\"} ").append(s.count()).append('\n');
+        }
+        sb.append("# HELP auth_phase_max_seconds Slowest recorded call of each phase.\n");
+        sb.append("# TYPE auth_phase_max_seconds gauge\n");
+        for (Phase phase : Phase.values()) {
+            sb.append("auth_phase_max_seconds{phase=\"").append(phase.label).append("\"} ")
+                    .append(seconds(snapshot(phase).max())).append('\n');
+        }
+        sb.append("# HELP auth_phase_total Calls per phase by result.\n");
+        sb.append("# TYPE auth_phase_total counter\n");
+        for (Phase phase : Phase.values()) {
+            PhaseStats stats = STATS.get(phase);
+            sb.append("auth_phase_total{phase=\"").append(phase.label).append("\",result=\"ok\"} ")
+                    .append(stats.completed.sum()).append('\n');
+            sb.append("auth_phase_total{phase=\"").append(phase.label).append("\",result=\"error\"} ")
+                    .append(stats.errors.sum()).append('\n');
+        }
+        sb.append("# HELP auth_outcome_total Outcomes per phase.\n");
+        sb.append("# TYPE auth_outcome_total counter\n");
+        for (Phase phase : Phase.values()) {
+            STATS.get(phase).getOutcomes().forEach((outcome, count) -> sb.append("auth_outcome_total{phase=\"")
+                    .append(phase.label).append("\",outcome=\"").append(outcome).append("\"} ").append(count).append('\n'));
+        }
+
+        AuditLog audit = AuditLog.peek();
+        if (audit != null) {
+            AuditLog.Stats a = audit.getStats();
+            sb.append("# TYPE audit_events_total counter\n");
+            sb.append("audit_events_total{state=\"recorded\"} ").append(a.recorded()).append('\n');
+            sb.append("audit_events_total{state=\"written\"} ").append(a.written()).append('\n');
+            sb.append("audit_events_total{state=\"spilled\"} ").append(a.spilled()).append('\n');
+            sb.append("audit_events_total{state=\"dropped\"} ").append(a.dropped()).append('\n');
+            sb.append("# TYPE audit_pending gauge\n");
+            sb.append("audit_pending ").append(a.pending()).append('\n');
+            sb.append("# TYPE audit_sink_failures_total counter\n");
+            sb.append("audit_sink_failures_total ").append(a.sinkFailures()).append('\n');
+        }
+
+        List<Dependency> dependencies = Dependency.all();
+        if (!dependencies.isEmpty()) {
+            sb.append("# HELP dependency_circuit_state 0 closed, 1 open, 2 half-open.\n");
+            sb.append("# TYPE dependency_circuit_state gauge\n");
+            for (Dependency d : dependencies) {
+                CircuitBreaker breaker = d.getBreaker();
+                if (breaker != null) {
+                    sb.append("dependency_circuit_state{dependency=\"").append(escapeLabel(d.getName())).append("\"} ")
+                            .append(switch (breaker.getState()) {
+                                case CLOSED -> 0;
+                                case OPEN -> 1;
+                                case HALF_OPEN -> 2;
+                            }).append('\n');
+                }
+            }
+            sb.append("# TYPE dependency_circuit_opened_total counter\n");
+            for (Dependency d : dependencies) {
+                if (d.getBreaker() != null) {
+                    sb.append("dependency_circuit_opened_total{dependency=\"").append(escapeLabel(d.getName())).append("\"} ")
+                            .append(d.getBreaker().getOpened()).append('\n');
+                }
+            }
+            sb.append("# TYPE dependency_rejected_total counter\n");
+            for (Dependency d : dependencies) {
+                String label = escapeLabel(d.getName());
+                if (d.getBreaker() != null) {
+                    sb.append("dependency_rejected_total{dependency=\"").append(label).append("\",reason=\"circuit_open\"} ")
+                            .append(d.getBreaker().getRejected()).append('\n');
+                }
+                sb.append("dependency_rejected_total{dependency=\"").append(label).append("\",reason=\"bulkhead_full\"} ")
+                        .append(d.getBulkhead().getRejected()).append('\n');
+            }
+            sb.append("# TYPE dependency_in_flight gauge\n");
+            for (Dependency d : dependencies) {
+                sb.append("dependency_in_flight{dependency=\"").append(escapeLabel(d.getName())).append("\"} ")
+                        .append(d.getBulkhead().getInFlight()).append('\n');
+            }
+        }
+        RecentCredentials recent = RecentCredentials.peek();
+        if (recent != null) {
+            sb.append("# TYPE auth_degraded_logins_total counter\n");
+            sb.append("auth_degraded_logins_total ").append(recent.getServed()).append('\n');
+        }
+        ProofOfWork pow = ProofOfWork.peek();
+        if (pow != null) {
+            sb.append("# TYPE challenge_issued_total counter\n");
+            sb.append("challenge_issued_total ").append(pow.getIssued()).append('\n');
+            sb.append("# TYPE challenge_verified_total counter\n");
+            sb.append("challenge_verified_total{result=\"passed\"} ").append(pow.getPassed()).append('\n');
+            sb.append("challenge_verified_total{result=\"rejected\"} ").append(pow.getRejected()).append('\n');
+            sb.append("# HELP challenge_difficulty_bits Leading zero bits asked of the last challenge.\n");
+            sb.append("# TYPE challenge_difficulty_bits gauge\n");
+            sb.append("challenge_difficulty_bits ").append(pow.getLastBits()).append('\n');
+        }
+
+        ReadRouter router = ReadRouter.peek();
+        if (router != null) {
+            List<ReadRouter.ReplicaStats> replicas = router.getStats();
+            sb.append("# TYPE db_replica_up gauge\n");
+            for (ReadRouter.ReplicaStats r : replicas) {
+                sb.append("db_replica_up{replica=\"").append(escapeLabel(r.name())).append("\"} ")
+                        .append(r.healthy() ? 1 : 0).append('\n');
+            }
+            sb.append("# TYPE db_replica_latency_seconds gauge\n");
+            for (ReadRouter.ReplicaStats r : replicas) {
+                sb.append("db_replica_latency_seconds{replica=\"").append(escapeLabel(r.name())).append("\"} ")
+                        .append(r.latencyMicros() / 1e6).append('\n');
+            }
+            sb.append("# TYPE db_replica_reads_total counter\n");
+            for (ReadRouter.ReplicaStats r : replicas) {
+                sb.append("db_replica_reads_total{replica=\"").append(escapeLabel(r.name())).append("\"} ")
+                        .append(r.reads()).append('\n');
+            }
+            sb.append("# TYPE db_replica_failures_total counter\n");
+            for (ReadRouter.ReplicaStats r : replicas) {
+                sb.append("db_replica_failures_total{replica=\"").append(escapeLabel(r.name())).append("\"} ")
+                        .append(r.failures()).append('\n');
+            }
+            sb.append("# TYPE db_primary_reads_total counter\n");
+            sb.append("db_primary_reads_total{reason=\"read_your_writes\"} ").append(router.getPrimaryReads()).append('\n');
+            sb.append("db_primary_reads_total{reason=\"no_replica\"} ").append(router.getFallbacks()).append('\n');
+        }
+
+        ConnectionPool pool = DBConnection.peekDataSource();
+        if (pool != null) {
+            ConnectionPool.Stats p = pool.getStats();
+            sb.append("# TYPE db_pool_connections gauge\n");
+            sb.append("db_pool_connections{state=\"active\"} ").append(p.active()).append('\n');
+            sb.append("db_pool_connections{state=\"idle\"} ").append(p.idle()).append('\n');
+            sb.append("db_pool_connections{state=\"max\"} ").append(p.maxSize()).append('\n');
+            sb.append("# TYPE db_pool_borrows_total counter\n");
+            sb.append("db_pool_borrows_total ").append(p.borrows()).append('\n');
+            sb.append("# TYPE db_pool_timeouts_total counter\n");
+            sb.append("db_pool_timeouts_total ").append(p.timeouts()).append('\n');
+            sb.append("# TYPE db_pool_wait_seconds_total counter\n");
+            sb.append("db_pool_wait_seconds_total ").append(seconds(p.totalWaitNanos())).append('\n');
+
+            List<ConnectionPool.StatementStats> statements = pool.getStatementStats();
+            sb.append("# TYPE db_statement_prepares_total counter\n");
+            for (ConnectionPool.StatementStats st : statements) {
+                sb.append("db_statement_prepares_total{sql=\"").append(escapeLabel(st.sql())).append("\"} ")
+                        .append(st.prepares()).append('\n');
+            }
+            sb.append("# TYPE db_statement_cache_hits_total counter\n");
+            for (ConnectionPool.StatementStats st : statements) {
+                sb.append("db_statement_cache_hits_total{sql=\"").append(escapeLabel(st.sql())).append("\"} ")
+                        .append(st.cacheHits()).append('\n');
+            }
+            sb.append("# TYPE db_statement_executions_total counter\n");
+            for (ConnectionPool.StatementStats st : statements) {
+                sb.append("db_statement_executions_total{sql=\"").append(escapeLabel(st.sql())).append("\"} ")
+                        .append(st.executions()).append('\n');
+            }
+            sb.append("# TYPE db_statement_seconds_total counter\n");
+            for (ConnectionPool.StatementStats st : statements) {
+                sb.append("db_statement_seconds_total{sql=\"").append(escapeLabel(st.sql())).append("\"} ")
+                        .append(seconds(st.totalNanos())).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
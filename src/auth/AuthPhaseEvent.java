@@ -0,0 +1,29 @@
+package auth;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one timed phase of login, signup or reset. Recorded with
+ * {@code -XX:StartFlightRecording}; the event duration is the phase latency.
+ */
+@Name("loginsignup.AuthPhase")
+@Label("Auth Phase")
+@Category({"Login Signup", "Authentication"})
+@Description("One phase of a login, signup or password reset")
+@StackTrace(false)
+final class AuthPhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Error")
+    boolean error;
+}
@@ -0,0 +1,68 @@
+package auth;
+
+/**
+ * Outcome of an {@link AuthService} call. Infrastructure failures such as an unreachable
+ * database are not results; they complete the returned future exceptionally. The
+ * exception is a call refused because a dependency is known to be down (its circuit is
+ * open or its bulkhead full), which is answered {@code UNAVAILABLE} at once.
+ *
+ * A successful login carries a {@code sessionToken} for
+ * {@link AuthService#resumeSession(String)} when sessions are enabled; every other
+ * result has none.
+ */
+public record AuthResult(Status status, String message, String sessionToken) {
+
+    public enum Status {
+        SUCCESS,
+        CREATED,
+        INVALID_CREDENTIALS,
+        USER_NOT_FOUND,
+        USERNAME_TAKEN,
+        BREACHED_PASSWORD,
+        CAPTCHA_REQUIRED,
+        INVALID_INPUT,
+        RATE_LIMITED,
+        LOCKED,
+        UNAVAILABLE,
+        FAILED
+    }
+
+    public AuthResult(Status status, String message) {
+        this(status, message, null);
+    }
+
+    public boolean isSuccess() {
+        return status == Status.SUCCESS || status == Status.CREATED;
+    }
+
+    AuthResult withSession(String token) {
+        return new AuthResult(status, message, token);
+    }
+
+    static AuthResult retryLater(Status status, long millis) {
+        long seconds = Math.max(1, (millis + 999) / 1_000);
+        String message = switch (status) {
+            case LOCKED -> "Account locked.";
+            case UNAVAILABLE -> "Service temporarily unavailable.";
+            default -> "Too many attempts.";
+        };
+        return new AuthResult(status, message + " Try again in " + seconds + (seconds == 1 ? " second." : " seconds."));
+    }
+
+    static AuthResult of(Status status) {
+        return new AuthResult(status, switch (status) {
+            case SUCCESS -> "Login Successful!";
+            case CREATED -> "Signup Successful!";
+            case INVALID_CREDENTIALS -> "Invalid credentials.";
+            case USER_NOT_FOUND -> "User not found.";
+            case USERNAME_TAKEN -> "Username already exists.";
+            case BREACHED_PASSWORD -> "This password has appeared in a data breach. Please choose another.";
+            case CAPTCHA_REQUIRED -> "Please complete the CAPTCHA.";
+            case INVALID_INPUT -> "Username and Password are required.";
+            case RATE_LIMITED -> "Too many attempts. Please try again later.";
+            case LOCKED -> "Account locked. Please try again later.";
+            case UNAVAILABLE -> "Service temporarily unavailable. Please try again shortly.";
+            case FAILED -> "Request failed. Please try again.";
+        });
+    }
+}
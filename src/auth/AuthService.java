@@ -0,0 +1,789 @@
+package auth;
+
+import audit.AuditEvent;
+import audit.AuditLog;
+import database.AppConfig;
+import database.DBConnection;
+import database.JdbcUserStore;
+import database.PasswordUtils;
+import database.ReadRouter;
+import database.UserStore;
+import database.UserStore.Credentials;
+import database.UserStores;
+import database.UsernameIndex;
+
+import java.sql.SQLException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import resilience.DependencyUnavailableException;
+
+/**
+ * Login, signup and password reset without any UI. Used by the JavaFX controllers and by
+ * {@link AuthHttpServer}.
+ *
+ * Every call returns at once: lookups and writes run on the I/O lane, hashing on the CPU
+ * lane of {@link AuthExecutors}. Login and signup pass the captcha token to a
+ * {@link ChallengeProvider}: reCAPTCHA, or a local {@link ProofOfWork} with
+ * {@code auth.challenge=pow}; {@code auth.captcha.required=false} turns the gate off for
+ * load tests against a trusted network. Every call and each of its phases is timed in
+ * {@link AuthMetrics}.
+ *
+ * Accounts are read and written through a {@link UserStore}, the {@code USERS} table
+ * unless {@code db.store} selects another engine.
+ *
+ * A signup for a name the {@link UsernameIndex} has never seen, the common case, hashes
+ * first and creates the account in one INSERT; the unique key on {@code USERNAME} settles
+ * a race for the name, and losing it wastes one hash. Any other name is reserved before
+ * hashing: one INSERT of a placeholder hash (see {@link UserStore#RESERVATION_PREFIX}),
+ * so a taken name costs no hash, then an UPDATE swaps in the real hash. That is two
+ * writes instead of one, paid only where a hash is likely to be wasted. A signup that
+ * fails or whose caller cancels gives the name back; one that never finishes (the
+ * process died) leaves a placeholder that a later signup may take over once
+ * {@code auth.signup.reservationMs} has passed.
+ *
+ * Login and reset attempts first pass the {@link LoginThrottle}, so a refused attempt
+ * costs no captcha call, query or hash. {@code client} identifies the caller for the
+ * per-client limit: the remote address for {@link AuthHttpServer}, {@link #LOCAL_CLIENT}
+ * for the desktop app.
+ *
+ * With a {@link SessionManager}, a successful login returns a session token that
+ * {@link #resumeSession(String)} accepts in place of the password and captcha until it
+ * expires or the password is reset.
+ *
+ * With a {@link BreachedPasswords} index, signup and reset refuse a password found in
+ * it before any hashing or write.
+ *
+ * With an {@link AuditLog}, the outcome of every login, signup, reset and session resume
+ * is queued for the audit trail as the call completes; the call does not wait for it to
+ * be written.
+ *
+ * The database and siteverify sit behind circuit breakers and bulkheads (see
+ * {@link DBConnection#getDependency()} and {@link CaptchaVerifier}). A call refused by
+ * one is answered {@link AuthResult.Status#UNAVAILABLE} within milliseconds instead of
+ * waiting for a timeout. With {@link RecentCredentials}, a login whose lookup fails is
+ * checked against the hash from the user's last successful login instead; such a login
+ * gets no session token, since sessions may live in the database too.
+ */
+public class AuthService {
+
+    public static final String LOCAL_CLIENT = "local";
+
+    private static volatile AuthService shared;
+
+    private final ChallengeProvider captcha;
+    private final boolean captchaRequired;
+    private final LoginThrottle throttle;
+    private final boolean persistLockout;
+    private final SessionManager sessions;
+    private final UserStore store;
+    private final AuditLog audit;
+    private final BreachedPasswords breached;
+    private final RecentCredentials recent;
+    private final long reservationMillis = AppConfig.getLong("auth.signup.reservationMs", 60_000);
+
+    /**
+     * Collects what an {@link AuthService} is built from. Whatever is not set is left out:
+     * no captcha, throttle, sessions, audit, breach check or degraded logins. The store
+     * defaults to the {@code USERS} table.
+     */
+    public static final class Builder {
+        private ChallengeProvider captcha;
+        private boolean captchaRequired;
+        private LoginThrottle throttle;
+        private boolean persistLockout;
+        private SessionManager sessions;
+        private UserStore store;
+        private AuditLog audit;
+        private BreachedPasswords breached;
+        private RecentCredentials recent;
+
+        private Builder() {
+        }
+
+        /**
+         * @param required whether login and signup must pass {@code provider}; when false
+         *                 it is only used to issue challenges
+         */
+        public Builder captcha(ChallengeProvider provider, boolean required) {
+            this.captcha = provider;
+            this.captchaRequired = required;
+            return this;
+        }
+
+        /**
+         * @param persistLockout whether failed attempts and locks are kept in {@code USERS}
+         */
+        public Builder throttle(LoginThrottle throttle, boolean persistLockout) {
+            this.throttle = throttle;
+            this.persistLockout = persistLockout;
+            return this;
+        }
+
+        /** Issues session tokens on login. */
+        public Builder sessions(SessionManager sessions) {
+            this.sessions = sessions;
+            return this;
+        }
+
+        /** Where accounts are kept. */
+        public Builder store(UserStore store) {
+            this.store = store;
+            return this;
+        }
+
+        /** Receives an event per call. */
+        public Builder audit(AuditLog audit) {
+            this.audit = audit;
+            return this;
+        }
+
+        /** Passwords refused on signup and reset. */
+        public Builder breached(BreachedPasswords breached) {
+            this.breached = breached;
+            return this;
+        }
+
+        /** Serves logins while the store is down. */
+        public Builder recent(RecentCredentials recent) {
+            this.recent = recent;
+            return this;
+        }
+
+        public AuthService build() {
+            return new AuthService(this);
+        }
+    }
+
+    private AuthService(Builder builder) {
+        this.captcha = builder.captcha;
+        this.captchaRequired = builder.captchaRequired && builder.captcha != null;
+        this.throttle = builder.throttle;
+        this.persistLockout = builder.persistLockout && builder.throttle != null;
+        this.sessions = builder.sessions;
+        this.store = builder.store != null ? builder.store : jdbcStore();
+        this.audit = builder.audit;
+        this.breached = builder.breached;
+        this.recent = builder.recent;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static AuthService shared() {
+        AuthService service = shared;
+        if (service == null) {
+            synchronized (AuthService.class) {
+                service = shared;
+                if (service == null) {
+                    shared = service = builder()
+                            .captcha(ChallengeProviders.shared(), AppConfig.getBoolean("auth.captcha.required", true))
+                            .throttle(LoginThrottle.isEnabled() ? LoginThrottle.shared() : null,
+                                    LoginThrottle.isLockoutPersisted())
+                            .sessions(SessionManager.isEnabled() ? SessionManager.shared() : null)
+                            .store("jdbc".equals(UserStores.engine()) ? jdbcStore() : UserStores.shared())
+                            .audit(AuditLog.isEnabled() ? AuditLog.shared() : null)
+                            .breached(BreachedPasswords.isEnabled() ? BreachedPasswords.shared() : null)
+                            .recent(RecentCredentials.isEnabled() ? RecentCredentials.shared() : null)
+                            .build();
+                }
+            }
+        }
+        return service;
+    }
+
+    public CompletableFuture<AuthResult> login(String username, String password, String captchaToken) {
+        return login(username, password, captchaToken, LOCAL_CLIENT);
+    }
+
+    public CompletableFuture<AuthResult> login(String username, String password, String captchaToken, String client) {
+        Attempt attempt = new Attempt();
+        CompletableFuture<AuthResult> login = AuthMetrics.track(AuthMetrics.Phase.LOGIN,
+                orUnavailable(doLogin(username, password, captchaToken, client, attempt)));
+        if (captchaRequired) {
+            login.thenAccept(result -> {
+                switch (result.status()) {
+                    case INVALID_CREDENTIALS, USER_NOT_FOUND, CAPTCHA_REQUIRED -> captcha.failed(client);
+                    default -> {
+                    }
+                }
+            });
+        }
+        return cancellable(audited(AuditEvent.Type.LOGIN, username, client, login), attempt);
+    }
+
+    public CompletableFuture<AuthResult> signup(String username, String password, String captchaToken) {
+        return signup(username, password, captchaToken, LOCAL_CLIENT);
+    }
+
+    public CompletableFuture<AuthResult> signup(String username, String password, String captchaToken, String client) {
+        Attempt attempt = new Attempt();
+        CompletableFuture<AuthResult> signup = audited(AuditEvent.Type.SIGNUP, username, client,
+                AuthMetrics.track(AuthMetrics.Phase.SIGNUP,
+                        orUnavailable(doSignup(username, password, captchaToken, client, attempt))));
+        // Cancelling does not reach the write in progress, so take back an account made anyway
+        signup.whenComplete((result, failure) -> {
+            if (failure instanceof CancellationException) {
+                String created = attempt.abandon();
+                if (created != null) {
+                    UsernameIndex.shared().remove(username);
+                    release(username, created);
+                }
+            }
+        });
+        return signup;
+    }
+
+    public CompletableFuture<AuthResult> resetPassword(String username, String newPassword) {
+        return resetPassword(username, newPassword, LOCAL_CLIENT);
+    }
+
+    public CompletableFuture<AuthResult> resetPassword(String username, String newPassword, String client) {
+        Attempt attempt = new Attempt();
+        return cancellable(reset(username, newPassword, client, attempt), attempt);
+    }
+
+    private CompletableFuture<AuthResult> reset(String username, String newPassword, String client, Attempt attempt) {
+        return audited(AuditEvent.Type.RESET, username, client, AuthMetrics.track(AuthMetrics.Phase.RESET,
+                orUnavailable(doResetPassword(username, newPassword, client, attempt))));
+    }
+
+    /**
+     * Resets the password of the user a session token belongs to, for callers that cannot
+     * vouch for who is asking (the HTTP API). Refused unless {@code token} is a live
+     * session of {@code username}; the reset then ends every session of that user.
+     */
+    public CompletableFuture<AuthResult> changePassword(String token, String username, String newPassword,
+                                                        String client) {
+        if (sessions == null || isBlank(token) || isBlank(username)) {
+            return audited(AuditEvent.Type.RESET, username, client, notLoggedIn());
+        }
+        Attempt attempt = new Attempt();
+        return cancellable(sessions.resume(token).thenCompose(session -> session != null && session.username().equals(username)
+                ? reset(username, newPassword, client, attempt)
+                : audited(AuditEvent.Type.RESET, username, client, notLoggedIn())), attempt);
+    }
+
+    // Cancelling the future a caller holds does not reach the stages composed inside it,
+    // so each stage checks the attempt before it starts
+    private static CompletableFuture<AuthResult> cancellable(CompletableFuture<AuthResult> future, Attempt attempt) {
+        future.whenComplete((result, failure) -> {
+            if (failure instanceof CancellationException) {
+                attempt.abandon();
+            }
+        });
+        return future;
+    }
+
+    private static CompletableFuture<AuthResult> notLoggedIn() {
+        return CompletableFuture.completedFuture(
+                new AuthResult(AuthResult.Status.INVALID_CREDENTIALS, "Log in to change the password."));
+    }
+
+    /**
+     * Logs in with a token from an earlier successful login. Answered from memory in
+     * microseconds unless the session has to be read from the {@code SESSIONS} table.
+     */
+    public CompletableFuture<AuthResult> resumeSession(String token) {
+        return resumeSession(token, LOCAL_CLIENT);
+    }
+
+    public CompletableFuture<AuthResult> resumeSession(String token, String client) {
+        return AuthMetrics.track(AuthMetrics.Phase.SESSION, doResumeSession(token, client));
+    }
+
+    /** Ends the session of a token; unknown tokens are ignored. */
+    public CompletableFuture<AuthResult> logout(String token) {
+        if (sessions == null || isBlank(token)) {
+            return CompletableFuture.completedFuture(new AuthResult(AuthResult.Status.SUCCESS, "Logged out."));
+        }
+        return AuthExecutors.supplyIo(() -> {
+            sessions.revoke(token);
+            return new AuthResult(AuthResult.Status.SUCCESS, "Logged out.");
+        });
+    }
+
+    private CompletableFuture<AuthResult> doResumeSession(String token, String client) {
+        if (sessions == null || isBlank(token)) {
+            return audited(AuditEvent.Type.SESSION, null, client, completed(AuthResult.Status.INVALID_INPUT));
+        }
+        CompletableFuture<SessionManager.Session> resumed = sessions.resume(token);
+        // The username is only known once the session is found
+        if (audit != null) {
+            resumed.whenComplete((session, failure) -> audit.record(AuditEvent.Type.SESSION,
+                    session == null ? null : session.username(), client,
+                    failure != null ? auditOutcome(null, failure)
+                            : session == null ? AuthResult.Status.INVALID_CREDENTIALS.name() : AuthResult.Status.SUCCESS.name()));
+        }
+        return resumed.thenApply(session -> session == null
+                ? new AuthResult(AuthResult.Status.INVALID_CREDENTIALS, "Session expired. Please log in again.")
+                : new AuthResult(AuthResult.Status.SUCCESS, "Welcome back, " + session.username() + "!", token));
+    }
+
+    private CompletableFuture<AuthResult> doLogin(String username, String password, String captchaToken, String client,
+                                                  Attempt attempt) {
+        if (isBlank(username) || isBlank(password)) {
+            return completed(AuthResult.Status.INVALID_INPUT);
+        }
+        AuthResult refused = admit(username, client);
+        if (refused != null) {
+            return CompletableFuture.completedFuture(refused);
+        }
+        return checkCaptcha(captchaToken, client).thenCompose(passed -> {
+            if (!passed) {
+                return completed(AuthResult.Status.CAPTCHA_REQUIRED);
+            }
+            // The index only decides when this process is the store's only writer; anywhere
+            // else another client may have created the name since the last warm-up
+            if (UsernameIndex.isEnabled() && UsernameIndex.shared().isAuthoritativeFor(store)
+                    && UsernameIndex.shared().lookup(username) == UsernameIndex.Answer.DEFINITELY_FREE) {
+                return completed(AuthResult.Status.USER_NOT_FOUND);
+            }
+            // Read before the lookup, so a reset that lands meanwhile keeps the old hash out of the cache
+            long generation = recent == null ? 0 : recent.generation(username);
+            return AuthExecutors.supplyIo(() -> {
+                        attempt.checkNotAbandoned();
+                        return findCredentials(username);
+                    })
+                    .handle((credentials, failure) -> failure == null
+                            ? checkCredentials(username, password, credentials, generation, attempt)
+                            : lookupFailed(username, password, failure, attempt))
+                    .thenCompose(result -> result);
+        });
+    }
+
+    private CompletableFuture<AuthResult> checkCredentials(String username, String password, Credentials credentials,
+                                                           long generation, Attempt attempt) {
+        if (credentials == null || UserStore.isReservation(credentials.hash())) {
+            return completed(AuthResult.Status.USER_NOT_FOUND);
+        }
+        if (recent != null) {
+            recent.lockout(username, credentials.failedAttempts(), credentials.lockedUntilMillis());
+        }
+        long lockedFor = credentials.lockedUntilMillis() - System.currentTimeMillis();
+        if (lockedFor > 0) {
+            throttle.locked(username, credentials.lockedUntilMillis());
+            return CompletableFuture.completedFuture(AuthResult.retryLater(AuthResult.Status.LOCKED, lockedFor));
+        }
+        return AuthExecutors.supplyCpu(() -> {
+                    attempt.checkNotAbandoned();
+                    return verifyPassword(username, password, credentials.hash(), generation);
+                })
+                .thenCompose(result -> afterVerify(username, credentials, result))
+                .thenCompose(result -> {
+                    attempt.checkNotAbandoned();
+                    return startSession(username, result);
+                });
+    }
+
+    // Degraded mode: the store could not be asked, so check the hash of the user's last good login
+    private CompletableFuture<AuthResult> lookupFailed(String username, String password, Throwable failure,
+                                                       Attempt attempt) {
+        Throwable cause = AuthExecutors.unwrap(failure);
+        RecentCredentials.Entry entry = recent != null && cause instanceof SQLException ? recent.lookup(username) : null;
+        if (entry == null) {
+            return CompletableFuture.failedFuture(cause);
+        }
+        long lockedFor = entry.lockedUntilMillis() - System.currentTimeMillis();
+        if (lockedFor > 0) {
+            return CompletableFuture.completedFuture(AuthResult.retryLater(AuthResult.Status.LOCKED, lockedFor));
+        }
+        return AuthExecutors.supplyCpu(() -> {
+            attempt.checkNotAbandoned();
+            if (!AuthMetrics.time(AuthMetrics.Phase.VERIFY, () -> PasswordUtils.checkPassword(password, entry.hash()))) {
+                return degradedFailure(username);
+            }
+            recent.served();
+            recent.lockout(username, 0, 0);
+            if (throttle != null) {
+                throttle.succeeded(username);
+            }
+            return new AuthResult(AuthResult.Status.SUCCESS, "Login Successful! Some features are unavailable right now.");
+        });
+    }
+
+    // Counts toward the lock like a failure in the store would, but only here: the store cannot be written
+    private AuthResult degradedFailure(String username) {
+        AuthResult result = AuthResult.of(AuthResult.Status.INVALID_CREDENTIALS);
+        if (!persistLockout) {
+            return result;
+        }
+        int failures = recent.failed(username);
+        long lockMillis = throttle.lockoutMillis(failures);
+        if (lockMillis == 0) {
+            return result;
+        }
+        long until = System.currentTimeMillis() + lockMillis;
+        recent.lockout(username, failures, until);
+        throttle.locked(username, until);
+        return AuthResult.retryLater(AuthResult.Status.LOCKED, lockMillis);
+    }
+
+    // A dependency known to be down is an answer, not an error: say so, and when to come back
+    private static CompletableFuture<AuthResult> orUnavailable(CompletableFuture<AuthResult> future) {
+        return future.exceptionallyCompose(error -> {
+            DependencyUnavailableException refused = DependencyUnavailableException.find(error);
+            if (refused == null) {
+                return CompletableFuture.failedFuture(AuthExecutors.unwrap(error));
+            }
+            return CompletableFuture.completedFuture(refused.getRetryAfterMillis() > 0
+                    ? AuthResult.retryLater(AuthResult.Status.UNAVAILABLE, refused.getRetryAfterMillis())
+                    : AuthResult.of(AuthResult.Status.UNAVAILABLE));
+        });
+    }
+
+    /**
+     * @return null if the attempt may go ahead, otherwise the refusal
+     */
+    private AuthResult admit(String username, String client) {
+        return throttle == null ? null : throttle.admit(username, client == null ? LOCAL_CLIENT : client);
+    }
+
+    private CompletableFuture<AuthResult> afterVerify(String username, Credentials credentials, AuthResult result) {
+        if (throttle == null) {
+            return CompletableFuture.completedFuture(result);
+        }
+        if (result.isSuccess()) {
+            throttle.succeeded(username);
+            if (credentials.failedAttempts() > 0) {
+                AuthExecutors.supplyIo(() -> clearFailures(username)).exceptionally(error -> {
+                    AuthExecutors.unwrap(error).printStackTrace();
+                    return false;
+                });
+            }
+            return CompletableFuture.completedFuture(result);
+        }
+        if (!persistLockout) {
+            return CompletableFuture.completedFuture(result);
+        }
+        int failures = credentials.failedAttempts() + 1;
+        long lockMillis = throttle.lockoutMillis(failures);
+        long until = lockMillis > 0 ? System.currentTimeMillis() + lockMillis : 0;
+        return AuthExecutors.supplyIo(() -> {
+            recordFailure(username, until);
+            if (recent != null) {
+                recent.lockout(username, failures, until);
+            }
+            if (until == 0) {
+                return result;
+            }
+            throttle.locked(username, until);
+            return AuthResult.retryLater(AuthResult.Status.LOCKED, lockMillis);
+        });
+    }
+
+    private CompletableFuture<AuthResult> startSession(String username, AuthResult result) {
+        if (sessions == null || result.status() != AuthResult.Status.SUCCESS) {
+            return CompletableFuture.completedFuture(result);
+        }
+        return sessions.issue(username).thenApply(result::withSession);
+    }
+
+    private CompletableFuture<AuthResult> doSignup(String username, String password, String captchaToken,
+                                                   String client, Attempt attempt) {
+        if (isBlank(username) || isBlank(password)) {
+            return completed(AuthResult.Status.INVALID_INPUT);
+        }
+        return checkCaptcha(captchaToken, client).thenCompose(passed -> {
+            if (!passed) {
+                return completed(AuthResult.Status.CAPTCHA_REQUIRED);
+            }
+            // A name the index knows is taken fails without a round trip
+            UsernameIndex.Answer known = UsernameIndex.isEnabled()
+                    ? UsernameIndex.shared().lookup(username) : UsernameIndex.Answer.UNKNOWN;
+            if (known == UsernameIndex.Answer.TAKEN) {
+                return completed(AuthResult.Status.USERNAME_TAKEN);
+            }
+            return checkBreached(password).thenCompose(breach -> {
+                if (breach) {
+                    return completed(AuthResult.Status.BREACHED_PASSWORD);
+                }
+                // Almost certainly free: one INSERT of the real hash
+                if (known == UsernameIndex.Answer.DEFINITELY_FREE) {
+                    return AuthExecutors.supplyCpu(() -> hash(password, attempt))
+                            .thenCompose(hashed -> AuthExecutors.supplyIo(() -> create(username, hashed, attempt)));
+                }
+                // Maybe taken: hold the name before spending a hash on it
+                return AuthExecutors.supplyIo(() -> reserve(username))
+                        .thenCompose(placeholder -> placeholder == null
+                                ? completed(AuthResult.Status.USERNAME_TAKEN)
+                                : completeSignup(username, password, placeholder, known, attempt));
+            });
+        });
+    }
+
+    private CompletableFuture<AuthResult> completeSignup(String username, String password, String placeholder,
+                                                         UsernameIndex.Answer known, Attempt attempt) {
+        CompletableFuture<AuthResult> signup = AuthExecutors.supplyCpu(() -> hash(password, attempt))
+                .thenCompose(hashed -> AuthExecutors.supplyIo(() -> claim(username, placeholder, hashed, known, attempt)));
+        signup.whenComplete((result, failure) -> {
+            if (failure != null) {
+                release(username, placeholder);
+            }
+        });
+        return signup;
+    }
+
+    private CompletableFuture<AuthResult> doResetPassword(String username, String newPassword, String client,
+                                                          Attempt attempt) {
+        if (isBlank(username) || isBlank(newPassword)) {
+            return completed(AuthResult.Status.INVALID_INPUT);
+        }
+        AuthResult refused = admit(username, client);
+        if (refused != null) {
+            return CompletableFuture.completedFuture(refused);
+        }
+        return checkBreached(newPassword).thenCompose(breach -> breach
+                ? completed(AuthResult.Status.BREACHED_PASSWORD)
+                : AuthExecutors.supplyCpu(() -> hash(newPassword, attempt))
+                        .thenCompose(hashed -> AuthExecutors.supplyIo(() -> {
+                            attempt.checkNotAbandoned();
+                            AuthResult result = updatePassword(username, hashed);
+                            // Whoever held the old password must not stay logged in with it
+                            if (result.isSuccess() && recent != null) {
+                                recent.forget(username);
+                            }
+                            if (result.isSuccess() && sessions != null) {
+                                sessions.revokeAll(username);
+                            }
+                            return result;
+                        })));
+    }
+
+    // On the I/O lane: a probe that misses the page cache waits for the disk
+    private CompletableFuture<Boolean> checkBreached(String password) {
+        return breached == null
+                ? CompletableFuture.completedFuture(false)
+                : AuthExecutors.supplyIo(() -> AuthMetrics.time(AuthMetrics.Phase.BREACH_CHECK, () -> breached.contains(password)));
+    }
+
+    private CompletableFuture<Boolean> checkCaptcha(String token, String client) {
+        return captchaRequired
+                ? AuthMetrics.track(AuthMetrics.Phase.CAPTCHA, captcha.verify(token, client == null ? LOCAL_CLIENT : client))
+                : CompletableFuture.completedFuture(true);
+    }
+
+    /**
+     * @return the provider login and signup check captcha tokens with
+     */
+    public ChallengeProvider getChallengeProvider() {
+        return captcha;
+    }
+
+    private static String hash(String password) {
+        return AuthMetrics.time(AuthMetrics.Phase.HASH, () -> PasswordUtils.hashPassword(password));
+    }
+
+    // The JDBC store borrows from the primary through here so pool waits show up as their own phase
+    private static JdbcUserStore jdbcStore() {
+        return new JdbcUserStore(() -> AuthMetrics.time(AuthMetrics.Phase.DB_CONNECT, DBConnection::getConnection),
+                ReadRouter.shared(), DBConnection.getDependency());
+    }
+
+    private AuthResult verifyPassword(String username, String password, String hashed, long generation) {
+        if (!AuthMetrics.time(AuthMetrics.Phase.VERIFY, () -> PasswordUtils.checkPassword(password, hashed))) {
+            return AuthResult.of(AuthResult.Status.INVALID_CREDENTIALS);
+        }
+        if (PasswordUtils.needsRehash(hashed)) {
+            // Upgrade outdated hashes in the background; the login does not wait for it
+            AuthExecutors.supplyCpu(() -> hash(password))
+                    .thenCompose(upgraded -> AuthExecutors.supplyIo(() -> replaceHash(username, hashed, upgraded)))
+                    .exceptionally(error -> {
+                        AuthExecutors.unwrap(error).printStackTrace();
+                        return false;
+                    });
+        }
+        if (recent != null) {
+            recent.remember(username, hashed, generation);
+        }
+        return AuthResult.of(AuthResult.Status.SUCCESS);
+    }
+
+    private Credentials findCredentials(String username) throws SQLException {
+        Credentials credentials = AuthMetrics.time(AuthMetrics.Phase.DB_QUERY,
+                () -> store.findCredentials(username, persistLockout));
+        if (credentials != null && !UserStore.isReservation(credentials.hash())) {
+            UsernameIndex.shared().add(username);
+        }
+        return credentials;
+    }
+
+    // Counts in the store so concurrent failures are not lost; the lock uses the count read at lookup
+    private void recordFailure(String username, long lockedUntilMillis) throws SQLException {
+        AuthMetrics.time(AuthMetrics.Phase.DB_QUERY, () -> {
+            store.recordFailure(username, lockedUntilMillis);
+            return null;
+        });
+    }
+
+    private boolean clearFailures(String username) throws SQLException {
+        return AuthMetrics.time(AuthMetrics.Phase.DB_QUERY, () -> store.clearFailures(username));
+    }
+
+    // Only replaces the hash that was verified, so a concurrent reset is never overwritten
+    private boolean replaceHash(String username, String oldHash, String newHash) throws SQLException {
+        return AuthMetrics.time(AuthMetrics.Phase.DB_QUERY, () -> store.replacePassword(username, oldHash, newHash));
+    }
+
+    /**
+     * Holds the name with a placeholder hash, taking over the placeholder of a signup that
+     * expired without finishing.
+     * @return the placeholder, or null if the name is taken
+     */
+    private String reserve(String username) throws SQLException {
+        long now = System.currentTimeMillis();
+        String placeholder = UserStore.RESERVATION_PREFIX + Long.toString(now + reservationMillis, 36) + "."
+                + Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+        if (AuthMetrics.time(AuthMetrics.Phase.DB_QUERY, () -> store.insert(username, placeholder))) {
+            return placeholder;
+        }
+        Credentials holder = AuthMetrics.time(AuthMetrics.Phase.DB_QUERY, () -> store.findCredentials(username, false));
+        if (holder == null) {
+            // Given back since our INSERT; let the client try again rather than loop here
+            return null;
+        }
+        if (!UserStore.isReservation(holder.hash())) {
+            UsernameIndex.shared().add(username);
+            return null;
+        }
+        if (reservationExpiry(holder.hash()) < now
+                && AuthMetrics.time(AuthMetrics.Phase.DB_QUERY,
+                        () -> store.replacePassword(username, holder.hash(), placeholder))) {
+            return placeholder;
+        }
+        return null;
+    }
+
+    private static long reservationExpiry(String placeholder) {
+        int start = UserStore.RESERVATION_PREFIX.length();
+        int dot = placeholder.indexOf('.', start);
+        try {
+            return Long.parseLong(placeholder.substring(start, dot < 0 ? placeholder.length() : dot), 36);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Creates the account in one INSERT. A name taken since the index last saw it is
+    // refused, unless it is only the placeholder of a signup that never finished
+    private AuthResult create(String username, String hashedPassword, Attempt attempt) throws SQLException {
+        attempt.checkNotAbandoned();
+        if (!AuthMetrics.time(AuthMetrics.Phase.DB_QUERY, () -> store.insert(username, hashedPassword))) {
+            Credentials holder = AuthMetrics.time(AuthMetrics.Phase.DB_QUERY, () -> store.findCredentials(username, false));
+            boolean expired = holder != null && UserStore.isReservation(holder.hash())
+                    && reservationExpiry(holder.hash()) < System.currentTimeMillis();
+            if (!expired || !AuthMetrics.time(AuthMetrics.Phase.DB_QUERY,
+                    () -> store.replacePassword(username, holder.hash(), hashedPassword))) {
+                if (holder != null && !UserStore.isReservation(holder.hash())) {
+                    UsernameIndex.shared().add(username);
+                }
+                return AuthResult.of(AuthResult.Status.USERNAME_TAKEN);
+            }
+        }
+        return created(username, hashedPassword, UsernameIndex.Answer.DEFINITELY_FREE, attempt);
+    }
+
+    // Only replaces our own placeholder, so a signup that outlived its reservation cannot
+    // overwrite the account of whoever took the name over
+    private AuthResult claim(String username, String placeholder, String hashedPassword, UsernameIndex.Answer known,
+                             Attempt attempt) throws SQLException {
+        // Failing here gives the placeholder back
+        attempt.checkNotAbandoned();
+        if (!AuthMetrics.time(AuthMetrics.Phase.DB_QUERY, () -> store.replacePassword(username, placeholder, hashedPassword))) {
+            return AuthResult.of(AuthResult.Status.USERNAME_TAKEN);
+        }
+        return created(username, hashedPassword, known, attempt);
+    }
+
+    private AuthResult created(String username, String hashedPassword, UsernameIndex.Answer known,
+                               Attempt attempt) throws SQLException {
+        if (!attempt.keep(hashedPassword)) {
+            // The caller gave up while the row was written
+            AuthMetrics.time(AuthMetrics.Phase.DB_QUERY, () -> store.delete(username, hashedPassword));
+            throw new CancellationException("Signup cancelled");
+        }
+        UsernameIndex index = UsernameIndex.shared();
+        if (known == UsernameIndex.Answer.PROBABLY_TAKEN) {
+            index.recordFalsePositive();
+        }
+        index.add(username);
+        return AuthResult.of(AuthResult.Status.CREATED);
+    }
+
+    private static String hash(String password, Attempt attempt) {
+        attempt.checkNotAbandoned();
+        return hash(password);
+    }
+
+    /**
+     * One call whose caller may cancel it. Stages check it before they start, so the work
+     * not yet begun is skipped; a hash or query already running still finishes. For a
+     * signup caught while the account is written, whichever of {@link #keep} and
+     * {@link #abandon} comes second undoes the account.
+     */
+    private static final class Attempt {
+        private boolean abandoned;
+        private String createdHash;
+
+        synchronized void checkNotAbandoned() {
+            if (abandoned) {
+                throw new CancellationException("Cancelled by the caller");
+            }
+        }
+
+        /** @return false if the caller has already given up, so the account must go */
+        synchronized boolean keep(String hash) {
+            if (abandoned) {
+                return false;
+            }
+            createdHash = hash;
+            return true;
+        }
+
+        /** @return the hash of an account already created, which the caller must delete */
+        synchronized String abandon() {
+            abandoned = true;
+            return createdHash;
+        }
+    }
+
+    // A failed or cancelled signup gives the name back at once rather than holding it
+    // until it expires; only a row still holding this hash is removed
+    private void release(String username, String placeholder) {
+        AuthExecutors.supplyIo(() -> AuthMetrics.time(AuthMetrics.Phase.DB_QUERY, () -> store.delete(username, placeholder)))
+                .exceptionally(error -> {
+                    AuthExecutors.unwrap(error).printStackTrace();
+                    return false;
+                });
+    }
+
+    private AuthResult updatePassword(String username, String hashedPassword) throws SQLException {
+        return AuthMetrics.time(AuthMetrics.Phase.DB_QUERY, () -> store.updatePassword(username, hashedPassword))
+                ? new AuthResult(AuthResult.Status.SUCCESS, "Password reset successful!")
+                : AuthResult.of(AuthResult.Status.USER_NOT_FOUND);
+    }
+
+    private CompletableFuture<AuthResult> audited(AuditEvent.Type type, String username, String client,
+                                                  CompletableFuture<AuthResult> future) {
+        if (audit != null) {
+            future.whenComplete((result, failure) -> audit.record(type, username, client, auditOutcome(result, failure)));
+        }
+        return future;
+    }
+
+    private static String auditOutcome(AuthResult result, Throwable failure) {
+        if (failure == null) {
+            return result.status().name();
+        }
+        return AuthExecutors.unwrap(failure) instanceof CancellationException ? "CANCELLED" : "ERROR";
+    }
+
+    private static CompletableFuture<AuthResult> completed(AuthResult.Status status) {
+        return CompletableFuture.completedFuture(AuthResult.of(status));
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isEmpty();
+    }
+}
@@ -0,0 +1,263 @@
+package auth;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Turns a breached-password dump into the index file read by {@link BreachedPasswords},
+ * run from the command line:
+ *
+ * <pre>
+ * LoginSignupApp --build-breached dump.txt breached.idx [--plain] [--run=16000000] [--tmp=DIR]
+ * </pre>
+ *
+ * Each line of the dump is a SHA-1 in hex, optionally followed by {@code :count} as in
+ * the Pwned Passwords download, or with {@code --plain} a password in UTF-8. Lines that
+ * do not parse are skipped and counted.
+ *
+ * The dump does not have to be sorted and may be far larger than the heap: prefixes are
+ * collected in runs of {@code --run} entries (8 bytes each), each run is sorted and
+ * written to a temporary file under {@code --tmp}, and the runs are then merged into the
+ * index, dropping duplicates. The index is written next to its final name and moved into
+ * place once complete, so a running server never maps half a file.
+ */
+public class BreachedPasswordBuilder {
+
+    private static final long REPORT_INTERVAL_NANOS = 2_000_000_000L;
+
+    public static boolean handles(String[] args) {
+        return args.length > 0 && args[0].equals("--build-breached");
+    }
+
+    /**
+     * @return the process exit code
+     */
+    public static int run(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: --build-breached <dump.txt> <index> [--plain] [--run=16000000] [--tmp=DIR]");
+            return 2;
+        }
+        Path dump = Paths.get(args[1]);
+        Path index = Paths.get(args[2]);
+        boolean plain = false;
+        int runEntries = 16_000_000;
+        Path tmp = index.toAbsolutePath().getParent();
+        for (String arg : args) {
+            if (arg.equals("--plain")) {
+                plain = true;
+            } else if (arg.startsWith("--run=")) {
+                runEntries = Integer.parseInt(arg.substring("--run=".length()));
+            } else if (arg.startsWith("--tmp=")) {
+                tmp = Paths.get(arg.substring("--tmp=".length()));
+            }
+        }
+        try {
+            build(dump, index, plain, runEntries, tmp);
+            return 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 1;
+        }
+    }
+
+    /**
+     * @return the number of distinct entries written
+     */
+    public static long build(Path dump, Path index, boolean plain, int runEntries, Path tmp) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(tmp);
+        List<Path> runs = new ArrayList<>();
+        try {
+            long skipped = writeRuns(dump, plain, runEntries, tmp, runs);
+            if (skipped > 0) {
+                System.out.printf("Skipped %,d malformed lines%n", skipped);
+            }
+            long count = merge(runs, index);
+            System.out.printf("Done: %,d distinct entries in %,d bytes, %.1f s%n", count, Files.size(index),
+                    (System.nanoTime() - start) / 1e9);
+            return count;
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    /**
+     * Reads the dump into sorted run files. Prefixes are stored with the sign bit flipped so
+     * that signed order, which {@link Arrays#sort(long[])} and the merge use, is unsigned
+     * order.
+     * @return the number of lines skipped
+     */
+    private static long writeRuns(Path dump, boolean plain, int runEntries, Path tmp, List<Path> runs)
+            throws IOException {
+        long[] run = new long[runEntries];
+        int size = 0;
+        long lines = 0;
+        long skipped = 0;
+        long lastReport = System.nanoTime();
+        BreachedPasswords.Sha1 sha1 = plain ? new BreachedPasswords.Sha1() : null;
+        try (BufferedReader reader = Files.newBufferedReader(dump,
+                plain ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                long prefix;
+                if (plain) {
+                    prefix = sha1.prefix(line);
+                } else if (isHexSha1(line)) {
+                    prefix = Long.parseUnsignedLong(line, 0, 16, 16);
+                } else {
+                    skipped++;
+                    continue;
+                }
+                run[size++] = prefix ^ Long.MIN_VALUE;
+                if (size == run.length) {
+                    runs.add(writeRun(run, size, tmp));
+                    size = 0;
+                }
+                if ((lines & 0xFFFF) == 0 && System.nanoTime() - lastReport >= REPORT_INTERVAL_NANOS) {
+                    lastReport = System.nanoTime();
+                    System.out.printf("%,d lines read, %d runs written%n", lines, runs.size());
+                }
+            }
+        }
+        if (size > 0 || runs.isEmpty()) {
+            runs.add(writeRun(run, size, tmp));
+        }
+        return skipped;
+    }
+
+    private static boolean isHexSha1(String line) {
+        if (line.length() < 40 || (line.length() > 40 && line.charAt(40) != ':')) {
+            return false;
+        }
+        for (int i = 0; i < 40; i++) {
+            if (Character.digit(line.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Path writeRun(long[] run, int size, Path tmp) throws IOException {
+        Arrays.sort(run, 0, size);
+        Path file = Files.createTempFile(tmp, "breached-", ".run");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || run[i] != run[i - 1]) {
+                    out.writeLong(run[i]);
+                }
+            }
+        }
+        return file;
+    }
+
+    /** One sorted run being merged, positioned at its smallest unread prefix. */
+    private static final class RunReader implements Comparable<RunReader> {
+        private final DataInputStream in;
+        long current;
+
+        RunReader(Path file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        }
+
+        boolean advance() throws IOException {
+            try {
+                current = in.readLong();
+                return true;
+            } catch (EOFException e) {
+                in.close();
+                return false;
+            }
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            return Long.compare(current, other.current);
+        }
+    }
+
+    /**
+     * Merges the runs into the index: the entries are streamed after a blank header and
+     * fanout, which are filled in once the counts are known.
+     * @return the number of distinct entries
+     */
+    private static long merge(List<Path> runs, Path index) throws IOException {
+        Path partial = index.resolveSibling(index.getFileName() + ".tmp");
+        long[] fanout = new long[BreachedPasswords.BUCKETS];
+        long count = 0;
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runs.size()));
+        try {
+            for (Path run : runs) {
+                RunReader reader = new RunReader(run);
+                if (reader.advance()) {
+                    queue.add(reader);
+                }
+            }
+            try (FileOutputStream file = new FileOutputStream(partial.toFile());
+                 BufferedOutputStream out = new BufferedOutputStream(file, 1 << 16)) {
+                out.write(new byte[(int) BreachedPasswords.DATA_OFFSET]);
+                byte[] entry = new byte[BreachedPasswords.ENTRY_BYTES];
+                long last = 0;
+                while (!queue.isEmpty()) {
+                    RunReader head = queue.poll();
+                    long prefix = head.current ^ Long.MIN_VALUE;
+                    if (count == 0 || prefix != last) {
+                        for (int i = 0; i < entry.length; i++) {
+                            entry[i] = (byte) (prefix >>> (8 * (entry.length - 1 - i)));
+                        }
+                        out.write(entry);
+                        fanout[(int) (prefix >>> 48)]++;
+                        last = prefix;
+                        count++;
+                    }
+                    if (head.advance()) {
+                        queue.add(head);
+                    }
+                }
+                out.flush();
+                file.getFD().sync();
+            }
+        } finally {
+            for (RunReader reader : queue) {
+                reader.in.close();
+            }
+        }
+        for (int i = 1; i < fanout.length; i++) {
+            fanout[i] += fanout[i - 1];
+        }
+        ByteBuffer head = ByteBuffer.allocate((int) BreachedPasswords.DATA_OFFSET);
+        head.putInt(BreachedPasswords.MAGIC).putInt(BreachedPasswords.VERSION).putLong(count);
+        head.position(BreachedPasswords.HEADER_BYTES);
+        head.asLongBuffer().put(fanout);
+        head.rewind();
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.WRITE)) {
+            while (head.hasRemaining()) {
+                channel.write(head, head.position());
+            }
+            channel.force(true);
+        }
+        Files.move(partial, index, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return count;
+    }
+}
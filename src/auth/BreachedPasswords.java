@@ -0,0 +1,249 @@
+package auth;
+
+import database.AppConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Passwords known from public breaches, so signup and reset can refuse them. Looked up
+ * in a local index file built by {@link BreachedPasswordBuilder}; nothing is sent over
+ * the network and the entries stay on disk.
+ *
+ * The index holds the first 8 bytes of the SHA-1 of each password (the form the usual
+ * breach corpora are published in), sorted and without duplicates. 64 bits keep false
+ * positives below one in ten billion for a billion entries. The file is:
+ *
+ * <pre>
+ * header   32 bytes: magic, version, entry count
+ * fanout   65536 longs: number of entries whose first two bytes are at most i
+ * entries  the remaining 6 bytes of each prefix, big-endian
+ * </pre>
+ *
+ * The fanout is read onto the heap (512 KiB); the entries are memory-mapped in segments
+ * of at most 1.5 GiB, since one mapping cannot exceed 2 GiB. A lookup narrows to its
+ * fanout bucket and binary searches it, about 14 probes for a billion entries. Reads are
+ * absolute and the mappings are never changed, so any number of threads look up at once
+ * without locking. A probe that misses the page cache reads from disk, so callers on a
+ * latency-sensitive thread should look up elsewhere.
+ *
+ * Enabled by setting {@code auth.breached.path}.
+ */
+public final class BreachedPasswords implements AutoCloseable {
+
+    static final int MAGIC = 0x42505731; // "BPW1"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int BUCKETS = 1 << 16;
+    static final int ENTRY_BYTES = 6;
+    static final long DATA_OFFSET = HEADER_BYTES + (long) BUCKETS * Long.BYTES;
+
+    private static final int SEGMENT_SHIFT = 28;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private static final ThreadLocal<Sha1> SHA1 = ThreadLocal.withInitial(Sha1::new);
+
+    private static volatile BreachedPasswords shared;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long[] fanout;
+    private final MappedByteBuffer[] segments;
+
+    private BreachedPasswords(Path path, FileChannel channel, long[] fanout, MappedByteBuffer[] segments) {
+        this.path = path;
+        this.channel = channel;
+        this.fanout = fanout;
+        this.segments = segments;
+    }
+
+    /**
+     * Maps an index file and checks that it is complete.
+     */
+    public static BreachedPasswords open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer head = ByteBuffer.allocate((int) DATA_OFFSET);
+            while (head.hasRemaining()) {
+                if (channel.read(head, head.position()) < 0) {
+                    throw new IOException(path + " is not a breached-password index: too short");
+                }
+            }
+            head.flip();
+            if (head.getInt(0) != MAGIC || head.getInt(4) != VERSION) {
+                throw new IOException(path + " is not a breached-password index, or has an unknown version");
+            }
+            long count = head.getLong(8);
+            long[] fanout = new long[BUCKETS];
+            head.position(HEADER_BYTES);
+            head.asLongBuffer().get(fanout);
+            if (fanout[BUCKETS - 1] != count || channel.size() != DATA_OFFSET + count * ENTRY_BYTES) {
+                throw new IOException(path + " is truncated or damaged");
+            }
+            int segmentCount = (int) ((count + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+            MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long first = (long) i << SEGMENT_SHIFT;
+                long entries = Math.min(count - first, 1L << SEGMENT_SHIFT);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, DATA_OFFSET + first * ENTRY_BYTES,
+                        entries * ENTRY_BYTES);
+            }
+            return new BreachedPasswords(path, channel, fanout, segments);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @throws UncheckedIOException if the file named by {@code auth.breached.path} cannot be opened
+     */
+    public static BreachedPasswords shared() {
+        BreachedPasswords index = shared;
+        if (index == null) {
+            synchronized (BreachedPasswords.class) {
+                index = shared;
+                if (index == null) {
+                    Path path = Paths.get(AppConfig.get("auth.breached.path", "breached.idx"));
+                    try {
+                        shared = index = open(path);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Could not open breached-password index " + path, e);
+                    }
+                    System.out.println("Breached-password index: " + index.size() + " entries from " + path);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return true when {@code auth.breached.path} is set
+     */
+    public static boolean isEnabled() {
+        return AppConfig.get("auth.breached.path", null) != null;
+    }
+
+    /**
+     * Hashes the password and looks it up. Allocates nothing once the calling thread has
+     * hashed a password of this length before.
+     */
+    public boolean contains(String password) {
+        return containsPrefix(SHA1.get().prefix(password));
+    }
+
+    /**
+     * @param prefix the first 8 bytes of a SHA-1, big-endian
+     */
+    public boolean containsPrefix(long prefix) {
+        int bucket = (int) (prefix >>> 48);
+        long low = bucket == 0 ? 0 : fanout[bucket - 1];
+        long high = fanout[bucket] - 1;
+        long key = prefix & 0xFFFF_FFFF_FFFFL;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long entry = entry(mid);
+            if (entry < key) {
+                low = mid + 1;
+            } else if (entry > key) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long size() {
+        return fanout[BUCKETS - 1];
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    private long entry(long index) {
+        MappedByteBuffer segment = segments[(int) (index >>> SEGMENT_SHIFT)];
+        int offset = (int) (index & SEGMENT_MASK) * ENTRY_BYTES;
+        return (segment.getShort(offset) & 0xFFFFL) << 32 | segment.getInt(offset + 2) & 0xFFFF_FFFFL;
+    }
+
+    /**
+     * Closes the file. The mappings stay valid until they are garbage collected, so a
+     * lookup racing with close still reads correct data.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * SHA-1 prefix of a password's UTF-8 bytes, encoded by hand into reused buffers.
+     */
+    static final class Sha1 {
+        private final MessageDigest digest;
+        private final byte[] out = new byte[20];
+        private byte[] in = new byte[64];
+
+        Sha1() {
+            try {
+                digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-1 is not available", e);
+            }
+        }
+
+        long prefix(String password) {
+            digest.update(in, 0, encode(password));
+            try {
+                digest.digest(out, 0, out.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            long prefix = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                prefix = prefix << 8 | out[i] & 0xFF;
+            }
+            return prefix;
+        }
+
+        // Same bytes as getBytes(UTF_8), including '?' for an unpaired surrogate
+        private int encode(String s) {
+            if (in.length < s.length() * 3) {
+                in = new byte[s.length() * 3];
+            }
+            int n = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    in[n++] = (byte) c;
+                } else if (c < 0x800) {
+                    in[n++] = (byte) (0xC0 | c >> 6);
+                    in[n++] = (byte) (0x80 | c & 0x3F);
+                } else if (!Character.isSurrogate(c)) {
+                    in[n++] = (byte) (0xE0 | c >> 12);
+                    in[n++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    in[n++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    in[n++] = (byte) (0xF0 | cp >> 18);
+                    in[n++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                    in[n++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                    in[n++] = (byte) (0x80 | cp & 0x3F);
+                } else {
+                    in[n++] = '?';
+                }
+            }
+            return n;
+        }
+    }
+}
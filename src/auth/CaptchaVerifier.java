@@ -0,0 +1,223 @@
+package auth;
+
+import database.AppConfig;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import resilience.Dependency;
+import resilience.DependencyUnavailableException;
+
+/**
+ * Verifies reCAPTCHA tokens with Google's siteverify endpoint.
+ *
+ * One shared {@link HttpClient} keeps connections alive (HTTP/2 where offered) and
+ * requests are sent with {@code sendAsync}, so no thread blocks on the network.
+ * Tokens that passed are remembered for a short time: Google only accepts a token once,
+ * so the login button checks the cache instead of asking again. A login or signup that
+ * passes through {@link #verify(String, String)} uses the entry up, so one token lets in
+ * one request. The endpoint, secret,
+ * timeout and cache TTL come from the {@code captcha.*} keys in {@link AppConfig}.
+ *
+ * Requests pass a {@link Dependency} (the {@code captcha.breaker.*},
+ * {@code captcha.bulkhead.*} and {@code captcha.retry.*} keys): while Google keeps
+ * failing, or {@code captcha.bulkhead.maxConcurrent} requests are already waiting on it,
+ * {@link #verify} fails at once with {@link DependencyUnavailableException}. A request
+ * that has not answered within {@code captcha.hedgeMs} is hedged with a second one, and
+ * one that failed in transit is retried after a jittered backoff. Google accepts a token
+ * once, so the first "success" wins; the other request is told the token was already
+ * used, which is ignored.
+ */
+public class CaptchaVerifier implements ChallengeProvider {
+
+    public static final String DEFAULT_VERIFY_URL = "https://www.google.com/recaptcha/api/siteverify";
+
+    private static final int MAX_CACHED_TOKENS = 10_000;
+
+    private static volatile CaptchaVerifier shared;
+
+    private final HttpClient client;
+    private final URI verifyUri;
+    private final String secret;
+    private final Duration timeout;
+    private final long cacheTtlNanos;
+    private final Dependency dependency;
+    private final long hedgeMillis;
+    private final ConcurrentHashMap<String, Long> verifiedUntil = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    public CaptchaVerifier(URI verifyUri, String secret, Duration timeout, Duration cacheTtl) {
+        this(verifyUri, secret, timeout, timeout, cacheTtl, null, 0);
+    }
+
+    /**
+     * @param connectTimeout to open a connection to the endpoint
+     * @param timeout for the whole request, including the connect
+     * @param dependency breaker, bulkhead and retries, or null to send each request once, unguarded
+     * @param hedgeMillis when to send a second request alongside a slow one; 0 for never
+     */
+    public CaptchaVerifier(URI verifyUri, String secret, Duration connectTimeout, Duration timeout, Duration cacheTtl,
+                           Dependency dependency, long hedgeMillis) {
+        this.verifyUri = verifyUri;
+        this.secret = secret;
+        this.timeout = timeout;
+        this.cacheTtlNanos = cacheTtl.toNanos();
+        this.dependency = dependency;
+        this.hedgeMillis = hedgeMillis;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .build();
+    }
+
+    public static CaptchaVerifier shared() {
+        CaptchaVerifier v = shared;
+        if (v == null) {
+            synchronized (CaptchaVerifier.class) {
+                v = shared;
+                if (v == null) {
+                    shared = v = new CaptchaVerifier(
+                            URI.create(AppConfig.get("captcha.verifyUrl", DEFAULT_VERIFY_URL)),
+                            AppConfig.get("captcha.secret", "6Lf1p4ErAAAAADrj39vih1XbSj6ubZ1MqVUMuuPt"),
+                            Duration.ofMillis(AppConfig.getLong("captcha.connectTimeoutMs", 2_000)),
+                            Duration.ofMillis(AppConfig.getLong("captcha.timeoutMs", 5_000)),
+                            Duration.ofMillis(AppConfig.getLong("captcha.cacheTtlMs", 120_000)),
+                            Dependency.fromConfig("siteverify", "captcha", 64, 0),
+                            AppConfig.getLong("captcha.hedgeMs", 1_500));
+                }
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Verifies a token, answering from the cache when it already passed. Concurrent
+     * calls for the same token share one request. Network and parse failures complete
+     * with {@code false}; a request refused by the breaker or bulkhead completes
+     * exceptionally with {@link DependencyUnavailableException}.
+     */
+    public CompletableFuture<Boolean> verify(String token) {
+        if (token == null || token.isEmpty()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (isVerified(token)) {
+            return CompletableFuture.completedFuture(true);
+        }
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = inFlight.putIfAbsent(token, result);
+        if (existing != null) {
+            return existing;
+        }
+        send(token).whenComplete((ok, error) -> {
+            inFlight.remove(token, result);
+            if (Boolean.TRUE.equals(ok)) {
+                remember(token);
+            }
+            if (error == null) {
+                result.complete(ok);
+            } else if (DependencyUnavailableException.find(error) != null) {
+                result.completeExceptionally(AuthExecutors.unwrap(error));
+            } else {
+                AuthExecutors.unwrap(error).printStackTrace();
+                result.complete(false);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> verify(String response, String client) {
+        return verify(response).thenApply(ok -> ok && consume(response));
+    }
+
+    // The result is cached, so the submit that follows finds it without asking again
+    @Override
+    public void warmUp(String response) {
+        verify(response);
+    }
+
+    /**
+     * @return true if the token passed verification within the cache TTL. No network call.
+     */
+    public boolean isVerified(String token) {
+        Long until = token == null ? null : verifiedUntil.get(token);
+        if (until == null) {
+            return false;
+        }
+        if (until - System.nanoTime() < 0) {
+            verifiedUntil.remove(token, until);
+            return false;
+        }
+        return true;
+    }
+
+    private CompletableFuture<Boolean> send(String token) {
+        return dependency == null
+                ? request(token)
+                : dependency.hedged(() -> request(token), hedgeMillis, ok -> ok);
+    }
+
+    /**
+     * One siteverify request. Completes exceptionally when Google could not be reached or
+     * answered with an error status, so the breaker counts it.
+     */
+    private CompletableFuture<Boolean> request(String token) {
+        String form = "secret=" + URLEncoder.encode(secret, StandardCharsets.UTF_8)
+                + "&response=" + URLEncoder.encode(token, StandardCharsets.UTF_8);
+        HttpRequest request = HttpRequest.newBuilder(verifyUri)
+                .timeout(timeout)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    if (response.statusCode() >= 500) {
+                        throw new UncheckedIOException(
+                                new IOException("siteverify answered " + response.statusCode()));
+                    }
+                    return response.statusCode() == 200 && isSuccess(response.body());
+                });
+    }
+
+    /**
+     * @return the breaker and bulkhead in front of siteverify, or null
+     */
+    public Dependency getDependency() {
+        return dependency;
+    }
+
+    static boolean isSuccess(String body) {
+        try {
+            Map<String, Object> json = Json.parseObject(body);
+            return Boolean.TRUE.equals(json.get("success"));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true for the one caller that takes a still valid cache entry
+     */
+    private boolean consume(String token) {
+        Long until = verifiedUntil.remove(token);
+        return until != null && until - System.nanoTime() >= 0;
+    }
+
+    private void remember(String token) {
+        long now = System.nanoTime();
+        if (verifiedUntil.size() >= MAX_CACHED_TOKENS) {
+            verifiedUntil.values().removeIf(until -> until - now < 0);
+        }
+        if (verifiedUntil.size() < MAX_CACHED_TOKENS) {
+            verifiedUntil.put(token, now + cacheTtlNanos);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package auth;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The human check that login and signup pass before any lookup or hashing.
+ * {@link CaptchaVerifier} asks Google's reCAPTCHA; {@link ProofOfWork} checks a
+ * hashcash-style puzzle the client solved, with no network at all.
+ * {@link ChallengeProviders#shared()} picks one from {@code auth.challenge}.
+ */
+public interface ChallengeProvider {
+
+    /**
+     * @param response what the client sent as its captcha token
+     * @param client the caller, as passed to {@link AuthService}
+     * @return whether the response passes; may complete exceptionally when the provider
+     *         cannot be reached
+     */
+    CompletableFuture<Boolean> verify(String response, String client);
+
+    /**
+     * The user has just produced {@code response} and is likely to submit it soon; a
+     * provider that has to ask elsewhere may start now. Must not use the response up.
+     */
+    default void warmUp(String response) {
+    }
+
+    /**
+     * A login from {@code client} failed; a provider may make its next challenge harder.
+     */
+    default void failed(String client) {
+    }
+}
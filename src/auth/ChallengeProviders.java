@@ -0,0 +1,37 @@
+package auth;
+
+import database.AppConfig;
+import java.util.Locale;
+
+/**
+ * Opens the {@link ChallengeProvider} named by {@code auth.challenge}: {@code recaptcha}
+ * (the default) for {@link CaptchaVerifier}, or {@code pow} for {@link ProofOfWork}.
+ */
+public final class ChallengeProviders {
+
+    private ChallengeProviders() {
+    }
+
+    /**
+     * @return {@code recaptcha} or {@code pow}
+     */
+    public static String name() {
+        return AppConfig.get("auth.challenge", "recaptcha").toLowerCase(Locale.ROOT);
+    }
+
+    public static boolean isProofOfWork() {
+        return name().equals("pow");
+    }
+
+    public static ChallengeProvider shared() {
+        String name = name();
+        switch (name) {
+            case "recaptcha":
+                return CaptchaVerifier.shared();
+            case "pow":
+                return ProofOfWork.shared();
+            default:
+                throw new IllegalArgumentException("Unknown auth.challenge '" + name + "'; use recaptcha or pow");
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package auth;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in the style of HdrHistogram: values in nanoseconds fall
+ * into log-linear buckets, 32 per power of two, so any recorded value is reported within
+ * about 3% while the whole range up to {@code Long.MAX_VALUE} costs a fixed 15 KiB.
+ * Recording is one array increment plus a max update, cheap enough for every request.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Copies the current counts. Concurrent recordings may or may not be included.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        double sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            copy[i] = c;
+            total += c;
+            sum += (double) c * midpointOf(i);
+        }
+        return new Snapshot(copy, total, total == 0 ? 0 : sum / total, max.get());
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        max.set(0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    static long lowerBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return lowerBoundOf(index) + (1L << shift) - 1;
+    }
+
+    private static double midpointOf(int index) {
+        return (lowerBoundOf(index) + (double) upperBoundOf(index)) / 2;
+    }
+
+    /** Point-in-time view of a histogram. All values are in nanoseconds. */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final double mean;
+        private final long max;
+
+        Snapshot(long[] counts, long count, double mean, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.mean = mean;
+            this.max = max;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public double mean() {
+            return mean;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        /**
+         * @param quantile between 0 and 1, e.g. 0.99
+         * @return the highest value equivalent to the given quantile, never above {@link #max()}
+         */
+        public long valueAt(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package auth;
+
+import database.AppConfig;
+
+/**
+ * Brute-force protection in front of the password check.
+ *
+ * Every login or reset attempt first takes a permit from a per-username and a per-client
+ * {@link RateLimiter}; a refused permit, or an account known to be locked, is answered
+ * from memory without touching the database or hashing anything. After
+ * {@code auth.lockout.threshold} consecutive wrong passwords an account is locked for
+ * {@code auth.lockout.baseMs}, doubling with each further failure up to
+ * {@code auth.lockout.maxMs}. {@link AuthService} persists the lock in
+ * {@code USERS.FAILED_ATTEMPTS} and {@code USERS.LOCKED_UNTIL} when
+ * {@code auth.lockout.enabled=true}, so it survives restarts and is shared by every
+ * server; this class caches it.
+ */
+public class LoginThrottle {
+
+    private static volatile LoginThrottle shared;
+
+    private final RateLimiter users;
+    private final RateLimiter clients;
+    private final StripedLruCache<String, Long> lockedUntil;
+    private final int threshold;
+    private final long baseLockMillis;
+    private final long maxLockMillis;
+
+    public LoginThrottle(RateLimiter users, RateLimiter clients, int maxKeys,
+                         int threshold, long baseLockMillis, long maxLockMillis) {
+        this.users = users;
+        this.clients = clients;
+        this.lockedUntil = new StripedLruCache<>(maxKeys);
+        this.threshold = threshold;
+        this.baseLockMillis = baseLockMillis;
+        this.maxLockMillis = maxLockMillis;
+    }
+
+    public static LoginThrottle shared() {
+        LoginThrottle throttle = shared;
+        if (throttle == null) {
+            synchronized (LoginThrottle.class) {
+                throttle = shared;
+                if (throttle == null) {
+                    int maxKeys = AppConfig.getInt("auth.rateLimit.maxKeys", 100_000);
+                    shared = throttle = new LoginThrottle(
+                            new RateLimiter(AppConfig.getInt("auth.rateLimit.user.perMinute", 10),
+                                    AppConfig.getInt("auth.rateLimit.user.burst", 5), maxKeys),
+                            new RateLimiter(AppConfig.getInt("auth.rateLimit.client.perMinute", 60),
+                                    AppConfig.getInt("auth.rateLimit.client.burst", 20), maxKeys),
+                            maxKeys,
+                            AppConfig.getInt("auth.lockout.threshold", 5),
+                            AppConfig.getLong("auth.lockout.baseMs", 30_000),
+                            AppConfig.getLong("auth.lockout.maxMs", 3_600_000));
+                }
+            }
+        }
+        return throttle;
+    }
+
+    /**
+     * @return false when {@code auth.rateLimit.enabled=false}
+     */
+    public static boolean isEnabled() {
+        return AppConfig.getBoolean("auth.rateLimit.enabled", true);
+    }
+
+    /**
+     * @return false unless {@code auth.lockout.enabled=true}; needs the USERS columns
+     */
+    public static boolean isLockoutPersisted() {
+        return AppConfig.getBoolean("auth.lockout.enabled", false);
+    }
+
+    /**
+     * Admits or refuses one attempt. Costs a couple of map lookups and CASes.
+     * @return null if the attempt may proceed, otherwise a {@link AuthResult.Status#LOCKED}
+     *         or {@link AuthResult.Status#RATE_LIMITED} result saying when to retry
+     */
+    public AuthResult admit(String username, String client) {
+        Long until = lockedUntil.get(username);
+        if (until != null) {
+            long remaining = until - System.currentTimeMillis();
+            if (remaining > 0) {
+                return AuthResult.retryLater(AuthResult.Status.LOCKED, remaining);
+            }
+            lockedUntil.remove(username);
+        }
+        long wait = users.tryAcquire(username);
+        if (wait == 0) {
+            wait = clients.tryAcquire(client);
+        }
+        return wait == 0 ? null : AuthResult.retryLater(AuthResult.Status.RATE_LIMITED, Math.max(1, wait / 1_000_000));
+    }
+
+    /**
+     * @return the lock to apply after the given number of consecutive failures, in
+     *         milliseconds, or 0 if the account stays open
+     */
+    public long lockoutMillis(int failedAttempts) {
+        if (failedAttempts < threshold) {
+            return 0;
+        }
+        int doublings = Math.min(failedAttempts - threshold, 30);
+        return Math.min(maxLockMillis, baseLockMillis << doublings);
+    }
+
+    /** Remembers a lock read from or written to the database. */
+    public void locked(String username, long untilMillis) {
+        lockedUntil.put(username, untilMillis);
+    }
+
+    /** Clears what is known about a user after a successful login. */
+    public void succeeded(String username) {
+        lockedUntil.remove(username);
+        users.reset(username);
+    }
+}
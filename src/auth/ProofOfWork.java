@@ -0,0 +1,376 @@
+package auth;
+
+import database.AppConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Hashcash-style challenge in place of reCAPTCHA ({@code auth.challenge=pow}): the
+ * client must find a counter such that the SHA-256 of {@code challenge:counter} starts
+ * with {@code bits} zero bits, about {@code 2^bits} hashes of work. Nothing leaves the
+ * machine and no page has to load.
+ *
+ * A challenge is {@code issuedAt.bits.nonce.mac}, the MAC being an HMAC-SHA256 over the
+ * rest and the client it was issued to, so the server keeps no state per challenge and
+ * the difficulty cannot be lowered. Verifying costs the HMAC and one SHA-256. A solved
+ * challenge is accepted once; its MAC is remembered until the challenge would expire
+ * ({@code auth.pow.ttlMs}) anyway, and a background thread sweeps out expired ones. Every server behind a load balancer needs the same
+ * {@code auth.pow.secret} (base64); without one a random key is made per process.
+ *
+ * The difficulty starts at {@code auth.pow.bits} and rises by one bit (twice the work)
+ * for each doubling of the issue rate above {@code auth.pow.loadPerSecond}, and by one
+ * bit for each failed login of the client beyond {@code auth.pow.freeFailures} within
+ * {@code auth.pow.failureWindowMs}, up to {@code auth.pow.maxBits}.
+ *
+ * {@link #solve(String, int, AtomicBoolean)} is the client side, spread over several
+ * threads.
+ */
+public final class ProofOfWork implements ChallengeProvider {
+
+    /** An issued challenge. */
+    public record Challenge(String challenge, int bits, long expiresAtMillis) {
+    }
+
+    private record Failures(AtomicInteger count, long since) {
+    }
+
+    private static final int NONCE_BYTES = 12;
+    private static final int MAC_BYTES = 16;
+    private static final int MAX_RESPONSE_LENGTH = 256;
+    private static final long CLOCK_SKEW_MILLIS = 5_000;
+    private static final long MAX_SWEEP_MILLIS = 60_000;
+    private static final Base64.Encoder BASE64 = Base64.getUrlEncoder().withoutPadding();
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(ProofOfWork::newSha256);
+
+    private static volatile ProofOfWork shared;
+
+    private final ThreadLocal<Mac> mac;
+    private final int baseBits;
+    private final int maxBits;
+    private final long ttlMillis;
+    private final int loadPerSecond;
+    private final int freeFailures;
+    private final long failureWindowMillis;
+    private final StripedLruCache<String, Failures> failures;
+    private final ConcurrentHashMap<String, Long> spent = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong passed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile int lastBits;
+
+    // Issue rate, counted per wall-clock second
+    private long second;
+    private long thisSecond;
+    private long lastSecond;
+
+    public ProofOfWork(byte[] key, int baseBits, int maxBits, long ttlMillis, int loadPerSecond, int freeFailures,
+                       long failureWindowMillis, int maxClients) {
+        SecretKeySpec spec = new SecretKeySpec(key.clone(), "HmacSHA256");
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac m = Mac.getInstance("HmacSHA256");
+                m.init(spec);
+                return m;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+        });
+        this.baseBits = baseBits;
+        this.maxBits = maxBits;
+        this.ttlMillis = ttlMillis;
+        this.loadPerSecond = loadPerSecond;
+        this.freeFailures = freeFailures;
+        this.failureWindowMillis = failureWindowMillis;
+        this.failures = new StripedLruCache<>(maxClients);
+        this.lastBits = baseBits;
+        // On a schedule rather than from verify, which would then scan the whole map
+        long period = Math.max(1_000, Math.min(ttlMillis, MAX_SWEEP_MILLIS));
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pow-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public static ProofOfWork shared() {
+        ProofOfWork pow = shared;
+        if (pow == null) {
+            synchronized (ProofOfWork.class) {
+                pow = shared;
+                if (pow == null) {
+                    String secret = AppConfig.get("auth.pow.secret", null);
+                    byte[] key;
+                    if (secret != null) {
+                        key = Base64.getDecoder().decode(secret);
+                    } else {
+                        key = new byte[32];
+                        new SecureRandom().nextBytes(key);
+                        System.out.println("auth.pow.secret is not set; challenges only verify on this server");
+                    }
+                    shared = pow = new ProofOfWork(key,
+                            AppConfig.getInt("auth.pow.bits", 18),
+                            AppConfig.getInt("auth.pow.maxBits", 26),
+                            AppConfig.getLong("auth.pow.ttlMs", 120_000),
+                            AppConfig.getInt("auth.pow.loadPerSecond", 200),
+                            AppConfig.getInt("auth.pow.freeFailures", 3),
+                            AppConfig.getLong("auth.pow.failureWindowMs", 15 * 60_000),
+                            AppConfig.getInt("auth.rateLimit.maxKeys", 100_000));
+                }
+            }
+        }
+        return pow;
+    }
+
+    /**
+     * @return the provider if one has been created, without creating it
+     */
+    public static ProofOfWork peek() {
+        return shared;
+    }
+
+    /**
+     * A fresh challenge for {@code client}, at the difficulty that load and the client's
+     * recent failures call for. Takes microseconds.
+     */
+    public Challenge issue(String client) {
+        long now = System.currentTimeMillis();
+        int bits = Math.min(maxBits, baseBits + loadBits(now) + failureBits(clientOf(client), now));
+        byte[] nonce = new byte[NONCE_BYTES];
+        ThreadLocalRandom.current().nextBytes(nonce);
+        String body = Long.toString(now, 36) + "." + bits + "." + BASE64.encodeToString(nonce);
+        issued.incrementAndGet();
+        lastBits = bits;
+        return new Challenge(body + "." + BASE64.encodeToString(sign(body, client)), bits, now + ttlMillis);
+    }
+
+    /**
+     * Checks {@code challenge:counter} without any I/O, so the future is already complete.
+     */
+    @Override
+    public CompletableFuture<Boolean> verify(String response, String client) {
+        boolean ok = check(response, client);
+        (ok ? passed : rejected).incrementAndGet();
+        return CompletableFuture.completedFuture(ok);
+    }
+
+    @Override
+    public void failed(String client) {
+        long now = System.currentTimeMillis();
+        String key = clientOf(client);
+        Failures f = failures.get(key);
+        if (f == null || now - f.since() > failureWindowMillis) {
+            f = new Failures(new AtomicInteger(), now);
+            failures.put(key, f);
+        }
+        f.count().incrementAndGet();
+    }
+
+    private boolean check(String response, String client) {
+        if (response == null || response.length() > MAX_RESPONSE_LENGTH) {
+            return false;
+        }
+        int colon = response.lastIndexOf(':');
+        String[] parts = response.substring(0, Math.max(colon, 0)).split("\\.");
+        if (colon < 0 || parts.length != 4) {
+            return false;
+        }
+        long issuedAt;
+        int bits;
+        byte[] given;
+        try {
+            issuedAt = Long.parseLong(parts[0], 36);
+            bits = Integer.parseInt(parts[1]);
+            given = Base64.getUrlDecoder().decode(parts[3]);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now - issuedAt > ttlMillis || issuedAt - now > CLOCK_SKEW_MILLIS) {
+            return false;
+        }
+        byte[] expected = sign(parts[0] + "." + parts[1] + "." + parts[2], client);
+        if (!MessageDigest.isEqual(expected, given)) {
+            return false;
+        }
+        if (leadingZeroBits(SHA256.get().digest(response.getBytes(StandardCharsets.UTF_8))) < bits) {
+            return false;
+        }
+        return spent.putIfAbsent(parts[3], issuedAt + ttlMillis) == null;
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        spent.values().removeIf(until -> until < now);
+    }
+
+    private byte[] sign(String body, String client) {
+        Mac m = mac.get();
+        m.update(body.getBytes(StandardCharsets.US_ASCII));
+        m.update((byte) '|');
+        m.update(clientOf(client).getBytes(StandardCharsets.UTF_8));
+        return Arrays.copyOf(m.doFinal(), MAC_BYTES);
+    }
+
+    private static String clientOf(String client) {
+        return client == null ? AuthService.LOCAL_CLIENT : client;
+    }
+
+    // One extra bit per doubling of the issue rate above loadPerSecond
+    private synchronized int loadBits(long now) {
+        long s = now / 1_000;
+        if (s != second) {
+            lastSecond = s == second + 1 ? thisSecond : 0;
+            thisSecond = 0;
+            second = s;
+        }
+        thisSecond++;
+        double rate = lastSecond * (1 - (now % 1_000) / 1_000.0) + thisSecond;
+        long ratio = (long) (rate / loadPerSecond);
+        return ratio < 1 ? 0 : 64 - Long.numberOfLeadingZeros(ratio);
+    }
+
+    private int failureBits(String client, long now) {
+        Failures f = failures.get(client);
+        if (f == null || now - f.since() > failureWindowMillis) {
+            return 0;
+        }
+        return Math.max(0, f.count().get() - freeFailures);
+    }
+
+    /**
+     * Finds a counter for {@code challenge} on {@code threads} threads (the core count
+     * if 0), each trying every {@code threads}-th counter.
+     * @return the response to send, {@code challenge:counter}
+     */
+    public static String solve(String challenge, int threads) throws InterruptedException {
+        return solve(challenge, threads, new AtomicBoolean());
+    }
+
+    /**
+     * Like {@link #solve(String, int)}, but every worker stops once {@code cancelled} is
+     * set, so a challenge that is no longer wanted stops using the cores.
+     * @return the response to send, or null if cancelled first
+     */
+    public static String solve(String challenge, int threads, AtomicBoolean cancelled) throws InterruptedException {
+        int bits = bitsOf(challenge);
+        int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicLong found = new AtomicLong(-1);
+        Thread[] workers = new Thread[n];
+        for (int i = 0; i < n; i++) {
+            int start = i;
+            workers[i] = Thread.ofPlatform().daemon().name("pow-solver-" + i)
+                    .start(() -> search(challenge, bits, start, n, found, cancelled));
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } finally {
+            // Stops the other workers when one found it, or when the caller gave up
+            found.compareAndSet(-1, -2);
+        }
+        long counter = found.get();
+        return counter < 0 ? null : challenge + ":" + counter;
+    }
+
+    private static void search(String challenge, int bits, long start, int step, AtomicLong found,
+                               AtomicBoolean cancelled) {
+        byte[] prefix = (challenge + ":").getBytes(StandardCharsets.US_ASCII);
+        byte[] in = Arrays.copyOf(prefix, prefix.length + 20);
+        byte[] out = new byte[32];
+        MessageDigest sha = newSha256();
+        try {
+            for (long counter = start; found.get() == -1 && !cancelled.get(); counter += step) {
+                int length = prefix.length + writeDecimal(in, prefix.length, counter);
+                sha.update(in, 0, length);
+                sha.digest(out, 0, out.length);
+                if (leadingZeroBits(out) >= bits) {
+                    found.compareAndSet(-1, counter);
+                    return;
+                }
+            }
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the difficulty written in a challenge
+     */
+    public static int bitsOf(String challenge) {
+        String[] parts = challenge.split("\\.");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Not a proof-of-work challenge: " + challenge);
+        }
+        return Integer.parseInt(parts[1]);
+    }
+
+    private static int writeDecimal(byte[] out, int offset, long value) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            out[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return digits;
+    }
+
+    static int leadingZeroBits(byte[] digest) {
+        int bits = 0;
+        for (byte b : digest) {
+            if (b != 0) {
+                return bits + Integer.numberOfLeadingZeros(b & 0xFF) - 24;
+            }
+            bits += 8;
+        }
+        return bits;
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public long getIssued() {
+        return issued.get();
+    }
+
+    public long getPassed() {
+        return passed.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /** Difficulty of the last challenge issued. */
+    public int getLastBits() {
+        return lastBits;
+    }
+}
@@ -0,0 +1,59 @@
+package auth;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-key token buckets. Each bucket is one {@link AtomicLong} holding its theoretical
+ * arrival time (the GCRA form of a token bucket), so taking a permit is a single
+ * compare-and-set with no lock. Buckets live in a {@link StripedLruCache}, so an attacker
+ * cycling through keys only ever evicts the coldest buckets instead of growing the heap.
+ */
+public final class RateLimiter {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final StripedLruCache<String, AtomicLong> buckets;
+
+    /**
+     * @param permitsPerMinute sustained rate per key
+     * @param burst permits a key may take back to back after being idle
+     * @param maxKeys number of keys tracked before the least recently used are dropped
+     */
+    public RateLimiter(double permitsPerMinute, int burst, int maxKeys) {
+        if (permitsPerMinute <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.intervalNanos = (long) (60e9 / permitsPerMinute);
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        this.buckets = new StripedLruCache<>(maxKeys);
+    }
+
+    /**
+     * Takes a permit for {@code key} if one is available.
+     * @return 0 if the permit was granted, otherwise the nanoseconds until the next one
+     */
+    public long tryAcquire(String key) {
+        AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(Long.MIN_VALUE));
+        long now = System.nanoTime();
+        while (true) {
+            long tat = bucket.get();
+            long start = tat == Long.MIN_VALUE || tat - now < 0 ? now : tat;
+            long wait = start - toleranceNanos - now;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(tat, start + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    /** Forgets a key, e.g. after a successful login. */
+    public void reset(String key) {
+        buckets.remove(key);
+    }
+
+    public int trackedKeys() {
+        return buckets.size();
+    }
+}
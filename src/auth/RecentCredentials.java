@@ -0,0 +1,135 @@
+package auth;
+
+import database.AppConfig;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stored hashes of users who logged in successfully within the last
+ * {@code auth.degraded.ttlMs}, so {@link AuthService} can keep logging them in while
+ * the database is unreachable ("degraded mode", off unless {@code auth.degraded.enabled=true}).
+ *
+ * Only the hash the database returned is kept, never the password, and a degraded login
+ * still verifies against it, so it costs one hash like any login. The cache does not see
+ * writes made by other servers: a password reset elsewhere is missed until the entry
+ * expires, which is what the TTL bounds. Resets through this process drop the entry, and
+ * a login that read the hash before such a reset does not put it back: it passes the
+ * {@link #generation(String)} it saw before its lookup, which the reset has moved on.
+ *
+ * Each entry also carries the user's failed attempts and lock as last seen in the
+ * database, so a degraded login honours the lock and its failures keep counting.
+ */
+public class RecentCredentials {
+
+    /** A remembered hash and the lockout state that goes with it. */
+    record Entry(String hash, long verifiedAt, int failedAttempts, long lockedUntilMillis) {
+    }
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private static volatile RecentCredentials shared;
+
+    private final StripedLruCache<String, Entry> entries;
+    private final long ttlMillis;
+    private final LongAdder served = new LongAdder();
+    // Bumped by forget(); users sharing a stripe only cost each other a skipped remember
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public RecentCredentials(int maxEntries, long ttlMillis) {
+        this.entries = new StripedLruCache<>(maxEntries);
+        this.ttlMillis = ttlMillis;
+    }
+
+    public static RecentCredentials shared() {
+        RecentCredentials recent = shared;
+        if (recent == null) {
+            synchronized (RecentCredentials.class) {
+                recent = shared;
+                if (recent == null) {
+                    shared = recent = new RecentCredentials(AppConfig.getInt("auth.degraded.maxEntries", 100_000),
+                            AppConfig.getLong("auth.degraded.ttlMs", 15 * 60_000));
+                }
+            }
+        }
+        return recent;
+    }
+
+    public static boolean isEnabled() {
+        return AppConfig.getBoolean("auth.degraded.enabled", false);
+    }
+
+    /**
+     * @return the cache if one has been created, without creating it
+     */
+    public static RecentCredentials peek() {
+        return shared;
+    }
+
+    /**
+     * @return the value to pass to {@link #remember(String, String, long)}, read before
+     *         the user's hash is looked up
+     */
+    long generation(String username) {
+        return generations.get(stripe(username));
+    }
+
+    /**
+     * Remembers a hash that has just verified, unless the user was forgotten since
+     * {@code generation} was read.
+     */
+    void remember(String username, String hash, long generation) {
+        entries.compute(username, (name, entry) -> generations.get(stripe(name)) == generation
+                ? new Entry(hash, System.currentTimeMillis(), 0, 0) : entry);
+    }
+
+    /**
+     * @return the entry verified for the user within the TTL, or null
+     */
+    Entry lookup(String username) {
+        Entry entry = entries.get(username);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.verifiedAt() > ttlMillis) {
+            entries.remove(username);
+            return null;
+        }
+        return entry;
+    }
+
+    /** Records the failed attempts and lock of a remembered user, as the database has them. */
+    void lockout(String username, int failedAttempts, long lockedUntilMillis) {
+        entries.compute(username, (name, entry) -> entry == null ? null
+                : new Entry(entry.hash(), entry.verifiedAt(), failedAttempts, lockedUntilMillis));
+    }
+
+    /**
+     * Counts a wrong password given in degraded mode.
+     * @return the failed attempts in a row, or 0 if the user is no longer remembered
+     */
+    int failed(String username) {
+        Entry updated = entries.compute(username, (name, entry) -> entry == null ? null
+                : new Entry(entry.hash(), entry.verifiedAt(), entry.failedAttempts() + 1, entry.lockedUntilMillis()));
+        return updated == null ? 0 : updated.failedAttempts();
+    }
+
+    void forget(String username) {
+        entries.compute(username, (name, entry) -> {
+            generations.incrementAndGet(stripe(name));
+            return null;
+        });
+    }
+
+    private static int stripe(String username) {
+        return Math.floorMod(username.hashCode(), GENERATION_STRIPES);
+    }
+
+    void served() {
+        served.increment();
+    }
+
+    /** Logins answered from the cache because the database was down. */
+    public long getServed() {
+        return served.sum();
+    }
+}
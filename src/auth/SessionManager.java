@@ -0,0 +1,325 @@
+package auth;
+
+import database.AppConfig;
+import database.DBConnection;
+import database.SessionDao;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Login sessions, so a user who has already proved their password is not made to hash it
+ * (and solve a captcha) again.
+ *
+ * A token is {@code <id>.<expiry>.<mac>}: 144 random bits, the expiry in milliseconds
+ * and an HMAC-SHA256 over both under {@code auth.session.secret}. A forged or expired
+ * token is refused by the MAC and clock checks alone, compared in constant time, before
+ * anything is looked up. A valid one is then found by id in memory; expired sessions
+ * are swept every minute.
+ *
+ * With {@code auth.session.persist=true} sessions are also written to the
+ * {@code SESSIONS} table and a token missing from memory (after a restart, or issued by
+ * another server) is looked up there. The secret must then be set and shared, since a
+ * generated one changes on every start. {@link #revokeAll(String)} ends every session of
+ * a user, e.g. after a password reset. Other servers notice on the next resume once their
+ * copy is older than {@code auth.session.recheckMs} (default 30 s), when the row is
+ * looked up again.
+ */
+public class SessionManager {
+
+    /** A live session. */
+    public record Session(String id, String username, long expiresAtMillis) {
+    }
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final long DEFAULT_RECHECK_MILLIS = 30_000;
+
+    /** A session held in memory, and when the table last confirmed it. */
+    private record Entry(Session session, long checkedAtMillis) {
+    }
+
+    private static volatile SessionManager shared;
+
+    private final Mac prototype;
+    private final long ttlMillis;
+    private final boolean persist;
+    private final long recheckMillis;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Entry> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byUser = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * @param secret HMAC key, at least 32 bytes
+     * @param persist whether sessions are kept in the {@code SESSIONS} table
+     */
+    public SessionManager(byte[] secret, long ttlMillis, boolean persist) {
+        this(secret, ttlMillis, persist, DEFAULT_RECHECK_MILLIS);
+    }
+
+    /**
+     * @param recheckMillis how long a persistent session is trusted from memory before
+     *        its row is looked up again
+     */
+    public SessionManager(byte[] secret, long ttlMillis, boolean persist, long recheckMillis) {
+        if (secret.length < 32) {
+            throw new IllegalArgumentException("Session secret must be at least 32 bytes");
+        }
+        try {
+            prototype = Mac.getInstance(ALGORITHM);
+            prototype.init(new SecretKeySpec(secret, ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+        this.ttlMillis = ttlMillis;
+        this.persist = persist;
+        this.recheckMillis = recheckMillis;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public static SessionManager shared() {
+        SessionManager manager = shared;
+        if (manager == null) {
+            synchronized (SessionManager.class) {
+                manager = shared;
+                if (manager == null) {
+                    String secret = AppConfig.get("auth.session.secret", null);
+                    byte[] key;
+                    if (secret != null) {
+                        key = Base64.getDecoder().decode(secret);
+                    } else {
+                        key = new byte[32];
+                        new SecureRandom().nextBytes(key);
+                    }
+                    shared = manager = new SessionManager(key,
+                            AppConfig.getLong("auth.session.ttlMs", 7L * 24 * 60 * 60_000),
+                            AppConfig.getBoolean("auth.session.persist", false),
+                            AppConfig.getLong("auth.session.recheckMs", DEFAULT_RECHECK_MILLIS));
+                }
+            }
+        }
+        return manager;
+    }
+
+    /**
+     * @return false when {@code auth.session.enabled=false}
+     */
+    public static boolean isEnabled() {
+        return AppConfig.getBoolean("auth.session.enabled", true);
+    }
+
+    public boolean isPersistent() {
+        return persist;
+    }
+
+    /**
+     * Starts a session for a user whose password has just been checked. The row is
+     * written on the I/O lane when persistent; otherwise the future is already complete.
+     * @return a future of the token to hand to the client
+     */
+    public CompletableFuture<String> issue(String username) {
+        byte[] idBytes = new byte[18];
+        random.nextBytes(idBytes);
+        Session session = new Session(ENCODER.encodeToString(idBytes), username, System.currentTimeMillis() + ttlMillis);
+        String unsigned = session.id() + "." + Long.toString(session.expiresAtMillis(), 36);
+        String token = unsigned + "." + ENCODER.encodeToString(mac(unsigned));
+        if (!persist) {
+            remember(session);
+            return CompletableFuture.completedFuture(token);
+        }
+        return AuthExecutors.supplyIo(() -> {
+            try (Connection conn = DBConnection.getConnection()) {
+                SessionDao.insert(conn, new SessionDao.Row(session.id(), username, session.expiresAtMillis()));
+            }
+            remember(session);
+            return token;
+        });
+    }
+
+    /**
+     * Checks a token against memory only. Takes a few microseconds.
+     * @return the session, or null if the token is forged, expired, revoked or not in
+     *         memory, or when persistent, not confirmed by the table within the recheck time
+     */
+    public Session validate(String token) {
+        String id = verifiedId(token);
+        return id == null ? null : fresh(sessions.get(id));
+    }
+
+    /**
+     * Like {@link #validate(String)}, but when persistent looks the session up in the
+     * {@code SESSIONS} table on the I/O lane if it is missing from memory or has not been
+     * confirmed there within the recheck time. A row deleted by another server's
+     * {@link #revokeAll(String)} is then dropped here too.
+     * @return a future of the session, or of null if it is not valid
+     */
+    public CompletableFuture<Session> resume(String token) {
+        String id = verifiedId(token);
+        if (id == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Session session = fresh(sessions.get(id));
+        if (session != null || !persist) {
+            return CompletableFuture.completedFuture(session);
+        }
+        return AuthExecutors.supplyIo(() -> {
+            SessionDao.Row row;
+            try (Connection conn = DBConnection.getConnection()) {
+                row = SessionDao.find(conn, id);
+            }
+            Session stored = row == null ? null : live(new Session(row.id(), row.username(), row.expiresAtMillis()));
+            if (stored != null) {
+                remember(stored);
+            } else {
+                Entry entry = sessions.remove(id);
+                if (entry != null) {
+                    forgetId(entry.session());
+                }
+            }
+            return stored;
+        });
+    }
+
+    /** Ends one session, e.g. on logout. */
+    public void revoke(String token) throws SQLException {
+        String id = verifiedId(token);
+        if (id == null) {
+            return;
+        }
+        Entry entry = sessions.remove(id);
+        if (entry != null) {
+            forgetId(entry.session());
+        }
+        if (persist) {
+            try (Connection conn = DBConnection.getConnection()) {
+                SessionDao.delete(conn, id);
+            }
+        }
+    }
+
+    /** Ends every session of a user, e.g. after their password changed. */
+    public void revokeAll(String username) throws SQLException {
+        // Under the same lock as remember(), so an id added meanwhile is not left behind
+        byUser.compute(username, (k, ids) -> {
+            if (ids != null) {
+                ids.forEach(sessions::remove);
+            }
+            return null;
+        });
+        if (persist) {
+            try (Connection conn = DBConnection.getConnection()) {
+                SessionDao.deleteForUser(conn, username);
+            }
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void remember(Session session) {
+        Entry entry = new Entry(session, System.currentTimeMillis());
+        byUser.compute(session.username(), (k, ids) -> {
+            if (ids == null) {
+                ids = ConcurrentHashMap.newKeySet();
+            }
+            ids.add(session.id());
+            sessions.put(session.id(), entry);
+            return ids;
+        });
+    }
+
+    private void forgetId(Session session) {
+        byUser.computeIfPresent(session.username(), (k, ids) -> {
+            ids.remove(session.id());
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private static Session live(Session session) {
+        return session != null && session.expiresAtMillis() > System.currentTimeMillis() ? session : null;
+    }
+
+    private Session fresh(Entry entry) {
+        if (entry == null || (persist && System.currentTimeMillis() - entry.checkedAtMillis() >= recheckMillis)) {
+            return null;
+        }
+        return live(entry.session());
+    }
+
+    /**
+     * @return the session id if the token is well formed, correctly signed and not past
+     *         its expiry, otherwise null
+     */
+    private String verifiedId(String token) {
+        if (token == null || token.length() > 128) {
+            return null;
+        }
+        int first = token.indexOf('.');
+        int second = token.indexOf('.', first + 1);
+        if (first < 0 || second < 0) {
+            return null;
+        }
+        String unsigned = token.substring(0, second);
+        byte[] signature;
+        long expiresAt;
+        try {
+            signature = DECODER.decode(token.substring(second + 1));
+            expiresAt = Long.parseLong(token.substring(first + 1, second), 36);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(signature, mac(unsigned)) || expiresAt <= System.currentTimeMillis()) {
+            return null;
+        }
+        return token.substring(0, first);
+    }
+
+    private byte[] mac(String data) {
+        Mac mac;
+        try {
+            mac = (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(ALGORITHM + " cannot be cloned", e);
+        }
+        return mac.doFinal(data.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        for (Entry entry : sessions.values()) {
+            Session session = entry.session();
+            if (session.expiresAtMillis() <= now && sessions.remove(session.id(), entry)) {
+                forgetId(session);
+            }
+        }
+        if (persist) {
+            try (Connection conn = DBConnection.getConnection()) {
+                SessionDao.deleteExpired(conn, now);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package auth;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Bounded LRU map split into independently locked stripes, so threads working on
+ * different keys rarely meet on the same lock. Each stripe evicts its own least recently
+ * used entry once it holds {@code maxSize / stripes} entries; the bound is therefore
+ * approximate per key distribution but never exceeded overall.
+ */
+final class StripedLruCache<K, V> {
+
+    private final List<Stripe<K, V>> stripes;
+    private final int mask;
+
+    StripedLruCache(int maxSize) {
+        int count = Integer.highestOneBit(Math.max(16, Runtime.getRuntime().availableProcessors() * 4) - 1) << 1;
+        int perStripe = Math.max(1, maxSize / count);
+        List<Stripe<K, V>> created = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            created.add(new Stripe<>(perStripe));
+        }
+        stripes = List.copyOf(created);
+        mask = count - 1;
+    }
+
+    V get(K key) {
+        Stripe<K, V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    V computeIfAbsent(K key, Function<? super K, ? extends V> factory) {
+        Stripe<K, V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            return stripe.computeIfAbsent(key, factory);
+        }
+    }
+
+    V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping) {
+        Stripe<K, V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            return stripe.compute(key, remapping);
+        }
+    }
+
+    void put(K key, V value) {
+        Stripe<K, V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            stripe.put(key, value);
+        }
+    }
+
+    void remove(K key) {
+        Stripe<K, V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            stripe.remove(key);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe<K, V> stripeFor(K key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return stripes.get((h * 0x9E3779B9 >>> 16) & mask);
+    }
+
+    private static final class Stripe<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        Stripe(int maxSize) {
+            super(Math.min(maxSize, 1_024), 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package database;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Reads application settings from an optional properties file and system properties.
+ * The file defaults to {@code app.properties} in the working directory and can be moved
+ * with {@code -Dapp.config=<path>}. A {@code -D} system property always wins over the file.
+ */
+public class AppConfig {
+
+    private static final Properties FILE = load();
+
+    private static Properties load() {
+        Properties props = new Properties();
+        Path path = Paths.get(System.getProperty("app.config", "app.properties"));
+        if (Files.isReadable(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                props.load(in);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return props;
+    }
+
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = FILE.getProperty(key);
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
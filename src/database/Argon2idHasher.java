@@ -0,0 +1,367 @@
+package database;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Argon2id (RFC 9106, version 0x13) in plain Java. Hashes use the PHC string format,
+ * {@code $argon2id$v=19$m=19456,t=2,p=1$<salt>$<hash>}. Lanes are filled one after
+ * another on the calling thread; callers already run hashing on a worker pool.
+ */
+public class Argon2idHasher implements PasswordHasher {
+
+    private static final String PREFIX = "$argon2id$v=19$";
+    private static final int VERSION = 0x13;
+    private static final int TYPE_ID = 2;
+    private static final int SYNC_POINTS = 4;
+    private static final int BLOCK_WORDS = 128;
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BYTES = 32;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+    private final int memoryKiB;
+    private final int iterations;
+    private final int parallelism;
+
+    public Argon2idHasher(int memoryKiB, int iterations, int parallelism) {
+        if (parallelism < 1 || iterations < 1 || memoryKiB < 8 * parallelism) {
+            throw new IllegalArgumentException("Argon2id needs p >= 1, t >= 1 and m >= 8p");
+        }
+        this.memoryKiB = memoryKiB;
+        this.iterations = iterations;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public String id() {
+        return "argon2id";
+    }
+
+    @Override
+    public boolean supports(String hashedPassword) {
+        return hashedPassword != null && hashedPassword.startsWith(PREFIX);
+    }
+
+    @Override
+    public String hash(String plainTextPassword) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = argon2id(plainTextPassword.getBytes(StandardCharsets.UTF_8), salt, new byte[0], new byte[0],
+                memoryKiB, iterations, parallelism, HASH_BYTES);
+        return PREFIX + "m=" + memoryKiB + ",t=" + iterations + ",p=" + parallelism
+                + "$" + ENCODER.encodeToString(salt) + "$" + ENCODER.encodeToString(hash);
+    }
+
+    @Override
+    public boolean verify(String plainTextPassword, String hashedPassword) {
+        Params stored = Params.parse(hashedPassword);
+        if (stored == null) {
+            return false;
+        }
+        byte[] actual = argon2id(plainTextPassword.getBytes(StandardCharsets.UTF_8), stored.salt, new byte[0], new byte[0],
+                stored.memoryKiB, stored.iterations, stored.parallelism, stored.hash.length);
+        return MessageDigest.isEqual(stored.hash, actual);
+    }
+
+    @Override
+    public boolean needsRehash(String hashedPassword) {
+        Params stored = Params.parse(hashedPassword);
+        return stored == null || stored.memoryKiB < memoryKiB || stored.iterations < iterations;
+    }
+
+    private record Params(int memoryKiB, int iterations, int parallelism, byte[] salt, byte[] hash) {
+
+        static Params parse(String hashedPassword) {
+            if (hashedPassword == null || !hashedPassword.startsWith(PREFIX)) {
+                return null;
+            }
+            String[] parts = hashedPassword.substring(PREFIX.length()).split("\\$");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                int m = 0, t = 0, p = 0;
+                for (String param : parts[0].split(",")) {
+                    int value = Integer.parseInt(param.substring(2));
+                    switch (param.substring(0, 2)) {
+                        case "m=" -> m = value;
+                        case "t=" -> t = value;
+                        case "p=" -> p = value;
+                        default -> {
+                            return null;
+                        }
+                    }
+                }
+                // Refuse parameters that would let a crafted hash allocate unbounded memory
+                if (p < 1 || p > 64 || t < 1 || m < 8 * p || m > 4 * 1024 * 1024) {
+                    return null;
+                }
+                byte[] hash = DECODER.decode(parts[2]);
+                return hash.length < 4 ? null : new Params(m, t, p, DECODER.decode(parts[1]), hash);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Computes an Argon2id tag. Package-private so the RFC 9106 vector, which uses a
+     * secret and associated data, can be checked directly by
+     * {@code bench/database/Argon2idVectorCheck}.
+     */
+    static byte[] argon2id(byte[] password, byte[] salt, byte[] secret, byte[] associatedData,
+                           int memoryKiB, int iterations, int lanes, int tagLength) {
+        int segmentLength = memoryKiB / (SYNC_POINTS * lanes);
+        int laneLength = segmentLength * SYNC_POINTS;
+        int blockCount = laneLength * lanes;
+        long[] memory = new long[blockCount * BLOCK_WORDS];
+
+        byte[] h0 = new Blake2b(64)
+                .updateInt(lanes).updateInt(tagLength).updateInt(memoryKiB).updateInt(iterations)
+                .updateInt(VERSION).updateInt(TYPE_ID)
+                .updateInt(password.length).update(password)
+                .updateInt(salt.length).update(salt)
+                .updateInt(secret.length).update(secret)
+                .updateInt(associatedData.length).update(associatedData)
+                .digest();
+
+        byte[] seed = new byte[72];
+        System.arraycopy(h0, 0, seed, 0, 64);
+        for (int lane = 0; lane < lanes; lane++) {
+            for (int column = 0; column < 2; column++) {
+                writeInt(seed, 64, column);
+                writeInt(seed, 68, lane);
+                byte[] block = variableHash(seed, 1024);
+                int base = (lane * laneLength + column) * BLOCK_WORDS;
+                for (int w = 0; w < BLOCK_WORDS; w++) {
+                    memory[base + w] = readLong(block, w * 8);
+                }
+            }
+        }
+
+        Filler filler = new Filler(memory, lanes, laneLength, segmentLength, blockCount, iterations);
+        for (int pass = 0; pass < iterations; pass++) {
+            for (int slice = 0; slice < SYNC_POINTS; slice++) {
+                for (int lane = 0; lane < lanes; lane++) {
+                    filler.fillSegment(pass, lane, slice);
+                }
+            }
+        }
+
+        long[] last = new long[BLOCK_WORDS];
+        for (int lane = 0; lane < lanes; lane++) {
+            int base = (lane * laneLength + laneLength - 1) * BLOCK_WORDS;
+            for (int w = 0; w < BLOCK_WORDS; w++) {
+                last[w] ^= memory[base + w];
+            }
+        }
+        byte[] finalBlock = new byte[1024];
+        for (int w = 0; w < BLOCK_WORDS; w++) {
+            writeLong(finalBlock, w * 8, last[w]);
+        }
+        return variableHash(finalBlock, tagLength);
+    }
+
+    /** H' from RFC 9106 section 3.3. */
+    private static byte[] variableHash(byte[] input, int outLength) {
+        if (outLength <= 64) {
+            return new Blake2b(outLength).updateInt(outLength).update(input).digest();
+        }
+        byte[] out = new byte[outLength];
+        byte[] v = new Blake2b(64).updateInt(outLength).update(input).digest();
+        System.arraycopy(v, 0, out, 0, 32);
+        int position = 32;
+        int r = (outLength + 31) / 32 - 2;
+        for (int i = 2; i <= r; i++) {
+            v = Blake2b.hash(64, v);
+            System.arraycopy(v, 0, out, position, 32);
+            position += 32;
+        }
+        v = Blake2b.hash(outLength - 32 * r, v);
+        System.arraycopy(v, 0, out, position, v.length);
+        return out;
+    }
+
+    private static final class Filler {
+        private final long[] memory;
+        private final int lanes;
+        private final int laneLength;
+        private final int segmentLength;
+        private final int blockCount;
+        private final int passes;
+
+        private final long[] r = new long[BLOCK_WORDS];
+        private final long[] tmp = new long[BLOCK_WORDS];
+        private final long[] zero = new long[BLOCK_WORDS];
+        private final long[] input = new long[BLOCK_WORDS];
+        private final long[] addresses = new long[BLOCK_WORDS];
+
+        Filler(long[] memory, int lanes, int laneLength, int segmentLength, int blockCount, int passes) {
+            this.memory = memory;
+            this.lanes = lanes;
+            this.laneLength = laneLength;
+            this.segmentLength = segmentLength;
+            this.blockCount = blockCount;
+            this.passes = passes;
+        }
+
+        void fillSegment(int pass, int lane, int slice) {
+            boolean dataIndependent = pass == 0 && slice < SYNC_POINTS / 2;
+            if (dataIndependent) {
+                java.util.Arrays.fill(input, 0);
+                input[0] = pass;
+                input[1] = lane;
+                input[2] = slice;
+                input[3] = blockCount;
+                input[4] = passes;
+                input[5] = TYPE_ID;
+            }
+
+            int startIndex = 0;
+            if (pass == 0 && slice == 0) {
+                startIndex = 2;
+                if (dataIndependent) {
+                    nextAddresses();
+                }
+            }
+
+            int currOffset = lane * laneLength + slice * segmentLength + startIndex;
+            int prevOffset = currOffset % laneLength == 0 ? currOffset + laneLength - 1 : currOffset - 1;
+
+            for (int i = startIndex; i < segmentLength; i++, currOffset++, prevOffset++) {
+                if (currOffset % laneLength == 1) {
+                    prevOffset = currOffset - 1;
+                }
+                long pseudoRandom;
+                if (dataIndependent) {
+                    if (i % BLOCK_WORDS == 0) {
+                        nextAddresses();
+                    }
+                    pseudoRandom = addresses[i % BLOCK_WORDS];
+                } else {
+                    pseudoRandom = memory[prevOffset * BLOCK_WORDS];
+                }
+
+                int refLane = (int) ((pseudoRandom >>> 32) % lanes);
+                if (pass == 0 && slice == 0) {
+                    refLane = lane;
+                }
+                int refIndex = indexAlpha(pass, slice, i, pseudoRandom & 0xFFFFFFFFL, refLane == lane);
+                int refOffset = refLane * laneLength + refIndex;
+                fillBlock(prevOffset, refOffset, currOffset, pass > 0);
+            }
+        }
+
+        private int indexAlpha(int pass, int slice, int index, long pseudoRandom, boolean sameLane) {
+            long areaSize;
+            if (pass == 0) {
+                if (slice == 0) {
+                    areaSize = index - 1;
+                } else if (sameLane) {
+                    areaSize = (long) slice * segmentLength + index - 1;
+                } else {
+                    areaSize = (long) slice * segmentLength + (index == 0 ? -1 : 0);
+                }
+            } else if (sameLane) {
+                areaSize = laneLength - segmentLength + index - 1;
+            } else {
+                areaSize = laneLength - segmentLength + (index == 0 ? -1 : 0);
+            }
+            long relative = (pseudoRandom * pseudoRandom) >>> 32;
+            relative = areaSize - 1 - ((areaSize * relative) >>> 32);
+            long start = 0;
+            if (pass != 0) {
+                start = slice == SYNC_POINTS - 1 ? 0 : (long) (slice + 1) * segmentLength;
+            }
+            return (int) ((start + relative) % laneLength);
+        }
+
+        private void nextAddresses() {
+            input[6]++;
+            compress(zero, 0, input, 0, addresses, 0, false);
+            compress(zero, 0, addresses, 0, addresses, 0, false);
+        }
+
+        private void fillBlock(int prev, int ref, int next, boolean xorInto) {
+            compress(memory, prev * BLOCK_WORDS, memory, ref * BLOCK_WORDS, memory, next * BLOCK_WORDS, xorInto);
+        }
+
+        // The Argon2 compression function G: next = P(X ^ Y) ^ X ^ Y (^ next on later passes)
+        private void compress(long[] x, int xOff, long[] y, int yOff, long[] out, int outOff, boolean xorInto) {
+            for (int w = 0; w < BLOCK_WORDS; w++) {
+                r[w] = x[xOff + w] ^ y[yOff + w];
+            }
+            System.arraycopy(r, 0, tmp, 0, BLOCK_WORDS);
+            if (xorInto) {
+                for (int w = 0; w < BLOCK_WORDS; w++) {
+                    tmp[w] ^= out[outOff + w];
+                }
+            }
+            for (int i = 0; i < 8; i++) {
+                int b = 16 * i;
+                round(b, b + 1, b + 2, b + 3, b + 4, b + 5, b + 6, b + 7,
+                        b + 8, b + 9, b + 10, b + 11, b + 12, b + 13, b + 14, b + 15);
+            }
+            for (int i = 0; i < 8; i++) {
+                int b = 2 * i;
+                round(b, b + 1, b + 16, b + 17, b + 32, b + 33, b + 48, b + 49,
+                        b + 64, b + 65, b + 80, b + 81, b + 96, b + 97, b + 112, b + 113);
+            }
+            for (int w = 0; w < BLOCK_WORDS; w++) {
+                out[outOff + w] = tmp[w] ^ r[w];
+            }
+        }
+
+        private void round(int v0, int v1, int v2, int v3, int v4, int v5, int v6, int v7,
+                           int v8, int v9, int v10, int v11, int v12, int v13, int v14, int v15) {
+            gb(v0, v4, v8, v12);
+            gb(v1, v5, v9, v13);
+            gb(v2, v6, v10, v14);
+            gb(v3, v7, v11, v15);
+            gb(v0, v5, v10, v15);
+            gb(v1, v6, v11, v12);
+            gb(v2, v7, v8, v13);
+            gb(v3, v4, v9, v14);
+        }
+
+        private void gb(int a, int b, int c, int d) {
+            r[a] = blamka(r[a], r[b]);
+            r[d] = Long.rotateRight(r[d] ^ r[a], 32);
+            r[c] = blamka(r[c], r[d]);
+            r[b] = Long.rotateRight(r[b] ^ r[c], 24);
+            r[a] = blamka(r[a], r[b]);
+            r[d] = Long.rotateRight(r[d] ^ r[a], 16);
+            r[c] = blamka(r[c], r[d]);
+            r[b] = Long.rotateRight(r[b] ^ r[c], 63);
+        }
+
+        private static long blamka(long x, long y) {
+            return x + y + 2 * (x & 0xFFFFFFFFL) * (y & 0xFFFFFFFFL);
+        }
+    }
+
+    private static void writeInt(byte[] b, int off, int value) {
+        for (int i = 0; i < 4; i++) {
+            b[off + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static void writeLong(byte[] b, int off, long value) {
+        for (int i = 0; i < 8; i++) {
+            b[off + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static long readLong(byte[] b, int off) {
+        long r = 0;
+        for (int i = 7; i >= 0; i--) {
+            r = (r << 8) | (b[off + i] & 0xFF);
+        }
+        return r;
+    }
+}
@@ -0,0 +1,100 @@
+package database;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+/**
+ * BCrypt through jBCrypt. Accepts {@code $2a$}, {@code $2b$} and {@code $2y$} hashes and
+ * writes {@code $2a$}, the only revision jBCrypt 0.4 understands.
+ */
+public class BCryptHasher implements PasswordHasher {
+
+    static final int MIN_COST = 4;
+    // jBCrypt 0.4 rejects more than 30 rounds
+    static final int MAX_COST = 30;
+
+    private volatile int cost;
+
+    public BCryptHasher(int cost) {
+        this.cost = checkCost(cost);
+    }
+
+    @Override
+    public String id() {
+        return "bcrypt";
+    }
+
+    @Override
+    public boolean supports(String hashedPassword) {
+        return hashedPassword != null && hashedPassword.length() == 60
+                && (hashedPassword.startsWith("$2a$") || hashedPassword.startsWith("$2b$") || hashedPassword.startsWith("$2y$"));
+    }
+
+    @Override
+    public String hash(String plainTextPassword) {
+        return BCrypt.hashpw(plainTextPassword, BCrypt.gensalt(cost));
+    }
+
+    @Override
+    public boolean verify(String plainTextPassword, String hashedPassword) {
+        if (!supports(hashedPassword)) {
+            return false;
+        }
+        return BCrypt.checkpw(plainTextPassword, "$2a$" + hashedPassword.substring(4));
+    }
+
+    @Override
+    public boolean needsRehash(String hashedPassword) {
+        if (hashedPassword == null || !hashedPassword.startsWith("$2a$")) {
+            return true;
+        }
+        return costOf(hashedPassword) < cost;
+    }
+
+    private static int costOf(String hashedPassword) {
+        try {
+            return Integer.parseInt(hashedPassword.substring(4, 6));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    public void setCost(int newCost) {
+        cost = checkCost(newCost);
+    }
+
+    private static int checkCost(int cost) {
+        if (cost < MIN_COST || cost > MAX_COST) {
+            throw new IllegalArgumentException("BCrypt cost must be between " + MIN_COST + " and " + MAX_COST);
+        }
+        return cost;
+    }
+
+    /**
+     * Times BCrypt on this host and switches to the highest cost whose hash stays within
+     * the budget, but never below {@code minCost}. Each cost step doubles the work, so the
+     * search stops at the first cost over budget.
+     * @param budgetMillis The latency allowed for one verify.
+     * @param minCost The lowest cost that will be selected.
+     * @return The selected cost.
+     */
+    public int calibrate(long budgetMillis, int minCost) {
+        BCrypt.hashpw("warm-up", BCrypt.gensalt(MIN_COST));
+        int selected = minCost;
+        for (int c = MIN_COST; c <= MAX_COST; c++) {
+            String salt = BCrypt.gensalt(c);
+            long start = System.nanoTime();
+            BCrypt.hashpw("calibration", salt);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            if (elapsedMillis > budgetMillis) {
+                break;
+            }
+            selected = Math.max(c, minCost);
+        }
+        setCost(selected);
+        return selected;
+    }
+}
@@ -0,0 +1,486 @@
+package database;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * A small bounded JDBC connection pool.
+ *
+ * Connections handed out are proxies: calling {@code close()} returns the physical
+ * connection to the pool instead of closing it. Idle connections are validated on
+ * borrow, evicted after {@link Settings#idleTimeoutMillis} and retired once they reach
+ * {@link Settings#maxLifetimeMillis}. Works against any JDBC URL, so an embedded
+ * database can stand in for Oracle.
+ *
+ * Each physical connection keeps the last {@link Settings#statementCacheSize} statements
+ * prepared with {@code prepareStatement(String)}, so the hot auth queries are parsed once
+ * per connection rather than once per borrow. Statements still open when a connection is
+ * closed are closed (or returned to the cache) at that point, never leaked into the next
+ * borrow. {@link #getStatementStats()} reports prepares, cache hits and execution times
+ * per SQL text.
+ *
+ * Every statement gets a query timeout of {@link Settings#queryTimeoutSeconds}. For
+ * Oracle URLs the connect and socket read timeouts are passed to the thin driver as
+ * well, so a database that stops answering fails the call instead of holding the thread
+ * forever; other drivers take theirs through {@link #setConnectProperty}.
+ */
+public class ConnectionPool implements DataSource, AutoCloseable {
+
+    /**
+     * Pool settings. {@link #fromConfig(String)} reads them from {@link AppConfig}.
+     */
+    public static class Settings {
+        public String url;
+        public String user;
+        public String password;
+        public int maxSize = 10;
+        public long borrowTimeoutMillis = 5_000;
+        public long idleTimeoutMillis = 10 * 60_000;
+        public long maxLifetimeMillis = 30 * 60_000;
+        /** Connections used more recently than this are handed out without an isValid() round trip. */
+        public long validationBypassMillis = 500;
+        public int validationTimeoutSeconds = 2;
+        /** Prepared statements kept open per connection; 0 disables the cache. */
+        public int statementCacheSize = 32;
+        /** Connect timeout of the Oracle thin driver; 0 for none. */
+        public long connectTimeoutMillis = 5_000;
+        /** Socket read timeout of the Oracle thin driver; 0 for none. Keep it above the query timeout. */
+        public long readTimeoutMillis = 15_000;
+        /** Set on every statement; 0 for none. */
+        public int queryTimeoutSeconds = 10;
+
+        public static Settings fromConfig(String prefix) {
+            Settings s = new Settings();
+            s.url = AppConfig.get(prefix + ".url", null);
+            s.user = AppConfig.get(prefix + ".user", null);
+            s.password = AppConfig.get(prefix + ".password", null);
+            s.maxSize = AppConfig.getInt(prefix + ".pool.maxSize", s.maxSize);
+            s.borrowTimeoutMillis = AppConfig.getLong(prefix + ".pool.borrowTimeoutMs", s.borrowTimeoutMillis);
+            s.idleTimeoutMillis = AppConfig.getLong(prefix + ".pool.idleTimeoutMs", s.idleTimeoutMillis);
+            s.maxLifetimeMillis = AppConfig.getLong(prefix + ".pool.maxLifetimeMs", s.maxLifetimeMillis);
+            s.validationBypassMillis = AppConfig.getLong(prefix + ".pool.validationBypassMs", s.validationBypassMillis);
+            s.validationTimeoutSeconds = AppConfig.getInt(prefix + ".pool.validationTimeoutSec", s.validationTimeoutSeconds);
+            s.statementCacheSize = AppConfig.getInt(prefix + ".pool.statementCacheSize", s.statementCacheSize);
+            s.connectTimeoutMillis = AppConfig.getLong(prefix + ".connectTimeoutMs", s.connectTimeoutMillis);
+            s.readTimeoutMillis = AppConfig.getLong(prefix + ".readTimeoutMs", s.readTimeoutMillis);
+            s.queryTimeoutSeconds = AppConfig.getInt(prefix + ".queryTimeoutSec", s.queryTimeoutSeconds);
+            return s;
+        }
+    }
+
+    /**
+     * Point-in-time pool metrics.
+     */
+    public record Stats(int active, int idle, int maxSize, long created, long destroyed,
+                        long borrows, long timeouts, long totalWaitNanos, long maxWaitNanos) {
+
+        public double averageWaitMillis() {
+            return borrows == 0 ? 0 : totalWaitNanos / 1e6 / borrows;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("active=%d idle=%d max=%d created=%d destroyed=%d borrows=%d timeouts=%d avgWait=%.3fms maxWait=%.3fms",
+                    active, idle, maxSize, created, destroyed, borrows, timeouts, averageWaitMillis(), maxWaitNanos / 1e6);
+        }
+    }
+
+    /**
+     * Totals for one SQL text across every connection of the pool. {@code prepares} counts
+     * statements actually parsed by the driver, {@code cacheHits} those served from a
+     * connection's cache.
+     */
+    public record StatementStats(String sql, long prepares, long cacheHits, long executions,
+                                 long totalNanos, long maxNanos) {
+
+        public double averageMicros() {
+            return executions == 0 ? 0 : totalNanos / 1e3 / executions;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("prepares=%d hits=%d executions=%d avg=%.1fus max=%.1fus  %s",
+                    prepares, cacheHits, executions, averageMicros(), maxNanos / 1e3, sql);
+        }
+    }
+
+    private final Settings settings;
+    private final StatementCache.Metrics statementMetrics = new StatementCache.Metrics();
+    private final Properties connectProps = new Properties();
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public ConnectionPool(Settings settings) {
+        if (settings.url == null) {
+            throw new IllegalArgumentException("JDBC URL is required");
+        }
+        this.settings = settings;
+        if (settings.user != null) {
+            connectProps.setProperty("user", settings.user);
+        }
+        if (settings.password != null) {
+            connectProps.setProperty("password", settings.password);
+        }
+        if (settings.url.startsWith("jdbc:oracle:")) {
+            if (settings.connectTimeoutMillis > 0) {
+                connectProps.setProperty("oracle.net.CONNECT_TIMEOUT", Long.toString(settings.connectTimeoutMillis));
+            }
+            if (settings.readTimeoutMillis > 0) {
+                connectProps.setProperty("oracle.jdbc.ReadTimeout", Long.toString(settings.readTimeoutMillis));
+            }
+        }
+        this.permits = new Semaphore(settings.maxSize, true);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1_000, Math.min(settings.idleTimeoutMillis, settings.maxLifetimeMillis) / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Extra driver properties (timeouts and the like) passed on every physical connect.
+     */
+    public void setConnectProperty(String key, String value) {
+        connectProps.setProperty(key, value);
+    }
+
+    public String getUrl() {
+        return settings.url;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(settings.borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTimeoutException("Timed out after " + settings.borrowTimeoutMillis
+                        + " ms waiting for a database connection (" + getStats() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = openPhysical();
+            }
+            active.incrementAndGet();
+            recordWait(System.nanoTime() - start);
+            return pooled.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            long now = System.currentTimeMillis();
+            if (pooled.isExpired(now) || !pooled.isAlive(now)) {
+                destroy(pooled);
+                continue;
+            }
+            return pooled;
+        }
+        return null;
+    }
+
+    private PooledConnection openPhysical() throws SQLException {
+        Connection physical = DriverManager.getConnection(settings.url, connectProps);
+        created.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private void recordWait(long nanos) {
+        borrows.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private void release(PooledConnection pooled) {
+        active.decrementAndGet();
+        try {
+            long now = System.currentTimeMillis();
+            if (closed || pooled.isExpired(now) || !pooled.reset()) {
+                destroy(pooled);
+            } else {
+                pooled.lastUsed = now;
+                idle.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            PooledConnection pooled = it.next();
+            if ((now - pooled.lastUsed > settings.idleTimeoutMillis || pooled.isExpired(now)) && idle.remove(pooled)) {
+                destroy(pooled);
+            }
+        }
+    }
+
+    private void destroy(PooledConnection pooled) {
+        destroyed.incrementAndGet();
+        if (pooled.statements != null) {
+            pooled.statements.clear();
+        }
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            // already broken; nothing else to do
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(active.get(), idle.size(), settings.maxSize, created.get(), destroyed.get(),
+                borrows.get(), timeouts.get(), totalWaitNanos.get(), maxWaitNanos.get());
+    }
+
+    /**
+     * @return per-SQL statement totals, most total execution time first
+     */
+    public List<StatementStats> getStatementStats() {
+        List<StatementStats> stats = new ArrayList<>();
+        for (Map.Entry<String, StatementCache.Counter> e : statementMetrics.all().entrySet()) {
+            StatementCache.Counter c = e.getValue();
+            stats.add(new StatementStats(e.getKey(), c.prepares.sum(), c.hits.sum(), c.executions.sum(),
+                    c.totalNanos.sum(), c.maxNanos.get()));
+        }
+        stats.sort(Comparator.comparingLong(StatementStats::totalNanos).reversed());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool. Each borrow gets a fresh proxy so a stale
+     * reference kept after close() cannot touch the connection once someone else holds it.
+     */
+    private final class PooledConnection {
+        final Connection physical;
+        final StatementCache statements;
+        final long createdAt = System.currentTimeMillis();
+        volatile long lastUsed = createdAt;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = settings.statementCacheSize > 0
+                    ? new StatementCache(physical, settings.statementCacheSize, statementMetrics)
+                    : null;
+        }
+
+        boolean isExpired(long now) {
+            return now - createdAt > settings.maxLifetimeMillis;
+        }
+
+        boolean isAlive(long now) {
+            if (now - lastUsed < settings.validationBypassMillis) {
+                return true;
+            }
+            try {
+                return physical.isValid(settings.validationTimeoutSeconds);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        boolean reset() {
+            try {
+                if (physical.isClosed()) {
+                    return false;
+                }
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                physical.clearWarnings();
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[] {Connection.class}, new Lease(this));
+        }
+    }
+
+    private final class Lease implements InvocationHandler {
+        private volatile PooledConnection pooled;
+        /** Statements handed out on this borrow, closed when it ends. */
+        private final List<Statement> opened = new ArrayList<>();
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (this) {
+                        if (pooled != null) {
+                            PooledConnection p = pooled;
+                            pooled = null;
+                            closeOpened();
+                            release(p);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return pooled == null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + settings.url + "]";
+                default:
+                    PooledConnection p = pooled;
+                    if (p == null) {
+                        throw new SQLException("Connection is closed");
+                    }
+                    Object result;
+                    if (p.statements != null && method.getName().equals("prepareStatement") && args.length == 1) {
+                        result = p.statements.prepare((String) args[0], (Connection) proxy);
+                    } else {
+                        try {
+                            result = method.invoke(p.physical, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                    if (result instanceof Statement statement) {
+                        if (settings.queryTimeoutSeconds > 0) {
+                            statement.setQueryTimeout(settings.queryTimeoutSeconds);
+                        }
+                        track(statement);
+                    }
+                    return result;
+            }
+        }
+
+        private synchronized void track(Statement statement) throws SQLException {
+            if (opened.size() >= 64) {
+                Iterator<Statement> it = opened.iterator();
+                while (it.hasNext()) {
+                    if (it.next().isClosed()) {
+                        it.remove();
+                    }
+                }
+            }
+            opened.add(statement);
+        }
+
+        private void closeOpened() {
+            for (Statement statement : opened) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    // the connection is reset or destroyed next anyway
+                }
+            }
+            opened.clear();
+        }
+    }
+
+    // --- DataSource boilerplate ---
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pooled connections use the configured credentials");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return DriverManager.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        DriverManager.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
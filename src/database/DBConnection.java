@@ -1,17 +1,121 @@
 package database;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import resilience.Dependency;
 
+/**
+ * Hands out connections from a shared {@link ConnectionPool}.
+ *
+ * The pool is created on first use from the {@code db.*} keys in {@link AppConfig}
+ * ({@code db.url}, {@code db.user}, {@code db.password}, {@code db.pool.maxSize}, ...).
+ * Defaults match the local Oracle XE setup described in the README.
+ *
+ * When {@code db.replicas} names read replicas, {@link #getReadConnection(String)} borrows
+ * from one of them through the {@link ReadRouter}; everything else uses the primary.
+ *
+ * {@link #getDependency()} guards calls to the database with a circuit breaker and a
+ * bulkhead (the {@code db.breaker.*}, {@code db.bulkhead.*} and {@code db.retry.*} keys,
+ * see {@link Dependency}); {@link JdbcUserStore} uses it.
+ */
 public class DBConnection {
-    public static Connection getConnection() {
-        try {
-            Class.forName("oracle.jdbc.driver.OracleDriver");
-            return DriverManager.getConnection("jdbc:oracle:thin:@localhost:1521:xe", "SYSTEM", "admin");
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
+
+    private static volatile ConnectionPool pool;
+    private static volatile Dependency dependency;
+
+    public static Connection getConnection() throws SQLException {
+        return getDataSource().getConnection();
+    }
+
+    /**
+     * A connection for a read that may be served by a replica.
+     * @param username the user whose data is read, or null; see {@link ReadRouter#wrote(String)}
+     */
+    public static Connection getReadConnection(String username) throws SQLException {
+        ReadRouter router = ReadRouter.shared();
+        return router == null ? getConnection() : router.connectForRead(username, DBConnection::getConnection);
+    }
+
+    public static ConnectionPool getDataSource() {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (DBConnection.class) {
+                p = pool;
+                if (p == null) {
+                    pool = p = createPool();
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * The guard for calls to the database. The bulkhead defaults to the pool size with no
+     * wait; set {@code db.bulkhead.maxConcurrent} below {@code auth.ioThreads} to keep I/O
+     * threads free for other work while the database hangs.
+     */
+    public static Dependency getDependency() {
+        Dependency d = dependency;
+        if (d == null) {
+            synchronized (DBConnection.class) {
+                d = dependency;
+                if (d == null) {
+                    dependency = d = Dependency.fromConfig("database", "db", AppConfig.getInt("db.pool.maxSize", 10), 0);
+                }
+            }
+        }
+        return d;
+    }
+
+    /**
+     * @return the pool if one has been created, without creating it
+     */
+    public static ConnectionPool peekDataSource() {
+        return pool;
+    }
+
+    private static ConnectionPool createPool() {
+        String driver = AppConfig.get("db.driver", null);
+        if (driver != null) {
+            try {
+                Class.forName(driver);
+            } catch (ClassNotFoundException e) {
+                e.printStackTrace();
+            }
+        }
+        ConnectionPool.Settings settings = ConnectionPool.Settings.fromConfig("db");
+        if (settings.url == null) {
+            settings.url = "jdbc:oracle:thin:@localhost:1521:xe";
+            settings.user = "SYSTEM";
+            settings.password = "admin";
+        }
+        return new ConnectionPool(settings);
+    }
+
+    /**
+     * Tells whether an insert failed on a unique or primary key, e.g. ORA-00001.
+     */
+    public static boolean isDuplicateKey(SQLException e) {
+        for (SQLException ex = e; ex != null; ex = ex.getNextException()) {
+            String state = ex.getSQLState();
+            if (ex instanceof SQLIntegrityConstraintViolationException
+                    || "23505".equals(state)
+                    || ("23000".equals(state) && ex.getErrorCode() == 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes the pool and any replica pools. The next {@link #getConnection()} call starts a new one.
+     */
+    public static synchronized void shutdown() {
+        ReadRouter.shutdown();
+        if (pool != null) {
+            pool.close();
+            pool = null;
         }
     }
 }
@@ -0,0 +1,191 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.function.Consumer;
+import resilience.Dependency;
+import resilience.DependencyUnavailableException;
+
+/**
+ * {@link UserStore} over the {@code USERS} table, using the statements in
+ * {@link UserDao}. Each call borrows a connection from {@link Connector} and returns it
+ * before it completes.
+ *
+ * With a {@link ReadRouter}, lookups borrow from a read replica instead, and every write
+ * first marks its username so the user's next reads see it.
+ *
+ * With a {@link Dependency}, every call passes its circuit breaker and bulkhead; a
+ * refused call fails at once with a {@link SQLTransientConnectionException} caused by
+ * {@link DependencyUnavailableException}. Lookups that fail to connect are retried with
+ * backoff. Writes are not: one that failed after the database applied it would be
+ * applied twice.
+ */
+public class JdbcUserStore implements UserStore {
+
+    /** Source of connections, so callers can time or route the borrow. */
+    public interface Connector {
+        Connection connect() throws SQLException;
+    }
+
+    private final Connector connector;
+    private final ReadRouter router;
+    private final Dependency guard;
+
+    public JdbcUserStore() {
+        this(DBConnection::getConnection, ReadRouter.shared(), DBConnection.getDependency());
+    }
+
+    public JdbcUserStore(Connector connector) {
+        this(connector, null);
+    }
+
+    /**
+     * @param connector borrows from the primary
+     * @param router sends lookups to replicas, or null to read from the primary
+     */
+    public JdbcUserStore(Connector connector, ReadRouter router) {
+        this(connector, router, null);
+    }
+
+    /**
+     * @param guard breaker and bulkhead for every call, or null for none
+     */
+    public JdbcUserStore(Connector connector, ReadRouter router, Dependency guard) {
+        this.connector = connector;
+        this.router = router;
+        this.guard = guard;
+    }
+
+    @Override
+    public Credentials findCredentials(String username, boolean withLockout) throws SQLException {
+        return retried(() -> {
+            try (Connection conn = connectForRead(username)) {
+                return UserDao.findCredentials(conn, username, withLockout);
+            }
+        });
+    }
+
+    @Override
+    public boolean insert(String username, String hashedPassword) throws SQLException {
+        return guarded(() -> {
+            try (Connection conn = connectForWrite(username)) {
+                return UserDao.insert(conn, username, hashedPassword);
+            } catch (SQLException e) {
+                if (DBConnection.isDuplicateKey(e)) {
+                    return false;
+                }
+                throw e;
+            }
+        });
+    }
+
+    @Override
+    public boolean updatePassword(String username, String hashedPassword) throws SQLException {
+        return guarded(() -> {
+            try (Connection conn = connectForWrite(username)) {
+                return UserDao.updatePassword(conn, username, hashedPassword);
+            }
+        });
+    }
+
+    @Override
+    public boolean replacePassword(String username, String oldHash, String newHash) throws SQLException {
+        return guarded(() -> {
+            try (Connection conn = connectForWrite(username)) {
+                return UserDao.replacePassword(conn, username, oldHash, newHash);
+            }
+        });
+    }
+
+    @Override
+    public boolean delete(String username, String hash) throws SQLException {
+        return guarded(() -> {
+            try (Connection conn = connectForWrite(username)) {
+                return UserDao.delete(conn, username, hash);
+            }
+        });
+    }
+
+    @Override
+    public void recordFailure(String username, long lockedUntilMillis) throws SQLException {
+        guarded(() -> {
+            try (Connection conn = connectForWrite(username)) {
+                UserDao.recordFailure(conn, username, lockedUntilMillis);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public boolean clearFailures(String username) throws SQLException {
+        return guarded(() -> {
+            try (Connection conn = connectForWrite(username)) {
+                return UserDao.clearFailures(conn, username);
+            }
+        });
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> action) throws SQLException {
+        // Not retried: the action may already have seen part of the names
+        guarded(() -> {
+            try (Connection conn = connectForRead(null)) {
+                UserDao.forEachUsername(conn, action);
+                return null;
+            }
+        });
+    }
+
+    private <T> T retried(Dependency.Call<T, SQLException> call) throws SQLException {
+        if (guard == null) {
+            return call.call();
+        }
+        try {
+            return guard.callWithRetry(call, JdbcUserStore::isConnectFailure);
+        } catch (DependencyUnavailableException e) {
+            throw unavailable(e);
+        }
+    }
+
+    private <T> T guarded(Dependency.Call<T, SQLException> call) throws SQLException {
+        if (guard == null) {
+            return call.call();
+        }
+        try {
+            return guard.call(call);
+        } catch (DependencyUnavailableException e) {
+            throw unavailable(e);
+        }
+    }
+
+    private static SQLException unavailable(DependencyUnavailableException e) {
+        return new SQLTransientConnectionException(e.getMessage(), "08001", e);
+    }
+
+    // Connection class 08, or a pooled connection the database had already dropped
+    private static boolean isConnectFailure(Exception e) {
+        return e instanceof SQLTransientConnectionException
+                || e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLRecoverableException
+                || (e instanceof SQLException sql && sql.getSQLState() != null && sql.getSQLState().startsWith("08"));
+    }
+
+    private Connection connectForRead(String username) throws SQLException {
+        return router == null ? connector.connect() : router.connectForRead(username, connector);
+    }
+
+    private Connection connectForWrite(String username) throws SQLException {
+        if (router != null) {
+            router.wrote(username);
+        }
+        return connector.connect();
+    }
+
+    @Override
+    public void close() {
+        // connections belong to the pool
+    }
+}
@@ -0,0 +1,609 @@
+package database;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * {@link UserStore} in a single local file, for kiosks and CI runs with no database
+ * server.
+ *
+ * Every change appends the user's whole record to the end of the file; nothing is ever
+ * overwritten in place. An in-memory hash index maps each username to the offset of its
+ * latest record, so a lookup is one map probe and one positional read, usually served
+ * from the page cache. Records carry a length and CRC32. On open the file is scanned to
+ * rebuild the index, and a torn record left at the end by a crash is cut off.
+ *
+ * A deleted user gets a tombstone, a record with an empty hash, which drops the name from
+ * the index again on the next scan.
+ *
+ * Superseded records and tombstones are garbage. Once the file is {@code compactRatio} times larger than
+ * its live records (and at least {@code compactMinBytes}), a background pass copies the
+ * live records to a fresh file and swaps it in. Lookups carry on against the old file
+ * meanwhile; writes wait.
+ *
+ * Durability follows {@link Fsync}: {@code ALWAYS} forces the file before a write
+ * returns, and concurrent writers share one force (group commit). {@code INTERVAL}
+ * forces it every {@code fsyncIntervalMillis}, so a crash can lose that much. {@code NEVER}
+ * leaves it to the operating system.
+ *
+ * Only one process may open a given file: {@link #open} holds an exclusive lock on
+ * {@code <file>.lock} until {@link #close()}, and fails if another process has it.
+ */
+public class LogUserStore implements UserStore {
+
+    public enum Fsync {
+        ALWAYS,
+        INTERVAL,
+        NEVER
+    }
+
+    /** Point-in-time file statistics. */
+    public record Stats(int users, long fileBytes, long liveBytes, long compactions) {
+
+        @Override
+        public String toString() {
+            return String.format("users=%d file=%dKiB live=%dKiB compactions=%d",
+                    users, fileBytes / 1024, liveBytes / 1024, compactions);
+        }
+    }
+
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final int MAX_FIELD_BYTES = 0xFFFF;
+    private static final Credentials TOMBSTONE = new Credentials("", 0, 0);
+
+    /** Where the latest record of a user is. */
+    private record Slot(long offset, int length) {
+    }
+
+    /** The open file and the index into it; compaction replaces both together. */
+    private record Segment(FileChannel channel, Map<String, Slot> index) {
+    }
+
+    private final Path path;
+    private final Fsync fsync;
+    private final double compactRatio;
+    private final long compactMinBytes;
+    private final ScheduledExecutorService maintenance;
+    private final FileChannel lockChannel;
+
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+    private volatile Segment segment;
+    private volatile boolean closed;
+    // Guarded by writeLock
+    private long end;
+    private long liveBytes;
+    private long compactions;
+    // Written under writeLock, read by syncers
+    private volatile long written;
+    // Guarded by syncLock
+    private long synced;
+
+    private LogUserStore(Path path, Fsync fsync, double compactRatio, long compactMinBytes) throws IOException {
+        this.path = path;
+        this.fsync = fsync;
+        this.compactRatio = compactRatio;
+        this.compactMinBytes = compactMinBytes;
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        lockChannel = lock(path.resolveSibling(path.getFileName() + ".lock"));
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Map<String, Slot> index = new ConcurrentHashMap<>();
+            end = recover(channel, index);
+            segment = new Segment(channel, index);
+        } catch (IOException e) {
+            if (channel != null) {
+                closeQuietly(channel);
+            }
+            closeQuietly(lockChannel);
+            throw e;
+        }
+        written = synced = end;
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "user-log-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Opens or creates the file, rebuilds the index from it and starts the background
+     * fsync and compaction.
+     * @param compactRatio file size to live size ratio that triggers compaction
+     * @throws IOException also when another process has the file open
+     */
+    public static LogUserStore open(Path path, Fsync fsync, long fsyncIntervalMillis, double compactRatio,
+                                    long compactMinBytes) throws IOException {
+        LogUserStore store = new LogUserStore(path, fsync, compactRatio, compactMinBytes);
+        if (fsync == Fsync.INTERVAL) {
+            store.maintenance.scheduleWithFixedDelay(store::forceQuietly, fsyncIntervalMillis, fsyncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        store.maintenance.scheduleWithFixedDelay(store::compactIfWorthIt, 1, 1, TimeUnit.MINUTES);
+        return store;
+    }
+
+    private static FileChannel lock(Path lockFile) throws IOException {
+        FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+        if (lock == null) {
+            closeQuietly(channel);
+            throw new IOException(lockFile + " is held: the user log is already open in another process "
+                    + "(or elsewhere in this one)");
+        }
+        return channel;
+    }
+
+    /**
+     * Opens the file named by {@code db.log.path} with the {@code db.log.*} settings.
+     */
+    public static LogUserStore fromConfig() throws IOException {
+        return open(Paths.get(AppConfig.get("db.log.path", "users.log")),
+                Fsync.valueOf(AppConfig.get("db.log.fsync", "always").toUpperCase(Locale.ROOT)),
+                AppConfig.getLong("db.log.fsyncIntervalMs", 1_000),
+                Double.parseDouble(AppConfig.get("db.log.compactRatio", "2")),
+                AppConfig.getLong("db.log.compactMinBytes", 1 << 20));
+    }
+
+    // --- reads ---
+
+    @Override
+    public Credentials findCredentials(String username, boolean withLockout) throws SQLException {
+        Credentials row = read(username);
+        if (row == null || withLockout) {
+            return row;
+        }
+        return new Credentials(row.hash(), 0, 0);
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> action) throws SQLException {
+        ensureOpen();
+        segment.index().keySet().forEach(action);
+    }
+
+    // The file lock keeps every other process out
+    @Override
+    public boolean isOnlyWriter() {
+        return true;
+    }
+
+    private Credentials read(String username) throws SQLException {
+        while (true) {
+            ensureOpen();
+            Segment s = segment;
+            Slot slot = s.index().get(username);
+            if (slot == null) {
+                return null;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(slot.length() - HEADER_BYTES);
+            try {
+                readFully(s.channel(), payload, slot.offset() + HEADER_BYTES);
+                payload.flip();
+                skipField(payload);
+                return decodeRow(payload);
+            } catch (ClosedChannelException e) {
+                // Swapped by compaction, or closed by another thread's interrupt: try again on a
+                // live channel. Our own interrupt would close every new channel too, so give up
+                reopenIfClosed(s);
+                if (e instanceof ClosedByInterruptException || Thread.currentThread().isInterrupted()) {
+                    throw new SQLException("Interrupted while reading " + path, e);
+                }
+            } catch (IOException e) {
+                throw new SQLException("Could not read " + path, e);
+            }
+        }
+    }
+
+    // --- writes ---
+
+    @Override
+    public boolean insert(String username, String hashedPassword) throws SQLException {
+        long position;
+        synchronized (writeLock) {
+            ensureOpen();
+            if (segment.index().containsKey(username)) {
+                return false;
+            }
+            position = append(username, new Credentials(hashedPassword, 0, 0));
+        }
+        awaitDurable(position);
+        return true;
+    }
+
+    @Override
+    public boolean updatePassword(String username, String hashedPassword) throws SQLException {
+        long position;
+        synchronized (writeLock) {
+            Credentials row = read(username);
+            if (row == null || UserStore.isReservation(row.hash())) {
+                return false;
+            }
+            position = append(username, new Credentials(hashedPassword, row.failedAttempts(), row.lockedUntilMillis()));
+        }
+        awaitDurable(position);
+        return true;
+    }
+
+    @Override
+    public boolean replacePassword(String username, String oldHash, String newHash) throws SQLException {
+        long position;
+        synchronized (writeLock) {
+            Credentials row = read(username);
+            if (row == null || !row.hash().equals(oldHash)) {
+                return false;
+            }
+            position = append(username, new Credentials(newHash, row.failedAttempts(), row.lockedUntilMillis()));
+        }
+        awaitDurable(position);
+        return true;
+    }
+
+    @Override
+    public boolean delete(String username, String hash) throws SQLException {
+        long position;
+        synchronized (writeLock) {
+            Credentials row = read(username);
+            if (row == null || !row.hash().equals(hash)) {
+                return false;
+            }
+            position = append(username, TOMBSTONE);
+        }
+        awaitDurable(position);
+        return true;
+    }
+
+    @Override
+    public void recordFailure(String username, long lockedUntilMillis) throws SQLException {
+        long position;
+        synchronized (writeLock) {
+            Credentials row = read(username);
+            if (row == null) {
+                return;
+            }
+            position = append(username, new Credentials(row.hash(), row.failedAttempts() + 1,
+                    lockedUntilMillis > 0 ? lockedUntilMillis : row.lockedUntilMillis()));
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public boolean clearFailures(String username) throws SQLException {
+        long position;
+        synchronized (writeLock) {
+            Credentials row = read(username);
+            if (row == null) {
+                return false;
+            }
+            if (row.failedAttempts() == 0 && row.lockedUntilMillis() == 0) {
+                return true;
+            }
+            position = append(username, new Credentials(row.hash(), 0, 0));
+        }
+        awaitDurable(position);
+        return true;
+    }
+
+    /**
+     * Appends a record at the end of the file and points the index at it, or for
+     * {@link #TOMBSTONE} drops the user from the index. The caller holds {@code writeLock}.
+     * @return the file position just past the record
+     */
+    private long append(String username, Credentials row) throws SQLException {
+        ByteBuffer record = encode(username, row);
+        int length = record.remaining();
+        while (true) {
+            Segment s = segment;
+            try {
+                writeFully(s.channel(), record, end);
+                if (row == TOMBSTONE) {
+                    Slot previous = s.index().remove(username);
+                    liveBytes -= previous == null ? 0 : previous.length();
+                } else {
+                    Slot previous = s.index().put(username, new Slot(end, length));
+                    liveBytes += length - (previous == null ? 0 : previous.length());
+                }
+                end += length;
+                written = end;
+                return end;
+            } catch (ClosedChannelException e) {
+                ensureOpen();
+                reopenIfClosed(s);
+                // Nothing counts as written until end moves, so the record is simply not there
+                if (e instanceof ClosedByInterruptException || Thread.currentThread().isInterrupted()) {
+                    throw new SQLException("Interrupted while writing " + path, e);
+                }
+                record.rewind();
+            } catch (IOException e) {
+                throw new SQLException("Could not write " + path, e);
+            }
+        }
+    }
+
+    /**
+     * Under {@link Fsync#ALWAYS}, returns once everything up to {@code position} is on
+     * disk. A writer that finds its record already covered by another writer's force
+     * returns without forcing again.
+     */
+    private void awaitDurable(long position) throws SQLException {
+        if (fsync != Fsync.ALWAYS) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            long target = written;
+            try {
+                segment.channel().force(false);
+            } catch (IOException e) {
+                throw new SQLException("Could not sync " + path, e);
+            }
+            synced = target;
+        }
+    }
+
+    private void forceQuietly() {
+        try {
+            segment.channel().force(false);
+        } catch (IOException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // --- compaction ---
+
+    /**
+     * Rewrites the file with only the latest record of each user.
+     */
+    public void compact() throws SQLException {
+        synchronized (writeLock) {
+            ensureOpen();
+            Segment old = segment;
+            Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+            Map<String, Slot> index = new ConcurrentHashMap<>(old.index().size() * 4 / 3 + 1);
+            long size = 0;
+            try {
+                try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+                     BufferedOutputStream out = new BufferedOutputStream(file, 64 * 1024)) {
+                    for (Map.Entry<String, Slot> entry : old.index().entrySet()) {
+                        Slot slot = entry.getValue();
+                        ByteBuffer record = ByteBuffer.allocate(slot.length());
+                        readFully(old.channel(), record, slot.offset());
+                        out.write(record.array());
+                        index.put(entry.getKey(), new Slot(size, slot.length()));
+                        size += slot.length();
+                    }
+                    out.flush();
+                    file.getFD().sync();
+                }
+                Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                // The rename lives in the directory; without this a crash can bring back the old file
+                syncDirectory(path.toAbsolutePath().getParent());
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                segment = new Segment(channel, index);
+            } catch (IOException e) {
+                throw new SQLException("Could not compact " + path, e);
+            }
+            end = liveBytes = size;
+            compactions++;
+            synchronized (syncLock) {
+                written = synced = size;
+            }
+            closeQuietly(old.channel());
+        }
+    }
+
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Windows cannot open a directory; NTFS journals the rename itself
+        }
+    }
+
+    private void compactIfWorthIt() {
+        boolean worthIt;
+        synchronized (writeLock) {
+            worthIt = !closed && end >= compactMinBytes && end > liveBytes * compactRatio;
+        }
+        if (worthIt) {
+            try {
+                compact();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public Stats getStats() {
+        synchronized (writeLock) {
+            return new Stats(segment.index().size(), end, liveBytes, compactions);
+        }
+    }
+
+    @Override
+    public void close() {
+        maintenance.shutdownNow();
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            forceQuietly();
+            closeQuietly(segment.channel());
+            // Releases the lock
+            closeQuietly(lockChannel);
+        }
+    }
+
+    // --- file format ---
+
+    private void ensureOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("User store " + path + " is closed");
+        }
+    }
+
+    /**
+     * A positional read or write interrupted on some thread closes the channel for every
+     * thread, so reopen it rather than failing every later call.
+     */
+    private void reopenIfClosed(Segment s) throws SQLException {
+        synchronized (writeLock) {
+            ensureOpen();
+            if (segment == s && !s.channel().isOpen()) {
+                try {
+                    segment = new Segment(FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE),
+                            s.index());
+                } catch (IOException e) {
+                    throw new SQLException("Could not reopen " + path, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes every intact record and cuts off anything after the first damaged one.
+     * @return the end of the last intact record
+     */
+    private long recover(FileChannel channel, Map<String, Slot> index) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        CRC32 crc = new CRC32();
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            if (length <= 0 || length > MAX_RECORD_BYTES || position + HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, position + HEADER_BYTES);
+            crc.reset();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != header.getInt(4)) {
+                break;
+            }
+            payload.flip();
+            String username = readField(payload);
+            int recordLength = HEADER_BYTES + length;
+            if (payload.getShort(payload.position()) == 0) {
+                // Tombstone: the user was deleted
+                Slot previous = index.remove(username);
+                liveBytes -= previous == null ? 0 : previous.length();
+            } else {
+                Slot previous = index.put(username, new Slot(position, recordLength));
+                liveBytes += recordLength - (previous == null ? 0 : previous.length());
+            }
+            position += recordLength;
+        }
+        if (position < size) {
+            System.err.println("Discarding " + (size - position) + " bytes of incomplete records at the end of " + path);
+            channel.truncate(position);
+            channel.force(true);
+        }
+        return position;
+    }
+
+    private static ByteBuffer encode(String username, Credentials row) throws SQLException {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        byte[] hash = row.hash().getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_FIELD_BYTES || hash.length > MAX_FIELD_BYTES) {
+            throw new SQLException("Username or password hash too long");
+        }
+        if (hash.length == 0 && row != TOMBSTONE) {
+            // Would read back as a tombstone
+            throw new SQLException("Empty password hash");
+        }
+        int length = 2 + name.length + 2 + hash.length + 4 + 8;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + length);
+        buffer.putInt(length).putInt(0);
+        buffer.putShort((short) name.length).put(name);
+        buffer.putShort((short) hash.length).put(hash);
+        buffer.putInt(row.failedAttempts()).putLong(row.lockedUntilMillis());
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, length);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.flip();
+    }
+
+    private static Credentials decodeRow(ByteBuffer payload) {
+        String hash = readField(payload);
+        return new Credentials(hash, payload.getInt(), payload.getLong());
+    }
+
+    private static String readField(ByteBuffer buffer) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static void skipField(ByteBuffer buffer) {
+        buffer.position(buffer.position() + 2 + Short.toUnsignedInt(buffer.getShort(buffer.position())));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of user log");
+            }
+            position += n;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to do
+        }
+    }
+}
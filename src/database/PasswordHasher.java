@@ -0,0 +1,30 @@
+package database;
+
+/**
+ * A password hashing engine.
+ *
+ * Every engine writes self-describing hashes (a {@code $<id>$...} prefix), so hashes
+ * from several engines can live side by side in {@code USERS.PASSWORD}. Engines beyond
+ * the built-in ones can be registered through {@link java.util.ServiceLoader}.
+ */
+public interface PasswordHasher {
+
+    /**
+     * @return The engine name used to select it in configuration, e.g. {@code bcrypt}.
+     */
+    String id();
+
+    /**
+     * @return true if the stored hash was produced by this engine.
+     */
+    boolean supports(String hashedPassword);
+
+    String hash(String plainTextPassword);
+
+    boolean verify(String plainTextPassword, String hashedPassword);
+
+    /**
+     * @return true if the stored hash was made with weaker settings than the engine now uses.
+     */
+    boolean needsRehash(String hashedPassword);
+}
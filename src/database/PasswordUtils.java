@@ -1,32 +1,111 @@
 package database;
 
-import org.mindrot.jbcrypt.BCrypt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
 
 /**
  * Handles password hashing and verification.
+ *
+ * New hashes are made by the engine named in {@code auth.hasher} (bcrypt, pbkdf2-sha256
+ * or argon2id). Stored hashes are verified by whichever engine recognises their prefix,
+ * so existing BCrypt users keep working after a switch and move over on their next login.
  */
 public class PasswordUtils {
 
+    private static final BCryptHasher BCRYPT = new BCryptHasher(AppConfig.getInt("auth.bcrypt.cost", 10));
+
+    private static final List<PasswordHasher> HASHERS = loadHashers();
+
+    private static volatile PasswordHasher current = forId(AppConfig.get("auth.hasher", "bcrypt"));
+
+    private static List<PasswordHasher> loadHashers() {
+        List<PasswordHasher> hashers = new ArrayList<>();
+        hashers.add(BCRYPT);
+        hashers.add(new Pbkdf2Hasher(AppConfig.getInt("auth.pbkdf2.iterations", 600_000)));
+        hashers.add(new Argon2idHasher(
+                AppConfig.getInt("auth.argon2.memoryKiB", 19_456),
+                AppConfig.getInt("auth.argon2.iterations", 2),
+                AppConfig.getInt("auth.argon2.parallelism", 1)));
+        for (PasswordHasher hasher : ServiceLoader.load(PasswordHasher.class)) {
+            hashers.add(hasher);
+        }
+        return List.copyOf(hashers);
+    }
+
+    /**
+     * Looks up a registered engine by its {@link PasswordHasher#id()}.
+     */
+    public static PasswordHasher forId(String id) {
+        for (PasswordHasher hasher : HASHERS) {
+            if (hasher.id().equalsIgnoreCase(id)) {
+                return hasher;
+            }
+        }
+        throw new IllegalArgumentException("Unknown password hasher: " + id);
+    }
+
+    public static List<PasswordHasher> getHashers() {
+        return HASHERS;
+    }
+
+    public static PasswordHasher getHasher() {
+        return current;
+    }
+
+    public static void setHasher(PasswordHasher hasher) {
+        current = hasher;
+    }
+
     /**
-     * Hashes a plain-text password using BCrypt.
+     * Hashes a plain-text password with the current engine.
      * @param plainTextPassword The password to hash.
      * @return A securely hashed password string.
      */
     public static String hashPassword(String plainTextPassword) {
-        return BCrypt.hashpw(plainTextPassword, BCrypt.gensalt());
+        return current.hash(plainTextPassword);
     }
 
     /**
-     * Checks a plain-text password against a stored BCrypt hash.
+     * Checks a plain-text password against a stored hash from any registered engine.
      * @param plainTextPassword The password to check.
      * @param hashedPassword The stored hash from the database.
      * @return true if the password matches the hash, false otherwise.
      */
     public static boolean checkPassword(String plainTextPassword, String hashedPassword) {
         // It's important to check that the hashed password is not null or empty
-        if (hashedPassword == null || !hashedPassword.startsWith("$2a$")) {
+        if (hashedPassword == null || hashedPassword.isEmpty()) {
             return false;
         }
-        return BCrypt.checkpw(plainTextPassword, hashedPassword);
+        for (PasswordHasher hasher : HASHERS) {
+            if (hasher.supports(hashedPassword)) {
+                return hasher.verify(plainTextPassword, hashedPassword);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether a stored hash should be replaced after a successful login: it was
+     * made by another engine, or by this one with weaker settings.
+     */
+    public static boolean needsRehash(String hashedPassword) {
+        PasswordHasher hasher = current;
+        return !hasher.supports(hashedPassword) || hasher.needsRehash(hashedPassword);
+    }
+
+    public static int getCost() {
+        return BCRYPT.getCost();
+    }
+
+    public static void setCost(int newCost) {
+        BCRYPT.setCost(newCost);
+    }
+
+    /**
+     * Picks the BCrypt cost for this host, see {@link BCryptHasher#calibrate(long, int)}.
+     */
+    public static int calibrate(long budgetMillis, int minCost) {
+        return BCRYPT.calibrate(budgetMillis, minCost);
     }
-}
\ No newline at end of file
+}
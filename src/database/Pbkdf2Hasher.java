@@ -0,0 +1,97 @@
+package database;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * PBKDF2-HMAC-SHA256 from the JDK. Hashes look like
+ * {@code $pbkdf2-sha256$i=600000$<salt>$<hash>} with unpadded Base64 fields.
+ */
+public class Pbkdf2Hasher implements PasswordHasher {
+
+    private static final String PREFIX = "$pbkdf2-sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BYTES = 32;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+    private final int iterations;
+
+    public Pbkdf2Hasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("PBKDF2 iterations must be positive");
+        }
+        this.iterations = iterations;
+    }
+
+    @Override
+    public String id() {
+        return "pbkdf2-sha256";
+    }
+
+    @Override
+    public boolean supports(String hashedPassword) {
+        return hashedPassword != null && hashedPassword.startsWith(PREFIX);
+    }
+
+    @Override
+    public String hash(String plainTextPassword) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = derive(plainTextPassword, salt, iterations, HASH_BYTES);
+        return PREFIX + "i=" + iterations + "$" + ENCODER.encodeToString(salt) + "$" + ENCODER.encodeToString(hash);
+    }
+
+    @Override
+    public boolean verify(String plainTextPassword, String hashedPassword) {
+        String[] parts = split(hashedPassword);
+        if (parts == null) {
+            return false;
+        }
+        try {
+            int storedIterations = Integer.parseInt(parts[0].substring(2));
+            byte[] salt = DECODER.decode(parts[1]);
+            byte[] expected = DECODER.decode(parts[2]);
+            byte[] actual = derive(plainTextPassword, salt, storedIterations, expected.length);
+            return MessageDigest.isEqual(expected, actual);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean needsRehash(String hashedPassword) {
+        String[] parts = split(hashedPassword);
+        try {
+            return parts == null || Integer.parseInt(parts[0].substring(2)) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    // Returns {"i=N", salt, hash} or null if the hash is not in PBKDF2 format
+    private static String[] split(String hashedPassword) {
+        if (!(hashedPassword != null && hashedPassword.startsWith(PREFIX))) {
+            return null;
+        }
+        String[] parts = hashedPassword.substring(PREFIX.length()).split("\\$");
+        return parts.length == 3 && parts[0].startsWith("i=") ? parts : null;
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations, int length) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, length * 8);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends reads to read replicas of the primary database, so logins (almost all reads) do
+ * not queue behind signups and resets on the primary.
+ *
+ * Each replica has its own {@link ConnectionPool}. A read borrows from one picked by
+ * {@link Selection}: {@code ROUND_ROBIN} takes turns, {@code LEAST_LATENCY} picks the one
+ * whose health checks have answered fastest lately. Every {@code healthCheckMillis} each
+ * replica is pinged; one that fails a ping or a borrow is skipped until a ping succeeds
+ * again. A read that times out waiting for a replica's pool goes to the primary, but the
+ * replica stays up.
+ * With no healthy replica, reads go to the primary.
+ *
+ * Replicas lag the primary, so a user who has just signed up or changed their password
+ * could be told they do not exist, or have their new password refused. Every write
+ * therefore marks its username, and reads of that user go to the primary for
+ * {@code readYourWritesMillis}; set it above the worst replication lag. The marks are
+ * kept in this process only, so with several servers behind a load balancer the client
+ * must stick to one server for that long.
+ */
+public class ReadRouter implements AutoCloseable {
+
+    public enum Selection {
+        ROUND_ROBIN,
+        LEAST_LATENCY
+    }
+
+    /** Point-in-time state of one replica. */
+    public record ReplicaStats(String name, String url, boolean healthy, double latencyMicros, long reads,
+                               long failures) {
+
+        @Override
+        public String toString() {
+            return String.format("%s %s latency=%.0fus reads=%d failures=%d  %s",
+                    name, healthy ? "up" : "DOWN", latencyMicros, reads, failures, url);
+        }
+    }
+
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private static final class Replica {
+        final String name;
+        final ConnectionPool pool;
+        volatile boolean healthy = true;
+        // Exponentially weighted, written by the health check thread only
+        volatile double latencyMicros;
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+
+        Replica(String name, ConnectionPool pool) {
+            this.name = name;
+            this.pool = pool;
+        }
+
+        void markDown(Exception e) {
+            failures.incrementAndGet();
+            if (healthy) {
+                healthy = false;
+                System.err.println("Read replica " + name + " is down: " + e.getMessage());
+            }
+        }
+    }
+
+    private static volatile ReadRouter shared;
+
+    private final Replica[] replicas;
+    private final Selection selection;
+    private final long readYourWritesMillis;
+    private final int validationTimeoutSeconds;
+    private final Map<String, Long> recentWrites = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong primaryReads = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final ScheduledExecutorService health;
+
+    /**
+     * @param replicas pools keyed by replica name; the router closes them
+     */
+    public ReadRouter(Map<String, ConnectionPool> replicas, Selection selection, long healthCheckMillis,
+                      long readYourWritesMillis, int validationTimeoutSeconds) {
+        List<Replica> list = new ArrayList<>();
+        replicas.forEach((name, pool) -> list.add(new Replica(name, pool)));
+        this.replicas = list.toArray(new Replica[0]);
+        this.selection = selection;
+        this.readYourWritesMillis = readYourWritesMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.health = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-replica-health");
+            t.setDaemon(true);
+            return t;
+        });
+        health.scheduleWithFixedDelay(this::checkHealth, 0, healthCheckMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The router for {@code db.replicas}, a comma-separated list of replica names. Replica
+     * {@code r1} is configured by {@code db.replica.r1.url} and the other
+     * {@link ConnectionPool.Settings} keys under {@code db.replica.r1}; user and password
+     * default to the primary's.
+     * @return null when no replicas are configured
+     */
+    public static ReadRouter shared() {
+        if (!isEnabled()) {
+            return null;
+        }
+        ReadRouter router = shared;
+        if (router == null) {
+            synchronized (ReadRouter.class) {
+                router = shared;
+                if (router == null) {
+                    shared = router = fromConfig();
+                }
+            }
+        }
+        return router;
+    }
+
+    public static boolean isEnabled() {
+        return !AppConfig.get("db.replicas", "").isBlank();
+    }
+
+    /**
+     * @return the router if one has been created, without creating it
+     */
+    public static ReadRouter peek() {
+        return shared;
+    }
+
+    private static ReadRouter fromConfig() {
+        Map<String, ConnectionPool> pools = new LinkedHashMap<>();
+        for (String name : AppConfig.get("db.replicas", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            ConnectionPool.Settings settings = ConnectionPool.Settings.fromConfig("db.replica." + name);
+            if (settings.url == null) {
+                throw new IllegalStateException("db.replica." + name + ".url is not set");
+            }
+            if (settings.user == null) {
+                settings.user = AppConfig.get("db.user", null);
+                settings.password = AppConfig.get("db.password", null);
+            }
+            pools.put(name, new ConnectionPool(settings));
+        }
+        return new ReadRouter(pools,
+                Selection.valueOf(AppConfig.get("db.replica.selection", "round-robin").toUpperCase(Locale.ROOT).replace('-', '_')),
+                AppConfig.getLong("db.replica.healthCheckMs", 2_000),
+                AppConfig.getLong("db.replica.readYourWritesMs", 5_000),
+                AppConfig.getInt("db.replica.validationTimeoutSec", 2));
+    }
+
+    /**
+     * Borrows a connection for a read.
+     * @param username the user whose data is read, or null for reads not tied to one user
+     */
+    public Connection connectForRead(String username, JdbcUserStore.Connector primary) throws SQLException {
+        if (username != null && wroteRecently(username)) {
+            primaryReads.incrementAndGet();
+            return primary.connect();
+        }
+        for (int attempt = 0; attempt < replicas.length; attempt++) {
+            Replica replica = pick();
+            if (replica == null) {
+                break;
+            }
+            try {
+                Connection conn = replica.pool.getConnection();
+                replica.reads.incrementAndGet();
+                return conn;
+            } catch (SQLTimeoutException e) {
+                // Busy rather than down, and another borrow timeout would only add to the wait
+                break;
+            } catch (SQLException e) {
+                replica.markDown(e);
+            }
+        }
+        fallbacks.incrementAndGet();
+        return primary.connect();
+    }
+
+    /**
+     * Sends reads of {@code username} to the primary for the read-your-writes window. Call
+     * before the write, so a read racing with it is already covered.
+     */
+    public void wrote(String username) {
+        recentWrites.put(username, System.currentTimeMillis() + readYourWritesMillis);
+    }
+
+    private boolean wroteRecently(String username) {
+        Long until = recentWrites.get(username);
+        if (until == null) {
+            return false;
+        }
+        if (until > System.currentTimeMillis()) {
+            return true;
+        }
+        recentWrites.remove(username, until);
+        return false;
+    }
+
+    /**
+     * @return a healthy replica, or null if there is none
+     */
+    private Replica pick() {
+        if (selection == Selection.LEAST_LATENCY) {
+            Replica best = null;
+            for (Replica replica : replicas) {
+                if (replica.healthy && (best == null || replica.latencyMicros < best.latencyMicros)) {
+                    best = replica;
+                }
+            }
+            return best;
+        }
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < replicas.length; i++) {
+            Replica replica = replicas[(start + i) % replicas.length];
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private void checkHealth() {
+        for (Replica replica : replicas) {
+            long start = System.nanoTime();
+            try (Connection conn = replica.pool.getConnection()) {
+                if (!conn.isValid(validationTimeoutSeconds)) {
+                    throw new SQLException("Connection is not valid");
+                }
+                double micros = (System.nanoTime() - start) / 1e3;
+                replica.latencyMicros = replica.latencyMicros == 0
+                        ? micros : replica.latencyMicros + LATENCY_WEIGHT * (micros - replica.latencyMicros);
+                if (!replica.healthy) {
+                    replica.healthy = true;
+                    System.err.println("Read replica " + replica.name + " is back up");
+                }
+            } catch (SQLTimeoutException e) {
+                // Every pooled connection is in use: busy, as in connectForRead, not down
+            } catch (SQLException | RuntimeException e) {
+                replica.markDown(e);
+            }
+        }
+        long now = System.currentTimeMillis();
+        recentWrites.values().removeIf(until -> until <= now);
+    }
+
+    public List<ReplicaStats> getStats() {
+        List<ReplicaStats> stats = new ArrayList<>(replicas.length);
+        for (Replica replica : replicas) {
+            stats.add(new ReplicaStats(replica.name, replica.pool.getUrl(), replica.healthy, replica.latencyMicros,
+                    replica.reads.get(), replica.failures.get()));
+        }
+        return stats;
+    }
+
+    /** Reads sent to the primary because the user wrote within the window. */
+    public long getPrimaryReads() {
+        return primaryReads.get();
+    }
+
+    /** Reads sent to the primary because no replica was healthy. */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    @Override
+    public void close() {
+        health.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+
+    /**
+     * Closes the shared router and its pools.
+     */
+    public static synchronized void shutdown() {
+        if (shared != null) {
+            shared.close();
+            shared = null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Statements against the optional {@code SESSIONS} table, which lets login sessions
+ * survive a restart and be shared by several servers. Like {@link UserDao}, methods take
+ * a borrowed connection and use constant SQL texts.
+ */
+public final class SessionDao {
+
+    public static final String INSERT = "INSERT INTO SESSIONS (SESSION_ID, USERNAME, EXPIRES_AT) VALUES (?, ?, ?)";
+    public static final String FIND = "SELECT USERNAME, EXPIRES_AT FROM SESSIONS WHERE SESSION_ID = ?";
+    public static final String DELETE = "DELETE FROM SESSIONS WHERE SESSION_ID = ?";
+    public static final String DELETE_FOR_USER = "DELETE FROM SESSIONS WHERE USERNAME = ?";
+    public static final String DELETE_EXPIRED = "DELETE FROM SESSIONS WHERE EXPIRES_AT < ?";
+
+    /** A stored session; {@code id} is the random part of the token. */
+    public record Row(String id, String username, long expiresAtMillis) {
+    }
+
+    private SessionDao() {
+    }
+
+    public static void insert(Connection conn, Row row) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(INSERT)) {
+            stmt.setString(1, row.id());
+            stmt.setString(2, row.username());
+            stmt.setTimestamp(3, new Timestamp(row.expiresAtMillis()));
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * @return the session, or null if there is none (expired rows are returned as stored)
+     */
+    public static Row find(Connection conn, String id) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(FIND)) {
+            stmt.setString(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? new Row(id, rs.getString(1), rs.getTimestamp(2).getTime()) : null;
+            }
+        }
+    }
+
+    public static boolean delete(Connection conn, String id) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(DELETE)) {
+            stmt.setString(1, id);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * @return the number of sessions removed
+     */
+    public static int deleteForUser(Connection conn, String username) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(DELETE_FOR_USER)) {
+            stmt.setString(1, username);
+            return stmt.executeUpdate();
+        }
+    }
+
+    public static int deleteExpired(Connection conn, long nowMillis) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(DELETE_EXPIRED)) {
+            stmt.setTimestamp(1, new Timestamp(nowMillis));
+            return stmt.executeUpdate();
+        }
+    }
+}
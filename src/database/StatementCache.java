@@ -0,0 +1,230 @@
+package database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache of prepared statements for one physical connection, so SQL repeated on a
+ * pooled connection is parsed once instead of on every borrow.
+ *
+ * Callers get a proxy. Closing it closes the statement's last result set, clears its
+ * parameters and puts it back in the cache rather than closing it. If the same SQL is
+ * already checked out on this connection, an uncached statement is prepared instead.
+ * Settings such as the fetch size stay on a cached statement, which suits callers that
+ * always run the same SQL the same way. Every execution is timed into the
+ * {@link Metrics} shared by the pool.
+ */
+final class StatementCache {
+
+    /** Per-SQL counters, shared by every connection of a pool. */
+    static final class Metrics {
+        private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+        Counter forSql(String sql) {
+            return counters.computeIfAbsent(sql, k -> new Counter());
+        }
+
+        Map<String, Counter> all() {
+            return counters;
+        }
+    }
+
+    static final class Counter {
+        final LongAdder prepares = new LongAdder();
+        final LongAdder hits = new LongAdder();
+        final LongAdder executions = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    }
+
+    private static final class Entry {
+        final String sql;
+        final PreparedStatement statement;
+        boolean inUse;
+        boolean evicted;
+
+        Entry(String sql, PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+        }
+    }
+
+    private final Connection physical;
+    private final Metrics metrics;
+    private final LinkedHashMap<String, Entry> entries;
+
+    StatementCache(Connection physical, int maxSize, Metrics metrics) {
+        this.physical = physical;
+        this.metrics = metrics;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= maxSize) {
+                    return false;
+                }
+                Entry entry = eldest.getValue();
+                if (entry.inUse) {
+                    entry.evicted = true;
+                } else {
+                    closeQuietly(entry.statement);
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param owner the connection proxy that {@code getConnection()} should return
+     */
+    PreparedStatement prepare(String sql, Connection owner) throws SQLException {
+        Counter counter = metrics.forSql(sql);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(sql);
+            if (entry != null && !entry.inUse) {
+                entry.inUse = true;
+                counter.hits.increment();
+                return wrap(entry.statement, entry, owner, counter);
+            }
+        }
+        PreparedStatement statement = physical.prepareStatement(sql);
+        counter.prepares.increment();
+        if (entry == null) {
+            synchronized (this) {
+                if (!entries.containsKey(sql)) {
+                    Entry fresh = new Entry(sql, statement);
+                    fresh.inUse = true;
+                    entries.put(sql, fresh);
+                    return wrap(statement, fresh, owner, counter);
+                }
+            }
+        }
+        return wrap(statement, null, owner, counter);
+    }
+
+    private PreparedStatement wrap(PreparedStatement statement, Entry entry, Connection owner, Counter counter) {
+        return (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class}, new Lease(statement, entry, owner, counter));
+    }
+
+    private void checkIn(Entry entry) {
+        try {
+            entry.statement.clearParameters();
+        } catch (SQLException e) {
+            synchronized (this) {
+                entries.remove(entry.sql, entry);
+            }
+            closeQuietly(entry.statement);
+            return;
+        }
+        synchronized (this) {
+            entry.inUse = false;
+            if (entry.evicted) {
+                closeQuietly(entry.statement);
+            }
+        }
+    }
+
+    /** Closes every cached statement; the connection is going away. */
+    synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            closeQuietly(entry.statement);
+        }
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        try {
+            resource.close();
+        } catch (Exception e) {
+            // closing anyway
+        }
+    }
+
+    private final class Lease implements InvocationHandler {
+        private final PreparedStatement statement;
+        private final Entry entry;
+        private final Connection owner;
+        private final Counter counter;
+        private ResultSet lastResult;
+        private boolean closed;
+
+        Lease(PreparedStatement statement, Entry entry, Connection owner, Counter counter) {
+            this.statement = statement;
+            this.entry = entry;
+            this.owner = owner;
+            this.counter = counter;
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        if (lastResult != null) {
+                            closeQuietly(lastResult);
+                            lastResult = null;
+                        }
+                        if (entry != null) {
+                            checkIn(entry);
+                        } else {
+                            statement.close();
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getConnection":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + counter + "]";
+                default:
+                    if (closed) {
+                        throw new SQLException("Statement is closed");
+                    }
+                    if (!name.startsWith("execute")) {
+                        return call(method, args);
+                    }
+                    long start = System.nanoTime();
+                    Object result = call(method, args);
+                    long elapsed = System.nanoTime() - start;
+                    counter.executions.increment();
+                    counter.totalNanos.add(elapsed);
+                    counter.maxNanos.accumulate(elapsed);
+                    if (result instanceof ResultSet rs) {
+                        lastResult = rs;
+                    }
+                    return result;
+            }
+        }
+
+        private Object call(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package database;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Headless bulk import and export of {@code USERS}, run from the command line:
+ *
+ * <pre>
+ * LoginSignupApp --import users.csv [--batch=1000] [--threads=N] [--hashed] [--restart]
+ * LoginSignupApp --export users.csv [--fetch=1000]
+ * </pre>
+ *
+ * Import streams {@code username,password} rows and hashes each chunk in parallel
+ * while the previous chunk is written with {@code addBatch}/{@code executeBatch}.
+ * Every committed chunk is recorded in {@code <file>.checkpoint}, so a rerun resumes
+ * after the last commit unless {@code --restart} is given. {@code --hashed} stores the
+ * password column as-is, which is how an export file is loaded back.
+ */
+public class UserBulkTool {
+
+    private static final long REPORT_INTERVAL_NANOS = 2_000_000_000L;
+
+    public static boolean handles(String[] args) {
+        return args.length > 0 && (args[0].equals("--import") || args[0].equals("--export"));
+    }
+
+    /**
+     * @return the process exit code
+     */
+    public static int run(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: --import <file.csv> [--batch=1000] [--threads=N] [--hashed] [--restart]");
+            System.err.println("       --export <file.csv> [--fetch=1000]");
+            return 2;
+        }
+        Path file = Paths.get(args[1]);
+        int batchSize = intOption(args, "--batch=", 1_000);
+        int threads = intOption(args, "--threads=", Runtime.getRuntime().availableProcessors());
+        int fetchSize = intOption(args, "--fetch=", 1_000);
+        boolean hashed = hasFlag(args, "--hashed");
+        boolean restart = hasFlag(args, "--restart");
+        try {
+            if (args[0].equals("--import")) {
+                importCsv(file, batchSize, threads, hashed, restart);
+            } else {
+                exportCsv(file, fetchSize);
+            }
+            return 0;
+        } catch (IOException | SQLException e) {
+            e.printStackTrace();
+            return 1;
+        } finally {
+            DBConnection.shutdown();
+        }
+    }
+
+    public static void importCsv(Path file, int batchSize, int threads, boolean hashed, boolean restart)
+            throws IOException, SQLException {
+        Path checkpoint = Paths.get(file + ".checkpoint");
+        long skip = !restart && Files.exists(checkpoint) ? Long.parseLong(Files.readString(checkpoint).trim()) : 0;
+        if (skip > 0) {
+            System.out.println("Resuming after row " + skip);
+        }
+
+        ForkJoinPool hashers = new ForkJoinPool(threads);
+        Progress progress = new Progress("imported");
+        long committed = skip;
+        long duplicates = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             Connection conn = DBConnection.getConnection();
+             PreparedStatement insert = conn.prepareStatement(UserDao.INSERT)) {
+            conn.setAutoCommit(false);
+            skipRows(reader, skip);
+
+            // Hash chunk n+1 on the pool while chunk n is written
+            List<String[]> rows = readChunk(reader, batchSize);
+            CompletableFuture<List<String[]>> next = hashAsync(rows, hashed, hashers);
+            while (!rows.isEmpty()) {
+                List<String[]> ready = next.join();
+                rows = readChunk(reader, batchSize);
+                next = hashAsync(rows, hashed, hashers);
+
+                int skipped = writeChunk(conn, insert, ready);
+                duplicates += skipped;
+                committed += ready.size();
+                Files.writeString(Paths.get(checkpoint + ".tmp"), Long.toString(committed));
+                Files.move(Paths.get(checkpoint + ".tmp"), checkpoint, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                progress.add(ready.size() - skipped);
+            }
+        } finally {
+            hashers.shutdownNow();
+        }
+        progress.finish();
+        if (duplicates > 0) {
+            System.out.println("Skipped " + duplicates + " existing usernames");
+        }
+        Files.deleteIfExists(checkpoint);
+    }
+
+    public static void exportCsv(Path file, int fetchSize) throws IOException, SQLException {
+        Progress progress = new Progress("exported");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             Connection conn = DBConnection.getReadConnection(null);
+             PreparedStatement stmt = conn.prepareStatement(UserDao.ALL_USERS,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(fetchSize);
+            writer.write("username,password");
+            writer.newLine();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    // A signup still hashing has no password to carry over
+                    if (UserStore.isReservation(rs.getString(2))) {
+                        continue;
+                    }
+                    writer.write(csvField(rs.getString(1)));
+                    writer.write(',');
+                    writer.write(csvField(rs.getString(2)));
+                    writer.newLine();
+                    progress.add(1);
+                }
+            }
+        }
+        progress.finish();
+    }
+
+    private static CompletableFuture<List<String[]>> hashAsync(List<String[]> rows, boolean hashed, ForkJoinPool pool) {
+        if (hashed || rows.isEmpty()) {
+            return CompletableFuture.completedFuture(rows);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            rows.parallelStream().forEach(row -> row[1] = PasswordUtils.hashPassword(row[1]));
+            return rows;
+        }, pool);
+    }
+
+    /**
+     * Writes and commits one chunk. If the batch hits an existing username the chunk is
+     * rolled back and replayed row by row so the duplicates can be skipped.
+     * @return the number of duplicate rows skipped
+     */
+    private static int writeChunk(Connection conn, PreparedStatement insert, List<String[]> rows) throws SQLException {
+        try {
+            for (String[] row : rows) {
+                insert.setString(1, row[0]);
+                insert.setString(2, row[1]);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            conn.commit();
+            return 0;
+        } catch (BatchUpdateException e) {
+            conn.rollback();
+            insert.clearBatch();
+            if (!DBConnection.isDuplicateKey(e)) {
+                throw e;
+            }
+        }
+        int duplicates = 0;
+        for (String[] row : rows) {
+            insert.setString(1, row[0]);
+            insert.setString(2, row[1]);
+            try {
+                insert.executeUpdate();
+            } catch (SQLException e) {
+                if (!DBConnection.isDuplicateKey(e)) {
+                    conn.rollback();
+                    throw e;
+                }
+                duplicates++;
+            }
+        }
+        conn.commit();
+        return duplicates;
+    }
+
+    private static void skipRows(BufferedReader reader, long rows) throws IOException {
+        readHeader(reader);
+        for (long i = 0; i < rows && reader.readLine() != null; i++) {
+            // skip rows committed by an earlier run
+        }
+    }
+
+    private static void readHeader(BufferedReader reader) throws IOException {
+        reader.mark(8_192);
+        String first = reader.readLine();
+        if (first == null || !first.trim().equalsIgnoreCase("username,password")) {
+            reader.reset();
+        }
+    }
+
+    private static List<String[]> readChunk(BufferedReader reader, int size) throws IOException {
+        List<String[]> rows = new ArrayList<>(size);
+        String line;
+        while (rows.size() < size && (line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            List<String> fields = parseCsvLine(line);
+            if (fields.size() < 2 || fields.get(0).isEmpty() || fields.get(1).isEmpty()) {
+                throw new IOException("Malformed row: " + line);
+            }
+            rows.add(new String[] {fields.get(0), fields.get(1)});
+        }
+        return rows;
+    }
+
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static int intOption(String[] args, String prefix, int defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return Integer.parseInt(arg.substring(prefix.length()));
+            }
+        }
+        return defaultValue;
+    }
+
+    private static boolean hasFlag(String[] args, String flag) {
+        for (String arg : args) {
+            if (arg.equals(flag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Prints rows/sec every couple of seconds and a summary at the end. */
+    private static final class Progress {
+        private final String verb;
+        private final long start = System.nanoTime();
+        private long lastReport = start;
+        private long rows;
+
+        Progress(String verb) {
+            this.verb = verb;
+        }
+
+        void add(long count) {
+            rows += count;
+            long now = System.nanoTime();
+            if (now - lastReport >= REPORT_INTERVAL_NANOS) {
+                lastReport = now;
+                System.out.printf("%,d rows %s (%,.0f rows/sec)%n", rows, verb, rows / ((now - start) / 1e9));
+            }
+        }
+
+        void finish() {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Done: %,d rows %s in %.1f s (%,.0f rows/sec)%n", rows, verb, seconds, rows / Math.max(seconds, 1e-9));
+        }
+    }
+}
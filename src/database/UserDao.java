@@ -0,0 +1,148 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.function.Consumer;
+
+/**
+ * Every statement run against {@code USERS}, in one place.
+ *
+ * The SQL texts are constants so each one is byte-for-byte the same on every call: the
+ * {@link ConnectionPool} statement cache and Oracle's shared cursor cache both key on the
+ * exact text. Methods take a borrowed connection rather than opening one, so callers
+ * decide how connections are obtained and timed; each statement is closed (for a pooled
+ * connection, returned to its cache) before the method returns.
+ */
+public final class UserDao {
+
+    public static final String FIND_PASSWORD = "SELECT PASSWORD FROM USERS WHERE USERNAME = ?";
+    public static final String FIND_CREDENTIALS =
+            "SELECT PASSWORD, FAILED_ATTEMPTS, LOCKED_UNTIL FROM USERS WHERE USERNAME = ?";
+    public static final String INSERT = "INSERT INTO USERS (USERNAME, PASSWORD) VALUES (?, ?)";
+    public static final String UPDATE_PASSWORD =
+            "UPDATE USERS SET PASSWORD = ? WHERE USERNAME = ? AND PASSWORD NOT LIKE '" + UserStore.RESERVATION_PREFIX + "%'";
+    public static final String REPLACE_PASSWORD = "UPDATE USERS SET PASSWORD = ? WHERE USERNAME = ? AND PASSWORD = ?";
+    public static final String DELETE = "DELETE FROM USERS WHERE USERNAME = ? AND PASSWORD = ?";
+    public static final String RECORD_FAILURE =
+            "UPDATE USERS SET FAILED_ATTEMPTS = FAILED_ATTEMPTS + 1 WHERE USERNAME = ?";
+    public static final String RECORD_FAILURE_AND_LOCK =
+            "UPDATE USERS SET FAILED_ATTEMPTS = FAILED_ATTEMPTS + 1, LOCKED_UNTIL = ? WHERE USERNAME = ?";
+    public static final String CLEAR_FAILURES =
+            "UPDATE USERS SET FAILED_ATTEMPTS = 0, LOCKED_UNTIL = NULL WHERE USERNAME = ?";
+    public static final String ALL_USERNAMES = "SELECT USERNAME FROM USERS";
+    public static final String ALL_USERS = "SELECT USERNAME, PASSWORD FROM USERS";
+
+    private UserDao() {
+    }
+
+    /**
+     * @param withLockout also read {@code FAILED_ATTEMPTS} and {@code LOCKED_UNTIL}
+     * @return the user's credentials, or null if there is no such user
+     */
+    public static UserStore.Credentials findCredentials(Connection conn, String username, boolean withLockout)
+            throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(withLockout ? FIND_CREDENTIALS : FIND_PASSWORD)) {
+            stmt.setString(1, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                if (!withLockout) {
+                    return new UserStore.Credentials(rs.getString(1), 0, 0);
+                }
+                Timestamp lockedUntil = rs.getTimestamp(3);
+                return new UserStore.Credentials(rs.getString(1), rs.getInt(2),
+                        lockedUntil == null ? 0 : lockedUntil.getTime());
+            }
+        }
+    }
+
+    /**
+     * @throws SQLException a duplicate key error (see {@link DBConnection#isDuplicateKey})
+     *         if the name is taken
+     */
+    public static boolean insert(Connection conn, String username, String hashedPassword) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(INSERT)) {
+            stmt.setString(1, username);
+            stmt.setString(2, hashedPassword);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * @return false if there is no such user, or the name is only reserved
+     */
+    public static boolean updatePassword(Connection conn, String username, String hashedPassword) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(UPDATE_PASSWORD)) {
+            stmt.setString(1, hashedPassword);
+            stmt.setString(2, username);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Swaps {@code oldHash} for {@code newHash} only if it is still the stored hash, so a
+     * concurrent reset is never overwritten.
+     */
+    public static boolean replacePassword(Connection conn, String username, String oldHash, String newHash)
+            throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(REPLACE_PASSWORD)) {
+            stmt.setString(1, newHash);
+            stmt.setString(2, username);
+            stmt.setString(3, oldHash);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Deletes the row only if {@code hash} is still its password.
+     */
+    public static boolean delete(Connection conn, String username, String hash) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(DELETE)) {
+            stmt.setString(1, username);
+            stmt.setString(2, hash);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Counts a failed login in SQL, so concurrent failures are not lost.
+     * @param lockedUntilMillis lock to set at the same time, or 0 for none
+     */
+    public static void recordFailure(Connection conn, String username, long lockedUntilMillis) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(lockedUntilMillis > 0 ? RECORD_FAILURE_AND_LOCK : RECORD_FAILURE)) {
+            int index = 1;
+            if (lockedUntilMillis > 0) {
+                stmt.setTimestamp(index++, new Timestamp(lockedUntilMillis));
+            }
+            stmt.setString(index, username);
+            stmt.executeUpdate();
+        }
+    }
+
+    public static boolean clearFailures(Connection conn, String username) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(CLEAR_FAILURES)) {
+            stmt.setString(1, username);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Streams every username without holding the result set in memory.
+     */
+    public static void forEachUsername(Connection conn, Consumer<String> action) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(ALL_USERNAMES)) {
+            stmt.setFetchSize(1_000);
+            // A full scan may rightly take longer than the pool's query timeout
+            stmt.setQueryTimeout(0);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    action.accept(rs.getString(1));
+                }
+            }
+        }
+    }
+}
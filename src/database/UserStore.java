@@ -0,0 +1,89 @@
+package database;
+
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/**
+ * Where user accounts are kept. {@link JdbcUserStore} uses the {@code USERS} table of
+ * any JDBC database; {@link LogUserStore} keeps them in a local append-only file for
+ * machines with no database server. {@link UserStores#shared()} picks one from
+ * {@code db.store}.
+ *
+ * Failures of either engine are reported as {@link SQLException}, so callers handle
+ * them the same way whichever engine is configured.
+ */
+public interface UserStore extends AutoCloseable {
+
+    /**
+     * Starts the stored hash of a name that a signup has reserved but not finished
+     * hashing for. No {@link PasswordHasher} accepts it, so it never verifies, and
+     * {@link #updatePassword} leaves it alone.
+     */
+    String RESERVATION_PREFIX = "!";
+
+    /**
+     * What a login needs to know about a user. The lockout fields are 0 when they were
+     * not read.
+     */
+    record Credentials(String hash, int failedAttempts, long lockedUntilMillis) {
+    }
+
+    /**
+     * @param withLockout also read the failed attempt count and lock
+     * @return the user's credentials, or null if there is no such user
+     */
+    Credentials findCredentials(String username, boolean withLockout) throws SQLException;
+
+    /**
+     * @return false if the username is already taken
+     */
+    boolean insert(String username, String hashedPassword) throws SQLException;
+
+    /**
+     * @return false if there is no such user, or the name is only reserved
+     */
+    boolean updatePassword(String username, String hashedPassword) throws SQLException;
+
+    /**
+     * Swaps {@code oldHash} for {@code newHash} only if it is still the stored hash.
+     * @return false if the hash had changed or the user is gone
+     */
+    boolean replacePassword(String username, String oldHash, String newHash) throws SQLException;
+
+    /**
+     * Removes the user only if {@code hash} is still the stored hash, e.g. to give back a
+     * reservation.
+     * @return false if the hash had changed or the user is gone
+     */
+    boolean delete(String username, String hash) throws SQLException;
+
+    /**
+     * Counts a failed login.
+     * @param lockedUntilMillis lock to set at the same time, or 0 for none
+     */
+    void recordFailure(String username, long lockedUntilMillis) throws SQLException;
+
+    /**
+     * Resets the failed attempt count and lock.
+     * @return false if there is no such user
+     */
+    boolean clearFailures(String username) throws SQLException;
+
+    /**
+     * @return true if nothing outside this process can change the store while it is
+     *         open, so a name this process never saw written does not exist
+     */
+    default boolean isOnlyWriter() {
+        return false;
+    }
+
+    /** Streams every username, in no particular order. */
+    void forEachUsername(Consumer<String> action) throws SQLException;
+
+    @Override
+    void close();
+
+    static boolean isReservation(String hash) {
+        return hash != null && hash.startsWith(RESERVATION_PREFIX);
+    }
+}
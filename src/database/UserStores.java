@@ -0,0 +1,67 @@
+package database;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+
+/**
+ * Opens the {@link UserStore} named by {@code db.store}: {@code jdbc} (the default) for
+ * the {@code USERS} table behind {@link DBConnection}, or {@code log} for a
+ * {@link LogUserStore} at {@code db.log.path}.
+ */
+public final class UserStores {
+
+    private static volatile UserStore shared;
+
+    private UserStores() {
+    }
+
+    /**
+     * @return {@code jdbc} or {@code log}
+     */
+    public static String engine() {
+        return AppConfig.get("db.store", "jdbc").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @throws UncheckedIOException if the log file cannot be opened
+     */
+    public static UserStore shared() {
+        UserStore store = shared;
+        if (store == null) {
+            synchronized (UserStores.class) {
+                store = shared;
+                if (store == null) {
+                    shared = store = open();
+                }
+            }
+        }
+        return store;
+    }
+
+    private static UserStore open() {
+        String engine = engine();
+        switch (engine) {
+            case "jdbc":
+                return new JdbcUserStore();
+            case "log":
+                try {
+                    return LogUserStore.fromConfig();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not open the user log", e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown db.store '" + engine + "'; use jdbc or log");
+        }
+    }
+
+    /**
+     * Closes the shared store, flushing a log store to disk.
+     */
+    public static synchronized void shutdown() {
+        if (shared != null) {
+            shared.close();
+            shared = null;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package database;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory index of existing usernames, used to skip database round trips.
+ *
+ * A Bloom filter answers "definitely free" or "probably taken"; a bounded set of names
+ * confirmed by the database answers "taken" outright. Each warm-up refills that set from
+ * its scan, and {@link #remove(String)} drops a name whose account was undone. The filter is loaded from the
+ * {@link UserStore} by {@link #warmUp()} and kept current by {@link #add(String)} after
+ * every signup. Until the first warm-up completes every lookup answers
+ * {@link Answer#UNKNOWN}. Rows inserted by other clients are picked up on the next
+ * warm-up, so {@link #startRefresh(long)} rebuilds it periodically.
+ *
+ * {@link Answer#DEFINITELY_FREE} only means "not seen by this process". Callers use it
+ * to save work, and treat it as final only when {@link #isAuthoritativeFor(UserStore)}:
+ * the index was loaded from that store and no other process can write to it.
+ *
+ * Sizing comes from {@code auth.usernameIndex.expectedUsers} and
+ * {@code auth.usernameIndex.falsePositiveRate}; the filter uses about 1.2 bytes per
+ * expected user at a 1% rate.
+ */
+public class UsernameIndex {
+
+    public enum Answer {
+        /** Not in the filter: this process has not seen the name since the last warm-up. */
+        DEFINITELY_FREE,
+        /** In the filter: the user probably exists, the database has the final word. */
+        PROBABLY_TAKEN,
+        /** Confirmed by the database earlier. */
+        TAKEN,
+        /** Not warmed up yet. */
+        UNKNOWN
+    }
+
+    public record Stats(long lookups, long definitelyFree, long probablyTaken, long taken, long unknown,
+                        long falsePositives, long bits, int hashes, long inserted, int verified) {
+
+        @Override
+        public String toString() {
+            return String.format("lookups=%d free=%d probablyTaken=%d taken=%d unknown=%d falsePositives=%d "
+                            + "filter=%dKiB/%d hashes inserted=%d verified=%d",
+                    lookups, definitelyFree, probablyTaken, taken, unknown, falsePositives,
+                    bits / 8 / 1024, hashes, inserted, verified);
+        }
+    }
+
+    private static volatile UsernameIndex shared;
+
+    private final long expectedUsers;
+    private final double falsePositiveRate;
+    private final int maxVerified;
+    private volatile BloomFilter filter;
+    private volatile boolean warm;
+    // Names seen in the store; rebuilt by every warm-up, so one removed since is forgotten
+    private volatile Set<String> verified = ConcurrentHashMap.newKeySet();
+    // Every name added or removed while a warm-up scan runs, however full verified is
+    private final Set<String> addedDuringScan = ConcurrentHashMap.newKeySet();
+    private final Set<String> removedDuringScan = ConcurrentHashMap.newKeySet();
+    private volatile boolean scanning;
+    private volatile UserStore source;
+    private ScheduledExecutorService refresher;
+
+    private final LongAdder definitelyFree = new LongAdder();
+    private final LongAdder probablyTaken = new LongAdder();
+    private final LongAdder taken = new LongAdder();
+    private final LongAdder unknown = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    public UsernameIndex(long expectedUsers, double falsePositiveRate, int maxVerified) {
+        this.expectedUsers = expectedUsers;
+        this.falsePositiveRate = falsePositiveRate;
+        this.maxVerified = maxVerified;
+        this.filter = new BloomFilter(expectedUsers, falsePositiveRate);
+    }
+
+    public static UsernameIndex shared() {
+        UsernameIndex index = shared;
+        if (index == null) {
+            synchronized (UsernameIndex.class) {
+                index = shared;
+                if (index == null) {
+                    shared = index = new UsernameIndex(
+                            AppConfig.getLong("auth.usernameIndex.expectedUsers", 1_000_000),
+                            Double.parseDouble(AppConfig.get("auth.usernameIndex.falsePositiveRate", "0.01")),
+                            AppConfig.getInt("auth.usernameIndex.maxVerified", 100_000));
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return false when {@code auth.usernameIndex.enabled=false}; callers then always ask the database.
+     */
+    public static boolean isEnabled() {
+        return AppConfig.getBoolean("auth.usernameIndex.enabled", true);
+    }
+
+    /**
+     * Rebuilds the filter from every user in {@link UserStores#shared()}, streaming the
+     * names so they are never all held in memory, then swaps it in.
+     */
+    public synchronized void warmUp() throws SQLException {
+        UserStore store = UserStores.shared();
+        BloomFilter fresh = new BloomFilter(expectedUsers, falsePositiveRate);
+        Set<String> freshVerified = ConcurrentHashMap.newKeySet();
+        addedDuringScan.clear();
+        removedDuringScan.clear();
+        scanning = true;
+        try {
+            store.forEachUsername(name -> {
+                fresh.add(name);
+                if (freshVerified.size() < maxVerified) {
+                    freshVerified.add(name);
+                }
+            });
+            filter = fresh;
+            verified = freshVerified;
+        } finally {
+            scanning = false;
+        }
+        // Names added while the scan was running may be in the old filter only, and one
+        // removed meanwhile may have been scanned before it went
+        for (String name : addedDuringScan) {
+            fresh.add(name);
+            if (freshVerified.size() < maxVerified) {
+                freshVerified.add(name);
+            }
+        }
+        freshVerified.removeAll(removedDuringScan);
+        addedDuringScan.clear();
+        removedDuringScan.clear();
+        source = store;
+        warm = true;
+    }
+
+    /**
+     * @return true if a {@link Answer#DEFINITELY_FREE} answer is final for {@code store}:
+     *         the index was loaded from it and nothing outside this process writes to it
+     */
+    public boolean isAuthoritativeFor(UserStore store) {
+        return warm && store != null && store == source && store.isOnlyWriter();
+    }
+
+    /**
+     * Warms the index now on a daemon thread and rebuilds it every {@code periodMillis},
+     * so signups made by other clients show up.
+     */
+    public synchronized void startRefresh(long periodMillis) {
+        if (refresher != null) {
+            return;
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "username-index-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                warmUp();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public Answer lookup(String username) {
+        if (verified.contains(username)) {
+            taken.increment();
+            return Answer.TAKEN;
+        }
+        if (!warm) {
+            unknown.increment();
+            return Answer.UNKNOWN;
+        }
+        if (filter.mightContain(username)) {
+            probablyTaken.increment();
+            return Answer.PROBABLY_TAKEN;
+        }
+        definitelyFree.increment();
+        return Answer.DEFINITELY_FREE;
+    }
+
+    /**
+     * Records a name the database confirmed exists.
+     */
+    public void add(String username) {
+        filter.add(username);
+        if (scanning) {
+            addedDuringScan.add(username);
+        }
+        Set<String> known = verified;
+        if (known.size() < maxVerified) {
+            known.add(username);
+        }
+    }
+
+    /**
+     * Forgets a name whose account was deleted again, so it is no longer answered
+     * {@link Answer#TAKEN}. The filter cannot drop it, so it stays
+     * {@link Answer#PROBABLY_TAKEN} until the next warm-up.
+     */
+    public void remove(String username) {
+        verified.remove(username);
+        addedDuringScan.remove(username);
+        if (scanning) {
+            removedDuringScan.add(username);
+        }
+    }
+
+    /**
+     * Records that a {@link Answer#PROBABLY_TAKEN} answer turned out to be free.
+     */
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    public Stats getStats() {
+        BloomFilter f = filter;
+        return new Stats(definitelyFree.sum() + probablyTaken.sum() + taken.sum() + unknown.sum(),
+                definitelyFree.sum(), probablyTaken.sum(), taken.sum(), unknown.sum(), falsePositives.sum(),
+                f.bitCount, f.hashes, f.inserted.sum(), verified.size());
+    }
+
+    /**
+     * Thread-safe Bloom filter over an {@link AtomicLongArray}, using double hashing of
+     * a 64-bit FNV-1a hash.
+     */
+    static final class BloomFilter {
+        final long bitCount;
+        final int hashes;
+        final LongAdder inserted = new LongAdder();
+        private final AtomicLongArray words;
+
+        BloomFilter(long expected, double falsePositiveRate) {
+            long n = Math.max(1, expected);
+            long bits = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            bits = Math.max(64, (bits + 63) / 64 * 64);
+            if (bits / 64 > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Bloom filter too large for " + expected + " users");
+            }
+            this.bitCount = bits;
+            this.hashes = Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+            this.words = new AtomicLongArray((int) (bits / 64));
+        }
+
+        void add(String key) {
+            long h1 = hash(key);
+            long h2 = mix(h1) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long current = words.get(word);
+                while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+                    current = words.get(word);
+                }
+            }
+            inserted.increment();
+        }
+
+        boolean mightContain(String key) {
+            long h1 = hash(key);
+            long h2 = mix(h1) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long hash(String key) {
+            long h = 0xcbf29ce484222325L;
+            for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+                h ^= b & 0xFF;
+                h *= 0x100000001b3L;
+            }
+            return mix(h);
+        }
+
+        // splitmix64 finaliser
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package loginsignupapp;
+
+import javafx.scene.layout.StackPane;
+
+/**
+ * A screen that shows the {@link SharedCaptcha}.
+ */
+interface CaptchaHost {
+
+    /** Where the captcha view goes while this screen is shown. */
+    StackPane captchaSlot();
+
+    /**
+     * @param token a solved reCAPTCHA token, or null when the widget was reset and any
+     *              earlier token must not be used
+     */
+    void onSuccess(String token);
+}
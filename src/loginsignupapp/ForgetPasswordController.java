@@ -1,15 +1,18 @@
 package loginsignupapp;
 
-import database.DBConnection;
-import database.PasswordUtils;
+import auth.AuthExecutors;
+import auth.AuthResult;
+import auth.AuthService;
+import javafx.application.Platform;
+import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
+import javafx.scene.Node;
 import javafx.scene.control.Label;
 import javafx.scene.control.PasswordField;
 import javafx.scene.control.TextField;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 public class ForgetPasswordController {
 
@@ -17,8 +20,32 @@ public class ForgetPasswordController {
     @FXML private PasswordField newPasswordField;
     @FXML private Label resetMessageLabel;
 
+    private CompletableFuture<AuthResult> pending;
+
+    @FXML
+    private void initialize() {
+        // Stop waiting on the reset once the dialog is closed
+        usernameField.sceneProperty().addListener((obs, oldScene, newScene) -> {
+            if (newScene != null) {
+                newScene.windowProperty().addListener((o, oldWindow, window) -> {
+                    if (window != null) {
+                        window.setOnHidden(e -> {
+                            // Skips the stages not yet started; a hash already running still finishes
+                            if (pending != null) {
+                                pending.cancel(true);
+                            }
+                            // The dialog is reused, so do not keep the password around
+                            newPasswordField.clear();
+                            resetMessageLabel.setText("");
+                        });
+                    }
+                });
+            }
+        });
+    }
+
     @FXML
-    private void handleResetPassword() {
+    private void handleResetPassword(ActionEvent event) {
         String username = usernameField.getText();
         String newPassword = newPasswordField.getText();
 
@@ -27,23 +54,25 @@ public class ForgetPasswordController {
             return;
         }
         
-        String hashedPassword = PasswordUtils.hashPassword(newPassword);
-
-        try (Connection conn = DBConnection.getConnection()) {
-            String sql = "UPDATE USERS SET PASSWORD = ? WHERE USERNAME = ?";
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, hashedPassword);
-            stmt.setString(2, username);
-
-            int updatedRows = stmt.executeUpdate();
-            if (updatedRows > 0) {
-                resetMessageLabel.setText("Password reset successful!");
-            } else {
-                resetMessageLabel.setText("User not found.");
+        Node resetButton = (Node) event.getSource();
+        resetButton.setDisable(true);
+        resetMessageLabel.setText("");
+
+        pending = AuthService.shared().resetPassword(username, newPassword);
+        pending.whenCompleteAsync((result, error) -> {
+            resetButton.setDisable(false);
+            if (error != null) {
+                Throwable cause = AuthExecutors.unwrap(error);
+                if (!(cause instanceof CancellationException)) {
+                    resetMessageLabel.setText("Error: Could not update password.");
+                    cause.printStackTrace();
+                }
+                return;
             }
-        } catch (SQLException e) {
-            resetMessageLabel.setText("Error: Could not update password.");
-            e.printStackTrace();
-        }
+            if (result.isSuccess()) {
+                LoginController.forgetSession(username);
+            }
+            resetMessageLabel.setText(result.message());
+        }, Platform::runLater);
     }
-}
\ No newline at end of file
+}
@@ -1,39 +1,41 @@
 package loginsignupapp;
 
-import database.DBConnection;
-import database.PasswordUtils;
+import auth.AuthExecutors;
+import auth.AuthResult;
+import auth.AuthService;
+import auth.ChallengeProviders;
+import database.AppConfig;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
+import javafx.scene.Node;
 import javafx.scene.control.*;
-import javafx.scene.web.WebEngine;
-import javafx.scene.web.WebView;
-import javafx.stage.Modality;
+import javafx.scene.layout.StackPane;
 import javafx.stage.Stage;
 
-import netscape.javascript.JSObject;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.prefs.Preferences;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.sql.*;
-import java.util.stream.Collectors;
+public class LoginController implements CaptchaHost, ShownScreen {
 
-public class LoginController {
+    private static final String SESSION_TOKEN = "sessionToken";
+    private static final String SESSION_USER = "sessionUser";
+
+    // The session of the last login in this process; FX application thread only
+    private static String sessionToken;
+    private static String sessionUser;
+    private static boolean preferencesChecked;
 
     @FXML private TextField usernameField;
     @FXML private PasswordField passwordField;
     @FXML private TextField passwordVisibleField;
     @FXML private CheckBox showPasswordCheckBox;
-    @FXML private WebView captchaWebView;
+    @FXML private StackPane captchaSlot;
+    @FXML private Hyperlink logoutLink;
 
-    private boolean isCaptchaVerified = false;
+    private volatile String captchaToken;
+    private CompletableFuture<AuthResult> pending;
 
     @FXML
     private void initialize() {
@@ -43,53 +45,108 @@ public class LoginController {
         passwordField.managedProperty().bind(showPasswordCheckBox.selectedProperty().not());
         passwordField.visibleProperty().bind(showPasswordCheckBox.selectedProperty().not());
         passwordVisibleField.textProperty().bindBidirectional(passwordField.textProperty());
+        logoutLink.managedProperty().bind(logoutLink.visibleProperty());
+    }
+
+    // Every time the screen is shown, not in initialize(): the controller may be built on
+    // the preload thread, before the main window exists
+    @Override
+    public void onShown() {
+        resumeStoredSession();
+    }
 
-        // Load CAPTCHA
-        WebEngine engine = captchaWebView.getEngine();
-        engine.setJavaScriptEnabled(true);
-        engine.getLoadWorker().stateProperty().addListener((obs, oldState, newState) -> {
-            if (newState == javafx.concurrent.Worker.State.SUCCEEDED) {
-                JSObject window = (JSObject) engine.executeScript("window");
-                window.setMember("javaApp", this);
+    // A token kept from an earlier login stands in for the password, hash and CAPTCHA
+    private void resumeStoredSession() {
+        String token = storedToken();
+        logoutLink.setVisible(token != null);
+        if (token == null) {
+            return;
+        }
+        pending = AuthService.shared().resumeSession(token);
+        pending.whenCompleteAsync((result, error) -> {
+            if (error != null) {
+                Throwable cause = AuthExecutors.unwrap(error);
+                if (!(cause instanceof CancellationException)) {
+                    cause.printStackTrace();
+                }
+                return;
+            }
+            if (result.status() == AuthResult.Status.SUCCESS) {
+                showPopup(result.message());
+            } else {
+                clearSession();
+                logoutLink.setVisible(false);
             }
-        });
+        }, Platform::runLater);
+    }
 
-        // Load from localhost server
-        captchaWebView.getEngine().load("http://localhost:8000/recaptcha.html");
+    /** Drops the stored session if it belongs to {@code username}; its password has changed. */
+    static void forgetSession(String username) {
+        if (username.equals(sessionUser) || username.equals(sessionPreferences().get(SESSION_USER, null))) {
+            clearSession();
+        }
     }
 
-    // Called from recaptcha.html
-    public void onSuccess(String token) {
-        new Thread(() -> isCaptchaVerified = verifyCaptchaWithGoogle(token)).start();
+    /**
+     * @return true when {@code ui.session.remember=true}: the session is kept in the
+     *         user's preferences and resumed after a restart. Otherwise it lasts only as
+     *         long as this process, which is what a shared machine needs.
+     */
+    static boolean isRememberEnabled() {
+        return AppConfig.getBoolean("ui.session.remember", false);
     }
 
-    private boolean verifyCaptchaWithGoogle(String token) {
-        try {
-            URL url = new URL("https://www.google.com/recaptcha/api/siteverify");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setDoOutput(true);
-            String secret = "6Lf1p4ErAAAAADrj39vih1XbSj6ubZ1MqVUMuuPt";
+    private static String storedToken() {
+        if (sessionToken == null && isRememberEnabled()) {
+            sessionToken = sessionPreferences().get(SESSION_TOKEN, null);
+            sessionUser = sessionPreferences().get(SESSION_USER, null);
+        } else if (!preferencesChecked && !isRememberEnabled()) {
+            // A token saved while remembering was on must not outlive turning it off
+            sessionPreferences().remove(SESSION_TOKEN);
+            sessionPreferences().remove(SESSION_USER);
+        }
+        preferencesChecked = true;
+        return sessionToken;
+    }
 
-            String params = "secret=" + secret + "&response=" + token;
-            try (OutputStream os = conn.getOutputStream()) {
-                os.write(params.getBytes(StandardCharsets.UTF_8));
-            }
+    private static void storeSession(String token, String username) {
+        sessionToken = token;
+        sessionUser = username;
+        if (isRememberEnabled()) {
+            sessionPreferences().put(SESSION_TOKEN, token);
+            sessionPreferences().put(SESSION_USER, username);
+        }
+    }
 
-            try (BufferedReader br = new BufferedReader(
-                    new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-                String response = br.lines().collect(Collectors.joining());
-                return response.contains("\"success\": true");
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+    private static void clearSession() {
+        sessionToken = null;
+        sessionUser = null;
+        sessionPreferences().remove(SESSION_TOKEN);
+        sessionPreferences().remove(SESSION_USER);
+    }
+
+    private static Preferences sessionPreferences() {
+        return Preferences.userNodeForPackage(LoginController.class);
+    }
+
+    @Override
+    public StackPane captchaSlot() {
+        return captchaSlot;
+    }
+
+    // Called from recaptcha.html through SharedCaptcha
+    @Override
+    public void onSuccess(String token) {
+        captchaToken = token;
+        if (token != null) {
+            // Start verifying now so the login finds the answer cached
+            ChallengeProviders.shared().warmUp(token);
         }
     }
 
     @FXML
     void handleLogin(ActionEvent event) {
-        if (!isCaptchaVerified) {
+        if (captchaToken == null) {
             showAlert("CAPTCHA Error", "Please complete the CAPTCHA.");
             return;
         }
@@ -102,55 +159,81 @@ public class LoginController {
             return;
         }
 
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement("SELECT PASSWORD FROM USERS WHERE USERNAME = ?")) {
-
-            stmt.setString(1, username);
-            ResultSet rs = stmt.executeQuery();
+        Node loginButton = (Node) event.getSource();
+        loginButton.setDisable(true);
 
-            if (rs.next()) {
-                String hashed = rs.getString("PASSWORD");
-                if (PasswordUtils.checkPassword(password, hashed)) {
-                    showPopup("Login Successful!");
-                } else {
-                    showAlert("Login Failed", "Invalid credentials.");
-                }
+        pending = AuthService.shared().login(username, password, captchaToken);
+        pending.whenCompleteAsync((result, error) -> {
+            loginButton.setDisable(false);
+            // The token is spent either way; after a login no new one is needed until the screen is shown again
+            if (error == null && result.status() == AuthResult.Status.SUCCESS) {
+                ProofOfWorkCaptcha.done(this);
             } else {
-                showAlert("Login Failed", "User not found.");
+                ProofOfWorkCaptcha.used(this);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            showAlert("Database Error", "Could not connect.");
+            if (error != null) {
+                Throwable cause = AuthExecutors.unwrap(error);
+                if (!(cause instanceof CancellationException)) {
+                    cause.printStackTrace();
+                    showAlert("Database Error", "Could not connect.");
+                }
+                return;
+            }
+            switch (result.status()) {
+                case SUCCESS -> {
+                    if (result.sessionToken() != null) {
+                        storeSession(result.sessionToken(), username);
+                        logoutLink.setVisible(true);
+                    }
+                    passwordField.clear();
+                    showPopup(result.message());
+                }
+                case CAPTCHA_REQUIRED -> showAlert("CAPTCHA Error", result.message());
+                default -> showAlert("Login Failed", result.message());
+            }
+        }, Platform::runLater);
+    }
+
+    // Stages not yet started are skipped; a hash or query already running still finishes
+    private void cancelPending() {
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
         }
     }
 
+    /** Ends the session of the last login here, on the server and in the preferences. */
     @FXML
-    void goToSignup(ActionEvent event) {
-        loadScene("Signup.fxml", "Sign Up");
+    void handleLogout(ActionEvent event) {
+        cancelPending();
+        String token = sessionToken;
+        clearSession();
+        logoutLink.setVisible(false);
+        usernameField.clear();
+        passwordField.clear();
+        // The next person needs an answer of their own
+        ProofOfWorkCaptcha.used(this);
+        if (token != null) {
+            AuthService.shared().logout(token).whenComplete((result, error) -> {
+                if (error != null) {
+                    AuthExecutors.unwrap(error).printStackTrace();
+                }
+            });
+        }
     }
 
     @FXML
-    void goToForgetPassword(ActionEvent event) {
-        try {
-            Parent root = FXMLLoader.load(getClass().getResource("ForgetPassword.fxml"));
-            Stage stage = new Stage();
-            stage.initModality(Modality.APPLICATION_MODAL);
-            stage.setScene(new Scene(root));
-            stage.setTitle("Reset Password");
-            stage.show();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    void goToSignup(ActionEvent event) {
+        cancelPending();
+        passwordField.clear();
+        SceneCache.shared().show((Stage) usernameField.getScene().getWindow(), "Signup.fxml", "Sign Up");
     }
 
-    private void loadScene(String fxml, String title) {
-        try {
-            Parent root = FXMLLoader.load(getClass().getResource(fxml));
-            Stage stage = (Stage) usernameField.getScene().getWindow();
-            stage.setTitle(title);
-            stage.setScene(new Scene(root));
-        } catch (IOException e) {
-            e.printStackTrace();
+    @FXML
+    void goToForgetPassword(ActionEvent event) {
+        Stage dialog = SceneCache.shared().dialog("ForgetPassword.fxml", "Reset Password");
+        if (dialog != null) {
+            dialog.show();
         }
     }
 
@@ -163,20 +246,6 @@ public class LoginController {
     }
 
     private void showPopup(String message) {
-        try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("SuccessPopup.fxml"));
-            Parent popupRoot = loader.load();
-            SuccessPopupController controller = loader.getController();
-            controller.setMessage(message);
-
-            Stage popupStage = new Stage();
-            popupStage.initModality(Modality.APPLICATION_MODAL);
-            popupStage.setScene(new Scene(popupRoot));
-            popupStage.setTitle("Success");
-            popupStage.setResizable(false);
-            popupStage.showAndWait();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        SceneCache.shared().showSuccess(message);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
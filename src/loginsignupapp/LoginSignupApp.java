@@ -1,23 +1,92 @@
 package loginsignupapp;
 
+import audit.AuditLog;
+import auth.AuthExecutors;
+import auth.AuthMetrics;
+import auth.BreachedPasswordBuilder;
+import database.AppConfig;
+import database.DBConnection;
+import database.PasswordUtils;
+import database.UserBulkTool;
+import database.UserStores;
+import database.UsernameIndex;
 import javafx.application.Application;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
 public class LoginSignupApp extends Application {
 
+    @Override
+    public void init() {
+        // Parse the screens while the toolkit and the rest of init warm up
+        if (SceneCache.isPreloadEnabled()) {
+            SceneCache.shared().preload("Login.fxml", "Signup.fxml", "ForgetPassword.fxml", "SuccessPopup.fxml");
+        }
+        AuthMetrics.registerMBeans();
+        if (UsernameIndex.isEnabled()) {
+            UsernameIndex.shared().startRefresh(AppConfig.getLong("auth.usernameIndex.refreshMs", 300_000));
+        }
+
+        // Pick the BCrypt cost for this host while the UI starts
+        if (AppConfig.getBoolean("auth.bcrypt.calibrate", false)) {
+            long budget = AppConfig.getLong("auth.bcrypt.budgetMs", 250);
+            int minCost = AppConfig.getInt("auth.bcrypt.minCost", 10);
+            AuthExecutors.supplyCpu(() -> PasswordUtils.calibrate(budget, minCost))
+                    .whenComplete((cost, error) -> {
+                        if (error != null) {
+                            error.printStackTrace();
+                        } else {
+                            System.out.println("BCrypt cost calibrated to " + cost + " for a " + budget + " ms budget");
+                        }
+                    });
+        }
+    }
+
     @Override
     public void start(Stage primaryStage) throws Exception {
-        Parent root = FXMLLoader.load(getClass().getResource("Login.fxml"));
-        primaryStage.setTitle("Login System");
-        primaryStage.setScene(new Scene(root));
+        SceneCache.shared().show(primaryStage, "Login.fxml", "Login System");
         primaryStage.setResizable(false);
         primaryStage.show();
+        List<String> flags = getParameters().getRaw();
+        // Used by the startup benchmark
+        boolean exitWhenInteractive = flags.contains("--exit-when-interactive");
+        if (exitWhenInteractive || SceneCache.isReportEnabled()) {
+            SceneCache.afterLayout(primaryStage.getScene(), () -> {
+                System.out.println("Interactive after "
+                        + (System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime())
+                        + " ms from JVM start");
+                if (exitWhenInteractive) {
+                    Platform.exit();
+                }
+            });
+        }
+        if (flags.contains("--train")) {
+            TrainingRun.start(primaryStage);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (SceneCache.isReportEnabled()) {
+            System.out.print(SceneCache.shared().report());
+        }
+        AuthExecutors.shutdown();
+        AuditLog.shutdown();
+        DBConnection.shutdown();
+        UserStores.shutdown();
     }
 
     public static void main(String[] args) {
+        // --import / --export / --build-breached run headless and never start the UI
+        if (UserBulkTool.handles(args)) {
+            System.exit(UserBulkTool.run(args));
+        }
+        if (BreachedPasswordBuilder.handles(args)) {
+            System.exit(BreachedPasswordBuilder.run(args));
+        }
         launch(args);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
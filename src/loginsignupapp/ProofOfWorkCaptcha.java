@@ -0,0 +1,116 @@
+package loginsignupapp;
+
+import auth.AuthService;
+import auth.ChallengeProviders;
+import auth.ProofOfWork;
+import javafx.application.Platform;
+import javafx.scene.control.Label;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stands in for {@link SharedCaptcha} when {@code auth.challenge=pow}: instead of a
+ * widget to click, the screen shows a label while
+ * {@link ProofOfWork#solve(String, int, AtomicBoolean)} works out the answer on all cores,
+ * then hands it to the screen as its token. Starting a new challenge cancels the solve of
+ * the previous one. Nothing is loaded from Google. FX application thread only.
+ */
+public final class ProofOfWorkCaptcha {
+
+    private static ProofOfWorkCaptcha shared;
+
+    private final Label status = new Label();
+    private CaptchaHost host;
+    // Bumped for every new challenge so a solve that finishes late is dropped
+    private long generation;
+    private AtomicBoolean solving;
+
+    private ProofOfWorkCaptcha() {
+    }
+
+    public static ProofOfWorkCaptcha shared() {
+        if (!Platform.isFxApplicationThread()) {
+            throw new IllegalStateException("ProofOfWorkCaptcha must be used on the FX application thread");
+        }
+        if (shared == null) {
+            shared = new ProofOfWorkCaptcha();
+        }
+        return shared;
+    }
+
+    /**
+     * Moves the label into {@code next}'s slot and starts on a challenge for it. An answer
+     * solved for another screen is not carried over, since each is accepted once.
+     */
+    void attach(CaptchaHost next) {
+        if (host == next && solving != null) {
+            return;
+        }
+        host = next;
+        next.captchaSlot().getChildren().setAll(status);
+        renew(next);
+    }
+
+    /**
+     * Solves a fresh challenge for {@code target} after its token was used. Does nothing
+     * unless proof of work is configured.
+     */
+    static void used(CaptchaHost target) {
+        if (ChallengeProviders.isProofOfWork() && shared != null && shared.host == target) {
+            shared.renew(target);
+        }
+    }
+
+    /**
+     * Stops solving for {@code target} after a successful login, which needs no further
+     * answer; the screen gets a fresh one when it is shown again or after {@link #used}.
+     */
+    static void done(CaptchaHost target) {
+        if (shared != null && shared.host == target) {
+            shared.stop();
+            target.onSuccess(null);
+            shared.status.setText("");
+        }
+    }
+
+    private void stop() {
+        generation++;
+        if (solving != null) {
+            solving.set(true);
+            solving = null;
+        }
+    }
+
+    private void renew(CaptchaHost target) {
+        stop();
+        long current = generation;
+        AtomicBoolean cancelled = new AtomicBoolean();
+        solving = cancelled;
+        target.onSuccess(null);
+        ProofOfWork.Challenge challenge = ProofOfWork.shared().issue(AuthService.LOCAL_CLIENT);
+        status.setText("Checking this device...");
+        long start = System.nanoTime();
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return ProofOfWork.solve(challenge.challenge(), 0, cancelled);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }).whenCompleteAsync((solution, error) -> {
+            if (current != generation || host != target) {
+                return;
+            }
+            if (error != null || solution == null) {
+                if (error != null) {
+                    error.printStackTrace();
+                }
+                status.setText("Check failed.");
+                return;
+            }
+            status.setText("Verified (" + (System.nanoTime() - start) / 1_000_000 + " ms)");
+            target.onSuccess(solution);
+        }, Platform::runLater);
+    }
+}
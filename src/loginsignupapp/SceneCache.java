@@ -0,0 +1,258 @@
+package loginsignupapp;
+
+import auth.ChallengeProviders;
+import auth.LatencyHistogram;
+import database.AppConfig;
+import javafx.application.Platform;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Parses each screen once and keeps it, so switching screens reuses the scene and
+ * controller instead of reparsing FXML (and the fields keep their listeners and state).
+ *
+ * {@link #preload(String...)} parses screens on a background thread while the app
+ * starts; a screen asked for before then is parsed on the FX thread. The reset-password
+ * dialog and the success popup are single stages that are hidden and shown again. Every
+ * {@link #show(Stage, String, String)} is timed until its first layout pulse;
+ * {@link #report()} summarizes the times. Apart from {@link #preload(String...)}, use
+ * from the FX application thread only.
+ */
+public final class SceneCache {
+
+    /** A parsed screen. */
+    private record Loaded(Parent root, Object controller, long parseNanos, boolean preloaded) {
+    }
+
+    private static volatile SceneCache shared;
+
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "scene-preload");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<String, CompletableFuture<Loaded>> loaded = new ConcurrentHashMap<>();
+    private final Map<String, Scene> scenes = new HashMap<>();
+    private final Map<String, Stage> dialogs = new HashMap<>();
+    private final Map<String, LatencyHistogram> navigation = new ConcurrentHashMap<>();
+    private Stage popup;
+
+    private SceneCache() {
+    }
+
+    public static SceneCache shared() {
+        SceneCache cache = shared;
+        if (cache == null) {
+            synchronized (SceneCache.class) {
+                cache = shared;
+                if (cache == null) {
+                    shared = cache = new SceneCache();
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @return false when {@code ui.preload=false}
+     */
+    public static boolean isPreloadEnabled() {
+        return AppConfig.getBoolean("ui.preload", true);
+    }
+
+    /**
+     * @return true when {@code ui.report=true}: startup and screen times are printed
+     */
+    public static boolean isReportEnabled() {
+        return AppConfig.getBoolean("ui.report", false);
+    }
+
+    /**
+     * Starts parsing the given screens in the background. Screens must not contain a
+     * WebView, which may only be built on the FX thread.
+     */
+    public void preload(String... fxmlFiles) {
+        for (String fxml : fxmlFiles) {
+            loaded.computeIfAbsent(fxml, k -> CompletableFuture.supplyAsync(() -> load(k, true), loader));
+        }
+    }
+
+    /**
+     * Shows a screen in {@code stage}. A screen with a captcha gets the shared one; when
+     * it does not exist yet it is created after this frame, so the screen appears first.
+     * With {@code auth.challenge=pow} it gets {@link ProofOfWorkCaptcha} instead. A
+     * {@link ShownScreen} is told once the stage has laid it out.
+     */
+    public void show(Stage stage, String fxml, String title) {
+        long start = System.nanoTime();
+        Scene scene = scene(fxml);
+        if (scene == null) {
+            return;
+        }
+        if (controller(fxml) instanceof CaptchaHost host) {
+            SharedCaptcha captcha = SharedCaptcha.peek();
+            if (ChallengeProviders.isProofOfWork()) {
+                ProofOfWorkCaptcha.shared().attach(host);
+            } else if (captcha != null) {
+                captcha.attach(host);
+            } else {
+                Platform.runLater(() -> {
+                    if (stage.getScene() == scene) {
+                        SharedCaptcha.shared().attach(host);
+                    }
+                });
+            }
+        }
+        stage.setTitle(title);
+        stage.setScene(scene);
+        Object controller = controller(fxml);
+        afterLayout(scene, () -> {
+            navigation.computeIfAbsent(fxml, k -> new LatencyHistogram()).record(System.nanoTime() - start);
+            // Not while the window is still hidden or already showing another screen
+            if (controller instanceof ShownScreen screen && stage.isShowing() && stage.getScene() == scene) {
+                screen.onShown();
+            }
+        });
+    }
+
+    /**
+     * @return the modal stage for a dialog screen, created on first use and reused
+     *         after it is closed; null if the screen cannot be loaded
+     */
+    public Stage dialog(String fxml, String title) {
+        Stage stage = dialogs.get(fxml);
+        if (stage == null) {
+            Scene scene = scene(fxml);
+            if (scene == null) {
+                return null;
+            }
+            stage = new Stage();
+            stage.initModality(Modality.APPLICATION_MODAL);
+            stage.setScene(scene);
+            stage.setTitle(title);
+            dialogs.put(fxml, stage);
+        }
+        return stage;
+    }
+
+    /**
+     * Shows the success popup and waits until it is closed. If it is already open the
+     * message is replaced instead.
+     */
+    public void showSuccess(String message) {
+        SuccessPopupController controller = (SuccessPopupController) controller("SuccessPopup.fxml");
+        if (controller == null) {
+            return;
+        }
+        controller.setMessage(message);
+        if (popup == null) {
+            popup = new Stage();
+            popup.initModality(Modality.APPLICATION_MODAL);
+            popup.setScene(scene("SuccessPopup.fxml"));
+            popup.setTitle("Success");
+            popup.setResizable(false);
+        }
+        if (!popup.isShowing()) {
+            popup.showAndWait();
+        }
+    }
+
+    /**
+     * Runs {@code action} once, after the next layout pass of {@code scene}.
+     */
+    static void afterLayout(Scene scene, Runnable action) {
+        Runnable[] once = new Runnable[1];
+        once[0] = () -> {
+            scene.removePostLayoutPulseListener(once[0]);
+            action.run();
+        };
+        scene.addPostLayoutPulseListener(once[0]);
+        Platform.requestNextPulse();
+    }
+
+    /**
+     * @return one line per screen: how it was parsed, and the median and slowest time
+     *         from {@link #show(Stage, String, String)} to its first layout
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, CompletableFuture<Loaded>> e : new TreeMap<>(loaded).entrySet()) {
+            if (!e.getValue().isDone() || e.getValue().isCompletedExceptionally()) {
+                continue;
+            }
+            Loaded screen = e.getValue().join();
+            sb.append(String.format(Locale.ROOT, "%-20s parsed in %6.1f ms (%s)", e.getKey(),
+                    screen.parseNanos() / 1e6, screen.preloaded() ? "preloaded" : "on demand"));
+            LatencyHistogram histogram = navigation.get(e.getKey());
+            if (histogram != null) {
+                LatencyHistogram.Snapshot s = histogram.snapshot();
+                sb.append(String.format(Locale.ROOT, ", shown %d times, p50 %.1f ms, max %.1f ms",
+                        s.count(), s.valueAt(0.5) / 1e6, s.max() / 1e6));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private Scene scene(String fxml) {
+        Scene scene = scenes.get(fxml);
+        if (scene == null) {
+            Loaded screen = get(fxml);
+            if (screen == null) {
+                return null;
+            }
+            scene = new Scene(screen.root());
+            scenes.put(fxml, scene);
+        }
+        return scene;
+    }
+
+    private Object controller(String fxml) {
+        Loaded screen = get(fxml);
+        return screen == null ? null : screen.controller();
+    }
+
+    // Waits for a preload still in progress rather than parsing the file twice
+    private Loaded get(String fxml) {
+        CompletableFuture<Loaded> future = loaded.get(fxml);
+        try {
+            if (future == null) {
+                Loaded screen = load(fxml, false);
+                loaded.put(fxml, CompletableFuture.completedFuture(screen));
+                return screen;
+            }
+            return future.join();
+        } catch (RuntimeException e) {
+            if (future != null) {
+                loaded.remove(fxml, future);
+            }
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static Loaded load(String fxml, boolean preloaded) {
+        long start = System.nanoTime();
+        try {
+            FXMLLoader fxmlLoader = new FXMLLoader(SceneCache.class.getResource(fxml));
+            Parent root = fxmlLoader.load();
+            return new Loaded(root, fxmlLoader.getController(), System.nanoTime() - start, preloaded);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load " + fxml, e);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package loginsignupapp;
+
+import database.AppConfig;
+import javafx.application.Platform;
+import javafx.concurrent.Worker;
+import javafx.scene.web.WebEngine;
+import javafx.scene.web.WebView;
+import netscape.javascript.JSObject;
+
+/**
+ * The app's only reCAPTCHA WebView. Each WebView starts its own WebKit page and loading
+ * the widget costs a round trip to Google, so the login and signup screens borrow this
+ * one instead of building their own: {@link #attach(CaptchaHost)} moves it into the
+ * screen being shown and sends solved tokens to that screen.
+ *
+ * The page comes from {@code captcha.pageUrl} (default
+ * {@code http://localhost:8000/recaptcha.html}). FX application thread only.
+ */
+public final class SharedCaptcha {
+
+    private static SharedCaptcha shared;
+
+    private final WebView webView = new WebView();
+    // WebKit holds Java objects set on window weakly, so keep the bridge reachable here
+    private final Bridge bridge = new Bridge();
+    private final long createdAt = System.nanoTime();
+    private CaptchaHost host;
+    private boolean solved;
+    private long loadMillis = -1;
+
+    /** Receives callbacks from recaptcha.html; public so JavaScript can call it. */
+    public final class Bridge {
+        public void onSuccess(String token) {
+            solved = true;
+            if (host != null) {
+                host.onSuccess(token);
+            }
+        }
+    }
+
+    private SharedCaptcha() {
+        WebEngine engine = webView.getEngine();
+        engine.setJavaScriptEnabled(true);
+        engine.getLoadWorker().stateProperty().addListener((obs, oldState, newState) -> {
+            if (newState == Worker.State.SUCCEEDED) {
+                JSObject window = (JSObject) engine.executeScript("window");
+                window.setMember("javaApp", bridge);
+                if (loadMillis < 0) {
+                    loadMillis = (System.nanoTime() - createdAt) / 1_000_000;
+                    if (SceneCache.isReportEnabled()) {
+                        System.out.println("Captcha ready after " + loadMillis + " ms");
+                    }
+                }
+            }
+        });
+        engine.load(AppConfig.get("captcha.pageUrl", "http://localhost:8000/recaptcha.html"));
+    }
+
+    /**
+     * Creates the view and starts loading the widget, if not done yet.
+     */
+    public static SharedCaptcha shared() {
+        if (!Platform.isFxApplicationThread()) {
+            throw new IllegalStateException("SharedCaptcha must be used on the FX application thread");
+        }
+        if (shared == null) {
+            shared = new SharedCaptcha();
+        }
+        return shared;
+    }
+
+    /**
+     * @return the captcha if {@link #shared()} has created it, otherwise null
+     */
+    static SharedCaptcha peek() {
+        return shared;
+    }
+
+    /**
+     * Moves the view into {@code next}'s slot. A widget solved for another screen is
+     * reset, since Google accepts each token once.
+     */
+    void attach(CaptchaHost next) {
+        if (host == next) {
+            return;
+        }
+        if (solved) {
+            webView.getEngine().executeScript("if (window.grecaptcha) { grecaptcha.reset(); }");
+            solved = false;
+        }
+        host = next;
+        next.onSuccess(null);
+        next.captchaSlot().getChildren().setAll(webView);
+    }
+
+    /**
+     * @return milliseconds from creation until the page loaded, or -1 if it has not yet
+     */
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+}
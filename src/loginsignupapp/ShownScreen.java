@@ -0,0 +1,11 @@
+package loginsignupapp;
+
+/**
+ * A screen that acts each time {@link SceneCache} puts it on a stage, rather than once
+ * when its controller is built (possibly on the preload thread, before any window).
+ */
+interface ShownScreen {
+
+    /** Called on the FX thread after the screen's first layout in a showing stage. */
+    void onShown();
+}
@@ -1,32 +1,20 @@
 package loginsignupapp;
 
-import database.DBConnection;
-import database.PasswordUtils;
+import auth.AuthExecutors;
+import auth.AuthResult;
+import auth.AuthService;
+import auth.ChallengeProviders;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
+import javafx.scene.Node;
 import javafx.scene.control.*;
-import javafx.scene.web.WebEngine;
-import javafx.scene.web.WebView;
-import javafx.stage.Modality;
+import javafx.scene.layout.StackPane;
 import javafx.stage.Stage;
-import netscape.javascript.JSObject;
-
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.stream.Collectors;
-import java.io.IOException;
-public class SignupController {
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+public class SignupController implements CaptchaHost {
 
     @FXML private TextField usernameField;
     @FXML private PasswordField passwordField;
@@ -34,9 +22,10 @@ public class SignupController {
     @FXML private TextField passwordVisibleField;
     @FXML private TextField confirmPasswordVisibleField;
     @FXML private CheckBox showPasswordCheckBox;
-    @FXML private WebView captchaWebView;
+    @FXML private StackPane captchaSlot;
 
-    private boolean isCaptchaVerified = false;
+    private volatile String captchaToken;
+    private CompletableFuture<AuthResult> pending;
 
     @FXML
     private void initialize() {
@@ -52,53 +41,26 @@ public class SignupController {
         confirmPasswordField.managedProperty().bind(showPasswordCheckBox.selectedProperty().not());
         confirmPasswordField.visibleProperty().bind(showPasswordCheckBox.selectedProperty().not());
         confirmPasswordVisibleField.textProperty().bindBidirectional(confirmPasswordField.textProperty());
-
-        // Load CAPTCHA
-        WebEngine engine = captchaWebView.getEngine();
-        engine.setJavaScriptEnabled(true);
-        engine.getLoadWorker().stateProperty().addListener((obs, oldState, newState) -> {
-            if (newState == javafx.concurrent.Worker.State.SUCCEEDED) {
-                JSObject window = (JSObject) engine.executeScript("window");
-                window.setMember("javaApp", this);
-            }
-        });
-
-        captchaWebView.getEngine().load("http://localhost:8000/recaptcha.html");
     }
 
-    // Called from CAPTCHA HTML
-    public void onSuccess(String token) {
-        new Thread(() -> isCaptchaVerified = verifyCaptchaWithGoogle(token)).start();
+    @Override
+    public StackPane captchaSlot() {
+        return captchaSlot;
     }
 
-    private boolean verifyCaptchaWithGoogle(String token) {
-        try {
-            URL url = new URL("https://www.google.com/recaptcha/api/siteverify");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setDoOutput(true);
-
-            String secret = "6Lf1p4ErAAAAADrj39vih1XbSj6ubZ1MqVUMuuPt";
-            String params = "secret=" + secret + "&response=" + token;
-
-            try (OutputStream os = conn.getOutputStream()) {
-                os.write(params.getBytes(StandardCharsets.UTF_8));
-            }
-
-            try (BufferedReader br = new BufferedReader(
-                    new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-                String response = br.lines().collect(Collectors.joining());
-                return response.contains("\"success\": true");
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+    // Called from CAPTCHA HTML through SharedCaptcha
+    @Override
+    public void onSuccess(String token) {
+        captchaToken = token;
+        if (token != null) {
+            // Start verifying now so the signup finds the answer cached
+            ChallengeProviders.shared().warmUp(token);
         }
     }
 
     @FXML
     void handleSignup(ActionEvent event) {
-        if (!isCaptchaVerified) {
+        if (captchaToken == null) {
             showAlert("CAPTCHA Error", "Please complete the CAPTCHA.");
             return;
         }
@@ -117,44 +79,46 @@ public class SignupController {
             return;
         }
 
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement checkStmt = conn.prepareStatement("SELECT COUNT(*) FROM USERS WHERE USERNAME = ?");
-             PreparedStatement insertStmt = conn.prepareStatement("INSERT INTO USERS (USERNAME, PASSWORD) VALUES (?, ?)")) {
-
-            checkStmt.setString(1, username);
-            ResultSet rs = checkStmt.executeQuery();
-            if (rs.next() && rs.getInt(1) > 0) {
-                showAlert("Error", "Username already exists.");
+        Node signupButton = (Node) event.getSource();
+        signupButton.setDisable(true);
+
+        pending = AuthService.shared().signup(username, password, captchaToken);
+        pending.whenCompleteAsync((result, error) -> {
+            signupButton.setDisable(false);
+            // The token is spent either way
+            ProofOfWorkCaptcha.used(this);
+            if (error != null) {
+                Throwable cause = AuthExecutors.unwrap(error);
+                if (!(cause instanceof CancellationException)) {
+                    cause.printStackTrace();
+                    showAlert("Database Error", "Could not connect.");
+                }
                 return;
             }
-
-            String hashedPassword = PasswordUtils.hashPassword(password);
-            insertStmt.setString(1, username);
-            insertStmt.setString(2, hashedPassword);
-
-            int rowsInserted = insertStmt.executeUpdate();
-            if (rowsInserted > 0) {
-                showPopup("Signup Successful!");
-                clearFields();
-            } else {
-                showAlert("Error", "Signup failed. Please try again.");
+            switch (result.status()) {
+                case CREATED -> {
+                    showPopup(result.message());
+                    clearFields();
+                }
+                case CAPTCHA_REQUIRED -> showAlert("CAPTCHA Error", result.message());
+                default -> showAlert("Error", result.message());
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            showAlert("Database Error", "Could not connect.");
+        }, Platform::runLater);
+    }
+
+    // Stages not yet started are skipped; a hash or query already running still finishes
+    private void cancelPending() {
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
         }
     }
 
     @FXML
     void goToLogin(ActionEvent event) {
-        try {
-            Parent root = FXMLLoader.load(getClass().getResource("Login.fxml"));
-            Stage stage = (Stage) usernameField.getScene().getWindow();
-            stage.setScene(new Scene(root));
-            stage.setTitle("Login");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        cancelPending();
+        clearFields();
+        SceneCache.shared().show((Stage) usernameField.getScene().getWindow(), "Login.fxml", "Login");
     }
 
     private void clearFields() {
@@ -174,20 +138,6 @@ public class SignupController {
     }
 
     private void showPopup(String message) {
-        try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("SuccessPopup.fxml"));
-            Parent popupRoot = loader.load();
-            SuccessPopupController controller = loader.getController();
-            controller.setMessage(message);
-
-            Stage popupStage = new Stage();
-            popupStage.initModality(Modality.APPLICATION_MODAL);
-            popupStage.setScene(new Scene(popupRoot));
-            popupStage.setTitle("Success");
-            popupStage.setResizable(false);
-            popupStage.showAndWait();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        SceneCache.shared().showSuccess(message);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,103 @@
+package loginsignupapp;
+
+import auth.AuthExecutors;
+import auth.AuthResult;
+import auth.AuthService;
+import auth.CaptchaVerifier;
+import auth.SessionManager;
+import database.AppConfig;
+import database.LogUserStore;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.sql.DriverManager;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The launch that trains the class data sharing archive ({@code ant cds}, which starts
+ * the app with {@code --train}). The archive holds the classes this run loads, so it goes
+ * through what a normal session touches: the login screen, the other screens, the
+ * captcha WebView, and a signup and login against a throwaway log store with BCrypt and
+ * a session. The JDBC driver is loaded but not connected, so no database is needed.
+ * The app exits when done, which is when the JVM writes the archive.
+ */
+final class TrainingRun {
+
+    private TrainingRun() {
+    }
+
+    static void start(Stage stage) {
+        SceneCache scenes = SceneCache.shared();
+        SceneCache.afterLayout(stage.getScene(), () -> {
+            scenes.show(stage, "Signup.fxml", "Sign Up");
+            scenes.show(stage, "Login.fxml", "Login System");
+            Stage dialog = scenes.dialog("ForgetPassword.fxml", "Reset Password");
+            if (dialog != null) {
+                dialog.show();
+                dialog.hide();
+            }
+            stubLogin().whenCompleteAsync((result, error) -> {
+                if (error != null) {
+                    AuthExecutors.unwrap(error).printStackTrace();
+                } else {
+                    System.out.println("Training login: " + result.status());
+                }
+                long waitMillis = AppConfig.getLong("ui.training.captchaWaitMs", 10_000);
+                waitForCaptcha(System.currentTimeMillis() + waitMillis);
+            }, Platform::runLater);
+        });
+    }
+
+    // The page may never load without the local server; WebKit is loaded either way
+    private static void waitForCaptcha(long deadline) {
+        SharedCaptcha captcha = SharedCaptcha.peek();
+        if ((captcha != null && captcha.getLoadMillis() >= 0) || System.currentTimeMillis() >= deadline) {
+            Platform.exit();
+            return;
+        }
+        PauseTransition pause = new PauseTransition(Duration.millis(100));
+        pause.setOnFinished(e -> waitForCaptcha(deadline));
+        pause.play();
+    }
+
+    private static CompletableFuture<AuthResult> stubLogin() {
+        try {
+            Class.forName(AppConfig.get("db.driver", "oracle.jdbc.OracleDriver"));
+            DriverManager.getDrivers();
+        } catch (ClassNotFoundException e) {
+            System.out.println("Training without a JDBC driver: " + e.getMessage());
+        }
+        Path dir;
+        LogUserStore store;
+        try {
+            dir = Files.createTempDirectory("loginsignup-training");
+            store = LogUserStore.open(dir.resolve("users.log"), LogUserStore.Fsync.ALWAYS, 0, 2, Long.MAX_VALUE);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        AuthService service = AuthService.builder()
+                .captcha(CaptchaVerifier.shared(), false)
+                .sessions(new SessionManager(key, 60_000, false))
+                .store(store)
+                .build();
+        return service.signup("training", "training-password", null)
+                .thenCompose(created -> service.login("training", "training-password", null))
+                .whenComplete((result, error) -> {
+                    store.close();
+                    try {
+                        Files.deleteIfExists(dir.resolve("users.log"));
+                        Files.deleteIfExists(dir);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+    }
+}
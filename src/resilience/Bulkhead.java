@@ -0,0 +1,68 @@
+package resilience;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the calls in flight to one dependency, so a slow dependency holds at most
+ * {@code maxConcurrent} threads or sockets and the rest of the process keeps working.
+ * A call that finds no room waits up to {@code maxWaitMillis} and is then refused.
+ */
+public class Bulkhead {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final long maxWaitMillis;
+    private final Semaphore permits;
+    private final AtomicLong rejected = new AtomicLong();
+
+    public Bulkhead(String name, int maxConcurrent, long maxWaitMillis) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * @return true if the call may go ahead; it must then call {@link #exit()}
+     */
+    public boolean tryEnter() {
+        boolean entered;
+        if (maxWaitMillis <= 0) {
+            entered = permits.tryAcquire();
+        } else {
+            try {
+                entered = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                entered = false;
+            }
+        }
+        if (!entered) {
+            rejected.incrementAndGet();
+        }
+        return entered;
+    }
+
+    public void exit() {
+        permits.release();
+    }
+
+    public int getInFlight() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /** Calls refused because the bulkhead was full. */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,152 @@
+package resilience;
+
+/**
+ * Stops calls to a dependency that keeps failing, so they fail at once instead of each
+ * waiting out its own timeout.
+ *
+ * The outcomes of the last {@code window} calls are kept in a ring. Once at least
+ * {@code minCalls} of them are recorded and the share of failures reaches
+ * {@code failureRate}, the breaker opens: {@link #tryAcquire()} refuses every call for
+ * {@code openMillis}. It then lets up to {@code halfOpenCalls} probes through; if they
+ * all succeed it closes with an empty window, and the first that fails opens it again.
+ *
+ * Every permitted call must be followed by exactly one {@link #onSuccess()} or
+ * {@link #onFailure()}. State changes are synchronized; a call takes the lock twice,
+ * which is nothing next to the network round trip it guards.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final boolean[] outcomes;
+    private final int minCalls;
+    private final double failureRate;
+    private final long openMillis;
+    private final int halfOpenCalls;
+
+    private State state = State.CLOSED;
+    private int recorded;
+    private int next;
+    private int failures;
+    private long openedAt;
+    private int probes;
+    private int probeSuccesses;
+    private long opened;
+    private long rejected;
+
+    public CircuitBreaker(String name, int window, int minCalls, double failureRate, long openMillis,
+                          int halfOpenCalls) {
+        if (window < 1 || minCalls < 1 || minCalls > window || halfOpenCalls < 1) {
+            throw new IllegalArgumentException("Invalid circuit breaker settings for " + name);
+        }
+        this.name = name;
+        this.outcomes = new boolean[window];
+        this.minCalls = minCalls;
+        this.failureRate = failureRate;
+        this.openMillis = openMillis;
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * @return true if the call may go ahead, false if it must fail without being made
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openMillis) {
+                rejected++;
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probes = 0;
+            probeSuccesses = 0;
+            System.err.println("Circuit " + name + " is half-open, probing");
+        }
+        if (state == State.HALF_OPEN) {
+            if (probes >= halfOpenCalls) {
+                rejected++;
+                return false;
+            }
+            probes++;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            if (++probeSuccesses >= halfOpenCalls) {
+                state = State.CLOSED;
+                recorded = 0;
+                next = 0;
+                failures = 0;
+                System.err.println("Circuit " + name + " is closed");
+            }
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        if (state == State.CLOSED) {
+            record(true);
+            if (recorded >= minCalls && failures >= failureRate * recorded) {
+                open();
+            }
+        }
+    }
+
+    private void record(boolean failed) {
+        if (recorded == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        opened++;
+        System.err.println("Circuit " + name + " is open for " + openMillis + " ms");
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return how long until an open breaker lets a probe through, 0 when it is not open
+     */
+    public synchronized long retryAfterMillis() {
+        return state == State.OPEN ? Math.max(0, openedAt + openMillis - System.currentTimeMillis()) : 0;
+    }
+
+    /** Times the breaker has opened. */
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    /** Calls refused without being made. */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,320 @@
+package resilience;
+
+import database.AppConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Everything that guards calls to one remote dependency: a {@link CircuitBreaker}, a
+ * {@link Bulkhead} and a retry policy. A refused call throws (or completes with)
+ * {@link DependencyUnavailableException} within microseconds.
+ *
+ * Retries wait a random time between 0 and {@code baseMs * 2^attempt}, capped at
+ * {@code maxMs} ("full jitter"), so clients that failed together do not come back
+ * together. Only retry calls that are safe to repeat.
+ *
+ * {@link #fromConfig} reads, under a key prefix such as {@code db}:
+ * <pre>
+ * .breaker.enabled        true
+ * .breaker.window         20 calls
+ * .breaker.minCalls       10
+ * .breaker.failureRate    0.5
+ * .breaker.openMs         5000
+ * .breaker.halfOpenCalls  2
+ * .bulkhead.maxConcurrent (given by the caller)
+ * .bulkhead.maxWaitMs     (given by the caller)
+ * .retry.attempts         2, including the first
+ * .retry.baseMs           50
+ * .retry.maxMs            1000
+ * </pre>
+ */
+public class Dependency {
+
+    /** A call that may throw the dependency's own checked exception. */
+    public interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    private static final Map<String, Dependency> ALL = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final CircuitBreaker breaker;
+    private final Bulkhead bulkhead;
+    private final int attempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * @param breaker opens on failures, or null for none
+     */
+    public Dependency(String name, CircuitBreaker breaker, Bulkhead bulkhead, int attempts, long baseDelayMillis,
+                      long maxDelayMillis) {
+        this.name = name;
+        this.breaker = breaker;
+        this.bulkhead = bulkhead;
+        this.attempts = Math.max(1, attempts);
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Creates the dependency from the keys under {@code prefix} and registers it for
+     * {@link #all()}, replacing any earlier one of the same name.
+     */
+    public static Dependency fromConfig(String name, String prefix, int maxConcurrent, long maxWaitMillis) {
+        CircuitBreaker breaker = AppConfig.getBoolean(prefix + ".breaker.enabled", true)
+                ? new CircuitBreaker(name,
+                        AppConfig.getInt(prefix + ".breaker.window", 20),
+                        AppConfig.getInt(prefix + ".breaker.minCalls", 10),
+                        Double.parseDouble(AppConfig.get(prefix + ".breaker.failureRate", "0.5")),
+                        AppConfig.getLong(prefix + ".breaker.openMs", 5_000),
+                        AppConfig.getInt(prefix + ".breaker.halfOpenCalls", 2))
+                : null;
+        Dependency dependency = new Dependency(name, breaker,
+                new Bulkhead(name, AppConfig.getInt(prefix + ".bulkhead.maxConcurrent", maxConcurrent),
+                        AppConfig.getLong(prefix + ".bulkhead.maxWaitMs", maxWaitMillis)),
+                AppConfig.getInt(prefix + ".retry.attempts", 2),
+                AppConfig.getLong(prefix + ".retry.baseMs", 50),
+                AppConfig.getLong(prefix + ".retry.maxMs", 1_000));
+        ALL.put(name, dependency);
+        return dependency;
+    }
+
+    /**
+     * @return the dependencies created by {@link #fromConfig}, for metrics
+     */
+    public static List<Dependency> all() {
+        List<Dependency> list = new ArrayList<>(ALL.values());
+        list.sort((a, b) -> a.name.compareTo(b.name));
+        return list;
+    }
+
+    /**
+     * Makes one guarded call. Any exception it throws counts as a failure.
+     * @throws DependencyUnavailableException if the call was refused
+     */
+    public <T, E extends Exception> T call(Call<T, E> call) throws E {
+        enter();
+        try {
+            T result = call.call();
+            succeeded();
+            return result;
+        } catch (Exception | Error e) {
+            failed();
+            throw e;
+        } finally {
+            bulkhead.exit();
+        }
+    }
+
+    /**
+     * Makes the call, repeating it after a jittered backoff while it fails with an
+     * exception {@code retryable} accepts and attempts remain. A refused call is not
+     * repeated.
+     */
+    public <T, E extends Exception> T callWithRetry(Call<T, E> call, Predicate<Exception> retryable) throws E {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return call(call);
+            } catch (DependencyUnavailableException e) {
+                throw e;
+            } catch (Exception e) {
+                if (attempt + 1 >= attempts || !retryable.test(e) || !sleep(backoffMillis(attempt))) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts one guarded asynchronous call. Exceptional completion counts as a failure.
+     */
+    public <T> CompletableFuture<T> callAsync(Supplier<CompletableFuture<T>> call) {
+        try {
+            enter();
+        } catch (DependencyUnavailableException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            failed();
+            bulkhead.exit();
+            return CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((result, error) -> {
+            if (error == null) {
+                succeeded();
+            } else {
+                failed();
+            }
+            bulkhead.exit();
+        });
+    }
+
+    /**
+     * Hedged asynchronous call: if the first attempt has not answered within
+     * {@code hedgeDelayMillis} a second is started alongside it, and so on up to
+     * {@code retry.attempts}; an attempt that fails is also followed by another after a
+     * jittered backoff. The first result {@code decisive} accepts wins. Otherwise, once
+     * every attempt has finished, the last result is returned, or the last failure if
+     * none completed normally.
+     * @param hedgeDelayMillis 0 to only retry failures
+     */
+    public <T> CompletableFuture<T> hedged(Supplier<CompletableFuture<T>> call, long hedgeDelayMillis,
+                                           Predicate<? super T> decisive) {
+        return new Hedge<>(call, hedgeDelayMillis, decisive).start();
+    }
+
+    private final class Hedge<T> {
+        final Supplier<CompletableFuture<T>> call;
+        final long hedgeDelayMillis;
+        final Predicate<? super T> decisive;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        int started;
+        int running;
+        boolean haveValue;
+        T lastValue;
+        Throwable lastError;
+
+        Hedge(Supplier<CompletableFuture<T>> call, long hedgeDelayMillis, Predicate<? super T> decisive) {
+            this.call = call;
+            this.hedgeDelayMillis = hedgeDelayMillis;
+            this.decisive = decisive;
+        }
+
+        CompletableFuture<T> start() {
+            launch();
+            return result;
+        }
+
+        private void launch() {
+            synchronized (this) {
+                if (result.isDone()) {
+                    return;
+                }
+                if (started >= attempts) {
+                    // A retry that lost the last attempt to a hedge
+                    if (running == 0) {
+                        settle();
+                    }
+                    return;
+                }
+                started++;
+                running++;
+            }
+            if (hedgeDelayMillis > 0) {
+                CompletableFuture.delayedExecutor(hedgeDelayMillis, TimeUnit.MILLISECONDS).execute(this::hedge);
+            }
+            callAsync(call).whenComplete(this::finished);
+        }
+
+        private void settle() {
+            if (haveValue) {
+                result.complete(lastValue);
+            } else {
+                result.completeExceptionally(lastError);
+            }
+        }
+
+        private void hedge() {
+            synchronized (this) {
+                if (running == 0) {
+                    return;
+                }
+            }
+            launch();
+        }
+
+        private void finished(T value, Throwable error) {
+            if (error == null && decisive.test(value)) {
+                result.complete(value);
+                return;
+            }
+            boolean retry;
+            synchronized (this) {
+                running--;
+                if (error == null) {
+                    haveValue = true;
+                    lastValue = value;
+                } else {
+                    lastError = error;
+                }
+                retry = error != null && started < attempts && DependencyUnavailableException.find(error) == null;
+                if (!retry && running == 0) {
+                    settle();
+                    return;
+                }
+            }
+            if (retry) {
+                CompletableFuture.delayedExecutor(backoffMillis(started - 1), TimeUnit.MILLISECONDS).execute(this::launch);
+            }
+        }
+    }
+
+    // The bulkhead first: a breaker permit taken for a call that is then not made would
+    // count as an outcome
+    private void enter() {
+        if (!bulkhead.tryEnter()) {
+            throw new DependencyUnavailableException(name, bulkhead.getMaxConcurrent() + " calls already in flight", 0);
+        }
+        if (breaker != null && !breaker.tryAcquire()) {
+            bulkhead.exit();
+            throw new DependencyUnavailableException(name, "circuit open", breaker.retryAfterMillis());
+        }
+    }
+
+    private void succeeded() {
+        if (breaker != null) {
+            breaker.onSuccess();
+        }
+    }
+
+    private void failed() {
+        if (breaker != null) {
+            breaker.onFailure();
+        }
+    }
+
+    /**
+     * @return a random delay before retry number {@code attempt + 1}
+     */
+    long backoffMillis(int attempt) {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 20));
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the breaker, or null when it is disabled
+     */
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    public Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+}
@@ -0,0 +1,42 @@
+package resilience;
+
+/**
+ * A call refused without being made, because the dependency's circuit is open or its
+ * bulkhead is full.
+ */
+public class DependencyUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String dependency;
+    private final long retryAfterMillis;
+
+    public DependencyUnavailableException(String dependency, String reason, long retryAfterMillis) {
+        super(dependency + " is unavailable: " + reason, null, false, false);
+        this.dependency = dependency;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public String getDependency() {
+        return dependency;
+    }
+
+    /**
+     * @return a hint for when to try again, 0 if unknown
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @return the exception among {@code error} and its causes, or null
+     */
+    public static DependencyUnavailableException find(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof DependencyUnavailableException e) {
+                return e;
+            }
+        }
+        return null;
+    }
+}